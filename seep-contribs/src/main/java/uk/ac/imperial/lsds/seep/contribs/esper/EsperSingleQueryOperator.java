@@ -182,7 +182,7 @@ public class EsperSingleQueryOperator implements StatelessOperator {
 		DataTuple outTuple = output.setValues(objects.toArray());
 		outTuple.getPayload().timestamp = System.currentTimeMillis();
 		
-		log.debug("At {}, sending output {}", outTuple.getPayload().timestamp, outTuple.getPayload().attrValues);
+		log.debug("At {}, sending output {}", outTuple.getPayload().timestamp, outTuple.getPayload());
 		
 		if (this.enableLoggingOfMatches) {
 			long cutOffTime = System.currentTimeMillis() - 1000*60*20;
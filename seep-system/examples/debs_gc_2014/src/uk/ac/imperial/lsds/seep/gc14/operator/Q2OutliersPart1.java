@@ -13,6 +13,7 @@ import java.util.List;
 import java.util.Map;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.FieldRef;
 import uk.ac.imperial.lsds.seep.gc14.util.StaticSensorNetworkStructure;
 import uk.ac.imperial.lsds.seep.operator.StatefulOperator;
 import uk.ac.imperial.lsds.seep.state.StateWrapper;
@@ -36,9 +37,25 @@ public class Q2OutliersPart1 implements StatefulOperator {
 	
 	int[][][] plugPointer = new int[numberHouses][maxIndexHouseholds][maxIndexPlugs];
 	
+	FieldRef<Long> idField;
+	FieldRef<Integer> propertyField;
+	FieldRef<Integer> timestampField;
+	FieldRef<Integer> houseIdField;
+	FieldRef<Integer> householdIdField;
+	FieldRef<Integer> plugIdField;
+	FieldRef<Float> valueField;
+	
 	@Override
 	public void setUp() {
 		
+		idField = api.getFieldRef("id");
+		propertyField = api.getFieldRef("property");
+		timestampField = api.getFieldRef("timestamp");
+		houseIdField = api.getFieldRef("house_id");
+		householdIdField = api.getFieldRef("household_id");
+		plugIdField = api.getFieldRef("plug_id");
+		valueField = api.getFieldRef("value");
+		
 		plugPointer = StaticSensorNetworkStructure.getInstance().getPlugPointer(numberHouses, 
 				maxIndexHouseholds, maxIndexPlugs);
 
@@ -72,21 +89,21 @@ public class Q2OutliersPart1 implements StatefulOperator {
 		/*
 		 *  ignore heart beats
 		 */
-		if (data.getLong("id") == -1)
+		if (data.getLong(idField) == -1)
 			return;
 		
 		/*
 		 *  ignore work measurements for the time being
 		 */
-		if (data.getInt("property") != 1)
+		if (data.getInt(propertyField) != 1)
 			return;
 
-		int timestamp = data.getInt("timestamp");
+		int timestamp = data.getInt(timestampField);
 //		System.out.println("ts0: "+timestamp);
-		int house = data.getInt("house_id");
-		int household = data.getInt("household_id");
-		int plug = data.getInt("plug_id");
-		float value = data.getFloat("value");
+		int house = data.getInt(houseIdField);
+		int household = data.getInt(householdIdField);
+		int plug = data.getInt(plugIdField);
+		float value = data.getFloat(valueField);
 		
 		int ppointer = plugPointer[house][household][plug];
 
@@ -0,0 +1,358 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.api.largestateimpls;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import uk.ac.imperial.lsds.seep.state.EmptyStateException;
+import uk.ac.imperial.lsds.seep.state.Incremental;
+import uk.ac.imperial.lsds.seep.state.LargeState;
+import uk.ac.imperial.lsds.seep.state.MalformedStateChunk;
+import uk.ac.imperial.lsds.seep.state.Mergeable;
+import uk.ac.imperial.lsds.seep.state.NullChunkWhileMerging;
+import uk.ac.imperial.lsds.seep.state.Snapshottable;
+import uk.ac.imperial.lsds.seep.state.State;
+import uk.ac.imperial.lsds.seep.state.Streamable;
+import uk.ac.imperial.lsds.seep.state.Versionable;
+import uk.ac.imperial.lsds.seep.state.annotations.GlobalStateAccess;
+import uk.ac.imperial.lsds.seep.state.annotations.ReadAccess;
+import uk.ac.imperial.lsds.seep.state.annotations.WriteAccess;
+
+/**
+ * Base of the SeepMaps with primitive keys. Subclasses keep the snapshot in an open addressing map of fastutil, so entries live in
+ * arrays of primitives instead of HashMap entries with boxed keys and values. Versioning works as in SeepMap: while in snapshot mode
+ * changes go to dirty structures that are reconciled with the snapshot afterwards, and only the snapshot is serialised.
+ *
+ * The snapshot, dirty structures, change tracking, deltas, chunks and merging are implemented here. Subclasses provide the typed
+ * accessors (get, put, remove...) and the few hooks that need the primitive types: copying entries and keys between their maps and
+ * sets, and putting or removing the boxed entries of chunks and deltas. Chunks and deltas are boxed anyway, so they are built here
+ * through the Map and Set interfaces.
+ * @author raulcf
+ *
+ * @param <K> the boxed type of the keys
+ * @param <M> the map of fastutil that keeps the entries, also used as partial state when merging
+ * @param <S> the set of fastutil that keeps keys
+ */
+public abstract class AbstractSeepPrimitiveMap<K, M extends Map<K, ?>, S extends Set<K>> implements Versionable, Snapshottable, Incremental,
+	Streamable, LargeState, Mergeable<M>, Serializable{
+
+	private static final long serialVersionUID = 1L;
+
+	protected M snapshot;
+	// Keep updates and deletes in different structures.
+	protected transient M dirtyUpdates;
+	protected transient S dirtyRemoves;
+
+	// Flag to indicate the structure is currently on snapshot mode
+	protected transient AtomicBoolean snapshotMode = new AtomicBoolean();
+	// The snapshot must be cleared when reconciling
+	protected transient boolean clearInVersion = false;
+	protected transient boolean clearedSinceCheckpoint = false;
+	// Mutex lock to do while reconciliating
+	private transient Semaphore mutex = new Semaphore(1);
+
+	// For internal use only
+	private transient Iterator<K> iterator = null;
+
+	// Keys changed since the last checkpoint, null until markCheckpoint is called for the first time
+	protected transient S changedKeys = null;
+	// Keys changed between the last two checkpoints, read by getDelta
+	private transient S checkpointChangedKeys = null;
+
+	/** newPartial and newKeySet must only create the structures, they are called before the subclass is initialised **/
+	protected AbstractSeepPrimitiveMap(M snapshot){
+		this.snapshot = snapshot;
+		dirtyUpdates = newPartial();
+		dirtyRemoves = newKeySet();
+	}
+
+	/** A copy has only the entries of the snapshot, and it is not in snapshot mode **/
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		in.defaultReadObject();
+		snapshotMode = new AtomicBoolean();
+		mutex = new Semaphore(1);
+		dirtyUpdates = newPartial();
+		dirtyRemoves = newKeySet();
+	}
+
+	/** Type specific hooks **/
+
+	/** Returns an empty set of keys **/
+	protected abstract S newKeySet();
+
+	/** Puts all entries of from in to **/
+	protected abstract void copyEntries(M from, M to);
+
+	/** Removes all keys from map **/
+	protected abstract void removeKeys(S keys, M map);
+
+	/** Adds all keys of from to keys, or removes them if add is false **/
+	protected abstract void copyKeys(M from, S keys, boolean add);
+
+	/** Puts a boxed entry in map **/
+	protected abstract void putBoxed(M map, Object key, Object value);
+
+	/** put of the typed accessors for a boxed entry, with the lock already held **/
+	protected abstract void putBoxedLocked(Object key, Object value);
+
+	/** remove of the typed accessors for a boxed key, with the lock already held **/
+	protected abstract void removeBoxedLocked(Object key);
+
+	/** Checks that chunk holds pairs of key and value, as written by streamSplitState **/
+	protected static void checkChunk(ArrayList<Object> chunk) throws NullChunkWhileMerging, MalformedStateChunk{
+		if(chunk == null){
+			throw new NullChunkWhileMerging("Received a null chunk");
+		}
+		int chunkSize = chunk.size();
+		if(chunkSize % 2 != 0 || chunkSize == 0){
+			throw new MalformedStateChunk("Does not contain an even number of object or size is 0. Size->"+chunkSize);
+		}
+	}
+
+	@GlobalStateAccess
+	@WriteAccess
+	public void clear(){
+		this.lock();
+		if(changedKeys != null){
+			changedKeys.clear();
+			clearedSinceCheckpoint = true;
+		}
+		if(snapshotMode.get()){
+			dirtyUpdates.clear();
+			dirtyRemoves.clear();
+			clearInVersion = true;
+		}
+		else{
+			snapshot.clear();
+		}
+		this.release();
+	}
+
+	@GlobalStateAccess
+	@ReadAccess
+	public boolean isEmpty(){
+		this.lock();
+		boolean isEmpty;
+		if(snapshotMode.get()){
+			isEmpty = dirtyUpdates.isEmpty() && (clearInVersion || snapshot.isEmpty());
+		}
+		else{
+			isEmpty = snapshot.isEmpty();
+		}
+		this.release();
+		return isEmpty;
+	}
+
+	/** Entries in the snapshot, which while in snapshot mode does not include the changes of the current version **/
+	@GlobalStateAccess
+	@ReadAccess
+	public int size(){
+		return snapshot.size();
+	}
+
+	/** Implement Streamable interface **/
+
+	@Override
+	public int getSize(){
+		return size();
+	}
+
+	@Override
+	public int getTotalNumberOfChunks(int chunkSize) throws EmptyStateException {
+		if(chunkSize == 0){
+			throw new IllegalArgumentException("chunkSize must be > 0");
+		}
+		if(size() == 0){
+			throw new EmptyStateException("State size is 0, this method should not be called in that state");
+		}
+		return (int) Math.ceil((double)size()/chunkSize);
+	}
+
+	@Override
+	public Iterator<?> getIterator() {
+		iterator = snapshot.keySet().iterator();
+		return iterator;
+	}
+
+	@Override
+	public ArrayList<Object> streamSplitState(int chunkSize) {
+		ArrayList<Object> chunk = new ArrayList<Object>(2 * chunkSize);
+		while(iterator.hasNext()){
+			K key = iterator.next();
+			chunk.add(key);
+			chunk.add(snapshot.get(key));
+			if(chunk.size() >= 2 * chunkSize){
+				return chunk;
+			}
+		}
+		return chunk.isEmpty() ? null : chunk;
+	}
+
+	@Override
+	public void reset(){
+		this.clear();
+		dirtyUpdates.clear();
+		dirtyRemoves.clear();
+		clearInVersion = false;
+	}
+
+	@Override
+	public void appendChunk(ArrayList<Object> chunk) throws NullChunkWhileMerging, MalformedStateChunk {
+		checkChunk(chunk);
+		this.lock();
+		for(int i = 0; i < chunk.size(); i += 2){
+			putBoxedLocked(chunk.get(i), chunk.get(i + 1));
+		}
+		this.release();
+	}
+
+	/**
+	 * Methods implementing the Mergeable interface
+	 */
+
+	@Override
+	public void appendChunk(M partial, ArrayList<Object> chunk) throws NullChunkWhileMerging, MalformedStateChunk {
+		checkChunk(chunk);
+		for(int i = 0; i < chunk.size(); i += 2){
+			putBoxed(partial, chunk.get(i), chunk.get(i + 1));
+		}
+	}
+
+	@Override
+	public void installPartials(List<M> partials){
+		this.lock();
+		for(M partial : partials){
+			if(changedKeys != null){
+				copyKeys(partial, changedKeys, true);
+			}
+			if(snapshotMode.get()){
+				copyEntries(partial, dirtyUpdates);
+				// Remove from dirtyRemoves to avoid inconsistencies when reconciling
+				copyKeys(partial, dirtyRemoves, false);
+			}
+			else{
+				copyEntries(partial, snapshot);
+			}
+		}
+		this.release();
+	}
+
+	/**
+	 * Methods implementing the Incremental interface
+	 */
+
+	@Override
+	public boolean markCheckpoint(){
+		this.lock();
+		boolean deltaAvailable = changedKeys != null && !clearedSinceCheckpoint;
+		checkpointChangedKeys = deltaAvailable ? changedKeys : null;
+		changedKeys = newKeySet();
+		clearedSinceCheckpoint = false;
+		this.release();
+		return deltaAvailable;
+	}
+
+	/** The snapshot is read without the lock, it is not modified while in snapshot mode or while the operator is stopped **/
+	@Override
+	public State getDelta(){
+		if(checkpointChangedKeys == null){
+			return null;
+		}
+		SeepMapDelta delta = new SeepMapDelta();
+		for(K key : checkpointChangedKeys){
+			if(snapshot.containsKey(key)){
+				delta.getUpdates().put(key, snapshot.get(key));
+			}
+			else{
+				delta.getRemoves().add(key);
+			}
+		}
+		checkpointChangedKeys = null;
+		return delta;
+	}
+
+	@Override
+	public void applyDelta(State delta){
+		SeepMapDelta d = (SeepMapDelta) delta;
+		this.lock();
+		for(Object key : d.getRemoves()){
+			removeBoxedLocked(key);
+		}
+		for(Map.Entry<Object, Object> entry : d.getUpdates().entrySet()){
+			putBoxedLocked(entry.getKey(), entry.getValue());
+		}
+		this.release();
+	}
+
+	/**
+	 * Methods implementing the Versionable interface
+	 */
+
+	/** Flag this structure as Snapshot, so that new updates and reads happen in a new version **/
+	@Override
+	public void setSnapshotMode(boolean newValue){
+		this.snapshotMode.set(newValue);
+	}
+
+	@Override
+	public boolean isSnapshotMode(){
+		return snapshotMode.get();
+	}
+
+	/** Reconcile changes kept in version with the original snapshot. **/
+	@Override
+	public void reconcile(){
+		this.lock();
+		if(clearInVersion){
+			snapshot.clear();
+		}
+		else{
+			removeKeys(dirtyRemoves, snapshot);
+		}
+		copyEntries(dirtyUpdates, snapshot);
+		clearInVersion = false;
+		dirtyRemoves.clear();
+		dirtyUpdates.clear();
+		snapshotMode.set(false);
+		this.release();
+	}
+
+	/** Request mutual exclusion access to the structure **/
+	@Override
+	public void lock(){
+		try {
+			this.mutex.acquire();
+		}
+		catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/** Release mutual exclusion access to the structure **/
+	@Override
+	public void release(){
+		this.mutex.release();
+	}
+
+	@Override
+	public Object getVersionableAndStreamableState() {
+		return this;
+	}
+}
@@ -0,0 +1,535 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.api.largestateimpls;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import uk.ac.imperial.lsds.seep.state.EmptyStateException;
+import uk.ac.imperial.lsds.seep.state.Incremental;
+import uk.ac.imperial.lsds.seep.state.LargeState;
+import uk.ac.imperial.lsds.seep.state.MalformedStateChunk;
+import uk.ac.imperial.lsds.seep.state.Mergeable;
+import uk.ac.imperial.lsds.seep.state.NullChunkWhileMerging;
+import uk.ac.imperial.lsds.seep.state.Snapshottable;
+import uk.ac.imperial.lsds.seep.state.State;
+import uk.ac.imperial.lsds.seep.state.Streamable;
+import uk.ac.imperial.lsds.seep.state.Versionable;
+import uk.ac.imperial.lsds.seep.state.annotations.GlobalStateAccess;
+import uk.ac.imperial.lsds.seep.state.annotations.OperatorState;
+import uk.ac.imperial.lsds.seep.state.annotations.PartitionStateAccess;
+import uk.ac.imperial.lsds.seep.state.annotations.PartitioningKey;
+import uk.ac.imperial.lsds.seep.state.annotations.ReadAccess;
+import uk.ac.imperial.lsds.seep.state.annotations.WriteAccess;
+
+/**
+ * ConcurrentSeepMap is a SeepMap for operators processed by several threads. Keys are split by hash in stripes, each one with its own
+ * snapshot, dirty structures and read-write lock, so threads working on different stripes do not wait for each other and reads of the
+ * same stripe go in parallel. The snapshot mode is switched stripe by stripe under their locks, and the snapshot of a stripe is not
+ * modified while in snapshot mode, so it is streamed without locking, and reconcile locks one stripe at a time.
+ *
+ * Operations on a single key behave as in SeepMap. Global operations, e.g. clear or size, go over the stripes one by one, they are
+ * consistent when the operator is stopped, as it is while checkpointing.
+ * @author raulcf
+ *
+ * @param <K>
+ * @param <V>
+ */
+@OperatorState(partitionable=true, threadSafe=true)
+public class ConcurrentSeepMap<K, V> implements Versionable, Snapshottable, Incremental, Streamable, Mergeable<HashMap<Object, Object>>, LargeState, Serializable{
+
+	private static final long serialVersionUID = 1L;
+
+	private final Stripe[] stripes;
+	private final int mask;
+
+	// Whether changed keys are being kept, false until markCheckpoint is called for the first time
+	private transient volatile boolean trackChanges = false;
+	// For internal use only
+	private transient SnapshotIterator iterator = null;
+
+	/**
+	 * A part of the map, with the same structures as a SeepMap. Only the snapshot is serialised
+	 */
+	private static class Stripe implements Serializable{
+
+		private static final long serialVersionUID = 1L;
+
+		private HashMap<Object, Object> snapshot = new HashMap<Object, Object>();
+		private transient HashMap<Object, Object> dirtyUpdates = new HashMap<Object, Object>();
+		private transient HashSet<Object> dirtyRemoves = new HashSet<Object>();
+		private transient boolean clearInVersion = false;
+		private transient boolean snapshotMode = false;
+		private transient ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		// Keys changed since the last checkpoint and between the last two
+		private transient HashSet<Object> changedKeys = null;
+		private transient HashSet<Object> checkpointChangedKeys = null;
+		private transient boolean clearedSinceCheckpoint = false;
+
+		private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+			in.defaultReadObject();
+			dirtyUpdates = new HashMap<Object, Object>();
+			dirtyRemoves = new HashSet<Object>();
+			lock = new ReentrantReadWriteLock();
+		}
+
+		private boolean containsKey(Object key){
+			if(snapshotMode){
+				if(dirtyUpdates.containsKey(key)){
+					return true;
+				}
+				else if(clearInVersion || dirtyRemoves.contains(key)){
+					return false;
+				}
+			}
+			return snapshot.containsKey(key);
+		}
+
+		private Object get(Object key){
+			if(snapshotMode){
+				if(dirtyUpdates.containsKey(key)){
+					return dirtyUpdates.get(key);
+				}
+				else if(clearInVersion || dirtyRemoves.contains(key)){
+					return null;
+				}
+			}
+			return snapshot.get(key);
+		}
+
+		private Object put(Object key, Object value){
+			if(changedKeys != null){
+				changedKeys.add(key);
+			}
+			if(snapshotMode){
+				Object toReturn = get(key);
+				dirtyUpdates.put(key, value);
+				// Remove from dirtyRemoves to avoid inconsistencies when reconciling
+				dirtyRemoves.remove(key);
+				return toReturn;
+			}
+			return snapshot.put(key, value);
+		}
+
+		private Object remove(Object key){
+			if(changedKeys != null){
+				changedKeys.add(key);
+			}
+			if(snapshotMode){
+				Object toReturn = get(key);
+				dirtyUpdates.remove(key);
+				dirtyRemoves.add(key);
+				return toReturn;
+			}
+			return snapshot.remove(key);
+		}
+
+		private void clear(){
+			if(changedKeys != null){
+				changedKeys.clear();
+				clearedSinceCheckpoint = true;
+			}
+			if(snapshotMode){
+				dirtyUpdates.clear();
+				dirtyRemoves.clear();
+				clearInVersion = true;
+			}
+			else{
+				snapshot.clear();
+			}
+		}
+
+		private void reconcile(){
+			if(clearInVersion){
+				snapshot.clear();
+			}
+			else{
+				for(Object key : dirtyRemoves){
+					snapshot.remove(key);
+				}
+			}
+			snapshot.putAll(dirtyUpdates);
+			clearInVersion = false;
+			dirtyRemoves.clear();
+			dirtyUpdates.clear();
+			snapshotMode = false;
+		}
+	}
+
+	public ConcurrentSeepMap(){
+		this(4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/** The number of stripes is rounded up to a power of two **/
+	public ConcurrentSeepMap(int numStripes){
+		int size = 1;
+		while(size < numStripes){
+			size <<= 1;
+		}
+		stripes = new Stripe[size];
+		for(int i = 0; i < size; i++){
+			stripes[i] = new Stripe();
+		}
+		mask = size - 1;
+	}
+
+	private Stripe stripeFor(Object key){
+		int h = key == null ? 0 : key.hashCode();
+		// Spread the high bits, as HashMap does, so that the stripe does not depend on the same bits as the bucket only
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return stripes[h & mask];
+	}
+
+	public int getNumberOfStripes(){
+		return stripes.length;
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@ReadAccess
+	public boolean containsKey(@PartitioningKey Object key){
+		Stripe stripe = stripeFor(key);
+		stripe.lock.readLock().lock();
+		try{
+			return stripe.containsKey(key);
+		}
+		finally{
+			stripe.lock.readLock().unlock();
+		}
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@ReadAccess
+	public Object get(@PartitioningKey Object key){
+		Stripe stripe = stripeFor(key);
+		stripe.lock.readLock().lock();
+		try{
+			return stripe.get(key);
+		}
+		finally{
+			stripe.lock.readLock().unlock();
+		}
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@WriteAccess
+	public Object put(@PartitioningKey Object key, Object value){
+		Stripe stripe = stripeFor(key);
+		stripe.lock.writeLock().lock();
+		try{
+			return stripe.put(key, value);
+		}
+		finally{
+			stripe.lock.writeLock().unlock();
+		}
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@WriteAccess
+	public Object remove(@PartitioningKey Object key){
+		Stripe stripe = stripeFor(key);
+		stripe.lock.writeLock().lock();
+		try{
+			return stripe.remove(key);
+		}
+		finally{
+			stripe.lock.writeLock().unlock();
+		}
+	}
+
+	@GlobalStateAccess
+	@WriteAccess
+	public void clear(){
+		for(Stripe stripe : stripes){
+			stripe.lock.writeLock().lock();
+			stripe.clear();
+			stripe.lock.writeLock().unlock();
+		}
+	}
+
+	@GlobalStateAccess
+	@ReadAccess
+	public boolean isEmpty(){
+		for(Stripe stripe : stripes){
+			stripe.lock.readLock().lock();
+			boolean empty = stripe.snapshotMode ? stripe.dirtyUpdates.isEmpty() && (stripe.clearInVersion || stripe.snapshot.isEmpty())
+					: stripe.snapshot.isEmpty();
+			stripe.lock.readLock().unlock();
+			if(!empty){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Entries in the snapshot, which while in snapshot mode does not include the changes of the current version **/
+	@GlobalStateAccess
+	@ReadAccess
+	public int size(){
+		int size = 0;
+		for(Stripe stripe : stripes){
+			size += stripe.snapshot.size();
+		}
+		return size;
+	}
+
+	/** Implement Streamable interface **/
+
+	@Override
+	public int getSize() {
+		return size();
+	}
+
+	@Override
+	public int getTotalNumberOfChunks(int chunkSize) throws EmptyStateException {
+		if(chunkSize == 0){
+			throw new IllegalArgumentException("chunkSize must be > 0");
+		}
+		if(this.size() == 0){
+			throw new EmptyStateException("State size is 0, this method should not be called in that state");
+		}
+		return (int) Math.ceil((double)this.size()/chunkSize);
+	}
+
+	/**
+	 * Goes over the entries of the snapshots of the stripes, one stripe after the other
+	 */
+	private class SnapshotIterator implements Iterator<Map.Entry<Object, Object>>{
+
+		private int next = 0;
+		private Iterator<Map.Entry<Object, Object>> current = null;
+
+		@Override
+		public boolean hasNext(){
+			while(current == null || !current.hasNext()){
+				if(next == stripes.length){
+					return false;
+				}
+				current = stripes[next++].snapshot.entrySet().iterator();
+			}
+			return true;
+		}
+
+		@Override
+		public Map.Entry<Object, Object> next(){
+			if(!hasNext()){
+				throw new NoSuchElementException();
+			}
+			return current.next();
+		}
+
+		@Override
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	@Override
+	public Iterator<?> getIterator() {
+		iterator = new SnapshotIterator();
+		return iterator;
+	}
+
+	@Override
+	public ArrayList<Object> streamSplitState(int chunkSize) {
+		ArrayList<Object> chunk = new ArrayList<Object>(2 * chunkSize);
+		while(iterator.hasNext()){
+			Map.Entry<Object, Object> entry = iterator.next();
+			chunk.add(entry.getKey());
+			chunk.add(entry.getValue());
+			if(chunk.size() >= 2 * chunkSize){
+				return chunk;
+			}
+		}
+		return chunk.isEmpty() ? null : chunk;
+	}
+
+	@Override
+	public void reset(){
+		for(Stripe stripe : stripes){
+			stripe.lock.writeLock().lock();
+			stripe.clear();
+			stripe.dirtyUpdates.clear();
+			stripe.dirtyRemoves.clear();
+			stripe.clearInVersion = false;
+			stripe.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void appendChunk(ArrayList<Object> chunk) throws NullChunkWhileMerging, MalformedStateChunk {
+		checkChunk(chunk);
+		for(int i = 0; i < chunk.size(); i += 2){
+			put(chunk.get(i), chunk.get(i + 1));
+		}
+	}
+
+	private static void checkChunk(ArrayList<Object> chunk) throws NullChunkWhileMerging, MalformedStateChunk{
+		if(chunk == null){
+			throw new NullChunkWhileMerging("Received a null chunk");
+		}
+		int chunkSize = chunk.size();
+		if(chunkSize % 2 != 0 || chunkSize == 0){
+			throw new MalformedStateChunk("Does not contain an even number of object or size is 0. Size->"+chunkSize);
+		}
+	}
+
+	@Override
+	public Object getFromBackup(Object key){
+		return stripeFor(key).snapshot.get(key);
+	}
+
+	/**
+	 * Methods implementing the Mergeable interface
+	 */
+
+	@Override
+	public HashMap<Object, Object> newPartial(){
+		return new HashMap<Object, Object>();
+	}
+
+	@Override
+	public void appendChunk(HashMap<Object, Object> partial, ArrayList<Object> chunk) throws NullChunkWhileMerging, MalformedStateChunk {
+		checkChunk(chunk);
+		for(int i = 0; i < chunk.size(); i += 2){
+			partial.put(chunk.get(i), chunk.get(i + 1));
+		}
+	}
+
+	@Override
+	public void installPartials(List<HashMap<Object, Object>> partials){
+		for(HashMap<Object, Object> partial : partials){
+			for(Map.Entry<Object, Object> entry : partial.entrySet()){
+				put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Methods implementing the Incremental interface
+	 */
+
+	@Override
+	public boolean markCheckpoint(){
+		lock();
+		boolean deltaAvailable = trackChanges;
+		for(Stripe stripe : stripes){
+			deltaAvailable &= !stripe.clearedSinceCheckpoint;
+		}
+		for(Stripe stripe : stripes){
+			stripe.checkpointChangedKeys = deltaAvailable ? stripe.changedKeys : null;
+			stripe.changedKeys = new HashSet<Object>();
+			stripe.clearedSinceCheckpoint = false;
+		}
+		trackChanges = true;
+		release();
+		return deltaAvailable;
+	}
+
+	/** The snapshots are read without the locks, they are not modified while in snapshot mode or while the operator is stopped **/
+	@Override
+	public State getDelta(){
+		if(stripes[0].checkpointChangedKeys == null){
+			return null;
+		}
+		SeepMapDelta delta = new SeepMapDelta();
+		for(Stripe stripe : stripes){
+			for(Object key : stripe.checkpointChangedKeys){
+				if(stripe.snapshot.containsKey(key)){
+					delta.getUpdates().put(key, stripe.snapshot.get(key));
+				}
+				else{
+					delta.getRemoves().add(key);
+				}
+			}
+			stripe.checkpointChangedKeys = null;
+		}
+		return delta;
+	}
+
+	@Override
+	public void applyDelta(State delta){
+		SeepMapDelta d = (SeepMapDelta) delta;
+		for(Object key : d.getRemoves()){
+			this.remove(key);
+		}
+		for(Map.Entry<Object, Object> entry : d.getUpdates().entrySet()){
+			this.put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Methods implementing the Versionable interface
+	 */
+
+	/** Switched under the lock of each stripe, so that no write to the snapshot of a stripe is in progress once it is in snapshot mode **/
+	@Override
+	public void setSnapshotMode(boolean newValue){
+		for(Stripe stripe : stripes){
+			stripe.lock.writeLock().lock();
+			stripe.snapshotMode = newValue;
+			stripe.lock.writeLock().unlock();
+		}
+	}
+
+	/** All stripes are switched together, outside of setSnapshotMode they are in the same mode **/
+	@Override
+	public boolean isSnapshotMode(){
+		Stripe stripe = stripes[0];
+		stripe.lock.readLock().lock();
+		try{
+			return stripe.snapshotMode;
+		}
+		finally{
+			stripe.lock.readLock().unlock();
+		}
+	}
+
+	/** Reconcile changes kept in version with the original snapshot, one stripe at a time **/
+	@Override
+	public void reconcile(){
+		for(Stripe stripe : stripes){
+			stripe.lock.writeLock().lock();
+			stripe.reconcile();
+			stripe.lock.writeLock().unlock();
+		}
+	}
+
+	/** Request mutual exclusion access to the whole structure, taking the stripes always in the same order **/
+	@Override
+	public void lock(){
+		for(Stripe stripe : stripes){
+			stripe.lock.writeLock().lock();
+		}
+	}
+
+	/** Release mutual exclusion access to the structure **/
+	@Override
+	public void release(){
+		for(int i = stripes.length - 1; i >= 0; i--){
+			stripes[i].lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public Object getVersionableAndStreamableState() {
+		return this;
+	}
+}
@@ -0,0 +1,989 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.api.largestateimpls;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.imperial.lsds.seep.comm.routing.Router;
+import uk.ac.imperial.lsds.seep.state.EmptyStateException;
+import uk.ac.imperial.lsds.seep.state.LargeState;
+import uk.ac.imperial.lsds.seep.state.MalformedStateChunk;
+import uk.ac.imperial.lsds.seep.state.NullChunkWhileMerging;
+import uk.ac.imperial.lsds.seep.state.Partitionable;
+import uk.ac.imperial.lsds.seep.state.Snapshottable;
+import uk.ac.imperial.lsds.seep.state.StateWrapper;
+import uk.ac.imperial.lsds.seep.state.Streamable;
+import uk.ac.imperial.lsds.seep.state.annotations.GlobalStateAccess;
+import uk.ac.imperial.lsds.seep.state.annotations.OperatorState;
+import uk.ac.imperial.lsds.seep.state.annotations.PartitionStateAccess;
+import uk.ac.imperial.lsds.seep.state.annotations.PartitioningKey;
+import uk.ac.imperial.lsds.seep.state.annotations.ReadAccess;
+import uk.ac.imperial.lsds.seep.state.annotations.WriteAccess;
+
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * OffHeapSeepMap keeps its entries out of the Java heap, so that its size is not bounded by the heap the GC can handle. Keys and
+ * values are serialised with Kryo and appended as records to segments of direct memory, or of files mapped in memory when a directory
+ * is given. The index is an open addressing table of record addresses and hashes in two primitive arrays, so the heap holds no object
+ * per entry. Keys are compared by their serialised bytes, as described in RecordCodec, and keys and values need a no-arg constructor,
+ * as Kryo requires.
+ *
+ * Updates append a new record and the old one is marked dead. Once the dead records of a segment reach COMPACT_RATIO of it, a
+ * background thread moves its live records to the last segment and frees it, one segment at a time with the lock held, so that neither
+ * put nor remove copy records and compacting never needs more than one extra segment. Versioning works as in SeepMap: while in snapshot
+ * mode changes go to dirty structures in the heap, the segments are not modified nor compacted, and streamSplitState reads the records
+ * sequentially from them. put and remove do not return the previous value, which would need to be deserialised.
+ *
+ * Segment files are deleted when their segment is freed or the map cleared. The first map of a JVM that uses a directory deletes the
+ * files left there by a previous run, and the ones of this run when the JVM exits.
+ * @author raulcf
+ *
+ * @param <K>
+ * @param <V>
+ */
+@OperatorState(partitionable=true)
+public class OffHeapSeepMap<K, V> implements Snapshottable, Streamable, Partitionable, LargeState, Serializable{
+
+	final private static Logger LOG = LoggerFactory.getLogger(OffHeapSeepMap.class);
+
+	private static final long serialVersionUID = 1L;
+
+	// A record is keyLength, valueLength, key and value. The keyLength of a dead record is negative
+	private static final int HEADER = 8;
+	private static final int INITIAL_INDEX_SIZE = 1024;
+	// Fraction of a segment taken by dead records that triggers its compaction
+	private static final double COMPACT_RATIO = 0.5;
+	private static final String FILE_PREFIX = "seep-state-";
+	private static final String FILE_SUFFIX = ".seg";
+
+	// Segments of all the maps are compacted by one background thread
+	private static final ExecutorService compactor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+		@Override
+		public Thread newThread(Runnable r){
+			Thread t = new Thread(r, "offHeapCompactionT");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	// Directories already cleaned by this JVM
+	private static final Set<File> cleanedDirs = new HashSet<File>();
+
+	private final int segmentSize;
+	// Segments are mapped from files in this directory, or allocated in direct memory when null
+	private final String directory;
+	private String keyAttribute = null;
+
+	// Segments and their files, null once they are compacted
+	private transient ArrayList<ByteBuffer> segments;
+	private transient ArrayList<File> files;
+	// Bytes of dead records in each segment
+	private transient int[] deadBytes;
+	// Indexes of compacted segments, reused by the next ones
+	private transient ArrayDeque<Integer> freeSegments;
+	// Segments waiting to be compacted
+	private transient BitSet toCompact;
+	private transient volatile boolean compactionScheduled;
+	// The segment that takes new records, and where the next record goes in it
+	private transient int tail;
+	private transient int writeOffset;
+	// Address of the record + 1, so that 0 is an empty slot, and hash of its key
+	private transient long[] slots;
+	private transient int[] hashes;
+	private transient int count;
+	private transient long liveBytes;
+
+	// Keep updates and deletes in different structures.
+	private transient HashMap<Object, Object> dirtyUpdates;
+	private transient HashSet<Object> dirtyRemoves;
+	private transient boolean clearInVersion;
+	// Flag to indicate the structure is currently on snapshot mode
+	private transient AtomicBoolean snapshotMode;
+	// Mutex lock to do while reconciliating
+	private transient Semaphore mutex;
+
+	// For internal use only
+	private transient RecordIterator iterator = null;
+
+	public OffHeapSeepMap(){
+		this(64 * 1024 * 1024, null);
+	}
+
+	public OffHeapSeepMap(int segmentSize){
+		this(segmentSize, null);
+	}
+
+	public OffHeapSeepMap(int segmentSize, String directory){
+		this.segmentSize = segmentSize;
+		this.directory = directory;
+		init();
+	}
+
+	/** Segments are allocated lazily, so that a state that is created in one node and sent to another does not allocate them twice **/
+	private void init(){
+		segments = new ArrayList<ByteBuffer>();
+		files = new ArrayList<File>();
+		deadBytes = new int[0];
+		freeSegments = new ArrayDeque<Integer>();
+		toCompact = new BitSet();
+		compactionScheduled = false;
+		tail = -1;
+		writeOffset = 0;
+		slots = new long[INITIAL_INDEX_SIZE];
+		hashes = new int[INITIAL_INDEX_SIZE];
+		count = 0;
+		liveBytes = 0;
+		dirtyUpdates = new HashMap<Object, Object>();
+		dirtyRemoves = new HashSet<Object>();
+		clearInVersion = false;
+		snapshotMode = new AtomicBoolean();
+		mutex = new Semaphore(1);
+		if(directory != null){
+			cleanDirectory(new File(directory));
+		}
+	}
+
+	/**
+	 * Only the live records of the segments are written, as the bytes they already are. In snapshot mode the segments are not modified,
+	 * otherwise the lock keeps the compaction away while they are read
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		boolean locked = !snapshotMode.get();
+		if(locked){
+			this.lock();
+		}
+		try{
+			out.defaultWriteObject();
+			out.writeInt(count);
+			RecordIterator records = new RecordIterator();
+			while(records.hasNext()){
+				long address = records.next();
+				byte[] key = readKey(address);
+				byte[] value = readValue(address);
+				out.writeInt(key.length);
+				out.write(key);
+				out.writeInt(value.length);
+				out.write(value);
+			}
+		}
+		finally{
+			if(locked){
+				this.release();
+			}
+		}
+	}
+
+	/** A copy has only the entries of the snapshot, and it is not in snapshot mode **/
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		in.defaultReadObject();
+		init();
+		int entries = in.readInt();
+		for(int i = 0; i < entries; i++){
+			byte[] key = new byte[in.readInt()];
+			in.readFully(key);
+			byte[] value = new byte[in.readInt()];
+			in.readFully(value);
+			storePut(key, key.length, RecordCodec.hash(key, key.length), value, value.length);
+		}
+	}
+
+	/**
+	 * Segments and records
+	 */
+
+	/** Allocates the segment that takes the new records, at the index of a compacted one if there is any **/
+	private void newTail(){
+		ByteBuffer segment;
+		File file = null;
+		if(directory == null){
+			segment = ByteBuffer.allocateDirect(segmentSize);
+		}
+		else{
+			try{
+				file = File.createTempFile(FILE_PREFIX, FILE_SUFFIX, new File(directory));
+				RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				try{
+					// The mapping stays valid once the channel is closed
+					segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+				}
+				finally{
+					raf.close();
+				}
+			}
+			catch(IOException e){
+				deleteFile(file);
+				throw new IllegalStateException("Cannot map a state segment in "+directory, e);
+			}
+		}
+		Integer free = freeSegments.poll();
+		if(free == null){
+			segments.add(segment);
+			files.add(file);
+			tail = segments.size() - 1;
+			if(tail >= deadBytes.length){
+				deadBytes = Arrays.copyOf(deadBytes, Math.max(8, 2 * deadBytes.length));
+			}
+		}
+		else{
+			tail = free;
+			segments.set(tail, segment);
+			files.set(tail, file);
+		}
+		deadBytes[tail] = 0;
+		writeOffset = 0;
+	}
+
+	/** Drops a segment whose records are all dead, and deletes its file **/
+	private void freeSegment(int index){
+		segments.set(index, null);
+		deleteFile(files.set(index, null));
+		deadBytes[index] = 0;
+		toCompact.clear(index);
+		freeSegments.add(index);
+	}
+
+	private void releaseSegments(){
+		for(File file : files){
+			deleteFile(file);
+		}
+		segments = new ArrayList<ByteBuffer>();
+		files = new ArrayList<File>();
+		deadBytes = new int[0];
+		freeSegments.clear();
+		toCompact.clear();
+		tail = -1;
+		writeOffset = 0;
+	}
+
+	private static void deleteFile(File file){
+		if(file != null && !file.delete()){
+			LOG.warn("-> Could not delete state segment {}", file);
+		}
+	}
+
+	/**
+	 * The first time a map of this JVM uses dir, deletes the segment files left there by a previous run, and the ones of this run when
+	 * the JVM exits
+	 */
+	private static void cleanDirectory(final File dir){
+		synchronized(cleanedDirs){
+			if(!cleanedDirs.add(dir.getAbsoluteFile())){
+				return;
+			}
+			deleteSegmentFiles(dir);
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+				@Override
+				public void run(){
+					deleteSegmentFiles(dir);
+				}
+			}, "offHeapCleanT"));
+		}
+	}
+
+	private static void deleteSegmentFiles(File dir){
+		File[] files = dir.listFiles();
+		if(files == null){
+			return;
+		}
+		for(File file : files){
+			String name = file.getName();
+			if(name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX)){
+				deleteFile(file);
+			}
+		}
+	}
+
+	private long append(byte[] key, int keyLength, byte[] value, int valueLength){
+		int size = HEADER + keyLength + valueLength;
+		if(size > segmentSize){
+			throw new IllegalArgumentException("Entry of "+size+" bytes does not fit in a segment of "+segmentSize+" bytes");
+		}
+		if(tail < 0){
+			newTail();
+		}
+		else if(writeOffset + size > segmentSize){
+			if(writeOffset + 4 <= segmentSize){
+				// A keyLength of 0 ends the records of a segment
+				segments.get(tail).putInt(writeOffset, 0);
+			}
+			int full = tail;
+			newTail();
+			checkCompaction(full);
+		}
+		ByteBuffer segment = segments.get(tail).duplicate();
+		segment.position(writeOffset);
+		segment.putInt(keyLength);
+		segment.putInt(valueLength);
+		segment.put(key, 0, keyLength);
+		segment.put(value, 0, valueLength);
+		long address = ((long)tail << 32) | writeOffset;
+		writeOffset += size;
+		liveBytes += size;
+		return address;
+	}
+
+	private ByteBuffer segmentOf(long address){
+		return segments.get((int)(address >>> 32));
+	}
+
+	private static int offsetOf(long address){
+		return (int)address;
+	}
+
+	private int recordSize(long address){
+		ByteBuffer segment = segmentOf(address);
+		int offset = offsetOf(address);
+		return HEADER + Math.abs(segment.getInt(offset)) + segment.getInt(offset + 4);
+	}
+
+	private void kill(long address){
+		ByteBuffer segment = segmentOf(address);
+		int offset = offsetOf(address);
+		segment.putInt(offset, -segment.getInt(offset));
+		int size = recordSize(address);
+		liveBytes -= size;
+		int index = (int)(address >>> 32);
+		deadBytes[index] += size;
+		checkCompaction(index);
+	}
+
+	private byte[] readKey(long address){
+		return readKey(segmentOf(address), offsetOf(address));
+	}
+
+	private byte[] readValue(long address){
+		return readValue(segmentOf(address), offsetOf(address));
+	}
+
+	private static byte[] readKey(ByteBuffer segment, int offset){
+		ByteBuffer record = segment.duplicate();
+		byte[] key = new byte[Math.abs(record.getInt(offset))];
+		record.position(offset + HEADER);
+		record.get(key);
+		return key;
+	}
+
+	private static byte[] readValue(ByteBuffer segment, int offset){
+		ByteBuffer record = segment.duplicate();
+		int keyLength = Math.abs(record.getInt(offset));
+		byte[] value = new byte[record.getInt(offset + 4)];
+		record.position(offset + HEADER + keyLength);
+		record.get(value);
+		return value;
+	}
+
+	private boolean keyEquals(long address, byte[] key, int keyLength){
+		ByteBuffer segment = segmentOf(address);
+		int offset = offsetOf(address);
+		if(segment.getInt(offset) != keyLength){
+			return false;
+		}
+		offset += HEADER;
+		for(int i = 0; i < keyLength; i++){
+			if(segment.get(offset + i) != key[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Whether there are no more records in the segment after offset **/
+	private boolean isEnd(int index, int offset){
+		if(segments.get(index) == null){
+			return true;
+		}
+		if(index == tail){
+			return offset >= writeOffset;
+		}
+		return offset + 4 > segmentSize || segments.get(index).getInt(offset) == 0;
+	}
+
+	/**
+	 * Goes over the live records of the segments in the order they were written, returning their addresses
+	 */
+	private class RecordIterator implements Iterator<Long>{
+
+		private int segment = 0;
+		private int offset = 0;
+
+		private boolean atEnd(){
+			return isEnd(segment, offset);
+		}
+
+		@Override
+		public boolean hasNext(){
+			while(segment < segments.size()){
+				if(atEnd()){
+					segment++;
+					offset = 0;
+				}
+				else if(segments.get(segment).getInt(offset) < 0){
+					offset += recordSize(((long)segment << 32) | offset);
+				}
+				else{
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public Long next(){
+			if(!hasNext()){
+				throw new NoSuchElementException();
+			}
+			long address = ((long)segment << 32) | offset;
+			offset += recordSize(address);
+			return address;
+		}
+
+		@Override
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Index, with linear probing
+	 */
+
+	/** The slot that holds the key, or the empty one where it would go **/
+	private int slotOf(byte[] key, int keyLength, int hash){
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		while(slots[slot] != 0){
+			if(hashes[slot] == hash && keyEquals(slots[slot] - 1, key, keyLength)){
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void grow(){
+		long[] oldSlots = slots;
+		int[] oldHashes = hashes;
+		slots = new long[oldSlots.length * 2];
+		hashes = new int[oldSlots.length * 2];
+		int mask = slots.length - 1;
+		for(int i = 0; i < oldSlots.length; i++){
+			if(oldSlots[i] != 0){
+				int slot = oldHashes[i] & mask;
+				while(slots[slot] != 0){
+					slot = (slot + 1) & mask;
+				}
+				slots[slot] = oldSlots[i];
+				hashes[slot] = oldHashes[i];
+			}
+		}
+	}
+
+	/** Empties a slot, moving back the entries after it that would not be found otherwise **/
+	private void deleteSlot(int slot){
+		int mask = slots.length - 1;
+		int hole = slot;
+		int next = slot;
+		slots[hole] = 0;
+		while(true){
+			next = (next + 1) & mask;
+			if(slots[next] == 0){
+				return;
+			}
+			int home = hashes[next] & mask;
+			boolean reachable = hole <= next ? (hole < home && home <= next) : (hole < home || home <= next);
+			if(!reachable){
+				slots[hole] = slots[next];
+				hashes[hole] = hashes[next];
+				slots[next] = 0;
+				hole = next;
+			}
+		}
+	}
+
+	/**
+	 * Operations on the segments, with the lock held or while they are not modified
+	 */
+
+	private void storePut(byte[] key, int keyLength, int hash, byte[] value, int valueLength){
+		int slot = slotOf(key, keyLength, hash);
+		long address = append(key, keyLength, value, valueLength);
+		if(slots[slot] != 0){
+			kill(slots[slot] - 1);
+		}
+		else{
+			hashes[slot] = hash;
+			count++;
+		}
+		slots[slot] = address + 1;
+		if(3 * count > 2 * slots.length){
+			grow();
+		}
+		scheduleCompaction();
+	}
+
+	private void storePut(Object key, Object value){
+		RecordCodec c = RecordCodec.get();
+		Output k = c.encode(c.key, key);
+		Output v = c.encode(c.value, value);
+		storePut(k.getBuffer(), k.position(), RecordCodec.hash(k.getBuffer(), k.position()), v.getBuffer(), v.position());
+	}
+
+	private long storeFind(Object key){
+		RecordCodec c = RecordCodec.get();
+		Output k = c.encode(c.key, key);
+		int slot = slotOf(k.getBuffer(), k.position(), RecordCodec.hash(k.getBuffer(), k.position()));
+		return slots[slot] - 1;
+	}
+
+	private Object storeGet(Object key){
+		long address = storeFind(key);
+		return address < 0 ? null : RecordCodec.get().decode(readValue(address));
+	}
+
+	private void storeRemove(Object key){
+		RecordCodec c = RecordCodec.get();
+		Output k = c.encode(c.key, key);
+		int slot = slotOf(k.getBuffer(), k.position(), RecordCodec.hash(k.getBuffer(), k.position()));
+		if(slots[slot] != 0){
+			kill(slots[slot] - 1);
+			deleteSlot(slot);
+			count--;
+			scheduleCompaction();
+		}
+	}
+
+	private void storeClear(){
+		releaseSegments();
+		Arrays.fill(slots, 0);
+		count = 0;
+		liveBytes = 0;
+	}
+
+	/**
+	 * Compaction. Segments are compacted by the background thread with the lock held, and never in snapshot mode
+	 */
+
+	/** Queues a full segment for compaction once its dead records reach COMPACT_RATIO of it **/
+	private void checkCompaction(int index){
+		if(index != tail && deadBytes[index] >= COMPACT_RATIO * segmentSize){
+			toCompact.set(index);
+		}
+	}
+
+	/** Hands the queued segments to the background thread. reconcile calls it again for those queued in snapshot mode **/
+	private void scheduleCompaction(){
+		if(compactionScheduled || toCompact.isEmpty() || snapshotMode.get()){
+			return;
+		}
+		compactionScheduled = true;
+		compactor.execute(new Runnable(){
+			@Override
+			public void run(){
+				compactSegments();
+			}
+		});
+	}
+
+	/** Compacts the queued segments, taking the lock for one segment at a time so that the operator is not stopped for long **/
+	private void compactSegments(){
+		boolean done = false;
+		while(!done){
+			this.lock();
+			try{
+				int index = toCompact.nextSetBit(0);
+				if(index < 0 || snapshotMode.get()){
+					done = true;
+				}
+				else{
+					toCompact.clear(index);
+					if(index != tail && segments.get(index) != null){
+						compactSegment(index);
+					}
+				}
+			}
+			catch(RuntimeException re){
+				LOG.error("-> While compacting a state segment: {}", re.toString());
+				done = true;
+			}
+			finally{
+				if(done){
+					compactionScheduled = false;
+				}
+				this.release();
+			}
+		}
+		synchronized(this){
+			notifyAll();
+		}
+	}
+
+	/** Moves the live records of a full segment to the tail and frees it **/
+	private void compactSegment(int index){
+		ByteBuffer segment = segments.get(index);
+		int offset = 0;
+		while(!isEnd(index, offset)){
+			int size = recordSize(((long)index << 32) | offset);
+			if(segment.getInt(offset) > 0){
+				byte[] key = readKey(segment, offset);
+				byte[] value = readValue(segment, offset);
+				int slot = slotOf(key, key.length, RecordCodec.hash(key, key.length));
+				// append counts the record again
+				liveBytes -= size;
+				slots[slot] = append(key, key.length, value, value.length) + 1;
+			}
+			offset += size;
+		}
+		freeSegment(index);
+	}
+
+	/** Waits until the background thread is done with the segments of this map **/
+	synchronized void awaitCompaction() throws InterruptedException{
+		while(compactionScheduled){
+			wait();
+		}
+	}
+
+	/** Segments currently allocated, for tests **/
+	int getNumberOfSegments(){
+		return segments.size() - freeSegments.size();
+	}
+
+	/**
+	 * Map operations
+	 */
+
+	@GlobalStateAccess
+	@WriteAccess
+	public void clear(){
+		this.lock();
+		if(snapshotMode.get()){
+			// Just reset all dirty structures and flag it so that the segments are cleared out when reconciling
+			dirtyUpdates.clear();
+			dirtyRemoves.clear();
+			clearInVersion = true;
+		}
+		else{
+			storeClear();
+		}
+		this.release();
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@ReadAccess
+	public boolean containsKey(@PartitioningKey Object key){
+		this.lock();
+		boolean containsKey;
+		if(snapshotMode.get() && dirtyUpdates.containsKey(key)){
+			containsKey = true;
+		}
+		else if(snapshotMode.get() && (clearInVersion || dirtyRemoves.contains(key))){
+			containsKey = false;
+		}
+		else{
+			containsKey = storeFind(key) >= 0;
+		}
+		this.release();
+		return containsKey;
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@ReadAccess
+	public Object get(@PartitioningKey Object key){
+		this.lock();
+		Object toReturn;
+		if(snapshotMode.get() && dirtyUpdates.containsKey(key)){
+			toReturn = dirtyUpdates.get(key);
+		}
+		else if(snapshotMode.get() && (clearInVersion || dirtyRemoves.contains(key))){
+			toReturn = null;
+		}
+		else{
+			toReturn = storeGet(key);
+		}
+		this.release();
+		return toReturn;
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@WriteAccess
+	public void put(@PartitioningKey Object key, Object value){
+		this.lock();
+		if(snapshotMode.get()){
+			dirtyUpdates.put(key, value);
+			// Remove from dirtyRemoves to avoid inconsistencies when reconciling
+			dirtyRemoves.remove(key);
+		}
+		else{
+			storePut(key, value);
+		}
+		this.release();
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@WriteAccess
+	public void remove(@PartitioningKey Object key){
+		this.lock();
+		if(snapshotMode.get()){
+			dirtyUpdates.remove(key);
+			dirtyRemoves.add(key);
+		}
+		else{
+			storeRemove(key);
+		}
+		this.release();
+	}
+
+	@GlobalStateAccess
+	@ReadAccess
+	public boolean isEmpty(){
+		this.lock();
+		boolean isEmpty;
+		if(snapshotMode.get()){
+			isEmpty = dirtyUpdates.isEmpty() && (clearInVersion || count == 0);
+		}
+		else{
+			isEmpty = count == 0;
+		}
+		this.release();
+		return isEmpty;
+	}
+
+	/** Entries in the segments, which while in snapshot mode does not include the changes of the current version **/
+	@GlobalStateAccess
+	@ReadAccess
+	public int size(){
+		return count;
+	}
+
+	/** Bytes of the segments used by live records, for monitoring **/
+	public long getLiveBytes(){
+		return liveBytes;
+	}
+
+	/** Implement Streamable interface **/
+
+	@Override
+	public int getSize() {
+		return size();
+	}
+
+	@Override
+	public int getTotalNumberOfChunks(int chunkSize) throws EmptyStateException {
+		if(chunkSize == 0){
+			throw new IllegalArgumentException("chunkSize must be > 0");
+		}
+		if(this.size() == 0){
+			throw new EmptyStateException("State size is 0, this method should not be called in that state");
+		}
+		return (int) Math.ceil((double)this.size()/chunkSize);
+	}
+
+	@Override
+	public Iterator<?> getIterator() {
+		iterator = new RecordIterator();
+		return iterator;
+	}
+
+	/** Records are read in the order they are in the segments, without going through the index **/
+	@Override
+	public ArrayList<Object> streamSplitState(int chunkSize) {
+		ArrayList<Object> chunk = new ArrayList<Object>(2 * chunkSize);
+		RecordCodec c = RecordCodec.get();
+		while(iterator.hasNext()){
+			long address = iterator.next();
+			chunk.add(c.decode(readKey(address)));
+			chunk.add(c.decode(readValue(address)));
+			if(chunk.size() >= 2 * chunkSize){
+				return chunk;
+			}
+		}
+		return chunk.isEmpty() ? null : chunk;
+	}
+
+	@Override
+	public void reset(){
+		this.lock();
+		storeClear();
+		dirtyUpdates.clear();
+		dirtyRemoves.clear();
+		clearInVersion = false;
+		this.release();
+	}
+
+	@Override
+	public void appendChunk(ArrayList<Object> chunk) throws NullChunkWhileMerging, MalformedStateChunk {
+		if(chunk == null){
+			throw new NullChunkWhileMerging("Received a null chunk");
+		}
+		int chunkSize = chunk.size();
+		if(chunkSize % 2 != 0 || chunkSize == 0){
+			throw new MalformedStateChunk("Does not contain an even number of object or size is 0. Size->"+chunkSize);
+		}
+		for(int i = 0; i < chunkSize; i += 2){
+			this.put(chunk.get(i), chunk.get(i + 1));
+		}
+	}
+
+	@Override
+	public Object getFromBackup(Object key){
+		this.lock();
+		Object value = storeGet(key);
+		this.release();
+		return value;
+	}
+
+	/**
+	 * Methods implementing the Partitionable interface
+	 */
+
+	@Override
+	public void setKeyAttribute(String keyAttribute){
+		this.keyAttribute = keyAttribute;
+	}
+
+	@Override
+	public String getKeyAttribute(){
+		return keyAttribute;
+	}
+
+	/**
+	 * Entries whose key hashes over key go to the new partition, as when splitting streamed state chunks. Values are copied as they are
+	 * in the segments, only keys are deserialised.
+	 */
+	@Override
+	public StateWrapper[] splitState(StateWrapper toSplit, int key){
+		OffHeapSeepMap<K, V> oldPartition = new OffHeapSeepMap<K, V>(segmentSize, directory);
+		OffHeapSeepMap<K, V> newPartition = new OffHeapSeepMap<K, V>(segmentSize, directory);
+		oldPartition.setKeyAttribute(keyAttribute);
+		newPartition.setKeyAttribute(keyAttribute);
+		RecordCodec c = RecordCodec.get();
+		this.lock();
+		RecordIterator records = new RecordIterator();
+		while(records.hasNext()){
+			long address = records.next();
+			byte[] k = readKey(address);
+			byte[] v = readValue(address);
+			Object o = c.decode(k);
+			int h;
+			if(o instanceof Integer){
+				h = Router.customHash((Integer)o);
+			}
+			else if(o instanceof String){
+				h = Router.customHash((String)o);
+			}
+			else{
+				h = Router.customHash(o.hashCode());
+			}
+			OffHeapSeepMap<K, V> partition = h > key ? newPartition : oldPartition;
+			partition.storePut(k, k.length, RecordCodec.hash(k, k.length), v, v.length);
+		}
+		this.release();
+		StateWrapper[] splitted = new StateWrapper[2];
+		splitted[0] = new StateWrapper(toSplit.getOwnerId(), toSplit.getCheckpointInterval(), oldPartition);
+		splitted[1] = new StateWrapper(toSplit.getOwnerId(), toSplit.getCheckpointInterval(), newPartition);
+		return splitted;
+	}
+
+	@Override
+	public void resetState(){
+		this.reset();
+	}
+
+	/**
+	 * Methods implementing the Versionable interface
+	 */
+
+	/**
+	 * Flag this structure as Snapshot, so that new updates and reads happen in a new version. The lock waits for the segment being
+	 * compacted, if any, as the segments are read without it in snapshot mode
+	 */
+	@Override
+	public void setSnapshotMode(boolean newValue){
+		this.lock();
+		this.snapshotMode.set(newValue);
+		this.release();
+	}
+	
+	@Override
+	public boolean isSnapshotMode(){
+		return snapshotMode.get();
+	}
+
+	/** Reconcile changes kept in version with the segments. **/
+	@Override
+	public void reconcile(){
+		this.lock();
+		if(clearInVersion){
+			storeClear();
+		}
+		else{
+			for(Object key : dirtyRemoves){
+				storeRemove(key);
+			}
+		}
+		for(Map.Entry<Object, Object> entry : dirtyUpdates.entrySet()){
+			storePut(entry.getKey(), entry.getValue());
+		}
+		clearInVersion = false;
+		dirtyRemoves.clear();
+		dirtyUpdates.clear();
+		snapshotMode.set(false);
+		scheduleCompaction();
+		this.release();
+	}
+
+	/** Request mutual exclusion access to the structure **/
+	@Override
+	public void lock(){
+		try {
+			this.mutex.acquire();
+		}
+		catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/** Release mutual exclusion access to the structure **/
+	@Override
+	public void release(){
+		this.mutex.release();
+	}
+
+	@Override
+	public Object getVersionableAndStreamableState() {
+		return this;
+	}
+}
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.api.largestateimpls;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Per thread Kryo encoding of the keys and values of the states that keep them as bytes out of the heap. Records are decoded in the
+ * thread that reads them, e.g. while streaming a checkpoint and processing at the same time. Keys are compared by their bytes, so they
+ * must serialise always to the same bytes, as Strings and numbers do.
+ * @author raulcf
+ *
+ */
+class RecordCodec {
+
+	private static final ThreadLocal<RecordCodec> codec = new ThreadLocal<RecordCodec>(){
+		@Override
+		protected RecordCodec initialValue(){
+			return new RecordCodec();
+		}
+	};
+
+	final Kryo kryo = new Kryo();
+	final Output key = new Output(64, -1);
+	final Output value = new Output(256, -1);
+	final Input input = new Input();
+
+	private RecordCodec(){
+		kryo.setReferences(false);
+	}
+
+	static RecordCodec get(){
+		return codec.get();
+	}
+
+	/** The bytes are those of output, up to its position, until it is used again **/
+	Output encode(Output output, Object o){
+		output.clear();
+		kryo.writeClassAndObject(output, o);
+		return output;
+	}
+
+	Object decode(byte[] bytes){
+		input.setBuffer(bytes);
+		return kryo.readClassAndObject(input);
+	}
+
+	static int hash(byte[] bytes, int length){
+		int h = 1;
+		for(int i = 0; i < length; i++){
+			h = 31 * h + bytes[i];
+		}
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h;
+	}
+}
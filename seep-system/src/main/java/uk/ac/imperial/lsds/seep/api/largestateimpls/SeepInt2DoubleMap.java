@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.api.largestateimpls;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+
+import uk.ac.imperial.lsds.seep.state.annotations.OperatorState;
+import uk.ac.imperial.lsds.seep.state.annotations.PartitionStateAccess;
+import uk.ac.imperial.lsds.seep.state.annotations.PartitioningKey;
+import uk.ac.imperial.lsds.seep.state.annotations.ReadAccess;
+import uk.ac.imperial.lsds.seep.state.annotations.WriteAccess;
+
+/**
+ * SeepMap from int to double, e.g. for sums or averages, on an Int2DoubleOpenHashMap. Missing keys read as 0. Chunks and deltas hold the entries
+ * boxed, as in SeepMap.
+ * @author raulcf
+ *
+ */
+@OperatorState(partitionable=true)
+public class SeepInt2DoubleMap extends AbstractSeepPrimitiveMap<Integer, Int2DoubleOpenHashMap, IntOpenHashSet>{
+
+	private static final long serialVersionUID = 1L;
+
+	public SeepInt2DoubleMap(){
+		super(new Int2DoubleOpenHashMap());
+	}
+
+	public SeepInt2DoubleMap(int expectedSize){
+		super(new Int2DoubleOpenHashMap(expectedSize));
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@ReadAccess
+	public boolean containsKey(@PartitioningKey int key){
+		this.lock();
+		boolean containsKey;
+		if(snapshotMode.get() && dirtyUpdates.containsKey(key)){
+			containsKey = true;
+		}
+		else if(snapshotMode.get() && (clearInVersion || dirtyRemoves.contains(key))){
+			containsKey = false;
+		}
+		else{
+			containsKey = snapshot.containsKey(key);
+		}
+		this.release();
+		return containsKey;
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@ReadAccess
+	public double get(@PartitioningKey int key){
+		this.lock();
+		double value = getLocked(key);
+		this.release();
+		return value;
+	}
+
+	private double getLocked(int key){
+		if(snapshotMode.get()){
+			// Return from recent updates
+			if(dirtyUpdates.containsKey(key)){
+				return dirtyUpdates.get(key);
+			}
+			// It's been specifically removed
+			else if(clearInVersion || dirtyRemoves.contains(key)){
+				return 0;
+			}
+		}
+		return snapshot.get(key);
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@WriteAccess
+	public double put(@PartitioningKey int key, double value){
+		this.lock();
+		double toReturn = putLocked(key, value);
+		this.release();
+		return toReturn;
+	}
+
+	/** Adds increment to the value of key, and returns the previous one **/
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@WriteAccess
+	public double addTo(@PartitioningKey int key, double increment){
+		this.lock();
+		double toReturn = getLocked(key);
+		putLocked(key, toReturn + increment);
+		this.release();
+		return toReturn;
+	}
+
+	/** put with the lock already held **/
+	private double putLocked(int key, double value){
+		if(changedKeys != null){
+			changedKeys.add(key);
+		}
+		if(snapshotMode.get()){
+			double toReturn = getLocked(key);
+			dirtyUpdates.put(key, value);
+			// Remove from dirtyRemoves to avoid inconsistencies when reconciling
+			dirtyRemoves.remove(key);
+			return toReturn;
+		}
+		return snapshot.put(key, value);
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@WriteAccess
+	public double remove(@PartitioningKey int key){
+		this.lock();
+		double oldValue = removeLocked(key);
+		this.release();
+		return oldValue;
+	}
+
+	/** remove with the lock already held **/
+	private double removeLocked(int key){
+		if(changedKeys != null){
+			changedKeys.add(key);
+		}
+		if(snapshotMode.get()){
+			double oldValue = getLocked(key);
+			dirtyUpdates.remove(key);
+			dirtyRemoves.add(key);
+			return oldValue;
+		}
+		return snapshot.remove(key);
+	}
+
+	@Override
+	public Object getFromBackup(Object key){
+		return snapshot.get(((Number)key).intValue());
+	}
+
+	@Override
+	public Int2DoubleOpenHashMap newPartial(){
+		return new Int2DoubleOpenHashMap();
+	}
+
+	/** Type specific hooks of AbstractSeepPrimitiveMap **/
+
+	@Override
+	protected IntOpenHashSet newKeySet(){
+		return new IntOpenHashSet();
+	}
+
+	@Override
+	protected void copyEntries(Int2DoubleOpenHashMap from, Int2DoubleOpenHashMap to){
+		IntIterator keys = from.keySet().iterator();
+		while(keys.hasNext()){
+			int key = keys.nextInt();
+			to.put(key, from.get(key));
+		}
+	}
+
+	@Override
+	protected void removeKeys(IntOpenHashSet keys, Int2DoubleOpenHashMap map){
+		IntIterator it = keys.iterator();
+		while(it.hasNext()){
+			map.remove(it.nextInt());
+		}
+	}
+
+	@Override
+	protected void copyKeys(Int2DoubleOpenHashMap from, IntOpenHashSet keys, boolean add){
+		IntIterator it = from.keySet().iterator();
+		while(it.hasNext()){
+			if(add){
+				keys.add(it.nextInt());
+			}
+			else{
+				keys.remove(it.nextInt());
+			}
+		}
+	}
+
+	@Override
+	protected void putBoxed(Int2DoubleOpenHashMap map, Object key, Object value){
+		map.put(((Number)key).intValue(), ((Number)value).doubleValue());
+	}
+
+	@Override
+	protected void putBoxedLocked(Object key, Object value){
+		putLocked(((Number)key).intValue(), ((Number)value).doubleValue());
+	}
+
+	@Override
+	protected void removeBoxedLocked(Object key){
+		removeLocked(((Number)key).intValue());
+	}
+}
@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.api.largestateimpls;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import uk.ac.imperial.lsds.seep.state.annotations.OperatorState;
+import uk.ac.imperial.lsds.seep.state.annotations.PartitionStateAccess;
+import uk.ac.imperial.lsds.seep.state.annotations.PartitioningKey;
+import uk.ac.imperial.lsds.seep.state.annotations.ReadAccess;
+import uk.ac.imperial.lsds.seep.state.annotations.WriteAccess;
+
+/**
+ * SeepMap from long to long, e.g. for counters keyed by ids or timestamps, on a Long2LongOpenHashMap. Missing keys read as 0. Chunks
+ * and deltas hold the entries boxed, as in SeepMap.
+ * @author raulcf
+ *
+ */
+@OperatorState(partitionable=true)
+public class SeepLong2LongMap extends AbstractSeepPrimitiveMap<Long, Long2LongOpenHashMap, LongOpenHashSet>{
+
+	private static final long serialVersionUID = 1L;
+
+	public SeepLong2LongMap(){
+		super(new Long2LongOpenHashMap());
+	}
+
+	public SeepLong2LongMap(int expectedSize){
+		super(new Long2LongOpenHashMap(expectedSize));
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@ReadAccess
+	public boolean containsKey(@PartitioningKey long key){
+		this.lock();
+		boolean containsKey;
+		if(snapshotMode.get() && dirtyUpdates.containsKey(key)){
+			containsKey = true;
+		}
+		else if(snapshotMode.get() && (clearInVersion || dirtyRemoves.contains(key))){
+			containsKey = false;
+		}
+		else{
+			containsKey = snapshot.containsKey(key);
+		}
+		this.release();
+		return containsKey;
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@ReadAccess
+	public long get(@PartitioningKey long key){
+		this.lock();
+		long value = getLocked(key);
+		this.release();
+		return value;
+	}
+
+	private long getLocked(long key){
+		if(snapshotMode.get()){
+			// Return from recent updates
+			if(dirtyUpdates.containsKey(key)){
+				return dirtyUpdates.get(key);
+			}
+			// It's been specifically removed
+			else if(clearInVersion || dirtyRemoves.contains(key)){
+				return 0;
+			}
+		}
+		return snapshot.get(key);
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@WriteAccess
+	public long put(@PartitioningKey long key, long value){
+		this.lock();
+		long toReturn = putLocked(key, value);
+		this.release();
+		return toReturn;
+	}
+
+	/** Adds increment to the value of key, and returns the previous one **/
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@WriteAccess
+	public long addTo(@PartitioningKey long key, long increment){
+		this.lock();
+		long toReturn = getLocked(key);
+		putLocked(key, toReturn + increment);
+		this.release();
+		return toReturn;
+	}
+
+	/** put with the lock already held **/
+	private long putLocked(long key, long value){
+		if(changedKeys != null){
+			changedKeys.add(key);
+		}
+		if(snapshotMode.get()){
+			long toReturn = getLocked(key);
+			dirtyUpdates.put(key, value);
+			// Remove from dirtyRemoves to avoid inconsistencies when reconciling
+			dirtyRemoves.remove(key);
+			return toReturn;
+		}
+		return snapshot.put(key, value);
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@WriteAccess
+	public long remove(@PartitioningKey long key){
+		this.lock();
+		long oldValue = removeLocked(key);
+		this.release();
+		return oldValue;
+	}
+
+	/** remove with the lock already held **/
+	private long removeLocked(long key){
+		if(changedKeys != null){
+			changedKeys.add(key);
+		}
+		if(snapshotMode.get()){
+			long oldValue = getLocked(key);
+			dirtyUpdates.remove(key);
+			dirtyRemoves.add(key);
+			return oldValue;
+		}
+		return snapshot.remove(key);
+	}
+
+	@Override
+	public Object getFromBackup(Object key){
+		return snapshot.get(((Number)key).longValue());
+	}
+
+	@Override
+	public Long2LongOpenHashMap newPartial(){
+		return new Long2LongOpenHashMap();
+	}
+
+	/** Type specific hooks of AbstractSeepPrimitiveMap **/
+
+	@Override
+	protected LongOpenHashSet newKeySet(){
+		return new LongOpenHashSet();
+	}
+
+	@Override
+	protected void copyEntries(Long2LongOpenHashMap from, Long2LongOpenHashMap to){
+		LongIterator keys = from.keySet().iterator();
+		while(keys.hasNext()){
+			long key = keys.nextLong();
+			to.put(key, from.get(key));
+		}
+	}
+
+	@Override
+	protected void removeKeys(LongOpenHashSet keys, Long2LongOpenHashMap map){
+		LongIterator it = keys.iterator();
+		while(it.hasNext()){
+			map.remove(it.nextLong());
+		}
+	}
+
+	@Override
+	protected void copyKeys(Long2LongOpenHashMap from, LongOpenHashSet keys, boolean add){
+		LongIterator it = from.keySet().iterator();
+		while(it.hasNext()){
+			if(add){
+				keys.add(it.nextLong());
+			}
+			else{
+				keys.remove(it.nextLong());
+			}
+		}
+	}
+
+	@Override
+	protected void putBoxed(Long2LongOpenHashMap map, Object key, Object value){
+		map.put(((Number)key).longValue(), ((Number)value).longValue());
+	}
+
+	@Override
+	protected void putBoxedLocked(Object key, Object value){
+		putLocked(((Number)key).longValue(), ((Number)value).longValue());
+	}
+
+	@Override
+	protected void removeBoxedLocked(Object key){
+		removeLocked(((Number)key).longValue());
+	}
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.api.largestateimpls;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import uk.ac.imperial.lsds.seep.state.annotations.OperatorState;
+import uk.ac.imperial.lsds.seep.state.annotations.PartitionStateAccess;
+import uk.ac.imperial.lsds.seep.state.annotations.PartitioningKey;
+import uk.ac.imperial.lsds.seep.state.annotations.ReadAccess;
+import uk.ac.imperial.lsds.seep.state.annotations.WriteAccess;
+
+/**
+ * SeepMap from long to objects, e.g. for aggregates keyed by ids or timestamps, on a Long2ObjectOpenHashMap. Missing keys read as null,
+ * as in SeepMap, whose chunks and deltas are also used.
+ * @author raulcf
+ *
+ */
+@OperatorState(partitionable=true)
+public class SeepLong2ObjectMap<V> extends AbstractSeepPrimitiveMap<Long, Long2ObjectOpenHashMap<V>, LongOpenHashSet>{
+
+	private static final long serialVersionUID = 1L;
+
+	public SeepLong2ObjectMap(){
+		super(new Long2ObjectOpenHashMap<V>());
+	}
+
+	public SeepLong2ObjectMap(int expectedSize){
+		super(new Long2ObjectOpenHashMap<V>(expectedSize));
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@ReadAccess
+	public boolean containsKey(@PartitioningKey long key){
+		this.lock();
+		boolean containsKey;
+		if(snapshotMode.get() && dirtyUpdates.containsKey(key)){
+			containsKey = true;
+		}
+		else if(snapshotMode.get() && (clearInVersion || dirtyRemoves.contains(key))){
+			containsKey = false;
+		}
+		else{
+			containsKey = snapshot.containsKey(key);
+		}
+		this.release();
+		return containsKey;
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@ReadAccess
+	public V get(@PartitioningKey long key){
+		this.lock();
+		V value = getLocked(key);
+		this.release();
+		return value;
+	}
+
+	private V getLocked(long key){
+		if(snapshotMode.get()){
+			// Return from recent updates
+			if(dirtyUpdates.containsKey(key)){
+				return dirtyUpdates.get(key);
+			}
+			// It's been specifically removed
+			else if(clearInVersion || dirtyRemoves.contains(key)){
+				return null;
+			}
+		}
+		return snapshot.get(key);
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@WriteAccess
+	public V put(@PartitioningKey long key, V value){
+		this.lock();
+		V toReturn = putLocked(key, value);
+		this.release();
+		return toReturn;
+	}
+
+	/** put with the lock already held **/
+	private V putLocked(long key, V value){
+		if(changedKeys != null){
+			changedKeys.add(key);
+		}
+		if(snapshotMode.get()){
+			V toReturn = getLocked(key);
+			dirtyUpdates.put(key, value);
+			// Remove from dirtyRemoves to avoid inconsistencies when reconciling
+			dirtyRemoves.remove(key);
+			return toReturn;
+		}
+		return snapshot.put(key, value);
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@WriteAccess
+	public V remove(@PartitioningKey long key){
+		this.lock();
+		V oldValue = removeLocked(key);
+		this.release();
+		return oldValue;
+	}
+
+	/** remove with the lock already held **/
+	private V removeLocked(long key){
+		if(changedKeys != null){
+			changedKeys.add(key);
+		}
+		if(snapshotMode.get()){
+			V oldValue = getLocked(key);
+			dirtyUpdates.remove(key);
+			dirtyRemoves.add(key);
+			return oldValue;
+		}
+		return snapshot.remove(key);
+	}
+
+	@Override
+	public Object getFromBackup(Object key){
+		return snapshot.get(((Number)key).longValue());
+	}
+
+	@Override
+	public Long2ObjectOpenHashMap<V> newPartial(){
+		return new Long2ObjectOpenHashMap<V>();
+	}
+
+	/** Type specific hooks of AbstractSeepPrimitiveMap **/
+
+	@Override
+	protected LongOpenHashSet newKeySet(){
+		return new LongOpenHashSet();
+	}
+
+	@Override
+	protected void copyEntries(Long2ObjectOpenHashMap<V> from, Long2ObjectOpenHashMap<V> to){
+		LongIterator keys = from.keySet().iterator();
+		while(keys.hasNext()){
+			long key = keys.nextLong();
+			to.put(key, from.get(key));
+		}
+	}
+
+	@Override
+	protected void removeKeys(LongOpenHashSet keys, Long2ObjectOpenHashMap<V> map){
+		LongIterator it = keys.iterator();
+		while(it.hasNext()){
+			map.remove(it.nextLong());
+		}
+	}
+
+	@Override
+	protected void copyKeys(Long2ObjectOpenHashMap<V> from, LongOpenHashSet keys, boolean add){
+		LongIterator it = from.keySet().iterator();
+		while(it.hasNext()){
+			if(add){
+				keys.add(it.nextLong());
+			}
+			else{
+				keys.remove(it.nextLong());
+			}
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	protected void putBoxed(Long2ObjectOpenHashMap<V> map, Object key, Object value){
+		map.put(((Number)key).longValue(), (V)value);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	protected void putBoxedLocked(Object key, Object value){
+		putLocked(((Number)key).longValue(), (V)value);
+	}
+
+	@Override
+	protected void removeBoxedLocked(Object key){
+		removeLocked(((Number)key).longValue());
+	}
+}
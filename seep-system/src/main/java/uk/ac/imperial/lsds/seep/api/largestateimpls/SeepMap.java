@@ -10,11 +10,20 @@
  ******************************************************************************/
 package uk.ac.imperial.lsds.seep.api.largestateimpls;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -23,9 +32,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import uk.ac.imperial.lsds.seep.state.EmptyStateException;
+import uk.ac.imperial.lsds.seep.state.Incremental;
 import uk.ac.imperial.lsds.seep.state.LargeState;
 import uk.ac.imperial.lsds.seep.state.MalformedStateChunk;
+import uk.ac.imperial.lsds.seep.state.Mergeable;
 import uk.ac.imperial.lsds.seep.state.NullChunkWhileMerging;
+import uk.ac.imperial.lsds.seep.state.Snapshottable;
+import uk.ac.imperial.lsds.seep.state.State;
 import uk.ac.imperial.lsds.seep.state.Streamable;
 import uk.ac.imperial.lsds.seep.state.Versionable;
 import uk.ac.imperial.lsds.seep.state.annotations.GlobalStateAccess;
@@ -37,30 +50,41 @@ import uk.ac.imperial.lsds.seep.state.annotations.WriteAccess;
 
 /**
  * SeepMap is an implementation of a standard java HashMap. It supports multi-versioning to enable lock-free operations and it
- * implements Streamable so that the system can handle it even when it grow large.
+ * implements Streamable so that the system can handle it even when it grow large. Only the snapshot is serialised, so it can be
+ * checkpointed while in snapshot mode without stopping the operator. Once checkpointed incrementally, it keeps the keys changed since
+ * the last checkpoint, so that only those are sent to the backup. Entries are kept in insertion order, so that the views of a version
+ * can resume by position once it is reconciled.
  * @author raulcf
  *
  * @param <K>
  * @param <V>
  */
 @OperatorState(partitionable=true)
-public class SeepMap<K, V> extends HashMap<Object, Object> implements Versionable, Streamable, LargeState{
+public class SeepMap<K, V> extends LinkedHashMap<Object, Object> implements Versionable, Snapshottable, Incremental, Streamable, Mergeable<HashMap<Object, Object>>, LargeState{
 	
 	final Logger LOG = LoggerFactory.getLogger(SeepMap.class);
 
 	private static final long serialVersionUID = 1L;
 	// Keep updates and deletes in different structures.
-	private HashMap<Object, Object> dirtyUpdates = new HashMap<Object, Object>();
-	private HashMap<Object, Object> dirtyRemoves = new HashMap<Object, Object>();
-	private boolean clearInVersion = false;
+	private transient HashMap<Object, Object> dirtyUpdates = new HashMap<Object, Object>();
+	private transient HashMap<Object, Object> dirtyRemoves = new HashMap<Object, Object>();
+	private transient boolean clearInVersion = false;
+	// Number of reconciles, read by the iterators of the views of a version to know that the version was folded in the snapshot
+	private transient int reconcileCount = 0;
 	
 	// Flag to indicate the structure is currently on snapshot mode
-	private AtomicBoolean snapshotMode = new AtomicBoolean();
+	private transient AtomicBoolean snapshotMode = new AtomicBoolean();
 	// Mutex lock to do while reconciliating
-	private Semaphore mutex = new Semaphore(1);
+	private transient Semaphore mutex = new Semaphore(1);
 	
 	// For internal use only
-	private Iterator<Object> iterator = null;
+	private transient Iterator<Object> iterator = null;
+	
+	// Keys changed since the last checkpoint, null until markCheckpoint is called for the first time
+	private transient HashSet<Object> changedKeys = null;
+	private transient boolean clearedSinceCheckpoint = false;
+	// Keys changed between the last two checkpoints, read by getDelta
+	private transient HashSet<Object> checkpointChangedKeys = null;
 	
 	public SeepMap(){
 		super();
@@ -70,15 +94,30 @@ public class SeepMap<K, V> extends HashMap<Object, Object> implements Versionabl
 		super(initialSize);
 	}
 	
+	/** A copy has only the entries of the snapshot, and it is not in snapshot mode **/
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		in.defaultReadObject();
+		dirtyUpdates = new HashMap<Object, Object>();
+		dirtyRemoves = new HashMap<Object, Object>();
+		snapshotMode = new AtomicBoolean();
+		mutex = new Semaphore(1);
+	}
+	
 	@GlobalStateAccess
 	@WriteAccess
 	public void clear(){
 		this.lock();
+		if(changedKeys != null){
+			changedKeys.clear();
+			clearedSinceCheckpoint = true;
+		}
 		if(snapshotMode.get()){
 			// Just reset all dirty structures and flag it so that snapshot is cleared out when reconciling
 			dirtyUpdates.clear();
 			dirtyRemoves.clear();
 			clearInVersion = true;
+			this.release();
+			return;
 		}
 		// Fallback to snapshot
 		super.clear();
@@ -149,6 +188,9 @@ public class SeepMap<K, V> extends HashMap<Object, Object> implements Versionabl
 	@WriteAccess
 	public Object remove(@PartitioningKey Object key){
 		this.lock();
+		if(changedKeys != null){
+			changedKeys.add(key);
+		}
 		Object oldValue;
 		if(snapshotMode.get()){
 			// Remove entry from dirtyUpdates
@@ -163,45 +205,221 @@ public class SeepMap<K, V> extends HashMap<Object, Object> implements Versionabl
 		return oldValue;
 	}
 	
+	/** In snapshot mode, a read-only view of the new version, that keeps going over the map after reconcile **/
 	@GlobalStateAccess
 	@ReadAccess
 	public Set<Map.Entry<Object,Object>> entrySet(){
 		this.lock();
-		if(snapshotMode.get()){
-			LOG.warn("NOT IMPLEMENTED");
-			System.exit(0);
-		}
-		Set<Map.Entry<Object,Object>> toReturn = super.entrySet();
+		Set<Map.Entry<Object,Object>> toReturn = snapshotMode.get() ? new VersionEntrySet() : super.entrySet();
 		this.release();
 		return toReturn;
 	}
 	
+	/** In snapshot mode, a read-only view of the new version, that keeps going over the map after reconcile **/
 	@GlobalStateAccess
 	@ReadAccess
 	public Set<Object> keySet(){
 		this.lock();
-		if(snapshotMode.get()){
-			LOG.warn("NOT IMPLEMENTED");
-			System.exit(0);
-		}
-		Set<Object> toReturn = super.keySet();
+		Set<Object> toReturn = snapshotMode.get() ? new VersionKeySet() : super.keySet();
 		this.release();
 		return toReturn;
 	}
 	
+	/** In snapshot mode, a read-only view of the new version, that keeps going over the map after reconcile **/
 	@GlobalStateAccess
 	@ReadAccess
 	public Collection<Object> values(){
 		this.lock();
-		if(snapshotMode.get()){
-			LOG.warn("NOT IMPLEMENTED");
-			System.exit(0);
-		}
-		Collection<Object> toReturn = super.values();
+		Collection<Object> toReturn = snapshotMode.get() ? new VersionValues() : super.values();
 		this.release();
 		return toReturn;
 	}
 	
+	/**
+	 * Goes over the new version without copying it: first the entries in dirtyUpdates, then those of the snapshot that have not been
+	 * updated, removed or cleared in this version. Each step holds the lock, so the operator can scan its state while it is being
+	 * checkpointed. reconcile runs on the checkpointing thread and may fold the version in the snapshot at any step. It replaces the
+	 * dirty structures instead of clearing them, so the iterator keeps going over the updates of its version. The reconciled snapshot is
+	 * the version, and as entries are in insertion order and the updates are filtered out, the entries of the old snapshot left are in the
+	 * same order: the iterator starts over it and skips as many of them as it had gone over. As with HashMap, the operator must not
+	 * modify the map while iterating.
+	 */
+	private class VersionIterator implements Iterator<Map.Entry<Object,Object>>{
+		
+		// The dirty structures of the version, not modified any more once it is reconciled
+		private final HashMap<Object, Object> versionUpdates;
+		private final HashMap<Object, Object> versionRemoves;
+		private final Iterator<Map.Entry<Object,Object>> updates;
+		private Iterator<Map.Entry<Object,Object>> snapshot;
+		// Reconciles when the iterator was created, and when it last started over the snapshot
+		private final int versionReconciles;
+		private int reconciles;
+		// Entries of the snapshot in the version gone over
+		private int position = 0;
+		private Map.Entry<Object,Object> next = null;
+		
+		VersionIterator(){
+			lock();
+			versionUpdates = dirtyUpdates;
+			versionRemoves = dirtyRemoves;
+			updates = versionUpdates.entrySet().iterator();
+			snapshot = SeepMap.super.entrySet().iterator();
+			versionReconciles = reconcileCount;
+			reconciles = reconcileCount;
+			release();
+			advance();
+		}
+		
+		/** Whether an entry of the snapshot is in the version. Once reconciled, versionUpdates are in the snapshot and the rest is gone **/
+		private boolean inVersion(Object key){
+			return !versionUpdates.containsKey(key) && !versionRemoves.containsKey(key);
+		}
+		
+		private void advance(){
+			lock();
+			if(reconciles != reconcileCount){
+				snapshot = SeepMap.super.entrySet().iterator();
+				for(int skipped = 0; skipped < position && snapshot.hasNext(); ){
+					if(inVersion(snapshot.next().getKey())){
+						skipped++;
+					}
+				}
+				reconciles = reconcileCount;
+			}
+			next = null;
+			if(updates.hasNext()){
+				next = new AbstractMap.SimpleImmutableEntry<Object,Object>(updates.next());
+			}
+			// Once reconciled, a clear leaves only the updates in the snapshot, which are filtered out
+			boolean cleared = reconciles == versionReconciles && clearInVersion;
+			while(next == null && !cleared && snapshot.hasNext()){
+				Map.Entry<Object,Object> entry = snapshot.next();
+				if(inVersion(entry.getKey())){
+					next = new AbstractMap.SimpleImmutableEntry<Object,Object>(entry);
+					position++;
+				}
+			}
+			release();
+		}
+		
+		@Override
+		public boolean hasNext(){
+			return next != null;
+		}
+		
+		@Override
+		public Map.Entry<Object,Object> next(){
+			if(next == null){
+				throw new NoSuchElementException();
+			}
+			Map.Entry<Object,Object> toReturn = next;
+			advance();
+			return toReturn;
+		}
+		
+		@Override
+		public void remove(){
+			throw new UnsupportedOperationException("Views of SeepMap in snapshot mode are read-only");
+		}
+	}
+	
+	/** Entries in the new version. Updates and removes are disjoint, so only those of the dirty structures need to be checked **/
+	private int versionSize(){
+		this.lock();
+		int size = dirtyUpdates.size();
+		if(!clearInVersion){
+			size += super.size();
+			for(Object key : dirtyUpdates.keySet()){
+				if(super.containsKey(key)){
+					size--;
+				}
+			}
+			for(Object key : dirtyRemoves.keySet()){
+				if(super.containsKey(key)){
+					size--;
+				}
+			}
+		}
+		this.release();
+		return size;
+	}
+	
+	private class VersionEntrySet extends AbstractSet<Map.Entry<Object,Object>>{
+		
+		@Override
+		public Iterator<Map.Entry<Object,Object>> iterator(){
+			return new VersionIterator();
+		}
+		
+		@Override
+		public int size(){
+			return versionSize();
+		}
+	}
+	
+	private class VersionKeySet extends AbstractSet<Object>{
+		
+		@Override
+		public Iterator<Object> iterator(){
+			final VersionIterator entries = new VersionIterator();
+			return new Iterator<Object>(){
+				@Override
+				public boolean hasNext(){
+					return entries.hasNext();
+				}
+				
+				@Override
+				public Object next(){
+					return entries.next().getKey();
+				}
+				
+				@Override
+				public void remove(){
+					entries.remove();
+				}
+			};
+		}
+		
+		@Override
+		public boolean contains(Object key){
+			return SeepMap.this.containsKey(key);
+		}
+		
+		@Override
+		public int size(){
+			return versionSize();
+		}
+	}
+	
+	private class VersionValues extends AbstractCollection<Object>{
+		
+		@Override
+		public Iterator<Object> iterator(){
+			final VersionIterator entries = new VersionIterator();
+			return new Iterator<Object>(){
+				@Override
+				public boolean hasNext(){
+					return entries.hasNext();
+				}
+				
+				@Override
+				public Object next(){
+					return entries.next().getValue();
+				}
+				
+				@Override
+				public void remove(){
+					entries.remove();
+				}
+			};
+		}
+		
+		@Override
+		public int size(){
+			return versionSize();
+		}
+	}
+	
 	@GlobalStateAccess
 	@ReadAccess
 	public int size(){
@@ -234,18 +452,25 @@ public class SeepMap<K, V> extends HashMap<Object, Object> implements Versionabl
 	@WriteAccess
 	public Object put(@PartitioningKey Object key, Object value){
 		this.lock();
+		Object toReturn = putLocked(key, value);
+		this.release();
+		return toReturn;
+	}
+	
+	/** put with the lock already held **/
+	private Object putLocked(Object key, Object value){
+		if(changedKeys != null){
+			changedKeys.add(key);
+		}
 		if(snapshotMode.get()){
 			// Update value
 			Object toReturn = dirtyUpdates.put(key, value);
 			// Remove from dirtyRemoves to avoid inconsistencies when reconciling
 			dirtyRemoves.remove(key);
-			this.release();
 			return toReturn;
 		}
 		// or fall back to the snapshot
-		Object toReturn = super.put(key, value);
-		this.release();
-		return toReturn;
+		return super.put(key, value);
 	}
 
 	/** Implement Streamable interface **/
@@ -323,11 +548,169 @@ public class SeepMap<K, V> extends HashMap<Object, Object> implements Versionabl
 		}
 	}
 	
+	/**
+	 * Methods implementing the Mergeable interface
+	 */
+	
+	@Override
+	public HashMap<Object, Object> newPartial(){
+		return new HashMap<Object, Object>();
+	}
+	
+	@Override
+	public void appendChunk(HashMap<Object, Object> partial, ArrayList<Object> chunk) throws NullChunkWhileMerging, MalformedStateChunk {
+		if(chunk == null){
+			throw new NullChunkWhileMerging("Received a null chunk");
+		}
+		int chunkSize = chunk.size();
+		if(chunkSize % 2 != 0 || chunkSize == 0){
+			throw new MalformedStateChunk("Does not contain an even number of object or size is 0. Size->"+chunkSize);
+		}
+		for(int i = 0; i < chunkSize; i += 2){
+			partial.put(chunk.get(i), chunk.get(i + 1));
+		}
+	}
+	
+	/**
+	 * The entries of all the partials are added with a single putAll, so the table is sized once for all of them. Each partial is
+	 * dropped from the list as soon as its entries are added, so the entries are not held twice until the end
+	 */
+	@Override
+	public void installPartials(final List<HashMap<Object, Object>> partials){
+		this.lock();
+		int total = 0;
+		for(HashMap<Object, Object> partial : partials){
+			total += partial.size();
+			if(changedKeys != null){
+				changedKeys.addAll(partial.keySet());
+			}
+		}
+		if(snapshotMode.get()){
+			// Updates go to the new version
+			for(HashMap<Object, Object> partial : partials){
+				for(Map.Entry<Object, Object> entry : partial.entrySet()){
+					putLocked(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		else{
+			super.putAll(new PartialsView(partials, total));
+		}
+		this.release();
+	}
+	
+	/** All the partials as one map, that releases each one once its entries have been iterated **/
+	private static class PartialsView extends AbstractMap<Object, Object>{
+		
+		private final List<HashMap<Object, Object>> partials;
+		private final int size;
+		
+		PartialsView(List<HashMap<Object, Object>> partials, int size){
+			this.partials = partials;
+			this.size = size;
+		}
+		
+		@Override
+		public int size(){
+			return size;
+		}
+		
+		@Override
+		public Set<Map.Entry<Object, Object>> entrySet(){
+			return new AbstractSet<Map.Entry<Object, Object>>(){
+				@Override
+				public int size(){
+					return size;
+				}
+				
+				@Override
+				public Iterator<Map.Entry<Object, Object>> iterator(){
+					return new Iterator<Map.Entry<Object, Object>>(){
+						private int next = 0;
+						private Iterator<Map.Entry<Object, Object>> current = null;
+						
+						@Override
+						public boolean hasNext(){
+							while(current == null || !current.hasNext()){
+								if(next > 0 && partials.get(next - 1) != null){
+									partials.set(next - 1, null);
+								}
+								if(next >= partials.size()){
+									return false;
+								}
+								current = partials.get(next++).entrySet().iterator();
+							}
+							return true;
+						}
+						
+						@Override
+						public Map.Entry<Object, Object> next(){
+							if(!hasNext()){
+								throw new NoSuchElementException();
+							}
+							return current.next();
+						}
+						
+						@Override
+						public void remove(){
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+			};
+		}
+	}
+	
 	@Override
 	public Object getFromBackup(Object key){
 		return super.get(key);
 	}
 	
+	/**
+	 * Methods implementing the Incremental interface
+	 */
+	
+	@Override
+	public boolean markCheckpoint(){
+		this.lock();
+		boolean deltaAvailable = changedKeys != null && !clearedSinceCheckpoint;
+		checkpointChangedKeys = deltaAvailable ? changedKeys : null;
+		changedKeys = new HashSet<Object>();
+		clearedSinceCheckpoint = false;
+		this.release();
+		return deltaAvailable;
+	}
+	
+	/** The snapshot is read without the lock, it is not modified while in snapshot mode or while the operator is stopped **/
+	@Override
+	public State getDelta(){
+		if(checkpointChangedKeys == null){
+			return null;
+		}
+		SeepMapDelta delta = new SeepMapDelta();
+		for(Object key : checkpointChangedKeys){
+			if(super.containsKey(key)){
+				delta.getUpdates().put(key, super.get(key));
+			}
+			else{
+				delta.getRemoves().add(key);
+			}
+		}
+		checkpointChangedKeys = null;
+		return delta;
+	}
+	
+	@Override
+	public void applyDelta(State delta){
+		SeepMapDelta d = (SeepMapDelta) delta;
+		for(Object key : d.getRemoves()){
+			this.remove(key);
+		}
+		for(Map.Entry<Object, Object> entry : d.getUpdates().entrySet()){
+			this.put(entry.getKey(), entry.getValue());
+		}
+	}
+	
 	/**
 	 * Methods implementing the Versionable interface
 	 */
@@ -338,6 +721,11 @@ public class SeepMap<K, V> extends HashMap<Object, Object> implements Versionabl
 		this.snapshotMode.set(newValue);
 	}
 	
+	@Override
+	public boolean isSnapshotMode(){
+		return snapshotMode.get();
+	}
+	
 	/** Reconcile changes kept in version with the original snapshot. **/
 	@Override
 	public synchronized void reconcile(){
@@ -357,10 +745,11 @@ public class SeepMap<K, V> extends HashMap<Object, Object> implements Versionabl
 		for(Map.Entry<Object, Object> entry : dirtyUpdates.entrySet()){
 			super.put(entry.getKey(), entry.getValue());
 		}
-		//We reset the structures used during the versioning
+		//We reset the structures used during the versioning. They are replaced, as the iterators of the version may still read them
 		clearInVersion = false;
-		dirtyRemoves.clear();
-		dirtyUpdates.clear();
+		dirtyRemoves = new HashMap<Object, Object>();
+		dirtyUpdates = new HashMap<Object, Object>();
+		reconcileCount++;
 		// We get out of snapshotMode
 		snapshotMode.set(false);
 		this.release();
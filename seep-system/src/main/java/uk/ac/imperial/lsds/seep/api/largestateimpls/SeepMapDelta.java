@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.api.largestateimpls;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import uk.ac.imperial.lsds.seep.state.State;
+
+/**
+ * SeepMapDelta holds the entries of a SeepMap updated and removed between two checkpoints.
+ * @author raulcf
+ *
+ */
+public class SeepMapDelta implements State, Serializable{
+
+	private static final long serialVersionUID = 1L;
+
+	private HashMap<Object, Object> updates = new HashMap<Object, Object>();
+	private ArrayList<Object> removes = new ArrayList<Object>();
+	
+	public SeepMapDelta(){}
+	
+	public HashMap<Object, Object> getUpdates(){
+		return updates;
+	}
+	
+	public ArrayList<Object> getRemoves(){
+		return removes;
+	}
+	
+	public int size(){
+		return updates.size() + removes.size();
+	}
+}
@@ -13,15 +13,17 @@ package uk.ac.imperial.lsds.seep.api.largestateimpls;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import uk.ac.imperial.lsds.seep.state.LargeState;
+import uk.ac.imperial.lsds.seep.state.Mergeable;
 import uk.ac.imperial.lsds.seep.state.Streamable;
 import uk.ac.imperial.lsds.seep.state.Versionable;
 
-public class SeepMatrix extends Matrix implements Versionable, Streamable, LargeState{
+public class SeepMatrix extends Matrix implements Versionable, Streamable, Mergeable<Matrix>, LargeState{
 
 	private static final long serialVersionUID = 1L;
 	
@@ -236,6 +238,35 @@ if(row == null){
 		}
 	}
 
+	/** Each partial keeps the indexes of its own rows, that are shifted when the rows are installed **/
+	@Override
+	public Matrix newPartial() {
+		return new Matrix();
+	}
+
+	@Override
+	public void appendChunk(Matrix partial, ArrayList<Object> chunk) {
+		for(int i = 0; i < chunk.size(); i++){
+			int rowId = (Integer)chunk.get(i);
+			i++;
+			ArrayList<Component> row = (ArrayList<Component>)chunk.get(i);
+			partial.rowIds.put(rowId, partial.rows.size());
+			partial.rows.add(row);
+		}
+	}
+
+	@Override
+	public void installPartials(List<Matrix> partials) {
+		for(Matrix partial : partials){
+			int offset = this.rows.size();
+			this.rows.addAll(partial.rows);
+			for(Map.Entry<Integer, Integer> entry : partial.rowIds.entrySet()){
+				this.rowIds.put(entry.getKey(), entry.getValue() + offset);
+			}
+		}
+		this.rowSize = rows.size();
+	}
+
 	@Override
 	public Object getFromBackup(Object key) {
 		int idx = this.rowIds.get(key);
@@ -0,0 +1,1324 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.api.largestateimpls;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.imperial.lsds.seep.state.EmptyStateException;
+import uk.ac.imperial.lsds.seep.state.LargeState;
+import uk.ac.imperial.lsds.seep.state.MalformedStateChunk;
+import uk.ac.imperial.lsds.seep.state.NullChunkWhileMerging;
+import uk.ac.imperial.lsds.seep.state.Snapshottable;
+import uk.ac.imperial.lsds.seep.state.Streamable;
+import uk.ac.imperial.lsds.seep.state.annotations.GlobalStateAccess;
+import uk.ac.imperial.lsds.seep.state.annotations.OperatorState;
+import uk.ac.imperial.lsds.seep.state.annotations.PartitionStateAccess;
+import uk.ac.imperial.lsds.seep.state.annotations.PartitioningKey;
+import uk.ac.imperial.lsds.seep.state.annotations.ReadAccess;
+import uk.ac.imperial.lsds.seep.state.annotations.WriteAccess;
+
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * SpillableSeepMap is a SeepMap that does not need to fit in memory. A bounded number of hot entries is kept in the heap, and when it
+ * is full a batch of them is chosen with the CLOCK algorithm and the modified ones are spilled to disk, in a new run. Entries loaded from
+ * disk keep the bytes they were read from, so that a value modified in place, without a put, is found by encoding it again when evicted. A run is an
+ * immutable file with the records sorted by the hash of their key, with a sparse index of the file and a bloom filter in memory, so that
+ * looking for a key that is not in a run does not read the disk. Runs are looked up from the newest, and removes of spilled entries are
+ * written as tombstones. Once there are too many runs they are merged in the background into one, dropping overwritten records.
+ *
+ * Versioning works as in SeepMap: while in snapshot mode changes go to dirty structures in the heap, and the hot entries and runs are
+ * not modified, entries read from disk are not cached, and runs are not replaced by compaction. streamSplitState streams the hot
+ * entries and then merges the runs, so the entries are not loaded in memory. Keys are compared by their serialised bytes, as described
+ * in RecordCodec.
+ *
+ * Run files are deleted once merged or when the map is cleared, but not while a compaction or a stream is still reading them: those pin
+ * the runs they read, and the last one to unpin a dropped run deletes it. A compaction that started before a clear is discarded. The
+ * first map of a JVM that uses a directory deletes the runs left there by a previous run, and the ones of this run when the JVM exits.
+ * Maps without a directory share a temporary one per JVM.
+ * @author raulcf
+ *
+ * @param <K>
+ * @param <V>
+ */
+@OperatorState(partitionable=true)
+public class SpillableSeepMap<K, V> implements Snapshottable, Streamable, LargeState, Serializable{
+
+	final private static Logger LOG = LoggerFactory.getLogger(SpillableSeepMap.class);
+
+	private static final long serialVersionUID = 1L;
+
+	// Runs that trigger a compaction
+	private static final int MAX_RUNS = 8;
+	// Records between entries of the sparse index of a run
+	private static final int INDEX_INTERVAL = 32;
+	private static final byte[] TOMBSTONE = new byte[0];
+	private static final String RUN_PREFIX = "seep-spill-";
+	private static final String RUN_SUFFIX = ".run";
+
+	// Runs of all the maps are merged by one background thread
+	private static final ExecutorService compactor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+		@Override
+		public Thread newThread(Runnable r){
+			Thread t = new Thread(r, "stateCompactionT");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	// Directories already cleaned by this JVM, and the one of the maps without directory
+	private static final Set<File> cleanedDirs = new HashSet<File>();
+	private static File defaultDirectory = null;
+
+	private final int hotCapacity;
+	// Runs are written in this directory, a temporary one of this JVM when null
+	private final String directory;
+	private transient File runDirectory;
+
+	// Hot entries, and the CLOCK over them
+	private transient HashMap<Object, Node> hot;
+	private transient Node[] ring;
+	private transient int[] freeSlots;
+	private transient int freeCount;
+	private transient int hand;
+	// Removed entries with a version on disk, until they are written in a run
+	private transient HashSet<Object> tombstones;
+	// From the oldest to the newest
+	private transient volatile List<Run> runs;
+	private transient int count;
+
+	private transient boolean compacting;
+	private transient Compaction compacted;
+	// Incremented by every clear, so that compactions of runs cleared meanwhile are discarded
+	private transient int clears;
+
+	// Keep updates and deletes in different structures.
+	private transient HashMap<Object, Object> dirtyUpdates;
+	private transient HashSet<Object> dirtyRemoves;
+	private transient boolean clearInVersion;
+	// Flag to indicate the structure is currently on snapshot mode
+	private transient AtomicBoolean snapshotMode;
+	// Mutex lock to do while reconciliating
+	private transient Semaphore mutex;
+
+	// For internal use only
+	private transient SnapshotIterator iterator = null;
+
+	/** A hot entry. Entries read from disk are not dirty, and are dropped when evicted **/
+	private static class Node{
+		final Object key;
+		Object value;
+		boolean referenced = true;
+		boolean dirty;
+		// There is a version of the entry in the runs
+		boolean onDisk;
+		// The value as read from disk, while the entry is not dirty
+		byte[] loaded;
+		int slot;
+
+		Node(Object key, Object value, boolean dirty, boolean onDisk){
+			this.key = key;
+			this.value = value;
+			this.dirty = dirty;
+			this.onDisk = onDisk;
+		}
+	}
+
+	public SpillableSeepMap(){
+		this(100000, null);
+	}
+
+	public SpillableSeepMap(int hotCapacity){
+		this(hotCapacity, null);
+	}
+
+	public SpillableSeepMap(int hotCapacity, String directory){
+		if(hotCapacity <= 0){
+			throw new IllegalArgumentException("hotCapacity must be > 0");
+		}
+		this.hotCapacity = hotCapacity;
+		this.directory = directory;
+		init();
+	}
+
+	private void init(){
+		hot = new HashMap<Object, Node>();
+		ring = new Node[hotCapacity];
+		freeSlots = new int[hotCapacity];
+		for(int i = 0; i < hotCapacity; i++){
+			freeSlots[i] = hotCapacity - 1 - i;
+		}
+		freeCount = hotCapacity;
+		hand = 0;
+		tombstones = new HashSet<Object>();
+		runs = new ArrayList<Run>();
+		count = 0;
+		compacting = false;
+		compacted = null;
+		clears = 0;
+		dirtyUpdates = new HashMap<Object, Object>();
+		dirtyRemoves = new HashSet<Object>();
+		clearInVersion = false;
+		snapshotMode = new AtomicBoolean();
+		mutex = new Semaphore(1);
+		runDirectory = directory != null ? new File(directory) : defaultDirectory();
+		cleanDirectory(runDirectory);
+	}
+
+	/** Entries of the snapshot are written encoded, ended by -1 **/
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		out.defaultWriteObject();
+		RecordCodec c = RecordCodec.get();
+		SnapshotIterator entries = new SnapshotIterator();
+		while(entries.hasNext()){
+			Map.Entry<Object, Object> entry = entries.next();
+			Output k = c.encode(c.key, entry.getKey());
+			out.writeInt(k.position());
+			out.write(k.getBuffer(), 0, k.position());
+			Output v = c.encode(c.value, entry.getValue());
+			out.writeInt(v.position());
+			out.write(v.getBuffer(), 0, v.position());
+		}
+		out.writeInt(-1);
+	}
+
+	/** A copy has only the entries of the snapshot, and it is not in snapshot mode **/
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		in.defaultReadObject();
+		init();
+		RecordCodec c = RecordCodec.get();
+		// The runs spilled meanwhile may be compacted in the background
+		this.lock();
+		try{
+			int length;
+			while((length = in.readInt()) >= 0){
+				byte[] key = new byte[length];
+				in.readFully(key);
+				byte[] value = new byte[in.readInt()];
+				in.readFully(value);
+				storePut(c.decode(key), c.decode(value));
+			}
+		}
+		finally{
+			this.release();
+		}
+	}
+
+	/**
+	 * Runs
+	 */
+
+	private static int compare(int hash, byte[] key, int otherHash, byte[] otherKey){
+		if(hash != otherHash){
+			return hash < otherHash ? -1 : 1;
+		}
+		int length = Math.min(key.length, otherKey.length);
+		for(int i = 0; i < length; i++){
+			if(key[i] != otherKey[i]){
+				return (key[i] & 0xff) - (otherKey[i] & 0xff);
+			}
+		}
+		return key.length - otherKey.length;
+	}
+
+	private static class Record{
+		final int hash;
+		final byte[] key;
+		// TOMBSTONE for a removed entry
+		final byte[] value;
+
+		Record(int hash, byte[] key, byte[] value){
+			this.hash = hash;
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	private static final Comparator<Record> RECORD_ORDER = new Comparator<Record>(){
+		@Override
+		public int compare(Record a, Record b){
+			return SpillableSeepMap.compare(a.hash, a.key, b.hash, b.key);
+		}
+	};
+
+	private static class BloomFilter{
+		private static final int HASHES = 7;
+		private final long[] bits;
+		private final int numBits;
+
+		BloomFilter(int expectedRecords){
+			// About 1% of false positives with 10 bits per record
+			numBits = Math.max(64, expectedRecords * 10);
+			bits = new long[(numBits + 63) / 64];
+		}
+
+		private int index(int hash, int i){
+			int second = Integer.reverse(hash) * 0x9e3779b9 | 1;
+			return ((hash + i * second) & Integer.MAX_VALUE) % numBits;
+		}
+
+		void add(int hash){
+			for(int i = 0; i < HASHES; i++){
+				int bit = index(hash, i);
+				bits[bit >>> 6] |= 1L << bit;
+			}
+		}
+
+		boolean mightContain(int hash){
+			for(int i = 0; i < HASHES; i++){
+				int bit = index(hash, i);
+				if((bits[bit >>> 6] & (1L << bit)) == 0){
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/** Reads a run from a position, without moving the position of the channel, so that several readers can share it **/
+	private static class ChannelInputStream extends InputStream{
+		private final FileChannel channel;
+		private long position;
+
+		ChannelInputStream(FileChannel channel, long position){
+			this.channel = channel;
+			this.position = position;
+		}
+
+		@Override
+		public int read() throws IOException{
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException{
+			int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+			if(n > 0){
+				position += n;
+			}
+			return n;
+		}
+	}
+
+	/**
+	 * A record is hash, keyLength, valueLength, -1 for a tombstone, key and value. pin, unpin and drop are called with the lock of the
+	 * map held
+	 */
+	private static class Run{
+		final File file;
+		final FileChannel channel;
+		final int records;
+		final BloomFilter bloom;
+		final int[] indexHashes;
+		final long[] indexOffsets;
+		// Compactions and streams reading the run
+		private int pins = 0;
+		// The run is not part of the map any more, and is deleted once unpinned
+		private boolean dropped = false;
+
+		Run(File file, int records, BloomFilter bloom, int[] indexHashes, long[] indexOffsets) throws IOException{
+			this.file = file;
+			this.channel = new RandomAccessFile(file, "r").getChannel();
+			this.records = records;
+			this.bloom = bloom;
+			this.indexHashes = indexHashes;
+			this.indexOffsets = indexOffsets;
+		}
+
+		DataInputStream open(long position){
+			return new DataInputStream(new BufferedInputStream(new ChannelInputStream(channel, position), 4096));
+		}
+
+		static Record read(DataInputStream in) throws IOException{
+			int hash = in.readInt();
+			byte[] key = new byte[in.readInt()];
+			int valueLength = in.readInt();
+			in.readFully(key);
+			byte[] value = TOMBSTONE;
+			if(valueLength >= 0){
+				value = new byte[valueLength];
+				in.readFully(value);
+			}
+			return new Record(hash, key, value);
+		}
+
+		/** The value of the key, TOMBSTONE if removed, or null if the run does not have it **/
+		byte[] get(byte[] key, int hash) throws IOException{
+			if(!bloom.mightContain(hash)){
+				return null;
+			}
+			// Start from the last indexed record with a smaller hash, records with the same one may come before the indexed one
+			int lo = 0;
+			int hi = indexHashes.length - 1;
+			int start = -1;
+			while(lo <= hi){
+				int mid = (lo + hi) >>> 1;
+				if(indexHashes[mid] < hash){
+					start = mid;
+					lo = mid + 1;
+				}
+				else{
+					hi = mid - 1;
+				}
+			}
+			int left = records - (start < 0 ? 0 : start * INDEX_INTERVAL);
+			DataInputStream in = open(start < 0 ? 0 : indexOffsets[start]);
+			for(; left > 0; left--){
+				Record record = read(in);
+				int order = compare(record.hash, record.key, hash, key);
+				if(order == 0){
+					return record.value;
+				}
+				else if(order > 0){
+					return null;
+				}
+			}
+			return null;
+		}
+
+		void pin(){
+			pins++;
+		}
+
+		void unpin(){
+			pins--;
+			if(pins == 0 && dropped){
+				delete();
+			}
+		}
+
+		void drop(){
+			dropped = true;
+			if(pins == 0){
+				delete();
+			}
+		}
+
+		private void delete(){
+			try{
+				channel.close();
+			}
+			catch(IOException e){
+				LOG.warn("-> Could not close spilled run {}", file);
+			}
+			deleteFile(file);
+		}
+	}
+
+	private static class RunWriter{
+		private final File file;
+		private final DataOutputStream out;
+		private final BloomFilter bloom;
+		private final int[] indexHashes;
+		private final long[] indexOffsets;
+		private int records = 0;
+		private long offset = 0;
+
+		RunWriter(File directory, int expectedRecords) throws IOException{
+			file = File.createTempFile(RUN_PREFIX, RUN_SUFFIX, directory);
+			try{
+				out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+			}
+			catch(IOException e){
+				deleteFile(file);
+				throw e;
+			}
+			bloom = new BloomFilter(expectedRecords);
+			int indexSize = (expectedRecords + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+			indexHashes = new int[indexSize];
+			indexOffsets = new long[indexSize];
+		}
+
+		/** Records are added in order **/
+		void add(Record record) throws IOException{
+			if(records % INDEX_INTERVAL == 0){
+				indexHashes[records / INDEX_INTERVAL] = record.hash;
+				indexOffsets[records / INDEX_INTERVAL] = offset;
+			}
+			bloom.add(record.hash);
+			out.writeInt(record.hash);
+			out.writeInt(record.key.length);
+			out.writeInt(record.value == TOMBSTONE ? -1 : record.value.length);
+			out.write(record.key);
+			offset += 12 + record.key.length;
+			if(record.value != TOMBSTONE){
+				out.write(record.value);
+				offset += record.value.length;
+			}
+			records++;
+		}
+
+		Run finish() throws IOException{
+			out.close();
+			int indexSize = (records + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+			return new Run(file, records, bloom, Arrays.copyOf(indexHashes, indexSize), Arrays.copyOf(indexOffsets, indexSize));
+		}
+
+		/** Drops a run that could not be written **/
+		void abort(){
+			try{
+				out.close();
+			}
+			catch(IOException e){
+				LOG.warn("-> Could not close spilled run {}", file);
+			}
+			deleteFile(file);
+		}
+	}
+
+	private static void deleteFile(File file){
+		if(!file.delete()){
+			LOG.warn("-> Could not delete spilled run {}", file);
+		}
+	}
+
+	private static synchronized File defaultDirectory(){
+		if(defaultDirectory == null){
+			try{
+				defaultDirectory = Files.createTempDirectory(RUN_PREFIX).toFile();
+			}
+			catch(IOException e){
+				throw new IllegalStateException("Cannot create a directory for spilled state", e);
+			}
+		}
+		return defaultDirectory;
+	}
+
+	/**
+	 * The first time a map of this JVM uses dir, deletes the runs left there by a previous run, and the ones of this run when the JVM
+	 * exits, with the directory itself if it is the temporary one
+	 */
+	private static void cleanDirectory(final File dir){
+		synchronized(cleanedDirs){
+			if(!cleanedDirs.add(dir.getAbsoluteFile())){
+				return;
+			}
+			deleteRuns(dir);
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+				@Override
+				public void run(){
+					deleteRuns(dir);
+					if(dir.equals(defaultDirectory) && !dir.delete()){
+						LOG.warn("-> Could not delete spill directory {}", dir);
+					}
+				}
+			}, "spillCleanT"));
+		}
+	}
+
+	private static void deleteRuns(File dir){
+		File[] files = dir.listFiles();
+		if(files == null){
+			return;
+		}
+		for(File file : files){
+			String name = file.getName();
+			if(name.startsWith(RUN_PREFIX) && name.endsWith(RUN_SUFFIX)){
+				deleteFile(file);
+			}
+		}
+	}
+
+	/**
+	 * Merges runs, returning the newest version of each key, tombstones included, in the order of the records
+	 */
+	private static class RunMerger implements Iterator<Record>{
+
+		private class Cursor{
+			final int age;
+			final DataInputStream in;
+			int left;
+			Record current;
+
+			Cursor(Run run, int age){
+				this.age = age;
+				this.in = run.open(0);
+				this.left = run.records;
+			}
+
+			boolean advance() throws IOException{
+				if(left == 0){
+					in.close();
+					return false;
+				}
+				left--;
+				current = Run.read(in);
+				return true;
+			}
+		}
+
+		private final PriorityQueue<Cursor> cursors;
+
+		RunMerger(List<Run> runs){
+			cursors = new PriorityQueue<Cursor>(Math.max(1, runs.size()), new Comparator<Cursor>(){
+				@Override
+				public int compare(Cursor a, Cursor b){
+					int order = RECORD_ORDER.compare(a.current, b.current);
+					// Newer runs first
+					return order != 0 ? order : b.age - a.age;
+				}
+			});
+			try{
+				for(int i = 0; i < runs.size(); i++){
+					Cursor cursor = new Cursor(runs.get(i), i);
+					if(cursor.advance()){
+						cursors.add(cursor);
+					}
+				}
+			}
+			catch(IOException e){
+				throw new IllegalStateException("Cannot read spilled state", e);
+			}
+		}
+
+		@Override
+		public boolean hasNext(){
+			return !cursors.isEmpty();
+		}
+
+		@Override
+		public Record next(){
+			if(cursors.isEmpty()){
+				throw new NoSuchElementException();
+			}
+			try{
+				Cursor newest = cursors.poll();
+				Record record = newest.current;
+				if(newest.advance()){
+					cursors.add(newest);
+				}
+				// Older versions of the same key are skipped
+				while(!cursors.isEmpty() && RECORD_ORDER.compare(cursors.peek().current, record) == 0){
+					Cursor older = cursors.poll();
+					if(older.advance()){
+						cursors.add(older);
+					}
+				}
+				return record;
+			}
+			catch(IOException e){
+				throw new IllegalStateException("Cannot read spilled state", e);
+			}
+		}
+
+		@Override
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/** The result of merging the oldest runs, installed when the runs are not being read **/
+	private static class Compaction{
+		final List<Run> inputs;
+		final Run output;
+
+		Compaction(List<Run> inputs, Run output){
+			this.inputs = inputs;
+			this.output = output;
+		}
+	}
+
+	/** With the lock held. The inputs are pinned until the compaction finishes, so that a clear does not delete them meanwhile **/
+	private void maybeCompact(){
+		if(compacted != null && !snapshotMode.get()){
+			installCompaction();
+		}
+		if(compacting || compacted != null || runs.size() < MAX_RUNS){
+			return;
+		}
+		compacting = true;
+		final List<Run> inputs = new ArrayList<Run>(runs);
+		final int startClears = clears;
+		for(Run run : inputs){
+			run.pin();
+		}
+		compactor.execute(new Runnable(){
+			@Override
+			public void run(){
+				Run output = null;
+				try{
+					output = merge(inputs);
+				}
+				catch(IOException e){
+					LOG.error("-> Cannot compact spilled state: {}", e.getMessage());
+				}
+				catch(RuntimeException re){
+					LOG.error("-> Cannot compact spilled state: {}", re.toString());
+				}
+				lock();
+				try{
+					try{
+						if(output != null && clears != startClears){
+							LOG.debug("-> Map cleared while compacting, dropping the compacted run");
+							output.drop();
+						}
+						else if(output != null){
+							compacted = new Compaction(inputs, output);
+						}
+					}
+					finally{
+						for(Run run : inputs){
+							run.unpin();
+						}
+						compacting = false;
+					}
+					// Installs it, and compacts again if enough runs were spilled meanwhile
+					maybeCompact();
+				}
+				finally{
+					release();
+				}
+			}
+		});
+	}
+
+	/** All the runs since the oldest are merged, so tombstones are not needed any more **/
+	private Run merge(List<Run> inputs) throws IOException{
+		int expectedRecords = 0;
+		for(Run run : inputs){
+			expectedRecords += run.records;
+		}
+		RunWriter writer = new RunWriter(runDirectory, expectedRecords);
+		try{
+			RunMerger merger = new RunMerger(inputs);
+			while(merger.hasNext()){
+				Record record = merger.next();
+				if(record.value != TOMBSTONE){
+					writer.add(record);
+				}
+			}
+			return writer.finish();
+		}
+		catch(IOException e){
+			writer.abort();
+			throw e;
+		}
+		catch(RuntimeException re){
+			writer.abort();
+			throw re;
+		}
+	}
+
+	/** The merged runs are replaced by the compacted one, they are still the oldest ones as a clear discards the compaction **/
+	private void installCompaction(){
+		Compaction compaction = compacted;
+		compacted = null;
+		List<Run> current = runs;
+		List<Run> newRuns = new ArrayList<Run>();
+		newRuns.add(compaction.output);
+		newRuns.addAll(current.subList(compaction.inputs.size(), current.size()));
+		runs = newRuns;
+		for(Run run : compaction.inputs){
+			run.drop();
+		}
+	}
+
+	/** The newest value of the key in the runs, or null if it is not there or has been removed **/
+	private byte[] diskGet(byte[] key, int hash){
+		List<Run> current = runs;
+		try{
+			for(int i = current.size() - 1; i >= 0; i--){
+				byte[] value = current.get(i).get(key, hash);
+				if(value != null){
+					return value == TOMBSTONE ? null : value;
+				}
+			}
+		}
+		catch(IOException e){
+			throw new IllegalStateException("Cannot read spilled state", e);
+		}
+		return null;
+	}
+
+	private byte[] diskGet(Object key){
+		RecordCodec c = RecordCodec.get();
+		Output k = c.encode(c.key, key);
+		byte[] bytes = Arrays.copyOf(k.getBuffer(), k.position());
+		return diskGet(bytes, RecordCodec.hash(bytes, bytes.length));
+	}
+
+	/** Writes the modified victims and the pending tombstones in a new run **/
+	private void spill(List<Node> victims){
+		RecordCodec c = RecordCodec.get();
+		ArrayList<Record> records = new ArrayList<Record>();
+		for(Node node : victims){
+			Output v = c.encode(c.value, node.value);
+			// A value loaded from disk is written again only if it was modified in place
+			if(!node.dirty && sameBytes(node.loaded, v.getBuffer(), v.position())){
+				continue;
+			}
+			Output k = c.encode(c.key, node.key);
+			byte[] key = Arrays.copyOf(k.getBuffer(), k.position());
+			records.add(new Record(RecordCodec.hash(key, key.length), key, Arrays.copyOf(v.getBuffer(), v.position())));
+		}
+		for(Object tombstone : tombstones){
+			Output k = c.encode(c.key, tombstone);
+			byte[] key = Arrays.copyOf(k.getBuffer(), k.position());
+			records.add(new Record(RecordCodec.hash(key, key.length), key, TOMBSTONE));
+		}
+		tombstones.clear();
+		if(records.isEmpty()){
+			return;
+		}
+		Collections.sort(records, RECORD_ORDER);
+		RunWriter writer = null;
+		try{
+			writer = new RunWriter(runDirectory, records.size());
+			for(Record record : records){
+				writer.add(record);
+			}
+			List<Run> newRuns = new ArrayList<Run>(runs);
+			newRuns.add(writer.finish());
+			runs = newRuns;
+		}
+		catch(IOException e){
+			if(writer != null){
+				writer.abort();
+			}
+			throw new IllegalStateException("Cannot spill state to "+runDirectory, e);
+		}
+		maybeCompact();
+	}
+
+	private static boolean sameBytes(byte[] bytes, byte[] buffer, int length){
+		if(bytes == null || bytes.length != length){
+			return false;
+		}
+		for(int i = 0; i < length; i++){
+			if(bytes[i] != buffer[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Hot entries
+	 */
+
+	/** Evicts a batch of the entries not referenced since the hand went over them last time **/
+	private void evict(){
+		int batch = Math.max(1, hotCapacity / 8);
+		ArrayList<Node> victims = new ArrayList<Node>(batch);
+		while(victims.size() < batch && !hot.isEmpty()){
+			Node node = ring[hand];
+			if(node != null){
+				if(node.referenced){
+					node.referenced = false;
+				}
+				else{
+					ring[hand] = null;
+					freeSlots[freeCount++] = hand;
+					hot.remove(node.key);
+					victims.add(node);
+				}
+			}
+			hand = (hand + 1) % hotCapacity;
+		}
+		spill(victims);
+	}
+
+	private void insertHot(Node node){
+		if(freeCount == 0){
+			evict();
+		}
+		node.slot = freeSlots[--freeCount];
+		ring[node.slot] = node;
+		hot.put(node.key, node);
+	}
+
+	private void removeHot(Node node){
+		hot.remove(node.key);
+		ring[node.slot] = null;
+		freeSlots[freeCount++] = node.slot;
+	}
+
+	/**
+	 * Operations on the snapshot, with the lock held
+	 */
+
+	/** Reads the key, loading it from disk into the hot entries **/
+	private Node load(Object key){
+		Node node = hot.get(key);
+		if(node != null){
+			node.referenced = true;
+			return node;
+		}
+		if(tombstones.contains(key)){
+			return null;
+		}
+		byte[] value = diskGet(key);
+		if(value == null){
+			return null;
+		}
+		node = new Node(key, RecordCodec.get().decode(value), false, true);
+		node.loaded = value;
+		insertHot(node);
+		return node;
+	}
+
+	/** Reads the key without modifying the hot entries, as in snapshot mode **/
+	private Object peek(Object key){
+		Node node = hot.get(key);
+		if(node != null){
+			node.referenced = true;
+			return node.value;
+		}
+		if(tombstones.contains(key)){
+			return null;
+		}
+		byte[] value = diskGet(key);
+		return value == null ? null : RecordCodec.get().decode(value);
+	}
+
+	private void storePut(Object key, Object value){
+		Node node = hot.get(key);
+		if(node != null){
+			node.value = value;
+			node.dirty = true;
+			node.loaded = null;
+			node.referenced = true;
+			return;
+		}
+		boolean onDisk;
+		boolean exists;
+		if(tombstones.remove(key)){
+			onDisk = true;
+			exists = false;
+		}
+		else{
+			onDisk = diskGet(key) != null;
+			exists = onDisk;
+		}
+		if(!exists){
+			count++;
+		}
+		insertHot(new Node(key, value, true, onDisk));
+	}
+
+	private void storeRemove(Object key){
+		Node node = hot.get(key);
+		if(node != null){
+			removeHot(node);
+			count--;
+			if(node.onDisk){
+				tombstones.add(key);
+			}
+		}
+		else if(!tombstones.contains(key) && diskGet(key) != null){
+			tombstones.add(key);
+			count--;
+		}
+		if(tombstones.size() >= Math.max(1, hotCapacity / 8)){
+			spill(Collections.<Node>emptyList());
+		}
+	}
+
+	private void storeClear(){
+		hot.clear();
+		Arrays.fill(ring, null);
+		for(int i = 0; i < hotCapacity; i++){
+			freeSlots[i] = hotCapacity - 1 - i;
+		}
+		freeCount = hotCapacity;
+		tombstones.clear();
+		// Runs still read by a compaction or a stream are deleted when they are done
+		for(Run run : runs){
+			run.drop();
+		}
+		runs = new ArrayList<Run>();
+		if(compacted != null){
+			compacted.output.drop();
+			compacted = null;
+		}
+		clears++;
+		count = 0;
+	}
+
+	/**
+	 * Map operations
+	 */
+
+	@GlobalStateAccess
+	@WriteAccess
+	public void clear(){
+		this.lock();
+		if(snapshotMode.get()){
+			// Just reset all dirty structures and flag it so that the snapshot is cleared out when reconciling
+			dirtyUpdates.clear();
+			dirtyRemoves.clear();
+			clearInVersion = true;
+		}
+		else{
+			storeClear();
+		}
+		this.release();
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@ReadAccess
+	public boolean containsKey(@PartitioningKey Object key){
+		this.lock();
+		boolean containsKey;
+		if(snapshotMode.get() && dirtyUpdates.containsKey(key)){
+			containsKey = true;
+		}
+		else if(snapshotMode.get() && (clearInVersion || dirtyRemoves.contains(key))){
+			containsKey = false;
+		}
+		else if(snapshotMode.get()){
+			containsKey = hot.containsKey(key) || (!tombstones.contains(key) && diskGet(key) != null);
+		}
+		else{
+			containsKey = load(key) != null;
+		}
+		this.release();
+		return containsKey;
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@ReadAccess
+	public Object get(@PartitioningKey Object key){
+		this.lock();
+		Object toReturn;
+		if(snapshotMode.get() && dirtyUpdates.containsKey(key)){
+			toReturn = dirtyUpdates.get(key);
+		}
+		else if(snapshotMode.get() && (clearInVersion || dirtyRemoves.contains(key))){
+			toReturn = null;
+		}
+		else if(snapshotMode.get()){
+			toReturn = peek(key);
+		}
+		else{
+			Node node = load(key);
+			toReturn = node == null ? null : node.value;
+		}
+		this.release();
+		return toReturn;
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@WriteAccess
+	public void put(@PartitioningKey Object key, Object value){
+		this.lock();
+		if(snapshotMode.get()){
+			dirtyUpdates.put(key, value);
+			// Remove from dirtyRemoves to avoid inconsistencies when reconciling
+			dirtyRemoves.remove(key);
+		}
+		else{
+			storePut(key, value);
+		}
+		this.release();
+	}
+
+	@PartitionStateAccess(partitioningKeyPositionInArguments=0)
+	@WriteAccess
+	public void remove(@PartitioningKey Object key){
+		this.lock();
+		if(snapshotMode.get()){
+			dirtyUpdates.remove(key);
+			dirtyRemoves.add(key);
+		}
+		else{
+			storeRemove(key);
+		}
+		this.release();
+	}
+
+	@GlobalStateAccess
+	@ReadAccess
+	public boolean isEmpty(){
+		this.lock();
+		boolean isEmpty;
+		if(snapshotMode.get()){
+			isEmpty = dirtyUpdates.isEmpty() && (clearInVersion || count == 0);
+		}
+		else{
+			isEmpty = count == 0;
+		}
+		this.release();
+		return isEmpty;
+	}
+
+	/** Entries in the snapshot, which while in snapshot mode does not include the changes of the current version **/
+	@GlobalStateAccess
+	@ReadAccess
+	public int size(){
+		return count;
+	}
+
+	/** Entries kept in memory, for monitoring **/
+	public int getHotSize(){
+		return hot.size();
+	}
+
+	/** Runs on disk, for monitoring **/
+	public int getNumberOfRuns(){
+		return runs.size();
+	}
+
+	/** Implement Streamable interface **/
+
+	/**
+	 * Goes over the hot entries and then over the merged runs, skipping the keys that are hot or removed. The runs are pinned until it
+	 * finishes, so that a compaction or a clear does not delete them meanwhile.
+	 */
+	private class SnapshotIterator implements Iterator<Map.Entry<Object, Object>>{
+
+		private final Iterator<Node> hotEntries;
+		private final List<Run> pinned;
+		private final RunMerger spilled;
+		private Map.Entry<Object, Object> next = null;
+		private boolean finished = false;
+
+		SnapshotIterator(){
+			lock();
+			try{
+				hotEntries = hot.values().iterator();
+				pinned = runs;
+				spilled = new RunMerger(pinned);
+				for(Run run : pinned){
+					run.pin();
+				}
+			}
+			finally{
+				release();
+			}
+			advance();
+		}
+
+		private void advance(){
+			next = null;
+			if(hotEntries.hasNext()){
+				Node node = hotEntries.next();
+				next = new AbstractMap.SimpleImmutableEntry<Object, Object>(node.key, node.value);
+				return;
+			}
+			RecordCodec c = RecordCodec.get();
+			while(spilled.hasNext()){
+				Record record = spilled.next();
+				if(record.value == TOMBSTONE){
+					continue;
+				}
+				Object key = c.decode(record.key);
+				if(!hot.containsKey(key) && !tombstones.contains(key)){
+					next = new AbstractMap.SimpleImmutableEntry<Object, Object>(key, c.decode(record.value));
+					return;
+				}
+			}
+			close();
+		}
+
+		void close(){
+			if(!finished){
+				finished = true;
+				lock();
+				for(Run run : pinned){
+					run.unpin();
+				}
+				release();
+			}
+		}
+
+		@Override
+		public boolean hasNext(){
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<Object, Object> next(){
+			if(next == null){
+				throw new NoSuchElementException();
+			}
+			Map.Entry<Object, Object> toReturn = next;
+			advance();
+			return toReturn;
+		}
+
+		@Override
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	@Override
+	public int getSize() {
+		return size();
+	}
+
+	@Override
+	public int getTotalNumberOfChunks(int chunkSize) throws EmptyStateException {
+		if(chunkSize == 0){
+			throw new IllegalArgumentException("chunkSize must be > 0");
+		}
+		if(this.size() == 0){
+			throw new EmptyStateException("State size is 0, this method should not be called in that state");
+		}
+		return (int) Math.ceil((double)this.size()/chunkSize);
+	}
+
+	@Override
+	public Iterator<?> getIterator() {
+		if(iterator != null){
+			iterator.close();
+		}
+		iterator = new SnapshotIterator();
+		return iterator;
+	}
+
+	@Override
+	public ArrayList<Object> streamSplitState(int chunkSize) {
+		ArrayList<Object> chunk = new ArrayList<Object>(2 * chunkSize);
+		while(iterator.hasNext()){
+			Map.Entry<Object, Object> entry = iterator.next();
+			chunk.add(entry.getKey());
+			chunk.add(entry.getValue());
+			if(chunk.size() >= 2 * chunkSize){
+				return chunk;
+			}
+		}
+		return chunk.isEmpty() ? null : chunk;
+	}
+
+	@Override
+	public void reset(){
+		this.lock();
+		storeClear();
+		dirtyUpdates.clear();
+		dirtyRemoves.clear();
+		clearInVersion = false;
+		this.release();
+	}
+
+	@Override
+	public void appendChunk(ArrayList<Object> chunk) throws NullChunkWhileMerging, MalformedStateChunk {
+		if(chunk == null){
+			throw new NullChunkWhileMerging("Received a null chunk");
+		}
+		int chunkSize = chunk.size();
+		if(chunkSize % 2 != 0 || chunkSize == 0){
+			throw new MalformedStateChunk("Does not contain an even number of object or size is 0. Size->"+chunkSize);
+		}
+		for(int i = 0; i < chunkSize; i += 2){
+			this.put(chunk.get(i), chunk.get(i + 1));
+		}
+	}
+
+	@Override
+	public Object getFromBackup(Object key){
+		this.lock();
+		Object toReturn = peek(key);
+		this.release();
+		return toReturn;
+	}
+
+	/**
+	 * Methods implementing the Versionable interface
+	 */
+
+	/**
+	 * Flag this structure as Snapshot, so that new updates and reads happen in a new version. The lock waits for a compaction being
+	 * installed, if any, as the runs are read without it in snapshot mode
+	 */
+	@Override
+	public void setSnapshotMode(boolean newValue){
+		this.lock();
+		this.snapshotMode.set(newValue);
+		this.release();
+	}
+	
+	@Override
+	public boolean isSnapshotMode(){
+		return snapshotMode.get();
+	}
+
+	/** Reconcile changes kept in version with the snapshot, which may spill hot entries. **/
+	@Override
+	public void reconcile(){
+		this.lock();
+		if(clearInVersion){
+			storeClear();
+		}
+		else{
+			for(Object key : dirtyRemoves){
+				storeRemove(key);
+			}
+		}
+		for(Map.Entry<Object, Object> entry : dirtyUpdates.entrySet()){
+			storePut(entry.getKey(), entry.getValue());
+		}
+		clearInVersion = false;
+		dirtyRemoves.clear();
+		dirtyUpdates.clear();
+		snapshotMode.set(false);
+		maybeCompact();
+		this.release();
+	}
+
+	/** Request mutual exclusion access to the structure **/
+	@Override
+	public void lock(){
+		try {
+			this.mutex.acquire();
+		}
+		catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/** Release mutual exclusion access to the structure **/
+	@Override
+	public void release(){
+		this.mutex.release();
+	}
+
+	@Override
+	public Object getVersionableAndStreamableState() {
+		return this;
+	}
+}
@@ -10,17 +10,26 @@
  ******************************************************************************/
 package uk.ac.imperial.lsds.seep.buffer;
 
+import java.io.File;
 import java.io.Serializable;
-import java.util.Deque;
 import java.util.Iterator;
-import java.util.concurrent.LinkedBlockingDeque;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+
+import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.BackupOperatorState;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.RawData;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+import uk.ac.imperial.lsds.seep.runtimeengine.OutputQueue;
 import uk.ac.imperial.lsds.seep.runtimeengine.TimestampTracker;
+import uk.ac.imperial.lsds.seep.state.Incremental;
+import uk.ac.imperial.lsds.seep.state.State;
 
 /**
-* Buffer class models the buffers for the connections between operators in our system
+* Buffer class models the buffers for the connections between operators in our system. The batches sent are kept serialised in an
+* OutputLog, out of the java heap, until the downstream acknowledges them. The oldest ones are spilled to disk when the log grows over
+* outputLogMemoryLimit bytes.
 */
 
 public class Buffer implements Serializable{
@@ -29,7 +38,11 @@ public class Buffer implements Serializable{
 
 //	private Deque<BatchTuplePayload> buff = new LinkedBlockingDeque<BatchTuplePayload>();
 	
-	private Deque<OutputLogEntry> log = new LinkedBlockingDeque<OutputLogEntry>();
+	private transient OutputLog log = new OutputLog(Integer.parseInt(GLOBALS.valueFor("outputLogSegmentSize")),
+			Long.parseLong(GLOBALS.valueFor("outputLogMemoryLimit")), new File(GLOBALS.valueFor("outputLogSpillDir")));
+	// Only to serialise the batches saved as objects
+	private transient Kryo k = null;
+	private transient Output serialised = null;
 	
 	private BackupOperatorState bs = null;
 	private RawData rw = null;
@@ -63,7 +76,7 @@ public class Buffer implements Serializable{
 //		trim(ts_e);
 //	}
 	
-	public void replaceBackupOperatorState(BackupOperatorState bs) {
+	public synchronized void replaceBackupOperatorState(BackupOperatorState bs) {
 		// In-memory
 		long smem = System.currentTimeMillis();
 		this.bs = bs;
@@ -85,56 +98,61 @@ public class Buffer implements Serializable{
 //	    System.out.println("MEM: "+(emem-smem)+" DISK: "+(enddisk-emem));
 	}
 	
+	/**
+	 * Applies the changes of an incremental checkpoint to the state kept. Returns false if they do not follow the checkpoint kept, in
+	 * which case the state is not modified until the next full checkpoint arrives
+	 */
+	public synchronized boolean mergeBackupOperatorState(BackupOperatorState delta){
+		if(bs == null || bs.getState() == null || bs.getCheckpointId() != delta.getPreviousCheckpointId()){
+			return false;
+		}
+		State base = bs.getState().getStateImpl();
+		if(!(base instanceof Incremental)){
+			return false;
+		}
+		((Incremental)base).applyDelta(delta.getState().getStateImpl());
+		bs.getState().setData_ts(delta.getState().getData_ts());
+		bs.setOutputBuffers(delta.getOutputBuffers());
+		bs.setCheckpointId(delta.getCheckpointId());
+		return true;
+	}
+	
 	public void replaceRawData(RawData rw){
 		System.out.println("Storing: "+rw.getData().length+" bytes");
 		this.rw = rw;
 	}
 
-	public void save(BatchTuplePayload batch, long outputTs, TimestampTracker inputTs){
-		log.add(new OutputLogEntry(outputTs, inputTs, batch));
+	public synchronized void save(BatchTuplePayload batch, long outputTs, TimestampTracker inputTs){
+		if(k == null){
+			k = OutputQueue.initializeKryo();
+			serialised = new Output(4096, -1);
+		}
+		serialised.clear();
+		k.writeObject(serialised, batch);
+		log.append(serialised.getBuffer(), 0, serialised.position(), batch.size(), outputTs, inputTs);
+	}
+	
+	/**
+	 * Saves a batch of tuples already serialised, as it was sent to the downstream
+	 */
+	public void save(byte[] data, int offset, int length, int tuples, long outputTs, TimestampTracker inputTs){
+		log.append(data, offset, length, tuples, outputTs, inputTs);
 	}
 	
 	public TimestampTracker trim(long ts){
-//		System.out.println("ACK: "+ts);
-		TimestampTracker oldest = null;
-		boolean matchFirstEntryToRemove = true;
 		long startTrim = System.currentTimeMillis();
-		Iterator<OutputLogEntry> iter = log.iterator();
-		while (iter.hasNext()) {
-			OutputLogEntry next = iter.next();
-			BatchTuplePayload batch = next.batch;
-			long timeStamp = 0;
-			timeStamp = next.outputTs; // the newest ts in the entry
-			if (timeStamp <= ts) {
-				//Detect first entry to remove and store the inputVTs
-				if(matchFirstEntryToRemove){
-					///\todo{are we iterating from the tail or the head?}
-					matchFirstEntryToRemove = false;
-					oldest = next.inputVTs;
-				}
-//				System.out.println("Remove tuple with ts: "+timeStamp);
-				iter.remove();
-			}
-			else {
-				break;
-			}
-		}
-//		if(!log.isEmpty()){
-//			oldest = log.getFirst().inputVTs;
-//		}
+		TimestampTracker oldest = log.trim(ts);
 		long endTrim = System.currentTimeMillis();
 		System.out.println("TOTAL-TRIM: "+(endTrim-startTrim));
-
-        return oldest;
+		return oldest;
 	}
 	
-	///fixme{just for testing, do binary search on structure}
 	public TimestampTracker getInputVTsForOutputTs(long output_ts){
-		for(OutputLogEntry l : log){
-			if(l.outputTs == output_ts){
-				return l.inputVTs;
-			}
-		}
-		return null;
+		return log.getInputVTsForOutputTs(output_ts);
+	}
+	
+	/** Drops the batches kept and deletes the files they were spilled to **/
+	public void close(){
+		log.close();
 	}
 }
@@ -0,0 +1,545 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.imperial.lsds.seep.runtimeengine.TimestampTracker;
+
+/**
+* OutputLog. Append-only log of serialised batches, kept in direct buffers out of the java heap. The log is a list of segments, each
+* holding consecutive entries and their output timestamps, which do not decrease along the log. Lookups by output timestamp are binary
+* searches, and trimming drops whole segments and moves the start of the first one.
+*
+* Entries are numbered in order of arrival, so that iterators skip the entries trimmed while they iterate.
+*
+* When the segments in memory exceed memoryLimit bytes, the oldest ones are spilled to a file in spillDir and their buffers are reused.
+* Spilled entries are read back from disk when iterating, so replay goes through both tiers. Only the payloads are spilled, timestamps
+* stay in memory, so trims and lookups do not touch the disk. Segments are written by a spill thread, without holding the log, so the
+* thread appending does not wait for the disk. Spill files are deleted when their segment is trimmed or the log is closed, and the ones
+* left in spillDir by a previous run are deleted when the first log using it is created and when the JVM exits.
+*/
+public class OutputLog {
+
+	final private static Logger LOG = LoggerFactory.getLogger(OutputLog.class);
+
+	// Trimmed segments kept to be reused instead of allocating new direct buffers
+	private static final int MAX_FREE_SEGMENTS = 2;
+	private static final String SPILL_PREFIX = "outputlog";
+	private static final String SPILL_SUFFIX = ".seg";
+
+	private static final ExecutorService spiller = Executors.newSingleThreadExecutor(new ThreadFactory(){
+		@Override
+		public Thread newThread(Runnable r){
+			Thread t = new Thread(r, "outputLogSpillT");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	// Spill dirs already cleaned by this JVM
+	private static final Set<File> cleanedDirs = new HashSet<File>();
+
+	private final int segmentSize;
+	// Bytes of segments kept in memory before spilling the oldest ones, 0 to never spill
+	private final long memoryLimit;
+	private final File spillDir;
+	private long memoryBytes = 0;
+	// Bytes of the segments being written by the spill thread, still in memory
+	private long spillingBytes = 0;
+	private int spilledSegments = 0;
+	private final ArrayList<Segment> segments = new ArrayList<Segment>();
+	private final ArrayDeque<Segment> freeSegments = new ArrayDeque<Segment>();
+	// Number of the next entry appended
+	private long nextIndex = 0;
+	private int size = 0;
+
+	public OutputLog(int segmentSize){
+		this(segmentSize, 0, null);
+	}
+
+	public OutputLog(int segmentSize, long memoryLimit, File spillDir){
+		this.segmentSize = segmentSize;
+		this.memoryLimit = memoryLimit;
+		this.spillDir = spillDir;
+		if(memoryLimit > 0){
+			cleanSpillDir(spillDir);
+		}
+	}
+
+	public synchronized int size(){
+		return size;
+	}
+
+	public synchronized void append(byte[] data, int offset, int length, int tuples, long outputTs, TimestampTracker inputVTs){
+		Segment tail = segments.isEmpty() ? null : segments.get(segments.size()-1);
+		// A segment keeps the input timestamps of the streams known when it was opened
+		if(tail == null || tail.data.remaining() < length || TimestampTracker.width() > tail.stride){
+			tail = newSegment(Math.max(segmentSize, length));
+			tail.baseIndex = nextIndex;
+			segments.add(tail);
+			memoryBytes += tail.data.capacity();
+			spillIfNeeded();
+		}
+		tail.add(data, offset, length, tuples, outputTs, inputVTs);
+		nextIndex++;
+		size++;
+	}
+
+	/**
+	 * Removes the entries from the start of the log up to the first one with an output timestamp greater than ts. Returns the input
+	 * timestamps of the first entry removed, or null if none was.
+	 */
+	public synchronized TimestampTracker trim(long ts){
+		TimestampTracker oldest = null;
+		while(!segments.isEmpty()){
+			Segment head = segments.get(0);
+			if(oldest == null && head.outputTs[head.first] <= ts){
+				oldest = head.getInputVTs(head.first);
+			}
+			// The whole segment is acknowledged
+			if(head.outputTs[head.count-1] <= ts){
+				size -= head.count - head.first;
+				segments.remove(0);
+				drop(head);
+				continue;
+			}
+			int newFirst = head.upperBound(ts);
+			size -= newFirst - head.first;
+			head.first = newFirst;
+			break;
+		}
+		return oldest;
+	}
+
+	/**
+	 * Input timestamps of an entry with the given output timestamp, or null if there is none
+	 */
+	public synchronized TimestampTracker getInputVTsForOutputTs(long outputTs){
+		int s = segmentFor(outputTs);
+		if(s < 0){
+			return null;
+		}
+		Segment segment = segments.get(s);
+		int i = segment.lowerBound(outputTs);
+		if(i < segment.count && segment.outputTs[i] == outputTs){
+			return segment.getInputVTs(i);
+		}
+		return null;
+	}
+
+	/**
+	 * Iterator over the entries from the oldest one. It is not invalidated by appends or trims, it continues from the first entry not
+	 * trimmed. The bytes of each entry are copied, so they are not overwritten when their segment is reused.
+	 */
+	public Iterator<OutputLogEntry> iterator(){
+		return new Iterator<OutputLogEntry>(){
+			private long position = -1;
+
+			@Override
+			public boolean hasNext(){
+				synchronized(OutputLog.this){
+					return Math.max(position, firstIndex()) < nextIndex;
+				}
+			}
+
+			@Override
+			public OutputLogEntry next(){
+				synchronized(OutputLog.this){
+					position = Math.max(position, firstIndex());
+					if(position >= nextIndex){
+						throw new NoSuchElementException();
+					}
+					Segment segment = segments.get(segmentOf(position));
+					OutputLogEntry entry = segment.get((int)(position - segment.baseIndex));
+					position++;
+					return entry;
+				}
+			}
+
+			@Override
+			public void remove(){
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private long firstIndex(){
+		if(segments.isEmpty()){
+			return nextIndex;
+		}
+		Segment head = segments.get(0);
+		return head.baseIndex + head.first;
+	}
+
+	/** Segment holding the entry number index, which must be in the log **/
+	private int segmentOf(long index){
+		int lo = 0;
+		int hi = segments.size() - 1;
+		while(lo < hi){
+			int mid = (lo + hi + 1) >>> 1;
+			if(segments.get(mid).baseIndex <= index){
+				lo = mid;
+			}
+			else{
+				hi = mid - 1;
+			}
+		}
+		return lo;
+	}
+
+	/** First segment whose last output timestamp is not smaller than outputTs, -1 if there is none **/
+	private int segmentFor(long outputTs){
+		int lo = 0;
+		int hi = segments.size();
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			Segment segment = segments.get(mid);
+			if(segment.outputTs[segment.count-1] < outputTs){
+				lo = mid + 1;
+			}
+			else{
+				hi = mid;
+			}
+		}
+		return lo < segments.size() ? lo : -1;
+	}
+
+	public synchronized int spilledSegments(){
+		return spilledSegments;
+	}
+
+	/** Waits until the segments handed to the spill thread have been written **/
+	synchronized void awaitSpills() throws InterruptedException{
+		while(spillingBytes > 0){
+			wait();
+		}
+	}
+
+	/**
+	 * Drops all the entries and deletes the spill files of this log
+	 */
+	public synchronized void close(){
+		for(Segment segment : segments){
+			drop(segment);
+		}
+		segments.clear();
+		freeSegments.clear();
+		size = 0;
+		nextIndex = 0;
+	}
+
+	/** Releases a segment removed from the list **/
+	private void drop(Segment segment){
+		if(segment.isSpilled()){
+			spilledSegments--;
+			segment.deleteSpill();
+		}
+		else if(segment.spilling){
+			// The spill thread is still reading its buffer, it deletes the file once it is written
+			segment.dropped = true;
+			memoryBytes -= segment.data.capacity();
+		}
+		else{
+			memoryBytes -= segment.data.capacity();
+			recycle(segment);
+		}
+	}
+
+	/** Hands the oldest segments in memory, never the tail, to the spill thread until the ones left fit in memoryLimit **/
+	private void spillIfNeeded(){
+		if(memoryLimit <= 0){
+			return;
+		}
+		for(int i = 0; i < segments.size()-1 && memoryBytes - spillingBytes > memoryLimit; i++){
+			final Segment segment = segments.get(i);
+			if(segment.isSpilled() || segment.spilling){
+				continue;
+			}
+			segment.spilling = true;
+			spillingBytes += segment.data.capacity();
+			// Entries are only appended to the tail, so the content of this segment does not change while it is written
+			final ByteBuffer content = segment.data.duplicate();
+			spiller.execute(new Runnable(){
+				@Override
+				public void run(){
+					File file = null;
+					FileChannel channel = null;
+					try{
+						if(!spillDir.exists()){
+							spillDir.mkdirs();
+						}
+						file = File.createTempFile(SPILL_PREFIX, SPILL_SUFFIX, spillDir);
+						channel = new RandomAccessFile(file, "rw").getChannel();
+						content.flip();
+						while(content.hasRemaining()){
+							channel.write(content);
+						}
+					}
+					catch(IOException io){
+						// The segment stays in memory
+						LOG.error("-> Could not spill output log segment to {}: {}", spillDir, io.getMessage());
+						closeQuietly(channel, file);
+						file = null;
+						channel = null;
+					}
+					spilled(segment, file, channel);
+				}
+			});
+		}
+	}
+
+	private synchronized void spilled(Segment segment, File file, FileChannel channel){
+		segment.spilling = false;
+		spillingBytes -= segment.data.capacity();
+		if(segment.dropped){
+			// Trimmed or closed while it was written
+			closeQuietly(channel, file);
+		}
+		else if(file != null){
+			ByteBuffer released = segment.data;
+			segment.spilled(file, channel);
+			spilledSegments++;
+			memoryBytes -= released.capacity();
+			if(released.capacity() == segmentSize && freeSegments.size() < MAX_FREE_SEGMENTS){
+				released.clear();
+				freeSegments.add(new Segment(released));
+			}
+		}
+		notifyAll();
+	}
+
+	private static void closeQuietly(FileChannel channel, File file){
+		try{
+			if(channel != null){
+				channel.close();
+			}
+		}
+		catch(IOException io){
+			LOG.warn("-> Could not close spilled output log segment {}", file);
+		}
+		if(file != null && !file.delete()){
+			LOG.warn("-> Could not delete spilled output log segment {}", file);
+		}
+	}
+
+	/**
+	 * The first time a log of this JVM uses dir, deletes the spill files left there by a previous run, and the ones of this run when
+	 * the JVM exits
+	 */
+	private static void cleanSpillDir(final File dir){
+		synchronized(cleanedDirs){
+			if(!cleanedDirs.add(dir.getAbsoluteFile())){
+				return;
+			}
+			deleteSpillFiles(dir);
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+				@Override
+				public void run(){
+					deleteSpillFiles(dir);
+				}
+			}, "outputLogCleanT"));
+		}
+	}
+
+	private static void deleteSpillFiles(File dir){
+		File[] files = dir.listFiles();
+		if(files == null){
+			return;
+		}
+		for(File file : files){
+			String name = file.getName();
+			if(name.startsWith(SPILL_PREFIX) && name.endsWith(SPILL_SUFFIX) && !file.delete()){
+				LOG.warn("-> Could not delete output log segment {}", file);
+			}
+		}
+	}
+
+	private Segment newSegment(int capacity){
+		Segment segment = freeSegments.poll();
+		if(segment == null || segment.data.capacity() < capacity){
+			segment = new Segment(capacity);
+		}
+		segment.setStride(TimestampTracker.width());
+		return segment;
+	}
+
+	private void recycle(Segment segment){
+		// Only segments of the regular size are reused, bigger ones hold a single large entry
+		if(segment.data.capacity() == segmentSize && freeSegments.size() < MAX_FREE_SEGMENTS){
+			segment.reset();
+			freeSegments.add(segment);
+		}
+	}
+
+	static class Segment{
+
+		// Null once the segment has been spilled
+		ByteBuffer data;
+		File spillFile;
+		FileChannel spillChannel;
+		// Being written by the spill thread
+		boolean spilling = false;
+		// Removed from the log while it was being spilled
+		boolean dropped = false;
+		long baseIndex;
+		// Entries before first have been trimmed
+		int first = 0;
+		int count = 0;
+		long[] outputTs = new long[64];
+		int[] offsets = new int[64];
+		int[] lengths = new int[64];
+		int[] tuples = new int[64];
+		// Snapshot of the input timestamps of each entry, stride values per entry
+		int stride = 0;
+		long[] inputVTs = new long[0];
+
+		Segment(int capacity){
+			this(ByteBuffer.allocateDirect(capacity));
+		}
+
+		Segment(ByteBuffer data){
+			this.data = data;
+		}
+
+		void setStride(int stride){
+			this.stride = stride;
+			if(inputVTs.length < outputTs.length * stride){
+				inputVTs = new long[outputTs.length * stride];
+			}
+		}
+
+		TimestampTracker getInputVTs(int i){
+			return new TimestampTracker(inputVTs, i * stride, stride);
+		}
+
+		boolean isSpilled(){
+			return data == null;
+		}
+
+		/** The payloads are now read from file, the buffer that held them is no longer used by this segment **/
+		void spilled(File file, FileChannel channel){
+			data = null;
+			spillFile = file;
+			spillChannel = channel;
+		}
+
+		void deleteSpill(){
+			closeQuietly(spillChannel, spillFile);
+		}
+
+		void add(byte[] bytes, int offset, int length, int numTuples, long ts, TimestampTracker vts){
+			if(count == outputTs.length){
+				int newLength = count * 2;
+				outputTs = Arrays.copyOf(outputTs, newLength);
+				offsets = Arrays.copyOf(offsets, newLength);
+				lengths = Arrays.copyOf(lengths, newLength);
+				tuples = Arrays.copyOf(tuples, newLength);
+				inputVTs = Arrays.copyOf(inputVTs, newLength * stride);
+			}
+			outputTs[count] = ts;
+			offsets[count] = data.position();
+			lengths[count] = length;
+			tuples[count] = numTuples;
+			if(vts != null){
+				vts.snapshot(inputVTs, count * stride, stride);
+			}
+			else{
+				Arrays.fill(inputVTs, count * stride, (count + 1) * stride, 0);
+			}
+			data.put(bytes, offset, length);
+			count++;
+		}
+
+		OutputLogEntry get(int i){
+			byte[] bytes = new byte[lengths[i]];
+			if(isSpilled()){
+				readSpilled(offsets[i], bytes);
+			}
+			else{
+				ByteBuffer view = data.duplicate();
+				view.position(offsets[i]);
+				view.get(bytes);
+			}
+			return new OutputLogEntry(outputTs[i], Arrays.copyOfRange(inputVTs, i * stride, (i + 1) * stride), bytes, tuples[i]);
+		}
+
+		private void readSpilled(long position, byte[] bytes){
+			ByteBuffer dst = ByteBuffer.wrap(bytes);
+			try{
+				while(dst.hasRemaining()){
+					if(spillChannel.read(dst, position + dst.position()) < 0){
+						throw new IOException("end of file");
+					}
+				}
+			}
+			catch(IOException io){
+				throw new IllegalStateException("Cannot read spilled output log segment "+spillFile, io);
+			}
+		}
+
+		/** First entry from first with an output timestamp greater than ts **/
+		int upperBound(long ts){
+			int lo = first;
+			int hi = count;
+			while(lo < hi){
+				int mid = (lo + hi) >>> 1;
+				if(outputTs[mid] <= ts){
+					lo = mid + 1;
+				}
+				else{
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+
+		/** First entry from first with an output timestamp not smaller than ts **/
+		int lowerBound(long ts){
+			int lo = first;
+			int hi = count;
+			while(lo < hi){
+				int mid = (lo + hi) >>> 1;
+				if(outputTs[mid] < ts){
+					lo = mid + 1;
+				}
+				else{
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+
+		void reset(){
+			data.clear();
+			first = 0;
+			count = 0;
+			spilling = false;
+			dropped = false;
+		}
+	}
+}
@@ -11,18 +11,29 @@
 package uk.ac.imperial.lsds.seep.buffer;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
-import uk.ac.imperial.lsds.seep.runtimeengine.TimestampTracker;
 
 public class OutputLogEntry {
 
 	public long outputTs;
-	public TimestampTracker inputVTs;
+	// Snapshot of the input timestamps, by the index of each stream in TimestampTracker
+	public long[] inputVTs;
 	public BatchTuplePayload batch;
+	// The batch serialised, as kept in the OutputLog
+	public byte[] data;
+	// Tuples in the batch
+	public int tuples;
 	
-	public OutputLogEntry(long outputTs, TimestampTracker inputVTs, BatchTuplePayload batch){
+	public OutputLogEntry(long outputTs, long[] inputVTs, BatchTuplePayload batch){
 		this.outputTs = outputTs;
 		this.inputVTs = inputVTs;
 		this.batch = batch;
 	}
 	
+	public OutputLogEntry(long outputTs, long[] inputVTs, byte[] data, int tuples){
+		this.outputTs = outputTs;
+		this.inputVTs = inputVTs;
+		this.data = data;
+		this.tuples = tuples;
+	}
+	
 }
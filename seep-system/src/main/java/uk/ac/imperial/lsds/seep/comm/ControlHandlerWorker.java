@@ -26,6 +26,8 @@ import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.Ack;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.BackupNodeState;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.BackupOperatorState;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.BackupRI;
+import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.BackupStateAck;
+import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.Credit;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.InitNodeState;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.InitOperatorState;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.InitRI;
@@ -87,6 +89,8 @@ public class ControlHandlerWorker implements Runnable{
 		k.register(InitRI.class);
 		k.register(InvalidateState.class);
 		k.register(ReconfigureConnection.class);
+		k.register(Credit.class);
+		k.register(BackupStateAck.class);
 		return k;
 	}
 
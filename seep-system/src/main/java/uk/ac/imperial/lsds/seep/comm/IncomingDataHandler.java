@@ -12,12 +12,21 @@ package uk.ac.imperial.lsds.seep.comm;
 
 import java.io.IOException;
 import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+
+import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.runtimeengine.CoreRE;
 import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureAdapter;
+import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureI;
 
 /**
 * IncomingDataHandler. This is in charge of managing incoming data connections and associate a thread to them
@@ -33,6 +42,12 @@ public class IncomingDataHandler implements Runnable{
 	private boolean goOn;
 	private Map<String, Integer> idxMapper;
 	private DataStructureAdapter dsa;
+	// Receive with a few selector threads instead of a thread per upstream. Upstreams must then send framed batches
+	public static final boolean nioDataReceive = GLOBALS.valueFor("nioDataReceive").equals("true");
+	// Upstreams in the same JVM hand their batches over in memory instead of connecting to the data port
+	public static final boolean localDataChannels = GLOBALS.valueFor("localDataChannels").equals("true");
+	// Handlers running in this JVM, by the address of their data port
+	private static final Map<InetSocketAddress, IncomingDataHandler> localHandlers = new ConcurrentHashMap<InetSocketAddress, IncomingDataHandler>();
 
 	public int getConnPort(){
 		return connPort;
@@ -51,7 +66,37 @@ public class IncomingDataHandler implements Runnable{
 		this.dsa = dsa;
 	}
 
+	/**
+	 * Returns the handler listening in ip and port if it runs in this JVM, null otherwise
+	 */
+	public static IncomingDataHandler getLocalHandler(InetAddress ip, int port){
+		return localHandlers.get(new InetSocketAddress(ip, port));
+	}
+
+	/**
+	 * Opens an in-memory data connection for the upstream opId, which must run in this JVM
+	 */
+	public LocalDataConnection openLocalConnection(int opId){
+		int originalOpId = owner.getOriginalUpstreamFromOpId(opId);
+		DataStructureI dso = null;
+		if(dsa.getUniqueDso() != null){
+			dso = dsa.getUniqueDso();
+		}
+		else{
+			dso = dsa.getDataStructureIForOp(originalOpId);
+		}
+		LOG.info("-> New local data connection from op: {}", opId);
+		return new LocalDataConnection(owner, opId, idxMapper, dso);
+	}
+
 	public void run(){
+		if(localDataChannels){
+			localHandlers.put(new InetSocketAddress(owner.getNodeDescr().getIp(), connPort), this);
+		}
+		if(nioDataReceive){
+			runSelectors();
+			return;
+		}
 		ServerSocket incDataServerSocket = null;
 		try{
 			//Establish listening port
@@ -75,4 +120,47 @@ public class IncomingDataHandler implements Runnable{
 			io.printStackTrace();
 		}
 	}
+	
+	/**
+	 * Accepts upstream connections and hands them to a fixed number of IncomingDataSelector threads, so that the number of threads
+	 * does not grow with the number of upstreams
+	 */
+	private void runSelectors(){
+		ServerSocketChannel incDataServerChannel = null;
+		try{
+			int numSelectors = Math.max(1, Integer.parseInt(GLOBALS.valueFor("nioReceiveThreads")));
+			IncomingDataSelector[] selectors = new IncomingDataSelector[numSelectors];
+			for(int i = 0; i < numSelectors; i++){
+				selectors[i] = new IncomingDataSelector(owner, idxMapper, dsa);
+				Thread selectorT = new Thread(selectors[i], "dataSelectorT-"+i);
+				selectorT.start();
+			}
+			//Establish listening port
+			incDataServerChannel = ServerSocketChannel.open();
+			incDataServerChannel.socket().setReuseAddress(true);
+			incDataServerChannel.socket().bind(new InetSocketAddress(connPort));
+			LOG.info("-> IncomingDataHandler listening in port: {} with {} selectors", connPort, numSelectors);
+			while(goOn){
+				SocketChannel sc = incDataServerChannel.accept();
+				// Give the new connection to the least loaded selector
+				IncomingDataSelector target = selectors[0];
+				for(int i = 1; i < numSelectors; i++){
+					if(selectors[i].getNumberOfConnections() < target.getNumberOfConnections()){
+						target = selectors[i];
+					}
+				}
+				target.addConnection(sc);
+			}
+			incDataServerChannel.close();
+		}
+		catch(BindException be){
+			LOG.error("-> BIND EXC IO Error "+be.getMessage());
+			LOG.error("-> Was trying to connect to: "+connPort);
+			be.printStackTrace();
+		}
+		catch(IOException io){
+			LOG.error("-> IncomingDataHandler. While listening incoming conns "+io.getMessage());
+			io.printStackTrace();
+		}
+	}
 }
@@ -25,8 +25,12 @@ import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TupleSchema;
 import uk.ac.imperial.lsds.seep.comm.serialization.serializers.ArrayListSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.BatchTuplePayloadSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.TuplePayloadSerializer;
 import uk.ac.imperial.lsds.seep.infrastructure.NodeManager;
+import uk.ac.imperial.lsds.seep.reliable.BarrierAligner;
 import uk.ac.imperial.lsds.seep.runtimeengine.CoreRE;
 import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureAdapter;
 import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureI;
@@ -34,7 +38,7 @@ import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureI;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 
-public class IncomingDataHandlerWorker implements Runnable{
+public class IncomingDataHandlerWorker implements Runnable, BarrierAligner.Channel{
 
 	final private Logger LOG = LoggerFactory.getLogger(IncomingDataHandlerWorker.class);
 	
@@ -44,6 +48,10 @@ public class IncomingDataHandlerWorker implements Runnable{
 	private Map<String, Integer> idxMapper;
 	private DataStructureAdapter dsa;
 	private Kryo k = null;
+	// Upstream of this connection, and its input queue
+	private int opId;
+	private DataStructureI dso = null;
+	private long lastIncomingTs = -1;
 	
 	public IncomingDataHandlerWorker(Socket upstreamSocket, CoreRE owner, Map<String, Integer> idxMapper, DataStructureAdapter dsa){
 		//upstream id
@@ -62,8 +70,11 @@ public class IncomingDataHandlerWorker implements Runnable{
 		
 		k.register(ArrayList.class, new ArrayListSerializer());
 		k.register(Payload.class);
-		k.register(TuplePayload.class);
-		k.register(BatchTuplePayload.class);
+		k.register(TuplePayload.class, new TuplePayloadSerializer());
+		k.register(BatchTuplePayload.class, new BatchTuplePayloadSerializer());
+		k.register(TupleSchema.class);
+		k.register(long[].class);
+		k.register(Object[].class);
 		return k;
 	}
 	
@@ -94,10 +105,9 @@ public class IncomingDataHandlerWorker implements Runnable{
 		/** experimental sync **/
 		try{
 			// Get incomingOp id
-			int opId = owner.getOpIdFromInetAddress(((InetSocketAddress)upstreamSocket.getRemoteSocketAddress()).getAddress());
+			opId = owner.getOpIdFromInetAddress(((InetSocketAddress)upstreamSocket.getRemoteSocketAddress()).getAddress());
 			int originalOpId = owner.getOriginalUpstreamFromOpId(opId);
 			
-			DataStructureI dso = null;
 			if(dsa.getUniqueDso() != null){
 				dso = dsa.getUniqueDso();
 				LOG.info("-> Unique data adapter in this node: "+dso);
@@ -112,31 +122,12 @@ public class IncomingDataHandlerWorker implements Runnable{
 			Input i = new Input(bis);
 			BatchTuplePayload batchTuplePayload = null;
 
-			long lastIncomingTs = -1;
+			BarrierAligner aligner = owner.getBarrierAligner();
 			
 			while(goOn){
 				batchTuplePayload = k.readObject(i, BatchTuplePayload.class);
-				ArrayList<TuplePayload> batch = batchTuplePayload.batch;
-				for(TuplePayload t_payload : batch){
-					long incomingTs = t_payload.timestamp;
-					// Check for already processed data
-					/// \todo{should be <= but the problem is that logical clock in java has ms granularity. This means that once you
-					/// send more than 1000 events per second, some events are discarded here, since their ts is the same...}
-					if(incomingTs < lastIncomingTs){
-						System.out.println("Duplicate");
-						continue;
-					}
-					owner.setTsData(opId, incomingTs);
-					lastIncomingTs = incomingTs;
-					//Put data in inputQueue
-					if(owner.checkSystemStatus()){
-						DataTuple reg = new DataTuple(idxMapper, t_payload);
-						
-						dso.push(reg);
-					}
-					else{
-						///\todo{check for garbage in the tcp buffers}
-					}
+				if(aligner == null || !aligner.offer(opId, batchTuplePayload, this, dso)){
+					push(batchTuplePayload);
 				}
 			}
 			LOG.error("-> Data connection closing...");
@@ -147,4 +138,33 @@ public class IncomingDataHandlerWorker implements Runnable{
 			io.printStackTrace();
 		}
 	}
+	
+	/**
+	 * Pushes the tuples of a batch to the input queue and grants their credits back to the upstream
+	 */
+	public void push(BatchTuplePayload batchTuplePayload){
+		ArrayList<TuplePayload> batch = batchTuplePayload.batch;
+		for(TuplePayload t_payload : batch){
+			long incomingTs = t_payload.timestamp;
+			// Check for already processed data
+			/// \todo{should be <= but the problem is that logical clock in java has ms granularity. This means that once you
+			/// send more than 1000 events per second, some events are discarded here, since their ts is the same...}
+			if(incomingTs < lastIncomingTs){
+				System.out.println("Duplicate");
+				continue;
+			}
+			owner.setTsData(opId, incomingTs);
+			lastIncomingTs = incomingTs;
+			//Put data in inputQueue
+			if(owner.checkSystemStatus()){
+				DataTuple reg = new DataTuple(idxMapper, t_payload);
+				
+				dso.push(reg);
+			}
+			else{
+				///\todo{check for garbage in the tcp buffers}
+			}
+		}
+		owner.returnCredits(opId, batch.size());
+	}
 }
@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.imperial.lsds.seep.GLOBALS;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TupleSchema;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.ArrayListSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.BatchTuplePayloadSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.TuplePayloadSerializer;
+import uk.ac.imperial.lsds.seep.reliable.BarrierAligner;
+import uk.ac.imperial.lsds.seep.runtimeengine.CoreRE;
+import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureAdapter;
+import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureI;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+
+/**
+* IncomingDataSelector. Reads the data of many upstream connections from a single thread. Upstreams send each batch as a frame,
+* its length in bytes followed by the batch, so a batch is only decoded once all its bytes have been read into the buffer of the
+* connection. Used instead of one IncomingDataHandlerWorker per connection when nioDataReceive is enabled. A connection that sends a
+* frame that cannot be decoded, or whose length is negative or above maxFrameSize, is closed without affecting the others.
+*/
+public class IncomingDataSelector implements Runnable{
+
+	final private Logger LOG = LoggerFactory.getLogger(IncomingDataSelector.class);
+
+	private static final int FRAME_HEADER_SIZE = 4;
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_FRAME_SIZE = Integer.parseInt(GLOBALS.valueFor("maxFrameSize"));
+
+	private CoreRE owner = null;
+	private boolean goOn;
+	private Map<String, Integer> idxMapper;
+	private DataStructureAdapter dsa;
+	private Kryo k = null;
+	private Input input = new Input();
+
+	private Selector selector;
+	// Connections accepted by IncomingDataHandler, registered in the selector by this thread
+	private ConcurrentLinkedQueue<SocketChannel> pendingConnections = new ConcurrentLinkedQueue<SocketChannel>();
+	private AtomicInteger numConnections = new AtomicInteger(0);
+
+	/**
+	 * State of one upstream connection, attached to its SelectionKey
+	 */
+	private class UpstreamConnection implements BarrierAligner.Channel{
+		int opId;
+		DataStructureI dso;
+		ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		long lastIncomingTs = -1;
+
+		@Override
+		public void push(BatchTuplePayload batchTuplePayload){
+			deliver(this, batchTuplePayload);
+		}
+	}
+
+	public IncomingDataSelector(CoreRE owner, Map<String, Integer> idxMapper, DataStructureAdapter dsa) throws IOException{
+		this.owner = owner;
+		this.goOn = true;
+		this.idxMapper = idxMapper;
+		this.dsa = dsa;
+		this.k = initializeKryo();
+		this.selector = Selector.open();
+	}
+
+	private Kryo initializeKryo(){
+		//optimize here kryo
+		Kryo k = new Kryo();
+		k.setClassLoader(owner.getRuntimeClassLoader());
+
+		k.register(ArrayList.class, new ArrayListSerializer());
+		k.register(Payload.class);
+		k.register(TuplePayload.class, new TuplePayloadSerializer());
+		k.register(BatchTuplePayload.class, new BatchTuplePayloadSerializer());
+		k.register(TupleSchema.class);
+		k.register(long[].class);
+		k.register(Object[].class);
+		return k;
+	}
+
+	public void addConnection(SocketChannel sc){
+		numConnections.incrementAndGet();
+		pendingConnections.add(sc);
+		selector.wakeup();
+	}
+
+	public int getNumberOfConnections(){
+		return numConnections.get();
+	}
+
+	@Override
+	public void run(){
+		while(goOn){
+			try{
+				registerPendingConnections();
+				selector.select();
+				Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+				while(selectedKeys.hasNext()){
+					SelectionKey key = selectedKeys.next();
+					selectedKeys.remove();
+					if(!key.isValid()){
+						continue;
+					}
+					if(key.isReadable()){
+						read(key);
+					}
+				}
+			}
+			catch(IOException io){
+				LOG.error("-> IncomingDataSelector. While checking the selector events "+io.getMessage());
+				io.printStackTrace();
+			}
+			catch(RuntimeException re){
+				// The other connections of this selector keep being served
+				LOG.error("-> IncomingDataSelector. While registering connections "+re.toString());
+			}
+		}
+	}
+
+	private void registerPendingConnections() throws IOException{
+		SocketChannel sc = null;
+		while((sc = pendingConnections.poll()) != null){
+			UpstreamConnection conn = new UpstreamConnection();
+			conn.opId = owner.getOpIdFromInetAddress(((InetSocketAddress)sc.socket().getRemoteSocketAddress()).getAddress());
+			int originalOpId = owner.getOriginalUpstreamFromOpId(conn.opId);
+			if(dsa.getUniqueDso() != null){
+				conn.dso = dsa.getUniqueDso();
+			}
+			else{
+				conn.dso = dsa.getDataStructureIForOp(originalOpId);
+			}
+			sc.configureBlocking(false);
+			sc.register(selector, SelectionKey.OP_READ, conn);
+			LOG.info("-> New upstream data connection from op: {}", conn.opId);
+		}
+	}
+
+	private void read(SelectionKey key){
+		SocketChannel sc = (SocketChannel) key.channel();
+		UpstreamConnection conn = (UpstreamConnection) key.attachment();
+		try{
+			int read = sc.read(conn.buffer);
+			if(read == -1){
+				LOG.error("-> Data connection closing...");
+				close(key);
+				return;
+			}
+			conn.buffer.flip();
+			while(deliverFrame(conn)){
+				// Keep going while there are complete frames in the buffer
+			}
+			conn.buffer.compact();
+		}
+		catch(IOException io){
+			LOG.error("-> IncomingDataSelector. IO Error "+io.getMessage());
+			close(key);
+		}
+		catch(KryoException ke){
+			LOG.error("-> IncomingDataSelector. Bad batch from op: {}, closing its connection {}", conn.opId, ke.getMessage());
+			close(key);
+		}
+		catch(RuntimeException re){
+			LOG.error("-> IncomingDataSelector. While delivering data from op: {}, closing its connection {}", conn.opId, re.toString());
+			close(key);
+		}
+	}
+
+	private void close(SelectionKey key){
+		key.cancel();
+		numConnections.decrementAndGet();
+		try{
+			key.channel().close();
+		}
+		catch(IOException io){
+			io.printStackTrace();
+		}
+	}
+
+	/**
+	 * Decodes and delivers the next batch of conn if all its bytes are in the buffer, which is in read mode. Returns false when the
+	 * frame is not complete yet, after making sure the buffer is large enough to hold it. Throws an IOException when the length of
+	 * the frame cannot be right, as the stream of the connection cannot be read any further.
+	 */
+	private boolean deliverFrame(UpstreamConnection conn) throws IOException{
+		ByteBuffer buffer = conn.buffer;
+		if(buffer.remaining() < FRAME_HEADER_SIZE){
+			return false;
+		}
+		int length = buffer.getInt(buffer.position());
+		if(length < 0 || length > MAX_FRAME_SIZE){
+			throw new IOException("Frame of "+length+" bytes from op: "+conn.opId+", maxFrameSize is "+MAX_FRAME_SIZE);
+		}
+		if(buffer.remaining() < FRAME_HEADER_SIZE + length){
+			if(buffer.capacity() < FRAME_HEADER_SIZE + length){
+				ByteBuffer bigger = ByteBuffer.allocate(Math.max(FRAME_HEADER_SIZE + length, buffer.capacity() * 2));
+				bigger.put(buffer);
+				bigger.flip();
+				conn.buffer = bigger;
+			}
+			return false;
+		}
+		int start = buffer.arrayOffset() + buffer.position() + FRAME_HEADER_SIZE;
+		input.setBuffer(buffer.array(), start, length);
+		BatchTuplePayload batchTuplePayload = k.readObject(input, BatchTuplePayload.class);
+		buffer.position(buffer.position() + FRAME_HEADER_SIZE + length);
+		BarrierAligner aligner = owner.getBarrierAligner();
+		if(aligner == null || !aligner.offer(conn.opId, batchTuplePayload, conn, conn.dso)){
+			deliver(conn, batchTuplePayload);
+		}
+		return true;
+	}
+
+	private void deliver(UpstreamConnection conn, BatchTuplePayload batchTuplePayload){
+		ArrayList<TuplePayload> batch = batchTuplePayload.batch;
+		for(TuplePayload t_payload : batch){
+			long incomingTs = t_payload.timestamp;
+			// Check for already processed data, see IncomingDataHandlerWorker
+			if(incomingTs < conn.lastIncomingTs){
+				continue;
+			}
+			owner.setTsData(conn.opId, incomingTs);
+			conn.lastIncomingTs = incomingTs;
+			//Put data in inputQueue
+			if(owner.checkSystemStatus()){
+				DataTuple reg = new DataTuple(idxMapper, t_payload);
+				conn.dso.push(reg);
+			}
+		}
+		owner.returnCredits(conn.opId, batch.size());
+	}
+}
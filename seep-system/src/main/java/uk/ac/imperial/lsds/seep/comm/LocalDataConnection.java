@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.reliable.BarrierAligner;
+import uk.ac.imperial.lsds.seep.runtimeengine.CoreRE;
+import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureI;
+
+/**
+* LocalDataConnection. Receiving end of a data connection from an upstream running in the same JVM. The upstream hands its batches
+* over in memory, so tuples reach the input queue of this operator without being serialised. Created by IncomingDataHandler.
+*/
+public class LocalDataConnection implements BarrierAligner.Channel {
+
+	private CoreRE owner;
+	private int opId;
+	private Map<String, Integer> idxMapper;
+	private DataStructureI dso;
+	private long lastIncomingTs = -1;
+
+	public LocalDataConnection(CoreRE owner, int opId, Map<String, Integer> idxMapper, DataStructureI dso){
+		this.owner = owner;
+		this.opId = opId;
+		this.idxMapper = idxMapper;
+		this.dso = dso;
+	}
+
+	public int getOpId(){
+		return opId;
+	}
+
+	/**
+	 * Pushes the tuples of batch to the input queue, with the same checks as IncomingDataHandlerWorker. Called from the delivery thread
+	 * of the LocalCommunicationChannel of the upstream, which blocks while the queue is full and so throttles the upstream. The barrier aligner is given the batch before taking the lock of this
+	 * connection, as it may deliver the batches it holds from the thread of another upstream.
+	 */
+	public void deliver(BatchTuplePayload batchTuplePayload){
+		BarrierAligner aligner = owner.getBarrierAligner();
+		if(aligner == null || !aligner.offer(opId, batchTuplePayload, this, dso)){
+			push(batchTuplePayload);
+		}
+	}
+
+	@Override
+	public synchronized void push(BatchTuplePayload batchTuplePayload){
+		ArrayList<TuplePayload> batch = batchTuplePayload.batch;
+		for(TuplePayload t_payload : batch){
+			long incomingTs = t_payload.timestamp;
+			// Check for already processed data
+			if(incomingTs < lastIncomingTs){
+				continue;
+			}
+			owner.setTsData(opId, incomingTs);
+			lastIncomingTs = incomingTs;
+			//Put data in inputQueue
+			if(owner.checkSystemStatus()){
+				DataTuple reg = new DataTuple(idxMapper, t_payload);
+				dso.push(reg);
+			}
+		}
+	}
+}
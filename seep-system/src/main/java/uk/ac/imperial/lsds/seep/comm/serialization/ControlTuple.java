@@ -17,6 +17,8 @@ import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.Ack;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.BackupOperatorState;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.BackupRI;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.CloseSignal;
+import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.BackupStateAck;
+import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.Credit;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.DistributedScaleOutInfo;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.InitOperatorState;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.InitRI;
@@ -59,6 +61,8 @@ public class ControlTuple {
 	private StateChunk stateChunk;
 	private StreamState streamState;
 	private KeyBounds keyBounds;
+	private Credit credit;
+	private BackupStateAck backupStateAck;
 
 	public ControlTuple(){}
 	
@@ -215,6 +219,22 @@ public class ControlTuple {
 		return keyBounds;
 	}
 	
+	public void setCredit(Credit credit){
+		this.credit = credit;
+	}
+	
+	public Credit getCredit(){
+		return credit;
+	}
+	
+	public void setBackupStateAck(BackupStateAck backupStateAck){
+		this.backupStateAck = backupStateAck;
+	}
+	
+	public BackupStateAck getBackupStateAck(){
+		return backupStateAck;
+	}
+	
 	public void setStreamState(StreamState streamState){
 		this.streamState = streamState;
 	}
@@ -346,6 +366,24 @@ public class ControlTuple {
 		return this;
 	}
 	
+	public ControlTuple makeCredit(int opId, int credits){
+		this.type = CoreRE.ControlTupleType.CREDIT;
+		this.credit = new Credit(opId, credits);
+		return this;
+	}
+	
+	public ControlTuple makeCredit(int opId, int credits, long ackTs){
+		this.type = CoreRE.ControlTupleType.CREDIT;
+		this.credit = new Credit(opId, credits, ackTs);
+		return this;
+	}
+	
+	public ControlTuple makeBackupStateAck(int opId, long checkpointId, boolean accepted){
+		this.type = CoreRE.ControlTupleType.BACKUP_STATE_ACK;
+		this.backupStateAck = new BackupStateAck(opId, checkpointId, accepted);
+		return this;
+	}
+	
 	public ControlTuple makeStreamState(int targetOpId){
 		this.type = CoreRE.ControlTupleType.STREAM_STATE;
 		this.streamState = new StreamState(targetOpId);
@@ -14,12 +14,18 @@ import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
+import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TupleSchema;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TupleSchema.Type;
 
 public class DataTuple implements DataTupleI, Serializable{
 
 	private static final long serialVersionUID = 1L;
+	// When enabled, fixed-width attributes are stored in primitive slots instead of boxed in a Payload
+	private static final boolean compiledLayout = "true".equals(GLOBALS.valueFor("compiledTupleLayout"));
+	
 	private TuplePayload payload;
 	private final Map<String, Integer> idxMapper;
 
@@ -37,7 +43,7 @@ public class DataTuple implements DataTupleI, Serializable{
 	
 	public int size(){
 //		if(payload == null || payload.attrValues == null) return 0;
-		return payload.attrValues.size();
+		return payload.size();
 	}
 	
 	/** */
@@ -59,13 +65,31 @@ public class DataTuple implements DataTupleI, Serializable{
 	}
 	
 	public void setValuesMutable(Object...objects){
-		payload.attrValues = new Payload(objects);
+		setAttrValues(payload, objects);
+	}
+	
+	private static void setAttrValues(TuplePayload tp, Object[] objects){
+		TupleSchema schema = null;
+		if(compiledLayout){
+			schema = TupleSchema.forValues(objects);
+		}
+		if(schema != null){
+			schema.compile(tp, objects);
+		}
+		else{
+			tp.schema = null;
+			tp.schemaId = 0;
+			tp.fixedValues = null;
+			tp.varValues = null;
+			tp.rawValues = null;
+			tp.attrValues = new Payload(objects);
+		}
 	}
 	
 	/** EXPERIMENTAL **/
 	public DataTuple setValues(Object...objects){
 		TuplePayload tp = new TuplePayload();
-		tp.attrValues = new Payload(objects);
+		setAttrValues(tp, objects);
 		tp.timestamp = this.payload.timestamp;
 		tp.instrumentation_ts = this.payload.instrumentation_ts;
 		DataTuple dt = new DataTuple(idxMapper, tp);
@@ -76,7 +100,7 @@ public class DataTuple implements DataTupleI, Serializable{
 	@Deprecated
 	public DataTuple _setValues(Object[] objects){
 		TuplePayload tp = new TuplePayload();
-		tp.attrValues = new Payload(objects);
+		setAttrValues(tp, objects);
 		tp.timestamp = this.payload.timestamp;
 		tp.instrumentation_ts = this.payload.instrumentation_ts;
 		DataTuple dt = new DataTuple(idxMapper, tp);
@@ -85,7 +109,7 @@ public class DataTuple implements DataTupleI, Serializable{
 	
 	public DataTuple newTuple(Object...objects){
 		TuplePayload tp = new TuplePayload();
-		tp.attrValues = new Payload(objects);
+		setAttrValues(tp, objects);
 		tp.timestamp = System.currentTimeMillis();
 		tp.instrumentation_ts =  tp.timestamp;
 		DataTuple dt = new DataTuple(idxMapper, tp);
@@ -96,88 +120,242 @@ public class DataTuple implements DataTupleI, Serializable{
 	@Deprecated
 	public DataTuple _newTuple(Object[] objects){
 		TuplePayload tp = new TuplePayload();
-		tp.attrValues = new Payload(objects);
+		setAttrValues(tp, objects);
 		tp.timestamp = System.currentTimeMillis();
 		tp.instrumentation_ts =  tp.timestamp;
 		DataTuple dt = new DataTuple(idxMapper, tp);
 		return dt;
 	}
 	
+	private Object valueAt(int idx){
+		if(payload.isCompiled()){
+			return payload.schema.value(payload, idx);
+		}
+		return payload.attrValues.get(idx);
+	}
+	
+	private boolean isFixed(int idx, Type type){
+		return payload.isCompiled() && payload.schema.is(idx, type);
+	}
+	
+	private long rawAt(int idx){
+		return payload.schema.rawValue(payload, idx);
+	}
+	
 	@Override
 	public Byte getByte(String attribute) {
-		return (Byte)payload.attrValues.get(idxMapper.get(attribute));
+		int idx = idxMapper.get(attribute);
+		if(isFixed(idx, Type.BYTE)){
+			return (byte)rawAt(idx);
+		}
+		return (Byte)valueAt(idx);
 	}
 
 	@Override
 	public byte[] getByteArray(String attribute) {
-		return (byte[])payload.attrValues.get(idxMapper.get(attribute));
+		return (byte[])valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public Character getChar(String attribute) {
-		return (Character)payload.attrValues.get(idxMapper.get(attribute));
+		int idx = idxMapper.get(attribute);
+		if(isFixed(idx, Type.CHAR)){
+			return (char)rawAt(idx);
+		}
+		return (Character)valueAt(idx);
 	}
 
 	@Override
 	public Double getDouble(String attribute) {
-		return (Double)payload.attrValues.get(idxMapper.get(attribute));
+		int idx = idxMapper.get(attribute);
+		if(isFixed(idx, Type.DOUBLE)){
+			return Double.longBitsToDouble(rawAt(idx));
+		}
+		return (Double)valueAt(idx);
 	}
 
 	@Override
 	public double[] getDoubleArray(String attribute) {
-		return (double[])payload.attrValues.get(idxMapper.get(attribute));
+		return (double[])valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public Float getFloat(String attribute) {
-		return (Float)payload.attrValues.get(idxMapper.get(attribute));
+		int idx = idxMapper.get(attribute);
+		if(isFixed(idx, Type.FLOAT)){
+			return Float.intBitsToFloat((int)rawAt(idx));
+		}
+		return (Float)valueAt(idx);
 	}
 
 	@Override
 	public Integer getInt(String attribute) {
-		return (Integer)payload.attrValues.get(idxMapper.get(attribute));
+		int idx = idxMapper.get(attribute);
+		if(isFixed(idx, Type.INT)){
+			return (int)rawAt(idx);
+		}
+		return (Integer)valueAt(idx);
 	}
 
 	@Override
 	public int[] getIntArray(String attribute) {
-		return (int[])payload.attrValues.get(idxMapper.get(attribute));
+		return (int[])valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public float[] getFloatArray(String attribute) {
-		return (float[])payload.attrValues.get(idxMapper.get(attribute));
+		return (float[])valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public Long getLong(String attribute) {
-		return (Long)payload.attrValues.get(idxMapper.get(attribute));
+		int idx = idxMapper.get(attribute);
+		if(isFixed(idx, Type.LONG)){
+			return rawAt(idx);
+		}
+		return (Long)valueAt(idx);
 	}
 
 	@Override
 	public Short getShort(String attribute) {
-		return (Short)payload.attrValues.get(idxMapper.get(attribute));
+		int idx = idxMapper.get(attribute);
+		if(isFixed(idx, Type.SHORT)){
+			return (short)rawAt(idx);
+		}
+		return (Short)valueAt(idx);
 	}
 
 	@Override
 	public String getString(String attribute) {
-		return (String)payload.attrValues.get(idxMapper.get(attribute));
+		return (String)valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public String[] getStringArray(String attribute) {
-		return (String[])payload.attrValues.get(idxMapper.get(attribute));
+		return (String[])valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public Object getValue(String attribute) {
 //		System.out.println("getValue = attrValues.size -> "+payload.attrValues.size()+" accessed in "+idxMapper.get(attribute));
-		return (Object)payload.attrValues.get(idxMapper.get(attribute));
+		return valueAt(idxMapper.get(attribute));
 	}
 	
 	@Override
 	public boolean getBoolean(String attribute){
 //		System.out.println("getBoolean = attrValues.size -> "+payload.attrValues.size()+" accessed in "+idxMapper.get(attribute));
-		return (Boolean)payload.attrValues.get(idxMapper.get(attribute));
+		int idx = idxMapper.get(attribute);
+		if(isFixed(idx, Type.BOOLEAN)){
+			return rawAt(idx) != 0;
+		}
+		return (Boolean)valueAt(idx);
+	}
+	
+	@Override
+	public Object getValue(FieldRef<?> field) {
+		return valueAt(field.getIndex());
+	}
+	
+	@Override
+	public String getString(FieldRef<String> field) {
+		return (String)valueAt(field.getIndex());
+	}
+	
+	@Override
+	public String[] getStringArray(FieldRef<String[]> field) {
+		return (String[])valueAt(field.getIndex());
+	}
+	
+	@Override
+	public char getChar(FieldRef<Character> field) {
+		int idx = field.getIndex();
+		if(isFixed(idx, Type.CHAR)){
+			return (char)rawAt(idx);
+		}
+		return (Character)valueAt(idx);
+	}
+	
+	@Override
+	public byte getByte(FieldRef<Byte> field) {
+		int idx = field.getIndex();
+		if(isFixed(idx, Type.BYTE)){
+			return (byte)rawAt(idx);
+		}
+		return (Byte)valueAt(idx);
+	}
+	
+	@Override
+	public byte[] getByteArray(FieldRef<byte[]> field) {
+		return (byte[])valueAt(field.getIndex());
+	}
+	
+	@Override
+	public int getInt(FieldRef<Integer> field) {
+		int idx = field.getIndex();
+		if(isFixed(idx, Type.INT)){
+			return (int)rawAt(idx);
+		}
+		return (Integer)valueAt(idx);
+	}
+	
+	@Override
+	public int[] getIntArray(FieldRef<int[]> field) {
+		return (int[])valueAt(field.getIndex());
+	}
+	
+	@Override
+	public short getShort(FieldRef<Short> field) {
+		int idx = field.getIndex();
+		if(isFixed(idx, Type.SHORT)){
+			return (short)rawAt(idx);
+		}
+		return (Short)valueAt(idx);
+	}
+	
+	@Override
+	public long getLong(FieldRef<Long> field) {
+		int idx = field.getIndex();
+		if(isFixed(idx, Type.LONG)){
+			return rawAt(idx);
+		}
+		return (Long)valueAt(idx);
+	}
+	
+	@Override
+	public float getFloat(FieldRef<Float> field) {
+		int idx = field.getIndex();
+		if(isFixed(idx, Type.FLOAT)){
+			return Float.intBitsToFloat((int)rawAt(idx));
+		}
+		return (Float)valueAt(idx);
+	}
+	
+	@Override
+	public double getDouble(FieldRef<Double> field) {
+		int idx = field.getIndex();
+		if(isFixed(idx, Type.DOUBLE)){
+			return Double.longBitsToDouble(rawAt(idx));
+		}
+		return (Double)valueAt(idx);
+	}
+	
+	@Override
+	public double[] getDoubleArray(FieldRef<double[]> field) {
+		return (double[])valueAt(field.getIndex());
+	}
+	
+	@Override
+	public float[] getFloatArray(FieldRef<float[]> field) {
+		return (float[])valueAt(field.getIndex());
+	}
+	
+	@Override
+	public boolean getBoolean(FieldRef<Boolean> field) {
+		int idx = field.getIndex();
+		if(isFixed(idx, Type.BOOLEAN)){
+			return rawAt(idx) != 0;
+		}
+		return (Boolean)valueAt(idx);
 	}
 	
 	@Override
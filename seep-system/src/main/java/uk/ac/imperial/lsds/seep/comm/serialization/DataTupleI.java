@@ -32,4 +32,24 @@ public interface DataTupleI {
 	public float[] getFloatArray(String attribute);
 	public boolean getBoolean(String attribute);
 	
+	/**
+	 * Direct access methods. The attribute is resolved once into a FieldRef, so no map lookup is done per access
+	 */
+	
+	public Object getValue(FieldRef<?> field);
+	public String getString(FieldRef<String> field);
+	public String[] getStringArray(FieldRef<String[]> field);
+	public char getChar(FieldRef<Character> field);
+	public byte getByte(FieldRef<Byte> field);
+	public byte[] getByteArray(FieldRef<byte[]> field);
+	public int getInt(FieldRef<Integer> field);
+	public int[] getIntArray(FieldRef<int[]> field);
+	public short getShort(FieldRef<Short> field);
+	public long getLong(FieldRef<Long> field);
+	public float getFloat(FieldRef<Float> field);
+	public double getDouble(FieldRef<Double> field);
+	public double[] getDoubleArray(FieldRef<double[]> field);
+	public float[] getFloatArray(FieldRef<float[]> field);
+	public boolean getBoolean(FieldRef<Boolean> field);
+	
 }
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * FieldRef. A tuple attribute resolved once (typically in setUp()) to its position in the tuple, so that operators can read it
+ * with DataTuple.getInt(ref) and friends without a map lookup per access. T is the type of the attribute and only documents
+ * which getter must be used.
+ */
+public class FieldRef<T> implements Serializable{
+
+	private static final long serialVersionUID = 1L;
+
+	private final String attribute;
+	private final int idx;
+
+	private FieldRef(String attribute, int idx){
+		this.attribute = attribute;
+		this.idx = idx;
+	}
+
+	public static <T> FieldRef<T> resolve(Map<String, Integer> idxMapper, String attribute){
+		Integer idx = idxMapper.get(attribute);
+		if(idx == null){
+			throw new IllegalArgumentException("Attribute "+attribute+" has not been declared as a working attribute");
+		}
+		return new FieldRef<T>(attribute, idx);
+	}
+
+	public String getAttribute(){
+		return attribute;
+	}
+
+	public int getIndex(){
+		return idx;
+	}
+
+	@Override
+	public String toString(){
+		return "FieldRef [attribute="+attribute+", idx="+idx+"]";
+	}
+}
@@ -25,6 +25,9 @@ public class BackupOperatorState implements Serializable{
 	private StateWrapper state;
 	private ArrayList<OutputBuffer> outputBuffers = null;
 	private String stateClass;
+	// Checkpoints of an operator are numbered. A delta holds the changes since the checkpoint previousCheckpointId, a full state has -1
+	private long checkpointId = 0;
+	private long previousCheckpointId = -1;
 	
 	public BackupOperatorState(){}
 	
@@ -60,4 +63,24 @@ public class BackupOperatorState implements Serializable{
 		this.outputBuffers = outputBuffers;
 	}
 	
+	public long getCheckpointId(){
+		return checkpointId;
+	}
+	
+	public void setCheckpointId(long checkpointId){
+		this.checkpointId = checkpointId;
+	}
+	
+	public long getPreviousCheckpointId(){
+		return previousCheckpointId;
+	}
+	
+	public void setPreviousCheckpointId(long previousCheckpointId){
+		this.previousCheckpointId = previousCheckpointId;
+	}
+	
+	public boolean isDelta(){
+		return previousCheckpointId >= 0;
+	}
+	
 }
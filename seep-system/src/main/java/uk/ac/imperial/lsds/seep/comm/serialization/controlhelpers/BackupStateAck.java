@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers;
+
+public class BackupStateAck {
+
+	private int opId;
+	private long checkpointId;
+	// false if the state could not be kept, e.g. a delta that does not follow the checkpoint kept
+	private boolean accepted;
+	
+	public BackupStateAck(){}
+	
+	public BackupStateAck(int opId, long checkpointId, boolean accepted){
+		this.opId = opId;
+		this.checkpointId = checkpointId;
+		this.accepted = accepted;
+	}
+	
+	public int getOpId() {
+		return opId;
+	}
+	public void setOpId(int opId) {
+		this.opId = opId;
+	}
+	public long getCheckpointId() {
+		return checkpointId;
+	}
+	public void setCheckpointId(long checkpointId) {
+		this.checkpointId = checkpointId;
+	}
+	public boolean isAccepted() {
+		return accepted;
+	}
+	public void setAccepted(boolean accepted) {
+		this.accepted = accepted;
+	}
+}
@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers;
+
+public class Credit {
+
+	private int opId;
+	private int credits;
+	// ts acknowledged to the upstream along with the credits, 0 if there is no ACK piggybacked
+	private long ackTs;
+	
+	public Credit(){}
+	
+	public Credit(int opId, int credits){
+		this.opId = opId;
+		this.credits = credits;
+	}
+	
+	public Credit(int opId, int credits, long ackTs){
+		this.opId = opId;
+		this.credits = credits;
+		this.ackTs = ackTs;
+	}
+	
+	public int getOpId() {
+		return opId;
+	}
+	public void setOpId(int opId) {
+		this.opId = opId;
+	}
+	public int getCredits() {
+		return credits;
+	}
+	public void setCredits(int credits) {
+		this.credits = credits;
+	}
+	public long getAckTs() {
+		return ackTs;
+	}
+	public void setAckTs(long ackTs) {
+		this.ackTs = ackTs;
+	}
+}
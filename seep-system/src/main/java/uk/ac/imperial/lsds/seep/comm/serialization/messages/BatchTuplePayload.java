@@ -17,6 +17,8 @@ public class BatchTuplePayload {
 	public int batchSize = 0;
 	public ArrayList<TuplePayload> batch = new ArrayList<TuplePayload>();
 	public long outputTs = -1;
+	// Epoch of the barrier when this is a barrier of the barrier checkpoint mode, which carries no tuples, 0 otherwise
+	public long barrier = 0;
 	
 	public synchronized void addTuple(TuplePayload payload){
 		outputTs = payload.timestamp; //update the newest ts in the batch
@@ -40,4 +42,23 @@ public class BatchTuplePayload {
 	public int size(){
 		return batch.size();
 	}
+	
+	/**
+	 * Returns a batch with a copy of each tuple, see TuplePayload.copy()
+	 */
+	public synchronized BatchTuplePayload copy(){
+		BatchTuplePayload copy = new BatchTuplePayload();
+		copy.batch = new ArrayList<TuplePayload>(batch.size());
+		for(TuplePayload tp : batch){
+			copy.batch.add(tp.copy());
+		}
+		copy.batchSize = batchSize;
+		copy.outputTs = outputTs;
+		copy.barrier = barrier;
+		return copy;
+	}
+	
+	public boolean isBarrier(){
+		return barrier != 0;
+	}
 }
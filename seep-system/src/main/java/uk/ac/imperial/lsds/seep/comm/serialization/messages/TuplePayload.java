@@ -12,6 +12,8 @@ package uk.ac.imperial.lsds.seep.comm.serialization.messages;
 
 import java.io.Serializable;
 
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.TuplePayloadSerializer;
+
 public class TuplePayload implements Serializable{
 	
 	public static final long serialVersionUID = 1L;
@@ -20,12 +22,77 @@ public class TuplePayload implements Serializable{
 	public Payload attrValues;
 	public long instrumentation_ts;
 	
+	// Compiled layout, used instead of attrValues when a schema is set
+	public TupleSchema schema;
+	public long[] fixedValues;
+	public Object[] varValues;
+	// Encoded attributes of a compiled tuple as received from the network, only decoded when they are accessed
+	public byte[] rawValues;
+	public int rawOffset;
+	public int rawLength;
+	
 	public TuplePayload(){
 		
 	}
 	
+	public boolean isCompiled(){
+		return schema != null;
+	}
+	
+	public boolean isRaw(){
+		return rawValues != null;
+	}
+	
+	public long[] getFixedValues(){
+		if(fixedValues == null && rawValues != null){
+			TuplePayloadSerializer.decodeFixed(this);
+		}
+		return fixedValues;
+	}
+	
+	public Object[] getVarValues(){
+		if(varValues == null && rawValues != null && schema.getNumVariable() > 0){
+			TuplePayloadSerializer.decodeVariable(this);
+		}
+		return varValues;
+	}
+	
+	/**
+	 * Returns a tuple with the same attributes that can be changed or decoded without affecting this one. Attribute arrays and values
+	 * are shared, as they are never changed in place
+	 */
+	public TuplePayload copy(){
+		TuplePayload tp = new TuplePayload();
+		tp.timestamp = timestamp;
+		tp.schemaId = schemaId;
+		tp.instrumentation_ts = instrumentation_ts;
+		if(attrValues != null){
+			tp.attrValues = new Payload();
+			tp.attrValues.addAll(attrValues);
+		}
+		tp.schema = schema;
+		tp.fixedValues = fixedValues;
+		tp.varValues = varValues;
+		tp.rawValues = rawValues;
+		tp.rawOffset = rawOffset;
+		tp.rawLength = rawLength;
+		return tp;
+	}
+	
+	public int size(){
+		return isCompiled() ? schema.size() : attrValues.size();
+	}
+	
 	@Override
 	public String toString(){
+		if(isCompiled()){
+			StringBuffer sb = new StringBuffer();
+			sb.append("VAL ");
+			for(int i = 0; i < schema.size(); i++){
+				sb.append(schema.value(this, i)+" ");
+			}
+			return sb.toString();
+		}
 		if(attrValues.size() > 0){
 			return attrValues.toString();
 		}
@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization.messages;
+
+import java.io.Serializable;
+
+/**
+ * TupleSchema. Describes the physical layout of a compiled TuplePayload. Fixed-width attributes (numbers, chars and booleans)
+ * are stored as raw bits in the primitive slots of TuplePayload.fixedValues, while variable-length attributes (strings, arrays,
+ * nulls and any other object) are kept in TuplePayload.varValues. Schemas are registered once per JVM, and the registry assigns
+ * their schemaId, so two shapes of tuple never share one. Ids are local to the JVM, tuples are sent with the attribute types of
+ * their schema. schemaId 0 is reserved for the boxed Payload layout.
+ */
+public class TupleSchema implements Serializable{
+
+	private static final long serialVersionUID = 1L;
+
+	public enum Type{
+		BYTE, SHORT, CHAR, INT, LONG, FLOAT, DOUBLE, BOOLEAN, VARIABLE
+	}
+
+	private static final Type[] TYPES = Type.values();
+
+	// Schemas seen in this JVM. Operators emit very few shapes of tuples, so a linear scan over this array is cheaper than hashing
+	private static volatile TupleSchema[] knownSchemas = new TupleSchema[0];
+
+	private int schemaId;
+	private byte[] types;
+	private int[] slots;
+	private int numFixed;
+	private int numVariable;
+
+	private TupleSchema(){
+		// For serialization
+	}
+
+	private TupleSchema(Type[] attributeTypes){
+		types = new byte[attributeTypes.length];
+		for(int i = 0; i < attributeTypes.length; i++){
+			types[i] = (byte)attributeTypes[i].ordinal();
+		}
+		computeLayout();
+	}
+
+	private void computeLayout(){
+		slots = new int[types.length];
+		for(int i = 0; i < types.length; i++){
+			if(types[i] == Type.VARIABLE.ordinal()){
+				slots[i] = numVariable++;
+			}
+			else{
+				slots[i] = numFixed++;
+			}
+		}
+	}
+
+	public int getSchemaId(){
+		return schemaId;
+	}
+
+	public int size(){
+		return types.length;
+	}
+
+	public int getNumFixed(){
+		return numFixed;
+	}
+
+	public int getNumVariable(){
+		return numVariable;
+	}
+
+	public Type typeOf(int idx){
+		return TYPES[types[idx]];
+	}
+
+	public boolean is(int idx, Type type){
+		return types[idx] == type.ordinal();
+	}
+
+	public int slotOf(int idx){
+		return slots[idx];
+	}
+
+	/** Layout methods **/
+
+	/**
+	 * Returns the schema that describes values, registering a new one the first time a given shape is seen. Returns null if there are
+	 * no values, in which case the boxed layout is kept.
+	 */
+	public static TupleSchema forValues(Object[] values){
+		if(values == null || values.length == 0){
+			return null;
+		}
+		TupleSchema[] known = knownSchemas;
+		for(int i = 0; i < known.length; i++){
+			if(known[i].accepts(values)){
+				return known[i];
+			}
+		}
+		Type[] attributeTypes = new Type[values.length];
+		for(int i = 0; i < values.length; i++){
+			attributeTypes[i] = typeOfValue(values[i]);
+		}
+		return register(new TupleSchema(attributeTypes));
+	}
+
+	/**
+	 * Returns the registered schema with the given attribute types, registering it if this JVM has not seen it yet
+	 */
+	public static TupleSchema forTypes(Type[] attributeTypes){
+		return register(new TupleSchema(attributeTypes));
+	}
+
+	private static synchronized TupleSchema register(TupleSchema schema){
+		TupleSchema[] known = knownSchemas;
+		for(int i = 0; i < known.length; i++){
+			if(known[i].sameTypes(schema)){
+				return known[i];
+			}
+		}
+		// The id is the position in the registry + 1, as 0 means not compiled
+		schema.schemaId = known.length + 1;
+		TupleSchema[] newKnown = new TupleSchema[known.length + 1];
+		System.arraycopy(known, 0, newKnown, 0, known.length);
+		newKnown[known.length] = schema;
+		knownSchemas = newKnown;
+		return schema;
+	}
+
+	/**
+	 * Returns the registered schema with the given id, or null if this JVM has not seen it yet
+	 */
+	public static TupleSchema forId(int schemaId){
+		TupleSchema[] known = knownSchemas;
+		if(schemaId <= 0 || schemaId > known.length){
+			return null;
+		}
+		return known[schemaId - 1];
+	}
+
+	/**
+	 * A schema written by another JVM carries the id it had there, so it is replaced by the one registered here for the same types
+	 */
+	private Object readResolve(){
+		TupleSchema schema = new TupleSchema();
+		schema.types = types;
+		schema.computeLayout();
+		return register(schema);
+	}
+
+	public static Type typeOfValue(Object o){
+		if(o instanceof Integer) return Type.INT;
+		if(o instanceof Long) return Type.LONG;
+		if(o instanceof Float) return Type.FLOAT;
+		if(o instanceof Double) return Type.DOUBLE;
+		if(o instanceof Short) return Type.SHORT;
+		if(o instanceof Byte) return Type.BYTE;
+		if(o instanceof Character) return Type.CHAR;
+		if(o instanceof Boolean) return Type.BOOLEAN;
+		return Type.VARIABLE;
+	}
+
+	public boolean accepts(Object[] values){
+		if(values.length != types.length){
+			return false;
+		}
+		for(int i = 0; i < values.length; i++){
+			if(typeOfValue(values[i]).ordinal() != types[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean sameTypes(TupleSchema other){
+		if(other.types.length != types.length){
+			return false;
+		}
+		for(int i = 0; i < types.length; i++){
+			if(other.types[i] != types[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stores values in tp following this layout. Values must be accepted by this schema.
+	 */
+	public void compile(TuplePayload tp, Object[] values){
+		long[] fixed = new long[numFixed];
+		Object[] variable = (numVariable > 0) ? new Object[numVariable] : null;
+		for(int i = 0; i < values.length; i++){
+			if(types[i] == Type.VARIABLE.ordinal()){
+				variable[slots[i]] = values[i];
+			}
+			else{
+				fixed[slots[i]] = toRaw(values[i]);
+			}
+		}
+		tp.schema = this;
+		tp.schemaId = schemaId;
+		tp.fixedValues = fixed;
+		tp.varValues = variable;
+		tp.attrValues = null;
+		tp.rawValues = null;
+	}
+
+	public long rawValue(TuplePayload tp, int idx){
+		return tp.getFixedValues()[slots[idx]];
+	}
+
+	/**
+	 * Returns the attribute at idx as an object. This boxes fixed-width attributes, so it is meant for generic access only.
+	 */
+	public Object value(TuplePayload tp, int idx){
+		int slot = slots[idx];
+		if(types[idx] == Type.VARIABLE.ordinal()){
+			return tp.getVarValues()[slot];
+		}
+		long[] fixedValues = tp.getFixedValues();
+		switch(TYPES[types[idx]]){
+			case INT: return (int)fixedValues[slot];
+			case LONG: return fixedValues[slot];
+			case FLOAT: return Float.intBitsToFloat((int)fixedValues[slot]);
+			case DOUBLE: return Double.longBitsToDouble(fixedValues[slot]);
+			case SHORT: return (short)fixedValues[slot];
+			case BYTE: return (byte)fixedValues[slot];
+			case CHAR: return (char)fixedValues[slot];
+			case BOOLEAN: return fixedValues[slot] != 0;
+			default: return null;
+		}
+	}
+
+	public static long toRaw(Object o){
+		if(o instanceof Float) return Float.floatToRawIntBits((Float)o);
+		if(o instanceof Double) return Double.doubleToRawLongBits((Double)o);
+		if(o instanceof Character) return (Character)o;
+		if(o instanceof Boolean) return ((Boolean)o) ? 1 : 0;
+		return ((Number)o).longValue();
+	}
+
+	@Override
+	public String toString(){
+		StringBuffer sb = new StringBuffer();
+		sb.append("SCHEMA ").append(schemaId).append(" ");
+		for(int i = 0; i < types.length; i++){
+			sb.append(TYPES[types[i]]).append(" ");
+		}
+		return sb.toString();
+	}
+}
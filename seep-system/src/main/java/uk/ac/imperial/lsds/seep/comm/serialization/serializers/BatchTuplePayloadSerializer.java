@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization.serializers;
+
+import java.util.ArrayList;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TupleSchema;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Writes a BatchTuplePayload as a header followed by the tuples. Each tuple is tagged with a varint that is 0 for a boxed Payload or
+ * the position of its schema in the batch. A schema is written only the first time it appears in the batch, so a batch of tuples of
+ * the same shape pays for the schema once. Timestamps are written as deltas from the previous tuple, as they are very close. The
+ * header has the epoch of the barrier, 0 for batches of data.
+ */
+public class BatchTuplePayloadSerializer extends Serializer<BatchTuplePayload> {
+
+	private static final int CHUNK_SIZE = 8192;
+
+	private final boolean lazyDecoding;
+
+	public BatchTuplePayloadSerializer(){
+		this(TuplePayloadSerializer.defaultLazyDecoding);
+	}
+
+	public BatchTuplePayloadSerializer(boolean lazyDecoding){
+		this.lazyDecoding = lazyDecoding;
+	}
+
+	@Override
+	public void write(Kryo kryo, Output output, BatchTuplePayload batch) {
+		int size = batch.batch.size();
+		output.writeVarInt(size, true);
+		output.writeVarLong(batch.outputTs, false);
+		output.writeVarLong(batch.barrier, true);
+		// Schemas already written in this batch, there is normally just one
+		TupleSchema[] seen = new TupleSchema[1];
+		int numSeen = 0;
+		long lastTs = 0;
+		long lastInstrumentationTs = 0;
+		for(int i = 0; i < size; i++){
+			TuplePayload tp = batch.batch.get(i);
+			output.writeVarLong(tp.timestamp - lastTs, false);
+			output.writeVarLong(tp.instrumentation_ts - lastInstrumentationTs, false);
+			lastTs = tp.timestamp;
+			lastInstrumentationTs = tp.instrumentation_ts;
+			if(!tp.isCompiled()){
+				output.writeVarInt(0, true);
+				kryo.writeObjectOrNull(output, tp.attrValues, Payload.class);
+				continue;
+			}
+			int tag = 0;
+			for(int j = 0; j < numSeen; j++){
+				if(seen[j] == tp.schema){
+					tag = j + 1;
+					break;
+				}
+			}
+			if(tag == 0){
+				if(numSeen == seen.length){
+					TupleSchema[] grown = new TupleSchema[seen.length * 2];
+					System.arraycopy(seen, 0, grown, 0, numSeen);
+					seen = grown;
+				}
+				seen[numSeen++] = tp.schema;
+				output.writeVarInt(numSeen, true);
+				TuplePayloadSerializer.writeSchema(output, tp.schema);
+			}
+			else{
+				output.writeVarInt(tag, true);
+			}
+			TuplePayloadSerializer.writeValues(output, tp);
+		}
+	}
+
+	@Override
+	public BatchTuplePayload read(Kryo kryo, Input input, Class<BatchTuplePayload> type) {
+		BatchTuplePayload batch = new BatchTuplePayload();
+		kryo.reference(batch);
+		int size = input.readVarInt(true);
+		batch.outputTs = input.readVarLong(false);
+		batch.barrier = input.readVarLong(true);
+		ArrayList<TuplePayload> tuples = new ArrayList<TuplePayload>(size);
+		TupleSchema[] seen = new TupleSchema[1];
+		int numSeen = 0;
+		long lastTs = 0;
+		long lastInstrumentationTs = 0;
+		byte[] chunk = null;
+		int chunkPos = 0;
+		for(int i = 0; i < size; i++){
+			TuplePayload tp = new TuplePayload();
+			lastTs += input.readVarLong(false);
+			lastInstrumentationTs += input.readVarLong(false);
+			tp.timestamp = lastTs;
+			tp.instrumentation_ts = lastInstrumentationTs;
+			int tag = input.readVarInt(true);
+			if(tag == 0){
+				tp.attrValues = kryo.readObjectOrNull(input, Payload.class);
+			}
+			else{
+				if(tag > numSeen){
+					if(numSeen == seen.length){
+						TupleSchema[] grown = new TupleSchema[seen.length * 2];
+						System.arraycopy(seen, 0, grown, 0, numSeen);
+						seen = grown;
+					}
+					seen[numSeen++] = TuplePayloadSerializer.readSchema(input);
+				}
+				if(lazyDecoding){
+					// Keep the attributes encoded, copying the blocks of the batch into a few shared chunks
+					int length = input.readVarInt(true);
+					if(chunk == null || chunkPos + length > chunk.length){
+						chunk = new byte[Math.max(length, CHUNK_SIZE)];
+						chunkPos = 0;
+					}
+					input.readBytes(chunk, chunkPos, length);
+					TuplePayloadSerializer.setRawValues(tp, seen[tag - 1], chunk, chunkPos, length);
+					chunkPos += length;
+				}
+				else{
+					TuplePayloadSerializer.readValues(input, seen[tag - 1], tp);
+				}
+			}
+			tuples.add(tp);
+		}
+		batch.batch = tuples;
+		batch.batchSize = size;
+		return batch;
+	}
+}
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization.serializers;
+
+import java.util.ArrayList;
+
+import uk.ac.imperial.lsds.seep.GLOBALS;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TupleSchema;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TupleSchema.Type;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Writes a TuplePayload positionally following its TupleSchema. Integers are written as zigzag varints, floats and doubles as raw
+ * bits and only variable-length attributes carry a class id. Tuples without a schema fall back to the boxed Payload encoding.
+ * The static methods are shared with BatchTuplePayloadSerializer, which writes the schema once per batch instead of once per tuple.
+ *
+ * The attributes of a compiled tuple are written as a length-prefixed block, fixed-width attributes first. With lazyTupleDecoding
+ * the receiver keeps that block as bytes and only decodes it when an operator reads an attribute, and a tuple that is forwarded
+ * without being modified is written again by copying the block.
+ */
+public class TuplePayloadSerializer extends Serializer<TuplePayload> {
+
+	private static final Type[] TYPES = Type.values();
+	static final boolean defaultLazyDecoding = "true".equals(GLOBALS.valueFor("lazyTupleDecoding"));
+
+	// Attributes are decoded in the thread that reads them, which is not the one that received the tuple
+	private static final ThreadLocal<Codec> codec = new ThreadLocal<Codec>(){
+		@Override
+		protected Codec initialValue(){
+			return new Codec();
+		}
+	};
+
+	/**
+	 * Per thread encoding state. Variable-length attributes are written with their own Kryo, without references, so that the block
+	 * of a tuple does not depend on the rest of the stream and can be decoded on its own.
+	 */
+	private static class Codec{
+		final Kryo kryo = new Kryo();
+		final Output scratch = new Output(256, -1);
+		final Input input = new Input();
+
+		Codec(){
+			kryo.setReferences(false);
+			kryo.register(ArrayList.class, new ArrayListSerializer());
+			kryo.register(Object[].class);
+			kryo.register(String[].class);
+			kryo.register(byte[].class);
+			kryo.register(int[].class);
+			kryo.register(long[].class);
+			kryo.register(float[].class);
+			kryo.register(double[].class);
+		}
+	}
+
+	private final boolean lazyDecoding;
+
+	public TuplePayloadSerializer(){
+		this(defaultLazyDecoding);
+	}
+
+	public TuplePayloadSerializer(boolean lazyDecoding){
+		this.lazyDecoding = lazyDecoding;
+	}
+
+	@Override
+	public void write(Kryo kryo, Output output, TuplePayload tp) {
+		output.writeVarLong(tp.timestamp, true);
+		output.writeVarLong(tp.instrumentation_ts, true);
+		if(tp.isCompiled()){
+			output.writeBoolean(true);
+			writeSchema(output, tp.schema);
+			writeValues(output, tp);
+		}
+		else{
+			output.writeBoolean(false);
+			kryo.writeObjectOrNull(output, tp.attrValues, Payload.class);
+		}
+	}
+
+	@Override
+	public TuplePayload read(Kryo kryo, Input input, Class<TuplePayload> type) {
+		TuplePayload tp = new TuplePayload();
+		kryo.reference(tp);
+		tp.timestamp = input.readVarLong(true);
+		tp.instrumentation_ts = input.readVarLong(true);
+		if(input.readBoolean()){
+			TupleSchema schema = readSchema(input);
+			if(lazyDecoding){
+				int length = input.readVarInt(true);
+				setRawValues(tp, schema, input.readBytes(length), 0, length);
+			}
+			else{
+				readValues(input, schema, tp);
+			}
+		}
+		else{
+			tp.attrValues = kryo.readObjectOrNull(input, Payload.class);
+		}
+		return tp;
+	}
+
+	public static void writeSchema(Output output, TupleSchema schema){
+		output.writeVarInt(schema.size(), true);
+		for(int i = 0; i < schema.size(); i++){
+			output.writeByte(schema.typeOf(i).ordinal());
+		}
+	}
+
+	public static TupleSchema readSchema(Input input){
+		Type[] attributeTypes = new Type[input.readVarInt(true)];
+		for(int i = 0; i < attributeTypes.length; i++){
+			attributeTypes[i] = TYPES[input.readByte()];
+		}
+		return TupleSchema.forTypes(attributeTypes);
+	}
+
+	/**
+	 * Writes the block with the attributes of a compiled tp. If tp still has the block it was received with, that is copied as is.
+	 */
+	public static void writeValues(Output output, TuplePayload tp){
+		if(tp.isRaw()){
+			output.writeVarInt(tp.rawLength, true);
+			output.writeBytes(tp.rawValues, tp.rawOffset, tp.rawLength);
+			return;
+		}
+		Codec c = codec.get();
+		Output scratch = c.scratch;
+		scratch.clear();
+		writeFixed(scratch, tp.schema, tp.fixedValues);
+		writeVariable(c.kryo, scratch, tp.schema, tp.varValues);
+		output.writeVarInt(scratch.position(), true);
+		output.writeBytes(scratch.getBuffer(), 0, scratch.position());
+	}
+
+	/**
+	 * Reads a block written by writeValues and decodes it into tp, which becomes compiled with the given schema
+	 */
+	public static void readValues(Input input, TupleSchema schema, TuplePayload tp){
+		input.readVarInt(true);
+		tp.schema = schema;
+		tp.schemaId = schema.getSchemaId();
+		tp.fixedValues = readFixed(input, schema);
+		tp.varValues = readVariable(codec.get().kryo, input, schema);
+		tp.attrValues = null;
+		tp.rawValues = null;
+	}
+
+	/**
+	 * Makes tp a compiled tuple whose attributes are still encoded in length bytes of buffer, starting at offset
+	 */
+	public static void setRawValues(TuplePayload tp, TupleSchema schema, byte[] buffer, int offset, int length){
+		tp.schema = schema;
+		tp.schemaId = schema.getSchemaId();
+		tp.fixedValues = null;
+		tp.varValues = null;
+		tp.attrValues = null;
+		tp.rawValues = buffer;
+		tp.rawOffset = offset;
+		tp.rawLength = length;
+	}
+
+	public static void decodeFixed(TuplePayload tp){
+		Input input = codec.get().input;
+		input.setBuffer(tp.rawValues, tp.rawOffset, tp.rawLength);
+		tp.fixedValues = readFixed(input, tp.schema);
+	}
+
+	public static void decodeVariable(TuplePayload tp){
+		Codec c = codec.get();
+		c.input.setBuffer(tp.rawValues, tp.rawOffset, tp.rawLength);
+		// Fixed-width attributes come first, so they are decoded on the way
+		long[] fixed = readFixed(c.input, tp.schema);
+		if(tp.fixedValues == null){
+			tp.fixedValues = fixed;
+		}
+		tp.varValues = readVariable(c.kryo, c.input, tp.schema);
+	}
+
+	private static void writeFixed(Output output, TupleSchema schema, long[] fixed){
+		for(int i = 0; i < schema.size(); i++){
+			int slot = schema.slotOf(i);
+			switch(schema.typeOf(i)){
+				case INT:
+				case SHORT:
+				case BYTE:
+					output.writeVarInt((int)fixed[slot], false);
+					break;
+				case CHAR:
+					output.writeVarInt((int)fixed[slot], true);
+					break;
+				case LONG:
+					output.writeVarLong(fixed[slot], false);
+					break;
+				case FLOAT:
+					output.writeInt((int)fixed[slot]);
+					break;
+				case DOUBLE:
+					output.writeLong(fixed[slot]);
+					break;
+				case BOOLEAN:
+					output.writeBoolean(fixed[slot] != 0);
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	private static long[] readFixed(Input input, TupleSchema schema){
+		long[] fixed = new long[schema.getNumFixed()];
+		for(int i = 0; i < schema.size(); i++){
+			int slot = schema.slotOf(i);
+			switch(schema.typeOf(i)){
+				case INT:
+				case SHORT:
+				case BYTE:
+					fixed[slot] = input.readVarInt(false);
+					break;
+				case CHAR:
+					fixed[slot] = input.readVarInt(true);
+					break;
+				case LONG:
+					fixed[slot] = input.readVarLong(false);
+					break;
+				case FLOAT:
+					fixed[slot] = input.readInt();
+					break;
+				case DOUBLE:
+					fixed[slot] = input.readLong();
+					break;
+				case BOOLEAN:
+					fixed[slot] = input.readBoolean() ? 1 : 0;
+					break;
+				default:
+					break;
+			}
+		}
+		return fixed;
+	}
+
+	private static void writeVariable(Kryo kryo, Output output, TupleSchema schema, Object[] variable){
+		for(int i = 0; i < schema.getNumVariable(); i++){
+			kryo.writeClassAndObject(output, variable[i]);
+		}
+	}
+
+	private static Object[] readVariable(Kryo kryo, Input input, TupleSchema schema){
+		if(schema.getNumVariable() == 0){
+			return null;
+		}
+		Object[] variable = new Object[schema.getNumVariable()];
+		for(int i = 0; i < variable.length; i++){
+			variable[i] = kryo.readClassAndObject(input);
+		}
+		return variable;
+	}
+}
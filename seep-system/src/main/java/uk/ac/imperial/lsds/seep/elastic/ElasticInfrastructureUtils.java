@@ -183,7 +183,8 @@ public class ElasticInfrastructureUtils {
     
 	public synchronized void scaleOutOperator(int opIdToParallelize, int newOpId, Node newNode){
 		try {
-			if(GLOBALS.valueFor("checkpointMode").equals("light-state")){
+			// Barrier checkpoints back up the whole state like light-state
+			if(GLOBALS.valueFor("checkpointMode").equals("light-state") || GLOBALS.valueFor("checkpointMode").equals("barrier")){
 				lightScaleOutOperator(opIdToParallelize, newOpId, newNode);
 			}
 			else if(GLOBALS.valueFor("checkpointMode").equals("large-state")){
@@ -47,7 +47,10 @@ import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TupleSchema;
 import uk.ac.imperial.lsds.seep.comm.serialization.serializers.ArrayListSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.BatchTuplePayloadSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.TuplePayloadSerializer;
 import uk.ac.imperial.lsds.seep.elastic.ElasticInfrastructureUtils;
 import uk.ac.imperial.lsds.seep.elastic.NodePoolEmptyException;
 import uk.ac.imperial.lsds.seep.elastic.ParallelRecoveryException;
@@ -475,6 +478,23 @@ public class Infrastructure {
 		}
 	}
 	
+	/**
+	 * Operators align barriers in their input queue, so every operator but the sources must ingest all its upstreams one at a time
+	 * into a single queue. Otherwise the barriers would not be forwarded, and the checkpoints downstream would never complete
+	 */
+	private void checkBarrierSupport() throws OperatorDeploymentException{
+		for(Operator op : ops){
+			if(op.getOpContext().isSource()){
+				continue;
+			}
+			Map<Integer, InputDataIngestionMode> modes = op.getOpContext().getInputDataIngestionModePerUpstream();
+			if(modes.size() != 1 || !modes.values().iterator().next().equals(InputDataIngestionMode.ONE_AT_A_TIME)){
+				throw new OperatorDeploymentException("Barrier checkpoints need a single ONE_AT_A_TIME input, op: "+op.getOperatorId()
+						+" ingests "+modes);
+			}
+		}
+	}
+	
 	public void broadcastState(Operator op){
 		for(StateWrapper s : states){
 			Node node = op.getOpContext().getOperatorStaticInformation().getMyNode();
@@ -484,6 +504,9 @@ public class Infrastructure {
 	
 	public void deployQuery() throws OperatorDeploymentException {
 		LOG.debug("-> Deploying query...");
+		if(GLOBALS.valueFor("checkpointMode").equals("barrier")){
+			checkBarrierSupport();
+		}
 		//First broadcast the information regarding the initialStarTopology
 		broadcastStarTopology();
 		
@@ -946,8 +969,11 @@ System.out.println("sending stream state to : "+op.getOperatorId());
 		Kryo k = new Kryo();
 		k.register(ArrayList.class, new ArrayListSerializer());
 		k.register(Payload.class);
-		k.register(TuplePayload.class);
-		k.register(BatchTuplePayload.class);
+		k.register(TuplePayload.class, new TuplePayloadSerializer());
+		k.register(BatchTuplePayload.class, new BatchTuplePayloadSerializer());
+		k.register(TupleSchema.class);
+		k.register(long[].class);
+		k.register(Object[].class);
 		try {
 			//OUT
 			FileOutputStream fos = new FileOutputStream(o);
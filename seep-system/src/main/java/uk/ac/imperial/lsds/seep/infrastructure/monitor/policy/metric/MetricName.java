@@ -15,7 +15,9 @@ public enum MetricName {
     HEAP_SIZE("memory"),
     HEAP_UTILIZATION("memory-usage"),
     QUEUE_LENGTH("queue-length"),
-    OPERATOR_LATENCY("latency");
+    OPERATOR_LATENCY("latency"),
+    BACKPRESSURE_TIME("backpressure"),
+    REPLAY_BYTES("replay-bytes");
     
     public static MetricName metric(String name) {
         return MetricName.fromValue(name);
@@ -104,4 +104,49 @@ public class DefaultMetricsNotifier implements MetricsNotifier {
             queueLength.dec(queueLength.getCount());
         }
     }    
+    
+    /**
+     * Notify time spent by an upstream waiting for credits of a downstream link.
+     * @param millis Time blocked, in milliseconds.
+     */
+    @Override
+    public void backpressure(long millis) {
+        Counter backpressureTime = metricRegistry.counter(
+                MetricName.BACKPRESSURE_TIME.getName());
+        
+        if (backpressureTime != null) {
+            backpressureTime.inc(millis);
+        }
+        
+        // Operator identifier is the downstream end of the link here
+        Counter linkBackpressureTime = metricRegistry.counter(
+                MetricName.BACKPRESSURE_TIME.getName() + "." + operatorId);
+        
+        if (linkBackpressureTime != null) {
+            linkBackpressureTime.inc(millis);
+        }
+    }
+    
+    /**
+     * Notify bytes of the output buffer replayed to a recovering downstream.
+     * @param bytes Bytes written.
+     */
+    @Override
+    public void replayed(long bytes) {
+        Counter replayBytes = metricRegistry.counter(
+                MetricName.REPLAY_BYTES.getName());
+        
+        if (replayBytes != null) {
+            replayBytes.inc(bytes);
+        }
+        
+        // Operator identifier is the downstream being replayed to, this counter
+        // is not reset on reads and gives the progress of the replay
+        Counter linkReplayBytes = metricRegistry.counter(
+                MetricName.REPLAY_BYTES.getName() + "." + operatorId);
+        
+        if (linkReplayBytes != null) {
+            linkReplayBytes.inc(bytes);
+        }
+    }
 }
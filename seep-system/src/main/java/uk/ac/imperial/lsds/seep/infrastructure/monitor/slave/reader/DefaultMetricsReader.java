@@ -41,6 +41,8 @@ public class DefaultMetricsReader implements MetricsReader {
     static {
         metricRegistry.register(MetricName.QUEUE_LENGTH.getName(), new Counter());
         metricRegistry.register(MetricName.OPERATOR_LATENCY.getName(), new Timer());
+        metricRegistry.register(MetricName.BACKPRESSURE_TIME.getName(), new Counter());
+        metricRegistry.register(MetricName.REPLAY_BYTES.getName(), new Counter());
     }
     
     private static final String MEMORY_HEAP_SIZE_KEY = "heap.used";
@@ -54,7 +56,9 @@ public class DefaultMetricsReader implements MetricsReader {
         MetricName.HEAP_SIZE,
         MetricName.HEAP_UTILIZATION,
         MetricName.QUEUE_LENGTH,
-        MetricName.OPERATOR_LATENCY
+        MetricName.OPERATOR_LATENCY,
+        MetricName.BACKPRESSURE_TIME,
+        MetricName.REPLAY_BYTES
     };
     
     private OperatingSystemMXBean operatingSystemMXBean;
@@ -110,6 +114,14 @@ public class DefaultMetricsReader implements MetricsReader {
             case OPERATOR_LATENCY:
                 value = readOperatorLatency();
                 break;
+                
+            case BACKPRESSURE_TIME:
+                value = readBackpressureTime();
+                break;
+                
+            case REPLAY_BYTES:
+                value = readReplayBytes();
+                break;
         }
 
         return value;
@@ -202,4 +214,42 @@ public class DefaultMetricsReader implements MetricsReader {
         
         return value;
     }
+    
+    /**
+     * Obtain time upstreams spent waiting for credits since the last read and 
+     * return as MetricValue (milliseconds)
+     */
+    private MetricValue readBackpressureTime() {
+        MetricValue value = null;
+        
+        Counter backpressureTime = metricRegistry
+                .counter(MetricName.BACKPRESSURE_TIME.getName());
+        
+        if (backpressureTime != null) {
+            long millis = backpressureTime.getCount();
+            backpressureTime.dec(millis);
+            value = MetricValue.millis(Long.valueOf(millis).intValue());
+        }
+        
+        return value;
+    }
+    
+    /**
+     * Obtain bytes replayed to recovering downstreams since the last read, the
+     * replay throughput over the monitoring period, and return as MetricValue (bytes)
+     */
+    private MetricValue readReplayBytes() {
+        MetricValue value = null;
+        
+        Counter replayBytes = metricRegistry
+                .counter(MetricName.REPLAY_BYTES.getName());
+        
+        if (replayBytes != null) {
+            long bytes = replayBytes.getCount();
+            replayBytes.dec(bytes);
+            value = MetricValue.bytes(Long.valueOf(bytes).intValue());
+        }
+        
+        return value;
+    }
 }
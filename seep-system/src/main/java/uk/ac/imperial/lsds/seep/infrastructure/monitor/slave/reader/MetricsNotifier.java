@@ -22,4 +22,8 @@ public interface MetricsNotifier {
     
     void inputQueueReset();
     
+    void backpressure(long millis);
+    
+    void replayed(long bytes);
+    
 }
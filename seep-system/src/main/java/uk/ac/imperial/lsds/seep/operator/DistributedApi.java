@@ -15,6 +15,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.FieldRef;
 
 public class DistributedApi implements API, CommunicationPrimitives, Serializable{
 
@@ -115,6 +116,21 @@ public class DistributedApi implements API, CommunicationPrimitives, Serializabl
 		return mapper;
 	}
 	
+	/**
+	 * Resolves attribute to its position in the tuples received by this operator. Meant to be called once, in setUp(), so that
+	 * processData() can access the attribute with DataTuple.getInt(field) and friends without a map lookup.
+	 */
+	public <T> FieldRef<T> getFieldRef(String attribute){
+		Map<String, Integer> mapper = null;
+		if(op.processingUnit != null){
+			mapper = op.processingUnit.getTupleAttributeMapper();
+		}
+		if(mapper == null){
+			mapper = getDataMapper();
+		}
+		return FieldRef.resolve(mapper, attribute);
+	}
+	
 	// System configuration
 	
 	public void disableCheckpointing(){
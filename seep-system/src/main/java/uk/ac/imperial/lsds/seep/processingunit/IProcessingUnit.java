@@ -58,6 +58,8 @@ public interface IProcessingUnit {
 		
 	public Map<String, Integer> createTupleAttributeMapper();
 	
+	public Map<String, Integer> getTupleAttributeMapper();
+	
 	public void processData(DataTuple data);
 	
 	public void processData(ArrayList<DataTuple> data);
@@ -97,6 +99,8 @@ public interface IProcessingUnit {
 	public void createAndRunAckWorker();
 
 	public TimestampTracker getLastACK();
+	
+	public long getReceivedTuples();
 
 	public void emitACK(TimestampTracker currentTs);
 	
@@ -21,6 +21,7 @@ import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Vector;
 
 import org.slf4j.Logger;
@@ -29,6 +30,7 @@ import org.slf4j.LoggerFactory;
 import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.buffer.Buffer;
 import uk.ac.imperial.lsds.seep.buffer.OutputBuffer;
+import uk.ac.imperial.lsds.seep.comm.IncomingDataHandler;
 import uk.ac.imperial.lsds.seep.infrastructure.WorkerNodeDescription;
 import uk.ac.imperial.lsds.seep.operator.EndPoint;
 import uk.ac.imperial.lsds.seep.operator.Operator;
@@ -36,6 +38,7 @@ import uk.ac.imperial.lsds.seep.operator.OperatorStaticInformation;
 import uk.ac.imperial.lsds.seep.operator.OperatorContext.PlacedOperator;
 import uk.ac.imperial.lsds.seep.runtimeengine.AsynchronousCommunicationChannel;
 import uk.ac.imperial.lsds.seep.runtimeengine.DisposableCommunicationChannel;
+import uk.ac.imperial.lsds.seep.runtimeengine.LocalCommunicationChannel;
 import uk.ac.imperial.lsds.seep.runtimeengine.SynchronousCommunicationChannel;
 
 import com.esotericsoftware.kryo.io.ByteBufferOutputStream;
@@ -48,6 +51,8 @@ public class PUContext {
 //	private WorkerNodeDescription nodeDescr = null;
 	
 	private final int CONTROL_SOCKET;
+	// Id of the operator that owns this context, the upstream of the downstream connections
+	private int ownOpId;
 	
 	private ArrayList<EndPoint> remoteUpstream = new ArrayList<EndPoint>();
 	private ArrayList<EndPoint> remoteDownstream = new ArrayList<EndPoint>();
@@ -152,6 +157,12 @@ public class PUContext {
 	
 	public void configureOperatorConnections(Operator op) {
 		
+		ownOpId = op.getOperatorId();
+		if(downstreamTypeConnection != null){
+			for(EndPoint ep : downstreamTypeConnection){
+				closeLocalChannel(ep);
+			}
+		}
 		downstreamTypeConnection = new Vector<EndPoint>();
 		upstreamTypeConnection = new Vector<EndPoint>();
 		configureDownstreamAndUpstreamConnections(op);	
@@ -242,17 +253,30 @@ public class PUContext {
 		
 		try{
 			if(type.equals("down")){
-				LOG.debug("-> Trying remote downstream conn to: {}/{}", ip.toString(), portD);
-				socketD = new Socket(ip, portD);
+				IncomingDataHandler localHandler = null;
+				if(IncomingDataHandler.localDataChannels){
+					localHandler = IncomingDataHandler.getLocalHandler(ip, portD);
+				}
+				if(localHandler == null){
+					LOG.debug("-> Trying remote downstream conn to: {}/{}", ip.toString(), portD);
+					socketD = new Socket(ip, portD);
+				}
 				if(portC != 0){
 					socketC = new Socket(ip, portC);
 				}
 				
 				Buffer buffer = new Buffer();
 				
-				SynchronousCommunicationChannel con = new SynchronousCommunicationChannel(opID, socketD, socketC, socketBlind, buffer);
-				downstreamTypeConnection.add(con);
-				remoteDownstream.add(con);
+				SynchronousCommunicationChannel con = null;
+				if(localHandler != null){
+					LOG.debug("-> Downstream {} runs in this JVM, data handed over in memory", opID);
+					con = new LocalCommunicationChannel(opID, socketC, buffer, localHandler.openLocalConnection(ownOpId));
+				}
+				else{
+					con = new SynchronousCommunicationChannel(opID, socketD, socketC, socketBlind, buffer);
+				}
+				replaceDownstream(downstreamTypeConnection, con);
+				replaceDownstream(remoteDownstream, con);
 /// \todo{here a 40000 is used, change this line to make it properly}
 				downstreamBuffers.put((portD-40000), buffer);
 			}
@@ -282,6 +306,27 @@ public class PUContext {
 	}
 	
 	
+	/** Puts con in place of the channel to the same operator, closing it, or adds it if there is none **/
+	private void replaceDownstream(List<EndPoint> channels, EndPoint con){
+		for(int i = 0; i < channels.size(); i++){
+			EndPoint old = channels.get(i);
+			if(old.getOperatorId() == con.getOperatorId()){
+				closeLocalChannel(old);
+				channels.set(i, con);
+				return;
+			}
+		}
+		channels.add(con);
+	}
+	
+	/** Stops the delivery thread of ep if it hands batches over in memory **/
+	private void closeLocalChannel(EndPoint ep){
+		if(ep instanceof LocalCommunicationChannel){
+			LOG.debug("-> Closing local channel to OP: {}", ep.getOperatorId());
+			((LocalCommunicationChannel)ep).close();
+		}
+	}
+	
 	public SynchronousCommunicationChannel getCCIfromOpId(int opId, String type){
 		if(type.equals("d")){
 			for(EndPoint ep : downstreamTypeConnection){
@@ -326,6 +371,7 @@ public class PUContext {
 					Buffer buf = downstreamBuffers.get(opId);
 					int index = opToReconfigure.getOpContext().getDownOpIndexFromOpId(opId);
 					SynchronousCommunicationChannel cci = new SynchronousCommunicationChannel(opId, dataS, controlS, blindS, buf);
+					closeLocalChannel(ep);
 					downstreamTypeConnection.set(index, cci);
 				}
 				catch(IOException io){
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.processingunit;
+
+import java.util.ArrayList;
+
+import uk.ac.imperial.lsds.seep.GLOBALS;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.reliable.BarrierTuple;
+import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureI;
+import uk.ac.imperial.lsds.seep.runtimeengine.RingInputQueue;
+
+/**
+* StatefulProcessingDispatcher. Only consumer of the input queue of a stateful operator running with multicore support. It routes each
+* tuple to the worker that owns its key, so that all the tuples with the same key are processed by the same worker, in order.
+*
+* The key space of the operator, [minBound, maxBound], is split in as many contiguous ranges as workers, so that the shards follow the
+* bounds set by the key space splits of the operator. Keys out of the bounds are assigned by modulo.
+*/
+public class StatefulProcessingDispatcher implements Runnable{
+
+	private StatefulProcessingUnit pu;
+	private DataStructureI dso;
+	private String keyAttribute;
+	private StatefulProcessingWorker[] workers;
+	// Tuples routed to each worker
+	private long[] dispatched;
+	private int drainBatchSize;
+
+	private int minBound;
+	private int maxBound;
+
+	public StatefulProcessingDispatcher(StatefulProcessingUnit pu, DataStructureI dso, String keyAttribute, StatefulProcessingWorker[] workers){
+		this.pu = pu;
+		this.dso = dso;
+		this.keyAttribute = keyAttribute;
+		this.workers = workers;
+		this.dispatched = new long[workers.length];
+		this.drainBatchSize = Integer.parseInt(GLOBALS.valueFor("drainBatchSize"));
+	}
+
+	public static int keyOf(Object value){
+		if(value instanceof Integer){
+			return (Integer)value;
+		}
+		else if(value instanceof Long){
+			long v = (Long)value;
+			return (int)(v ^ (v >>> 32));
+		}
+		return value == null ? 0 : value.hashCode();
+	}
+
+	public static int shardOf(int key, int minBound, int maxBound, int numberOfShards){
+		if(key < minBound || key > maxBound){
+			return ((key % numberOfShards) + numberOfShards) % numberOfShards;
+		}
+		long width = (long)maxBound - (long)minBound + 1;
+		return (int)((((long)key - minBound) * numberOfShards) / width);
+	}
+
+	private void dispatch(DataTuple dt){
+		int key = keyOf(dt.getValue(keyAttribute));
+		int shard = shardOf(key, minBound, maxBound, workers.length);
+		dispatched[shard]++;
+		workers[shard].getQueue().push(dt);
+	}
+
+	/**
+	 * When the key space of the operator changes, keys may move to another shard. The tuples already routed are processed before the new
+	 * bounds are used, so that a key is never processed by two workers at the same time
+	 */
+	private void refreshBounds(){
+		int min = pu.getMinBoundKeySpace();
+		int max = pu.getMaxBoundKeySpace();
+		if(min == minBound && max == maxBound){
+			return;
+		}
+		awaitWorkers();
+		minBound = min;
+		maxBound = max;
+	}
+
+	private void awaitWorkers(){
+		for(int i = 0; i < workers.length; i++){
+			while(workers[i].getProcessed() < dispatched[i]){
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Tuples are routed in order, so the state has all the tuples before a barrier once the workers have processed the ones routed
+	 */
+	private void dispatchOrCheckpoint(DataTuple dt){
+		if(dt instanceof BarrierTuple){
+			awaitWorkers();
+			pu.getOwner().processBarrier((BarrierTuple)dt);
+			return;
+		}
+		dispatch(dt);
+	}
+
+	@Override
+	public void run() {
+		minBound = pu.getMinBoundKeySpace();
+		maxBound = pu.getMaxBoundKeySpace();
+		if(dso instanceof RingInputQueue){
+			RingInputQueue ring = (RingInputQueue)dso;
+			ArrayList<DataTuple> batch = new ArrayList<DataTuple>(drainBatchSize);
+			while(true){
+				ring.drainTo(batch, drainBatchSize);
+				refreshBounds();
+				for(int i = 0; i < batch.size(); i++){
+					dispatchOrCheckpoint(batch.get(i));
+				}
+				batch.clear();
+			}
+		}
+		else{
+			while(true){
+				DataTuple dt = dso.pull();
+				refreshBounds();
+				dispatchOrCheckpoint(dt);
+			}
+		}
+	}
+}
@@ -12,24 +12,28 @@
  ******************************************************************************/
 package uk.ac.imperial.lsds.seep.processingunit;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.buffer.Buffer;
 import uk.ac.imperial.lsds.seep.buffer.OutputBuffer;
 import uk.ac.imperial.lsds.seep.comm.serialization.ControlTuple;
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.FieldRef;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.BackupOperatorState;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.InitOperatorState;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateChunk;
@@ -42,6 +46,7 @@ import uk.ac.imperial.lsds.seep.operator.StatefulOperator;
 import uk.ac.imperial.lsds.seep.reliable.ACKWorker;
 import uk.ac.imperial.lsds.seep.reliable.MemoryChunk;
 import uk.ac.imperial.lsds.seep.reliable.SerialiserWorker;
+import uk.ac.imperial.lsds.seep.reliable.StateMerger;
 import uk.ac.imperial.lsds.seep.reliable.StateBackupWorker;
 import uk.ac.imperial.lsds.seep.reliable.StateBackupWorker.CheckpointMode;
 import uk.ac.imperial.lsds.seep.reliable.StreamStateManager;
@@ -51,15 +56,22 @@ import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureAdapter;
 import uk.ac.imperial.lsds.seep.runtimeengine.DisposableCommunicationChannel;
 import uk.ac.imperial.lsds.seep.runtimeengine.JobBean;
 import uk.ac.imperial.lsds.seep.runtimeengine.OutputQueue;
+import uk.ac.imperial.lsds.seep.runtimeengine.RingInputQueue;
+import uk.ac.imperial.lsds.seep.runtimeengine.RingInputQueue.WaitStrategy;
 import uk.ac.imperial.lsds.seep.runtimeengine.SynchronousCommunicationChannel;
 import uk.ac.imperial.lsds.seep.runtimeengine.TimestampTracker;
+import uk.ac.imperial.lsds.seep.state.Incremental;
 import uk.ac.imperial.lsds.seep.state.LargeState;
 import uk.ac.imperial.lsds.seep.state.MalformedStateChunk;
+import uk.ac.imperial.lsds.seep.state.Mergeable;
 import uk.ac.imperial.lsds.seep.state.NullChunkWhileMerging;
+import uk.ac.imperial.lsds.seep.state.Snapshottable;
+import uk.ac.imperial.lsds.seep.state.State;
 import uk.ac.imperial.lsds.seep.state.Partitionable;
 import uk.ac.imperial.lsds.seep.state.StateWrapper;
 import uk.ac.imperial.lsds.seep.state.Streamable;
 import uk.ac.imperial.lsds.seep.state.Versionable;
+import uk.ac.imperial.lsds.seep.state.annotations.OperatorState;
 
 /**
  * mutex or lockstate in this class are the by default java mechanism, and my custom made locking mech. Mine performs slightly better but it is far less
@@ -131,11 +143,16 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 	// Mutex between data processing and state backup
 	private Semaphore mutex = new Semaphore(1);
 	
-	private Semaphore executorMutex;
+	// One lock per shard of the key space when running with multicore support
+	private Semaphore[] shardLocks;
+	// Shard lock of the worker thread that is running the operator
+	private ThreadLocal<Semaphore> workerShardLock = new ThreadLocal<Semaphore>();
 
 	//Operator and state managed by this processingUnit
 	private Operator runningOp = null;
 	private StateWrapper runningOpState = null;
+	// Tuple attribute positions, as built by createTupleAttributeMapper
+	private Map<String, Integer> tupleAttributeMapper = null;
 	private int minBoundKeySpace = Integer.MIN_VALUE;
 	private int maxBoundKeySpace = Integer.MAX_VALUE;
 
@@ -145,11 +162,20 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 	private Thread stateWorker;
 	private boolean isCheckpointEnabled = true;
 	private ArrayList<Integer> listOfManagedStates = new ArrayList<Integer>();
+	// Incremental checkpoints
+	private long lastCheckpointId = 0;
+	private int checkpointsSinceBase = 0;
+	private int lastBackupUpstreamIndex = -1;
+	// The last checkpoint could not be taken or kept by the backup, so the changes it marked are not in any delta and the next one must be full
+	private volatile boolean forceFullCheckpoint = false;
+	// ts covered by each checkpoint sent, acked upstream once the backup confirms it has kept that checkpoint
+	private final TreeMap<Long, TimestampTracker> unconfirmedCheckpoints = new TreeMap<Long, TimestampTracker>();
+	// Merges the chunks of state received while recovering in parallel, null when they are merged by the thread receiving them
+	private StateMerger<?> stateMerger = null;
         
-        protected ExecutorService poolOfThreads = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors()-1 );
+        protected ExecutorService poolOfThreads = Executors.newFixedThreadPool( Math.max(1, Runtime.getRuntime().availableProcessors()-1) );
 	
 	//Multi-core support
-	private Executor pool;
 	private boolean multiCoreEnabled;
 	private int numberOfWorkerThreads;
 	
@@ -165,6 +191,14 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 		LOG.debug("New keySpace bounds: ["+minBoundKeySpace+" "+maxBoundKeySpace+"]");
 	}
 	
+	public int getMinBoundKeySpace(){
+		return minBoundKeySpace;
+	}
+	
+	public int getMaxBoundKeySpace(){
+		return maxBoundKeySpace;
+	}
+	
 	public CheckpointMode getCheckpointMode(){
 		return sbw.getCheckpointMode();
 	}
@@ -298,22 +332,22 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 		else{
 			LOG.warn("-> No tuple MAPPER. This is fine as far as I am a SRC");
 		}
+		tupleAttributeMapper = idxMapper;
 		return idxMapper;
 	}
 	
+	@Override
+	public Map<String, Integer> getTupleAttributeMapper(){
+		return tupleAttributeMapper;
+	}
+	
 	/** Runtime methods **/
 	
 	@Override
 	public void processData(DataTuple data){
 		// Get the mutex		
 		if(multiCoreEnabled){
-			try {
-				executorMutex.acquire(numberOfWorkerThreads);
-			}
-			catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+			acquireAllShards();
 		}
 		// Mutex for data processing
 		else{
@@ -330,7 +364,7 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 		runningOp.processData(data);
 		// Release the mutex
 		if(multiCoreEnabled){
-			executorMutex.release(numberOfWorkerThreads);
+			releaseAllShards();
 		}
 		else{
 			mutex.release();
@@ -341,13 +375,7 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 	public void processData(ArrayList<DataTuple> data){
 		// Get the mutex
 		if(multiCoreEnabled){
-			try {
-				executorMutex.acquire(numberOfWorkerThreads);
-			}
-			catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+			acquireAllShards();
 		}
 		// Mutex for data processing
 		else{
@@ -364,7 +392,7 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 		runningOp.processData(data);
 		// Release the mutex		
 		if(multiCoreEnabled){
-			executorMutex.release(numberOfWorkerThreads);
+			releaseAllShards();
 		}
 		else{
 			mutex.release();
@@ -374,8 +402,12 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 	@Override
 	public void sendData(DataTuple dt, ArrayList<Integer> targets){
 		// Here user code (operator) returns from execution, so release mutex		
-		if(multiCoreEnabled){
-			executorMutex.release(numberOfWorkerThreads);
+		Semaphore shardLock = workerShardLock.get();
+		if(shardLock != null){
+			shardLock.release();
+		}
+		else if(multiCoreEnabled){
+			releaseAllShards();
 		}
 		else{
 			mutex.release();
@@ -407,14 +439,17 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 		}
 		// Here, user code can potentially keep modifying state, acquire the mutex
 		// Note that if user code finishes after this call, the mutex will be released after processData anyway, so it is safe to get the mutex here.
-		if(multiCoreEnabled){
+		if(shardLock != null){
 			try {
-				executorMutex.acquire(numberOfWorkerThreads);
+				shardLock.acquire();
 			}
 			catch (InterruptedException e) {
 				e.printStackTrace();
 			}
 		}
+		else if(multiCoreEnabled){
+			acquireAllShards();
+		}
 		// Mutex for data processing
 		else{
 			try {
@@ -548,6 +583,10 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 	@Override
 	public void reconfigureOperatorConnection(int opId, InetAddress ip){
 		//if(runningOp.getOperatorId() == opId){
+			EndPoint old = ctx.getCCIfromOpId(opId, "d");
+			if(outputQueue != null && old != null){
+				outputQueue.removeChannel(old);
+			}
 			ctx.updateConnection(opId, runningOp, ip);
 		//}
 //		else{
@@ -567,9 +606,39 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 	
 	/** State operations **/
 	public void checkpointAndBackupState(){
-		// Backup state
-		TimestampTracker tsVToAck = backupState();
-		if(tsVToAck != null){
+		// Backup state, its ts are acked when the backup confirms it, in backupStateAcked
+		backupState(null);
+	}
+	
+	/**
+	 * Checkpoint at a barrier. The state is backed up with the ts the barrier was aligned at, which are the ones acked, instead of the
+	 * current ones
+	 */
+	public void checkpointAndBackupState(TimestampTracker barrierTs){
+		backupState(barrierTs);
+	}
+	
+	/**
+	 * Called when the backup replies to checkpoint checkpointId. If it kept the checkpoint, the ts it covers are acked upstream, which
+	 * also covers any older checkpoint still unconfirmed. Otherwise nothing is acked and the next checkpoint is full, as the backup no
+	 * longer has a state the following deltas could be applied to
+	 */
+	public void backupStateAcked(long checkpointId, boolean accepted){
+		TimestampTracker tsVToAck = null;
+		synchronized(unconfirmedCheckpoints){
+			tsVToAck = unconfirmedCheckpoints.get(checkpointId);
+			if(accepted){
+				unconfirmedCheckpoints.headMap(checkpointId, true).clear();
+			}
+			else{
+				unconfirmedCheckpoints.remove(checkpointId);
+			}
+		}
+		if(!accepted){
+			LOG.warn("-> Backup did not keep checkpoint {}, next checkpoint will be full", checkpointId);
+			forceFullCheckpoint = true;
+		}
+		else if(tsVToAck != null){
 			owner.ack(tsVToAck);
 		}
 	}
@@ -599,7 +668,7 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 		int opId = runningOpState.getOwnerId();
 		ArrayList<OutputBuffer> outputBuffers = ctx.getOutputBuffers(); // copy of these buffers?
 		// Set ts for consistency, etc...
-		incomingTT = owner.getIncomingTT();
+		incomingTT = owner.getIncomingTT().copy();
 		///\todo{this assignment should go with the chunks ?? }
 		runningOpState.setData_ts(incomingTT);
 		((Versionable)runningOpState).setSnapshotMode(true); //((Versionable)vns).setSnapshotMode(true);
@@ -610,6 +679,7 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 		}
 		else{
 			LOG.warn("State size is 0, so no backup is necessary ?");
+			owner.setStateChunksPerBackupNode(new int[ctx.getStarTopologySize()]);
 			return incomingTT;
 		}
 		
@@ -622,6 +692,8 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 		int index = 0;
 		int splittingKey = (int)(maxBoundKeySpace - minBoundKeySpace)/2;
 		int keeperOpId = -666; // fake id since this value is up to this point empty
+		// Sent in the close signal to each node, which waits for them before committing the session
+		int[] chunksPerBackupNode = new int[sizeST];
 		
 		long total = 0;
 		/** Single thread **/
@@ -655,6 +727,7 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 			ControlTuple chunkMessage = new ControlTuple().makeStateChunk(opId, keeperOpId, sequenceNumber, ssm.getTotalNumberChunks(), mc, splittingKey);
 			sequenceNumber++;
 			int idx = index % sizeST;
+			chunksPerBackupNode[idx]++;
 			InetAddress ip_endpoint = ((DisposableCommunicationChannel)ctx.getStarTopology().get(idx)).getIp();
 			JobBean jb = new JobBean(ip_endpoint, chunkMessage);
 			System.out.println("chunk: "+counter);
@@ -669,6 +742,7 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 			}
 			index++;
 		}
+		owner.setStateChunksPerBackupNode(chunksPerBackupNode);
 		JobBean jb = new JobBean(null, null);
 		try {
 			jobQueue.put(jb);
@@ -702,7 +776,7 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 		return incomingTT;
 	}
 	
-	private TimestampTracker backupState(){
+	private TimestampTracker backupState(TimestampTracker barrierTs){
 		TimestampTracker incomingTT = null;
 		if(runningOpState != null){
 			BackupOperatorState bs = new BackupOperatorState();
@@ -711,17 +785,18 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 			int checkpointInterval = runningOpState.getCheckpointInterval();
 			TimestampTracker data_ts = runningOpState.getData_ts();
 			String stateTag = runningOpState.getStateTag();
+			// Snapshottable states are copied after processing is resumed, from the snapshot, while the operator writes a new version
+			State stateImpl = runningOpState.getStateImpl();
+			boolean copyOnWrite = GLOBALS.valueFor("copyOnWriteCheckpoint").equals("true") && stateImpl instanceof Snapshottable;
+			// Incremental states send only their changes, and the full state every checkpointsPerBase checkpoints or when the backup moves
+			boolean incremental = GLOBALS.valueFor("deltaCheckpoint").equals("true") && stateImpl instanceof Incremental;
+			boolean full = !incremental || forceFullCheckpoint || checkpointsSinceBase + 1 >= Integer.parseInt(GLOBALS.valueFor("checkpointsPerBase"))
+					|| owner.getBackupUpstreamIndex() != lastBackupUpstreamIndex;
 			long startmutex = System.currentTimeMillis();
 			
 			// Mutex for executor (in case multicore)
 			if(multiCoreEnabled){
-				try {
-					executorMutex.acquire(numberOfWorkerThreads);
-				}
-				catch (InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
+				acquireAllShards();
 			}
 			// Mutex for data processing
 			else{
@@ -734,24 +809,64 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 					e.printStackTrace();
 				}
 			}
-			incomingTT = owner.getIncomingTT();
+			// Copied, the streams keep being updated once processing resumes
+			incomingTT = barrierTs != null ? barrierTs : owner.getIncomingTT().copy();
 			
 			long startcopy = System.currentTimeMillis();
 			
-			toBackup = StateWrapper.deepCopy(runningOpState, owner.getRuntimeClassLoader());
 			ArrayList<OutputBuffer> outputBuffers = ctx.getOutputBuffers();
-			
-			long stopcopy = System.currentTimeMillis();
-			System.out.println("% Deep COPY: "+(stopcopy-startcopy));
-			if(multiCoreEnabled){
-				executorMutex.release(numberOfWorkerThreads);
+			boolean inSnapshotMode = false;
+			try{
+				if(incremental && !((Incremental)stateImpl).markCheckpoint()){
+					full = true;
+				}
+				if(copyOnWrite){
+					((Versionable)stateImpl).setSnapshotMode(true);
+					inSnapshotMode = true;
+				}
+				else if(stateImpl instanceof Snapshottable && ((Snapshottable)stateImpl).isSnapshotMode()){
+					// A copy would only have the snapshot, without the updates kept in the new version
+					LOG.warn("-> State is in snapshot mode, it cannot be copied now");
+				}
+				else{
+					toBackup = copyState(full, ownerId, checkpointInterval);
+				}
 			}
-			else{
-				mutex.release();
+			catch(RuntimeException re){
+				LOG.error("-> While copying state: {}", re.toString());
+			}
+			finally{
+				if(multiCoreEnabled){
+					releaseAllShards();
+				}
+				else{
+					mutex.release();
+				}
 			}
 			
 			long stopmutex = System.currentTimeMillis();
+			System.out.println("% Deep COPY: "+(stopmutex-startcopy));
 			System.out.println("% mutex: "+(stopmutex-startmutex));
+			if(inSnapshotMode){
+				try{
+					toBackup = copyState(full, ownerId, checkpointInterval);
+				}
+				catch(RuntimeException re){
+					LOG.error("-> While copying state snapshot: {}", re.toString());
+				}
+				finally{
+					// Merge the updates done during the copy back into the state
+					((Versionable)stateImpl).reconcile();
+				}
+				LOG.debug("-> Snapshot copy: {} ms", System.currentTimeMillis() - stopmutex);
+			}
+			if(toBackup == null){
+				// Nothing is acked, so upstreams keep the tuples this checkpoint would have covered
+				LOG.error("-> Skipping checkpoint, the state could not be copied");
+				forceFullCheckpoint = true;
+				return null;
+			}
+			forceFullCheckpoint = false;
 			toBackup.setOwnerId(ownerId);
 			toBackup.setCheckpointInterval(checkpointInterval);
 			toBackup.setData_ts(incomingTT);
@@ -761,6 +876,19 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 			bs.setState(toBackup);
 			bs.setOutputBuffers(outputBuffers);
 			bs.setStateClass(toBackup.getStateTag());
+			bs.setCheckpointId(++lastCheckpointId);
+			if(full){
+				checkpointsSinceBase = 0;
+			}
+			else{
+				bs.setPreviousCheckpointId(lastCheckpointId - 1);
+				checkpointsSinceBase++;
+			}
+			lastBackupUpstreamIndex = owner.getBackupUpstreamIndex();
+			
+			synchronized(unconfirmedCheckpoints){
+				unconfirmedCheckpoints.put(lastCheckpointId, incomingTT);
+			}
 			
 			ControlTuple ctB = new ControlTuple().makeBackupState(bs);
 			//Finally send the backup state
@@ -769,6 +897,13 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 		return incomingTT;
 	}
 	
+	private StateWrapper copyState(boolean full, int ownerId, int checkpointInterval){
+		if(full){
+			return StateWrapper.deepCopy(runningOpState, owner.getRuntimeClassLoader());
+		}
+		return new StateWrapper(ownerId, checkpointInterval, ((Incremental)runningOpState.getStateImpl()).getDelta());
+	}
+	
 	public void installState(InitOperatorState initOperatorState){
 //		System.out.println("Installing state: inputqueue size: "+MetricsReader.eventsInputQueue.getCount());
 		// Simply replace the state and update operator references
@@ -784,13 +919,24 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 	
 	public synchronized void mergeChunkToState(StateChunk chunk){
 		try{
+			if(stateMerger != null){
+				if(chunk == null){
+					stateMerger.finish();
+					stateMerger = null;
+					LOG.info("Finished recreating state in parallel");
+				}
+				else{
+					stateMerger.merge(chunk);
+				}
+				return;
+			}
 			if(chunk == null){
-				LOG.info("Finished recreating state, current size: {}", ((LargeState)runningOpState).getSize());
+				LOG.info("Finished recreating state, current size: {}", ((LargeState)runningOpState.getStateImpl()).getSize());
 				return;
 			}
 			MemoryChunk mc = chunk.getMemoryChunk();
 			//	((Streamable)((LargeState)runningOpState).getVersionableAndStreamableState()).appendChunk(mc.chunk);
-			((LargeState)runningOpState).appendChunk(mc.chunk);
+			((LargeState)runningOpState.getStateImpl()).appendChunk(mc.chunk);
 		}
 		catch(NullChunkWhileMerging ncwm){
 			ncwm.printStackTrace();
@@ -799,6 +945,11 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		catch (InterruptedException ie) {
+			LOG.error("-> Interrupted while merging state");
+			abortStateMerger();
+			Thread.currentThread().interrupt();
+		}
 	}
 	
 		/** Who manages which state? **/
@@ -873,24 +1024,111 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 		opContext.removeUpstream(opId);
 	}
     
+	/**
+	 * Input is partitioned by key among the workers, each of them owning a disjoint shard of the key space and its own lock. Workers
+	 * share the operator and its state, so this requires a state that is declared threadSafe in its OperatorState annotation, e.g.
+	 * ConcurrentSeepMap, an operator whose only mutable field is that state, and a key attribute to partition on, taken from the
+	 * operator context or from a Partitionable state. Otherwise multicore support is disabled and the operator runs in a single thread.
+	 */
 	@Override
 	public void launchMultiCoreMechanism(CoreRE owner, DataStructureAdapter dsa) {
-		// Different strategies depending on whether the state is partitionable or not
-		int numberOfProcessors = Runtime.getRuntime().availableProcessors();
-		numberOfWorkerThreads = (numberOfProcessors - 2) > 1 ? (numberOfProcessors-2) : 1;
-		///\fixme{It's fine this for now, but find a formula such the previuos lines to establish the best number of Cores} 
-		numberOfWorkerThreads = 4;
-		if(runningOpState instanceof Partitionable){
-			executorMutex = new Semaphore(numberOfWorkerThreads, true);
-			pool = Executors.newFixedThreadPool(numberOfWorkerThreads);
-			// Populate pool with threads
-			for(int i = 0; i<numberOfWorkerThreads; i++){
-				pool.execute(new StatefulProcessingWorker(dsa, runningOp, runningOpState, executorMutex));
+		numberOfWorkerThreads = Integer.parseInt(GLOBALS.valueFor("multicoreWorkers"));
+		if(numberOfWorkerThreads <= 0){
+			int numberOfProcessors = Runtime.getRuntime().availableProcessors();
+			numberOfWorkerThreads = (numberOfProcessors - 2) > 1 ? (numberOfProcessors-2) : 1;
+		}
+		State stateImpl = (runningOpState != null) ? runningOpState.getStateImpl() : null;
+		String keyAttribute = runningOp.getOpContext().getKeyAttribute();
+		if(keyAttribute == null && stateImpl instanceof Partitionable){
+			keyAttribute = ((Partitionable)stateImpl).getKeyAttribute();
+		}
+		OperatorState stateInfo = (stateImpl != null) ? stateImpl.getClass().getAnnotation(OperatorState.class) : null;
+		if(stateInfo == null || !stateInfo.threadSafe()){
+			LOG.warn("-> State is not thread safe, disabling multicore support");
+			disableMultiCoreSupport();
+			return;
+		}
+		if(keyAttribute == null || dsa.getUniqueDso() == null){
+			LOG.warn("-> No key attribute to partition the input on, disabling multicore support");
+			disableMultiCoreSupport();
+			return;
+		}
+		String mutableField = findMutableField(runningOp.getOperatorCode(), stateImpl);
+		if(mutableField != null){
+			LOG.warn("-> Operator field {} would be shared by the workers, disabling multicore support", mutableField);
+			disableMultiCoreSupport();
+			return;
+		}
+		int queueLength = Integer.parseInt(GLOBALS.valueFor("inputQueueLength")) / numberOfWorkerThreads;
+		WaitStrategy waitStrategy = WaitStrategy.valueOf(GLOBALS.valueFor("ringWaitStrategy").toUpperCase());
+		shardLocks = new Semaphore[numberOfWorkerThreads];
+		StatefulProcessingWorker[] workers = new StatefulProcessingWorker[numberOfWorkerThreads];
+		for(int i = 0; i<numberOfWorkerThreads; i++){
+			shardLocks[i] = new Semaphore(1);
+			workers[i] = new StatefulProcessingWorker(this, runningOp, new RingInputQueue(queueLength, waitStrategy), shardLocks[i]);
+			new Thread(workers[i], "statefulWorkerT-"+i).start();
+		}
+		new Thread(new StatefulProcessingDispatcher(this, dsa.getUniqueDso(), keyAttribute, workers), "statefulDispatcherT").start();
+		LOG.info("-> {} workers partitioned on key {}", numberOfWorkerThreads, keyAttribute);
+	}
+	
+	/**
+	 * Returns the name of a field of code that workers could change concurrently, or null if there is none. Fields referencing the
+	 * state are allowed, as it is thread safe, and so are final fields holding primitives, strings, boxed values or enums. Fields that
+	 * are not final but hold an immutable object are allowed too, as they are assigned once before launch, like the FieldRefs resolved
+	 * in setUp. Non final primitives are not, as they are usually counters updated while processing.
+	 */
+	static String findMutableField(Object code, Object stateImpl){
+		for(Class<?> c = code.getClass(); c != null && c != Object.class; c = c.getSuperclass()){
+			for(Field f : c.getDeclaredFields()){
+				int modifiers = f.getModifiers();
+				if(Modifier.isStatic(modifiers) || f.isSynthetic()){
+					continue;
+				}
+				Object value = null;
+				try{
+					f.setAccessible(true);
+					value = f.get(code);
+				}
+				catch(Exception e){
+					return c.getName()+"."+f.getName();
+				}
+				if(value != null && value == stateImpl){
+					continue;
+				}
+				boolean immutableValue = value instanceof String || value instanceof Number || value instanceof Boolean
+						|| value instanceof Character || value instanceof Enum || value instanceof FieldRef;
+				boolean immutable = Modifier.isFinal(modifiers) ? (f.getType().isPrimitive() || value == null || immutableValue)
+						: (!f.getType().isPrimitive() && immutableValue);
+				if(!immutable){
+					return c.getName()+"."+f.getName();
+				}
 			}
 		}
-		else{
-			// Lock the state somehow
-			
+		return null;
+	}
+	
+	void bindShardLock(Semaphore shardLock){
+		workerShardLock.set(shardLock);
+	}
+	
+	/**
+	 * Locks are always taken in the same order, so that several threads acquiring all of them do not deadlock
+	 */
+	void acquireAllShards(){
+		for(int i = 0; i<shardLocks.length; i++){
+			try {
+				shardLocks[i].acquire();
+			}
+			catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	void releaseAllShards(){
+		for(int i = shardLocks.length-1; i>=0; i--){
+			shardLocks[i].release();
 		}
 	}
 
@@ -911,14 +1149,37 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 		return owner.getIncomingTT();
 	}
 
+	@Override
+	public long getReceivedTuples() {
+		return owner.getReceivedTuples();
+	}
+
 	@Override
 	public void emitACK(TimestampTracker currentTs) {
 		owner.ack(currentTs);
 	}
 
-	public void resetState() {
+	public synchronized void resetState() {
+		// A recovery that did not finish is abandoned, its workers are stopped
+		abortStateMerger();
+		State stateImpl = runningOpState.getStateImpl();
 		//((Streamable)((LargeState)runningOpState).getVersionableAndStreamableState()).reset();
-		((Streamable)runningOpState).reset();
+		((Streamable)stateImpl).reset();
+		// The chunks received from now on are merged in parallel if the state supports it
+		if(GLOBALS.valueFor("parallelStateMerge").equals("true") && stateImpl instanceof Mergeable){
+			int numThreads = Integer.parseInt(GLOBALS.valueFor("stateMergeThreads"));
+			if(numThreads <= 0){
+				numThreads = Runtime.getRuntime().availableProcessors();
+			}
+			stateMerger = new StateMerger<Object>((Mergeable<Object>)stateImpl, numThreads, 4);
+		}
+	}
+	
+	private void abortStateMerger(){
+		if(stateMerger != null){
+			stateMerger.abort();
+			stateMerger = null;
+		}
 	}
 
 	@Override
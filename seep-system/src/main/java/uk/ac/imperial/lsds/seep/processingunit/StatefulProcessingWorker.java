@@ -10,55 +10,69 @@
  ******************************************************************************/
 package uk.ac.imperial.lsds.seep.processingunit;
 
+import java.util.ArrayList;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
+import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
-import uk.ac.imperial.lsds.seep.infrastructure.NodeManager;
 import uk.ac.imperial.lsds.seep.operator.Operator;
-import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureAdapter;
-import uk.ac.imperial.lsds.seep.runtimeengine.InputQueue;
-import uk.ac.imperial.lsds.seep.state.StateWrapper;
+import uk.ac.imperial.lsds.seep.runtimeengine.RingInputQueue;
 
+/**
+* StatefulProcessingWorker. Processes the tuples of one shard of the key space of a stateful operator. The StatefulProcessingDispatcher
+* feeds each worker through its own queue, so no two workers see the same key. The shard lock is held while the operator runs, and it
+* is released by sendData and taken by the state backup as the single mutex is when there is no multicore support. The operator and
+* its state are shared by all workers, so StatefulProcessingUnit only starts them for a thread safe state and an operator without
+* mutable fields of its own.
+*/
 public class StatefulProcessingWorker implements Runnable{
 	
-	final private Logger LOG = LoggerFactory.getLogger(StatefulProcessingWorker.class);
-
-	private InputQueue iq;
+	private StatefulProcessingUnit pu;
+	private RingInputQueue queue;
 	private Operator runningOp;
-	private StateWrapper state;
-	private Semaphore executorMutex;
+	private Semaphore shardLock;
+	private int drainBatchSize;
+	private AtomicLong processed = new AtomicLong(0);
 	
-	///\todo{for now, multicore is only supported in those operators with only one inputDataIngestionMode}
-	public StatefulProcessingWorker(DataStructureAdapter dsa, Operator op, StateWrapper s, Semaphore executorMutex) {
-		if(dsa.getUniqueDso() != null){
-			this.iq = (InputQueue) dsa.getUniqueDso();
-		}
-		else{
-			LOG.error("-> Operation not permitted at this moment.. stateful multi-core on dist barrier");
-		}
+	public StatefulProcessingWorker(StatefulProcessingUnit pu, Operator op, RingInputQueue queue, Semaphore shardLock) {
+		this.pu = pu;
 		this.runningOp = op;
-		this.state = s;
-		this.executorMutex = executorMutex;
+		this.queue = queue;
+		this.shardLock = shardLock;
+		this.drainBatchSize = Integer.parseInt(GLOBALS.valueFor("drainBatchSize"));
+	}
+	
+	public RingInputQueue getQueue(){
+		return queue;
+	}
+	
+	public long getProcessed(){
+		return processed.get();
 	}
 
 	@Override
 	public void run() {
+		pu.bindShardLock(shardLock);
+		ArrayList<DataTuple> batch = new ArrayList<DataTuple>(drainBatchSize);
 		while(true){
+			queue.drainTo(batch, drainBatchSize);
 			try {
-				executorMutex.acquire();
+				shardLock.acquire();
 			}
 			catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				// The batch is dropped, the lock was not taken so it must not be released
+				Thread.currentThread().interrupt();
+				return;
+			}
+			for(int i = 0; i < batch.size(); i++){
+				if(pu.getOwner().checkSystemStatus()){
+					runningOp.processData(batch.get(i));
+				}
 			}
-			
-			DataTuple dt = iq.pull();
-			runningOp.processData(dt);
-			
-			executorMutex.release();
+			shardLock.release();
+			processed.addAndGet(batch.size());
+			batch.clear();
 		}
 	}
 }
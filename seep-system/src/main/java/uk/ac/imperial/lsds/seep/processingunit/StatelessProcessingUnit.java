@@ -25,6 +25,7 @@ import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.buffer.Buffer;
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
 import uk.ac.imperial.lsds.seep.infrastructure.NodeManager;
@@ -51,6 +52,8 @@ public class StatelessProcessingUnit implements IProcessingUnit {
 	private SystemStatus systemStatus = SystemStatus.NORMAL;
 	
 	private Operator runningOp = null;
+	// Tuple attribute positions, as built by createTupleAttributeMapper
+	private Map<String, Integer> tupleAttributeMapper = null;
 	
 	private ArrayList<Integer> listOfManagedStates = new ArrayList<Integer>();
 	private OutputQueue outputQueue = null;
@@ -113,8 +116,14 @@ public class StatelessProcessingUnit implements IProcessingUnit {
 		else{
 			LOG.warn("-> No tuple MAPPER. This is fine as far as I am a SRC");
 		}
+		tupleAttributeMapper = idxMapper;
 		return idxMapper;
 	}
+	
+	@Override
+	public Map<String, Integer> getTupleAttributeMapper(){
+		return tupleAttributeMapper;
+	}
 
 	@Override
 	public Operator getOperator() {
@@ -229,6 +238,10 @@ public class StatelessProcessingUnit implements IProcessingUnit {
 
 	@Override
 	public void reconfigureOperatorConnection(int opId, InetAddress ip) {
+		EndPoint old = ctx.getCCIfromOpId(opId, "d");
+		if(outputQueue != null && old != null){
+			outputQueue.removeChannel(old);
+		}
 		ctx.updateConnection(opId, runningOp, ip);
 	}
 
@@ -424,8 +437,11 @@ public class StatelessProcessingUnit implements IProcessingUnit {
 	@Override
 	public void launchMultiCoreMechanism(CoreRE core, DataStructureAdapter dsa) {
 		// Different strategies depending on whether the state is partitionable or not
-		int numberOfProcessors = Runtime.getRuntime().availableProcessors();
-		int numberOfWorkerThreads = (numberOfProcessors - 2) > 1 ? (numberOfProcessors-2) : 1;
+		int numberOfWorkerThreads = Integer.parseInt(GLOBALS.valueFor("multicoreWorkers"));
+		if(numberOfWorkerThreads <= 0){
+			int numberOfProcessors = Runtime.getRuntime().availableProcessors();
+			numberOfWorkerThreads = (numberOfProcessors - 2) > 1 ? (numberOfProcessors-2) : 1;
+		}
 		
 		pool = Executors.newFixedThreadPool(numberOfWorkerThreads);
 		// Populate pool with threads
@@ -451,6 +467,11 @@ public class StatelessProcessingUnit implements IProcessingUnit {
 		return owner.getIncomingTT();
 	}
 
+	@Override
+	public long getReceivedTuples() {
+		return owner.getReceivedTuples();
+	}
+
 	@Override
 	public void emitACK(TimestampTracker currentTs) {
 		owner.ack(currentTs);
@@ -18,6 +18,8 @@ import uk.ac.imperial.lsds.seep.runtimeengine.TimestampTracker;
 
 /**
 * ACKWorker. This runnable object is in charge of watching to the last processed tuple and generating an ACK when this has changed.
+* The interval between ACKs adapts to the input rate, so that about ackBufferTuples tuples are kept unacked by the upstreams, between
+* ackMinInterval and ackEmitInterval. When no tuples arrive no ACK is emitted and the interval stretches.
 */
 
 public class ACKWorker implements Runnable, Serializable{
@@ -35,12 +37,23 @@ public class ACKWorker implements Runnable, Serializable{
 		this.processingUnit = processingUnit;
 	}
 	
+	/**
+	 * Interval for the next ACK, given the tuples received during the last one. It doubles while idle, and otherwise is the time it
+	 * takes to receive target tuples at the last rate
+	 */
+	public static long nextInterval(long interval, long received, long target, long min, long max){
+		long next = received == 0 ? interval * 2 : (interval * target) / received;
+		return Math.max(min, Math.min(max, next));
+	}
+	
 	public void run(){
-		int sleep = new Integer(GLOBALS.valueFor("ackEmitInterval"));
+		long min = Long.parseLong(GLOBALS.valueFor("ackMinInterval"));
+		long max = Long.parseLong(GLOBALS.valueFor("ackEmitInterval"));
+		long target = Long.parseLong(GLOBALS.valueFor("ackBufferTuples"));
+		long sleep = max;
+		long lastReceived = processingUnit.getReceivedTuples();
+		boolean active = false;
 		while(goOn){
-			TimestampTracker currentTsV = processingUnit.getLastACK();
-			System.out.println("ACKWorker: EmitACK");
-			processingUnit.emitACK(currentTsV);
 			try{
 				Thread.sleep(sleep);
 			}
@@ -48,6 +61,15 @@ public class ACKWorker implements Runnable, Serializable{
 				System.out.println("ACKWorker: while trying to sleep "+ie.getMessage());
 				ie.printStackTrace();
 			}
+			long received = processingUnit.getReceivedTuples();
+			// Once more after the input stops, so that acks waiting to go with credits are sent
+			if(received > lastReceived || active){
+				TimestampTracker currentTsV = processingUnit.getLastACK();
+				processingUnit.emitACK(currentTsV);
+			}
+			active = received > lastReceived;
+			sleep = nextInterval(sleep, received - lastReceived, target, min, max);
+			lastReceived = received;
 		}
 	}
 }
@@ -16,14 +16,13 @@ import java.net.BindException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.nio.channels.FileChannel;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.runtimeengine.CoreRE;
 
 public class BackupHandler implements Runnable{
@@ -45,15 +44,12 @@ public class BackupHandler implements Runnable{
 	private String lastSessionName = null;
 	
 	private long s_sessiontime = 0;
+	// Milliseconds to wait for the chunks of a session once it is closed
+	private final long commitTimeout;
 
 	private HashMap<InetAddress, BackupSessionInfo> openSessions = new HashMap<InetAddress, BackupSessionInfo>();
-	private HashMap<Integer, ArrayList<FileChannel>> sessionHandlers = new HashMap<Integer, ArrayList<FileChannel>>();
-	// To access rw files with backups
-	private HashMap<Integer, ArrayList<FileChannel>> backupSessionHandlers = new HashMap<Integer, ArrayList<FileChannel>>();
-	// To access the same files as above, with the possibility of removing them from the OS file system
-	private HashMap<Integer, ArrayList<File>> sessionHandlersGCFiles = new HashMap<Integer, ArrayList<File>>();
-	private HashMap<Integer, ArrayList<File>> backupSessionHandlersGCFiles = new HashMap<Integer, ArrayList<File>>();
-	private HashMap<Integer, String> lastSessionNames = new HashMap<Integer, String>();
+	// Segments and manifests of the sessions, in backup/
+	private CheckpointStore store;
 	
 //	//Variables to keep the backup handler
 //	private ArrayList<MappedByteBuffer> lastBackupHandlers = new ArrayList<MappedByteBuffer>();
@@ -76,15 +72,26 @@ public class BackupHandler implements Runnable{
 	}
 	
 	public String getLastBackupSessionName(int opId){
-		return lastSessionNames.get(opId);
+		return store.getCommittedSession(opId);
+	}
+	
+	public CheckpointStore getCheckpointStore(){
+		return store;
 	}
 	
 	public BackupHandler(CoreRE owner, int port) {
 		this.owner = owner;
 		this.connPort = port;
 		this.goOn = true;
-		File newFile = new File("backup/");
-		newFile.mkdirs();
+		this.store = new CheckpointStore(new File("backup/"), Integer.parseInt(GLOBALS.valueFor("checkpointSegmentSize")),
+				Long.parseLong(GLOBALS.valueFor("checkpointSyncInterval")));
+		this.commitTimeout = Long.parseLong(GLOBALS.valueFor("checkpointCommitTimeout"));
+	}
+	
+	/** Stops accepting chunks and the threads of the checkpoint store **/
+	public void close(){
+		goOn = false;
+		store.close();
 	}
 	
 	public void openSession(int opId, InetAddress remoteAddress){
@@ -94,53 +101,33 @@ public class BackupHandler implements Runnable{
 		sessionName = new Long(System.currentTimeMillis()).toString();
 		transNumber = -1;
 		
-		ArrayList<FileChannel> lastBackupHandlers = new ArrayList<FileChannel>();
-		ArrayList<File> lastBackupHandlersGCFiles = new ArrayList<File>();
-		// We backup the previous handlers if there are any, keeping association with the operator establishing the connection
-		if(sessionHandlers.containsKey(opId)){
-			backupSessionHandlers.put(opId, sessionHandlers.get(opId));
-			backupSessionHandlersGCFiles.put(opId, sessionHandlersGCFiles.get(opId));
-		}
-		// And we put the new ones here
-		sessionHandlers.put(opId, lastBackupHandlers);
-		sessionHandlersGCFiles.put(opId, lastBackupHandlersGCFiles);
-		BackupSessionInfo bsi = new BackupSessionInfo(opId, lastBackupHandlers, this, sessionName, transNumber);
+		// The previous session of the operator is kept until this one is committed
+		store.openSession(opId, sessionName);
+		BackupSessionInfo bsi = new BackupSessionInfo(opId, null, this, sessionName, transNumber);
 		// We log the open session, identifying it with the IP
 		openSessions.put(remoteAddress, bsi);
 		System.out.println("NEW SESSION: "+remoteAddress.toString());
 	}
 	
 	public void closeSession(int opId, InetAddress remoteAddress){
-		lastSessionNames.put(opId, openSessions.get(remoteAddress).getSessionName());
-		openSessions.remove(remoteAddress);
-		System.out.println("TOTAL SESSION TIME: "+(System.currentTimeMillis() - s_sessiontime));
-		
-		// If the session went well, then we get rid of the old files
-		if(backupSessionHandlers.containsKey(opId)){
-			ArrayList<FileChannel> oldFiles = backupSessionHandlers.get(opId);
-			for(FileChannel f : oldFiles){
-				try {
-					f.close();
-				} 
-				catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-			}
-			ArrayList<File> toRemove = backupSessionHandlersGCFiles.get(opId);
-			for(File f : toRemove){
-				f.delete();
-			}
-		}
-	}
-
-	public void addBackupHandler(int opId, FileChannel fc, File f){
-		sessionHandlers.get(opId).add(fc);
-		sessionHandlersGCFiles.get(opId).add(f);
+		closeSession(opId, remoteAddress, -1);
 	}
 	
-	public ArrayList<File> getSessionFileHandlers(int opId){
-		return backupSessionHandlersGCFiles.get(opId);
+	/**
+	 * The session is committed once the totalNumberOfChunks chunks sent by the upstream, if not negative, and the ones whose connection
+	 * was accepted have been stored. Chunks may still be arriving when the close signal does
+	 */
+	public void closeSession(int opId, InetAddress remoteAddress, int totalNumberOfChunks){
+		String closedSessionName = openSessions.get(remoteAddress).getSessionName();
+		openSessions.remove(remoteAddress);
+		// If the session went well, it replaces the previous one, whose files are deleted
+		try{
+			store.commitSession(opId, closedSessionName, totalNumberOfChunks, commitTimeout);
+		}
+		catch(IOException io){
+			LOG.error("-> While committing backup session {} of op: {} {}", closedSessionName, opId, io.getMessage());
+		}
+		System.out.println("TOTAL SESSION TIME: "+(System.currentTimeMillis() - s_sessiontime));
 	}
 
 	@Override
@@ -158,6 +145,15 @@ public class BackupHandler implements Runnable{
 				if(openSessions.containsKey(incomingAddr)){
 					BackupSessionInfo bsi = openSessions.get(incomingAddr);
 					bsi.incrementTransNumber();
+					// The session is not committed until this chunk is stored
+					try{
+						store.register(bsi.getOpId(), bsi.getSessionName());
+					}
+					catch(IOException io){
+						LOG.warn("-> Dropping backup chunk from {}: {}", incomingAddr, io.getMessage());
+						incomingConn.close();
+						continue;
+					}
 					// With an opened session we wait for connections and pass the sessionName and the transmission number
 					BackupHandlerWorker bhw = new BackupHandlerWorker(bsi.getOpId(), incomingConn, this, bsi.getSessionName(), bsi.getTransNumber());
 					///\todo{Reduce the overhead of the thread creation at this point. Use a pool or reuse the same worker}
@@ -179,5 +175,8 @@ public class BackupHandler implements Runnable{
 			LOG.error("-> BackupHandler. While listening incoming conns "+io.getMessage());
 			io.printStackTrace();
 		}
+		finally{
+			store.close();
+		}
 	}
 }
\ No newline at end of file
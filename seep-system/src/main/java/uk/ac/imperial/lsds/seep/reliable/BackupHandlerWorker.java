@@ -11,16 +11,14 @@
 package uk.ac.imperial.lsds.seep.reliable;
 
 import java.io.BufferedInputStream;
-import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.net.Socket;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.esotericsoftware.kryo.io.Output;
+
 public class BackupHandlerWorker implements Runnable{
 	
 	final private Logger LOG = LoggerFactory.getLogger(BackupHandlerWorker.class);
@@ -31,8 +29,6 @@ public class BackupHandlerWorker implements Runnable{
 	private String sessionName = null;
 	private int transNumber = -1;
 	
-	private MappedByteBuffer mbb1;
-	
 	public BackupHandlerWorker(int opId, Socket incomingSocket, BackupHandler owner, String sessionName, int transNumber) {
 		this.opId = opId;
 		this.incomingSocket = incomingSocket;
@@ -43,39 +39,33 @@ public class BackupHandlerWorker implements Runnable{
 
 	@Override
 	public void run() {
-		memoryMappedFile();
+		storeChunk();
 	}
 	
-	public void memoryMappedFile(){
+	/**
+	 * Receives a whole chunk, the upstream closes the connection after it, and appends it to the session in the CheckpointStore. A chunk
+	 * that cannot be received is abandoned, so that the session waiting for it is not committed
+	 */
+	public void storeChunk(){
 		BufferedInputStream bis;
+		// Grows as needed, the size of the chunk is not known in advance
+		Output chunk = new Output(100000, -1);
 		try {		
 			bis = new BufferedInputStream(incomingSocket.getInputStream());
-			// Create the memory map file and store the channels to manage these files later
-			RandomAccessFile raf = null;
-			String fileName = null;
-			try {
-				// file format: OP_X_Y_Z.bk, where X is the opId, Y the sessionName and Z the sequence number
-				// so, OP_1_a_0.bk and OP_1_a_1.bk are consecutive files but OP_1_a_1.bk and OP_2_a_2.bk are not (different ops).
-				fileName = "backup/OP_"+opId+"_"+sessionName+"_"+this.transNumber+".bk";
-				raf = new RandomAccessFile(fileName, "rw");
-				
-				FileChannel fc = raf.getChannel();
-				File f = new File(fileName);
-				
-				mbb1 = fc.map(FileChannel.MapMode.READ_WRITE, 0, 10000000);
-				owner.addBackupHandler(opId, fc, f);
-			}
-			catch(Exception e){
-				LOG.error("-> While writing bk: "+fileName+" to disk: "+e.getMessage());
-				e.printStackTrace();
-			}
-			// Read the raw data and map to file
 			int bytesRead = 0;
 			byte[] buffer = new byte[10000];
 			
 			while ((bytesRead = bis.read(buffer)) != -1) {
-        		mbb1.put(buffer, 0, bytesRead);
-       	 	}
+				chunk.writeBytes(buffer, 0, bytesRead);
+			}
+		}
+		catch (IOException e) {
+			LOG.error("-> While receiving backup chunk = "+e.getMessage());
+			owner.getCheckpointStore().abandon(opId, sessionName, transNumber);
+			return;
+		}
+		try {
+			owner.getCheckpointStore().append(opId, sessionName, transNumber, chunk.getBuffer(), chunk.position());
 		}
 		catch (IOException e) {
 			LOG.error("-> While managing backup chunk = "+e.getMessage());
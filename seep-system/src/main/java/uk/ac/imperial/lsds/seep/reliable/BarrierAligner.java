@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.reliable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureI;
+import uk.ac.imperial.lsds.seep.runtimeengine.TimestampTracker;
+
+/**
+ * BarrierAligner. Aligns the barriers that sources inject in the data channels with the barrier checkpoint mode. Once the barrier of an
+ * epoch has come through a channel, the batches that come after it through the same channel are held, without blocking the thread that
+ * receives them, which may be the thread of an upstream in this JVM. Their credits are granted back when they are delivered, so an
+ * upstream that is ahead stops when it runs out of credits. When the barrier has come through all the channels, all the tuples before it
+ * are in the input queue, so a BarrierTuple with the current ts of the channels is pushed after them and the held batches are delivered.
+ *
+ * A barrier of a newer epoch abandons an alignment that has not completed, e.g. because an upstream did not send its barrier while
+ * replaying, and late barriers of an abandoned epoch are dropped.
+ */
+public class BarrierAligner {
+
+	final private Logger LOG = LoggerFactory.getLogger(BarrierAligner.class);
+
+	/**
+	 * Receiving end of a channel. Delivers a held batch to the input queue as if it had just been received.
+	 */
+	public interface Channel{
+		public void push(BatchTuplePayload batch);
+	}
+
+	private final TimestampTracker incomingTT;
+	private int numChannels;
+	// Epoch being aligned and last one completed
+	private long epoch = 0;
+	private long lastCompleted = 0;
+	// Batches held per channel whose barrier has come, with the channel that delivers them
+	private Map<Integer, ArrayList<BatchTuplePayload>> held = new HashMap<Integer, ArrayList<BatchTuplePayload>>();
+	private Map<Integer, Channel> channels = new HashMap<Integer, Channel>();
+
+	public BarrierAligner(TimestampTracker incomingTT, int numChannels){
+		this.incomingTT = incomingTT;
+		this.numChannels = numChannels;
+	}
+
+	public synchronized void setNumChannels(int numChannels){
+		this.numChannels = numChannels;
+	}
+
+	public synchronized long getLastCompleted(){
+		return lastCompleted;
+	}
+
+	/**
+	 * Called from the thread receiving from opId before delivering batch. Returns false if the batch must be delivered now, or true if
+	 * it is a barrier or has been held.
+	 */
+	public synchronized boolean offer(int opId, BatchTuplePayload batch, Channel channel, DataStructureI dso){
+		if(!batch.isBarrier()){
+			ArrayList<BatchTuplePayload> batches = held.get(opId);
+			if(batches == null){
+				return false;
+			}
+			batches.add(batch);
+			return true;
+		}
+		if(batch.barrier <= lastCompleted || batch.barrier < epoch){
+			LOG.debug("-> Dropping late barrier of epoch {} from op: {}", batch.barrier, opId);
+			return true;
+		}
+		if(batch.barrier > epoch){
+			if(!held.isEmpty()){
+				LOG.warn("-> Abandoning alignment of epoch {}, barrier of epoch {} from op: {}", epoch, batch.barrier, opId);
+				release();
+			}
+			epoch = batch.barrier;
+		}
+		if(!held.containsKey(opId)){
+			held.put(opId, new ArrayList<BatchTuplePayload>());
+			channels.put(opId, channel);
+		}
+		if(held.size() >= numChannels){
+			dso.push(new BarrierTuple(epoch, incomingTT.copy()));
+			lastCompleted = epoch;
+			release();
+		}
+		return true;
+	}
+
+	/**
+	 * Delivers the held batches in the order they came through each channel. The threads receiving are waiting for this lock, so their
+	 * next batches are delivered after these.
+	 */
+	private void release(){
+		for(Entry<Integer, ArrayList<BatchTuplePayload>> entry : held.entrySet()){
+			Channel channel = channels.get(entry.getKey());
+			for(BatchTuplePayload batch : entry.getValue()){
+				channel.push(batch);
+			}
+		}
+		held.clear();
+		channels.clear();
+	}
+}
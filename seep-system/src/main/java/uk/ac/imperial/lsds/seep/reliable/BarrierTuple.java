@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.reliable;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.runtimeengine.TimestampTracker;
+
+/**
+ * BarrierTuple. Pushed to the input queue by the BarrierAligner once the barrier of an epoch has arrived through all the channels. It
+ * comes after all the tuples received before the barrier and carries the ts of each channel at that point, the ones to checkpoint with.
+ * It is never given to the operator.
+ */
+public class BarrierTuple extends DataTuple {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long epoch;
+	private final TimestampTracker ts;
+
+	public BarrierTuple(long epoch, TimestampTracker ts){
+		this.epoch = epoch;
+		this.ts = ts;
+	}
+
+	public long getEpoch(){
+		return epoch;
+	}
+
+	public TimestampTracker getTs(){
+		return ts;
+	}
+}
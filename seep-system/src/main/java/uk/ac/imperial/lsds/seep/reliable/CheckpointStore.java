@@ -0,0 +1,658 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.reliable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+* CheckpointStore. Local storage of the state chunks that upstream operators back up in this node, in large-state mode. Each backup
+* session of an operator appends its chunks to segment files, OP_X_Y_Z.seg for operator X, session Y and segment Z, and is committed
+* with a manifest, OP_X_Y.manifest, that lists the segment, offset, length and checksum of each chunk in order.
+*
+* Segments are forced to disk in batches by a background thread, and a session is committed once all its chunks have arrived, its
+* segments are forced and its manifest has been written and renamed, so a committed session is complete on disk. A chunk has arrived
+* when it has been appended, or it failed to be received or written. A session where any chunk failed, or that does not get all the
+* chunks the upstream sent in time, is never committed. Committing a session deletes the older sessions of the same operator in the background. Chunks are restored by
+* mapping the segments in memory and checking their checksums.
+*
+* When the store is created, the newest session with a manifest of each operator in dir is committed again, and the files of any other
+* session are deleted.
+*/
+public class CheckpointStore {
+
+	final private static Logger LOG = LoggerFactory.getLogger(CheckpointStore.class);
+
+	private final File dir;
+	private final int segmentSize;
+	// Milliseconds between batched forces of the segments written
+	private final long syncInterval;
+
+	// Sessions of each operator not yet deleted, the committed one and newer ones being written
+	private final Map<Integer, List<Session>> sessions = new HashMap<Integer, List<Session>>();
+	private final Map<Integer, Session> committed = new HashMap<Integer, Session>();
+	// Segments written since they were last forced
+	private final List<Segment> dirty = new ArrayList<Segment>();
+	private final ExecutorService gc;
+	private final Thread sync;
+	private volatile boolean goOn = true;
+
+	public CheckpointStore(File dir, int segmentSize, long syncInterval){
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+		this.syncInterval = syncInterval;
+		dir.mkdirs();
+		this.gc = Executors.newSingleThreadExecutor(new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "checkpointGCT");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		sync = new Thread(new Runnable(){
+			@Override
+			public void run(){
+				while(goOn){
+					try{
+						Thread.sleep(CheckpointStore.this.syncInterval);
+					}
+					catch(InterruptedException ie){
+						return;
+					}
+					syncDirty();
+				}
+			}
+		}, "checkpointSyncT");
+		sync.setDaemon(true);
+		sync.start();
+		recover();
+	}
+
+	/**
+	 * Stops the threads of the store and closes the segments. The files are kept, so that a new store on dir recovers the sessions
+	 * committed
+	 */
+	public void close(){
+		goOn = false;
+		sync.interrupt();
+		gc.shutdown();
+		synchronized(this){
+			for(List<Session> opSessions : sessions.values()){
+				for(Session session : opSessions){
+					session.close();
+				}
+			}
+			sessions.clear();
+			committed.clear();
+		}
+	}
+
+	/** Commits again the newest complete session of each operator found in dir, and deletes the files of all the others **/
+	private synchronized void recover(){
+		File[] files = dir.listFiles();
+		if(files == null){
+			return;
+		}
+		// Manifests of each operator, newest first
+		Map<Integer, List<File>> manifests = new HashMap<Integer, List<File>>();
+		for(File f : files){
+			String name = f.getName();
+			if(name.startsWith("OP_") && name.endsWith(".manifest")){
+				int opId = opIdOf(name);
+				if(opId < 0){
+					continue;
+				}
+				List<File> opManifests = manifests.get(opId);
+				if(opManifests == null){
+					opManifests = new ArrayList<File>();
+					manifests.put(opId, opManifests);
+				}
+				opManifests.add(f);
+			}
+		}
+		for(Map.Entry<Integer, List<File>> e : manifests.entrySet()){
+			List<File> opManifests = e.getValue();
+			Collections.sort(opManifests, new Comparator<File>(){
+				@Override
+				public int compare(File a, File b){
+					long ta = a.lastModified();
+					long tb = b.lastModified();
+					return ta > tb ? -1 : (ta == tb ? b.getName().compareTo(a.getName()) : 1);
+				}
+			});
+			int opId = e.getKey();
+			for(File manifest : opManifests){
+				String name = manifest.getName();
+				String sessionName = name.substring(("OP_"+opId+"_").length(), name.length() - ".manifest".length());
+				Session session = new Session(opId, sessionName);
+				try{
+					session.load();
+				}
+				catch(IOException io){
+					LOG.error("-> Cannot recover backup session {} of op: {} {}", sessionName, opId, io.getMessage());
+					session.close();
+					continue;
+				}
+				List<Session> opSessions = new ArrayList<Session>();
+				opSessions.add(session);
+				sessions.put(opId, opSessions);
+				committed.put(opId, session);
+				LOG.info("-> Recovered backup session {} of op: {}", sessionName, opId);
+				break;
+			}
+		}
+		// Any file that is not part of a committed session is left by a session that was never committed or already replaced
+		final List<File> orphans = new ArrayList<File>();
+		for(File f : files){
+			if(!isCommittedFile(f.getName())){
+				orphans.add(f);
+			}
+		}
+		gc.execute(new Runnable(){
+			@Override
+			public void run(){
+				for(File f : orphans){
+					if(!f.delete()){
+						LOG.warn("-> Could not delete orphan backup file {}", f);
+					}
+				}
+			}
+		});
+	}
+
+	/** Operator of a file named OP_X_..., -1 if the name does not follow it **/
+	private static int opIdOf(String name){
+		int end = name.indexOf('_', 3);
+		if(end < 0){
+			return -1;
+		}
+		try{
+			return Integer.parseInt(name.substring(3, end));
+		}
+		catch(NumberFormatException nfe){
+			return -1;
+		}
+	}
+
+	private boolean isCommittedFile(String name){
+		Session session = committed.get(opIdOf(name));
+		if(session == null){
+			return false;
+		}
+		if(name.equals(manifestFile(session).getName())){
+			return true;
+		}
+		for(Segment segment : session.segments){
+			if(name.equals(segment.file.getName())){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public synchronized void openSession(int opId, String sessionName){
+		List<Session> opSessions = sessions.get(opId);
+		if(opSessions == null){
+			opSessions = new ArrayList<Session>();
+			sessions.put(opId, opSessions);
+		}
+		opSessions.add(new Session(opId, sessionName));
+	}
+
+	private synchronized Session getSession(int opId, String sessionName){
+		List<Session> opSessions = sessions.get(opId);
+		if(opSessions != null){
+			for(Session s : opSessions){
+				if(s.name.equals(sessionName)){
+					return s;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Registers a chunk of the session that is being received, when its connection is accepted, so that the session is not committed
+	 * before it arrives
+	 */
+	public void register(int opId, String sessionName) throws IOException{
+		Session session = getSession(opId, sessionName);
+		if(session == null){
+			throw new IOException("No open backup session "+sessionName+" for op: "+opId);
+		}
+		session.registered();
+	}
+
+	/** The chunk number seq of a session could not be received, so the session is never committed **/
+	public void abandon(int opId, String sessionName, int seq){
+		Session session = getSession(opId, sessionName);
+		if(session != null){
+			session.failed(seq);
+			session.arrived(false);
+		}
+	}
+
+	public synchronized String getCommittedSession(int opId){
+		Session s = committed.get(opId);
+		return s == null ? null : s.name;
+	}
+
+	/**
+	 * Appends the chunk number seq of a session. Several chunks of the same session can be appended concurrently, each one takes its
+	 * region of the current segment and is written without holding any lock
+	 */
+	public void append(int opId, String sessionName, int seq, byte[] data, int length) throws IOException{
+		Session session = getSession(opId, sessionName);
+		if(session == null){
+			throw new IOException("No open backup session "+sessionName+" for op: "+opId);
+		}
+		Segment segment = null;
+		boolean reserved = false;
+		boolean ok = false;
+		try{
+			CRC32 crc = new CRC32();
+			crc.update(data, 0, length);
+			ChunkEntry entry = session.reserve(seq, length, crc.getValue());
+			reserved = true;
+			segment = session.segment(entry.segment);
+			ByteBuffer src = ByteBuffer.wrap(data, 0, length);
+			long position = entry.offset;
+			while(src.hasRemaining()){
+				position += segment.channel.write(src, position);
+			}
+			ok = true;
+		}
+		finally{
+			// A session missing any chunk is never committed
+			if(!ok){
+				session.failed(seq);
+			}
+			session.arrived(reserved);
+		}
+		synchronized(dirty){
+			if(!dirty.contains(segment)){
+				dirty.add(segment);
+			}
+		}
+	}
+
+	/** Commits the session once the chunks registered or being appended have arrived **/
+	public void commitSession(int opId, String sessionName) throws IOException{
+		commitSession(opId, sessionName, -1, 0);
+	}
+
+	/**
+	 * Makes the session the one restored for its operator. Waits for the chunks still being received or appended, at least
+	 * totalChunks of them if it is not negative, forces the segments and writes the manifest. If they do not arrive within timeout
+	 * milliseconds, 0 for no limit, the session is discarded. The other sessions of the operator are deleted in the background
+	 */
+	public void commitSession(int opId, String sessionName, int totalChunks, long timeout) throws IOException{
+		Session session = getSession(opId, sessionName);
+		if(session == null){
+			throw new IOException("No open backup session "+sessionName+" for op: "+opId);
+		}
+		boolean arrived;
+		try{
+			arrived = session.awaitArrived(totalChunks, timeout);
+		}
+		catch(InterruptedException ie){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while committing backup session "+sessionName+" for op: "+opId);
+		}
+		if(!arrived){
+			discardSession(session);
+			throw new IOException("Only "+session.getArrived()+" of "+totalChunks+" chunks of backup session "+sessionName+" for op: "+opId
+					+" arrived");
+		}
+		if(session.getFailedChunk() >= 0){
+			// The previous session stays the one restored
+			discardSession(session);
+			throw new IOException("Chunk "+session.getFailedChunk()+" of backup session "+sessionName+" for op: "+opId+" was not written");
+		}
+		for(Segment segment : session.segments){
+			segment.channel.force(false);
+		}
+		writeManifest(session);
+		final List<Session> obsolete = new ArrayList<Session>();
+		synchronized(this){
+			committed.put(opId, session);
+			Iterator<Session> it = sessions.get(opId).iterator();
+			while(it.hasNext()){
+				Session s = it.next();
+				// Newer sessions may be being written already
+				if(s == session){
+					break;
+				}
+				obsolete.add(s);
+				it.remove();
+			}
+		}
+		gc.execute(new Runnable(){
+			@Override
+			public void run(){
+				for(Session s : obsolete){
+					s.delete();
+				}
+			}
+		});
+	}
+
+	private void discardSession(final Session session){
+		synchronized(this){
+			List<Session> opSessions = sessions.get(session.opId);
+			if(opSessions != null){
+				opSessions.remove(session);
+			}
+		}
+		gc.execute(new Runnable(){
+			@Override
+			public void run(){
+				session.delete();
+			}
+		});
+	}
+
+	/**
+	 * Chunks of the session committed last for the operator, in order, mapped from their segments. Throws an IOException if a chunk does
+	 * not match its checksum
+	 */
+	public List<ByteBuffer> chunks(int opId) throws IOException{
+		Session session;
+		synchronized(this){
+			session = committed.get(opId);
+		}
+		List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+		if(session == null){
+			return chunks;
+		}
+		List<ChunkEntry> manifest = readManifest(session);
+		Map<Integer, MappedByteBuffer> mapped = new HashMap<Integer, MappedByteBuffer>();
+		for(ChunkEntry entry : manifest){
+			MappedByteBuffer segment = mapped.get(entry.segment);
+			if(segment == null){
+				FileChannel channel = session.segment(entry.segment).channel;
+				segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				mapped.put(entry.segment, segment);
+			}
+			ByteBuffer chunk = segment.duplicate();
+			chunk.position((int)entry.offset);
+			chunk.limit((int)entry.offset + entry.length);
+			chunk = chunk.slice();
+			if(checksum(chunk) != entry.crc){
+				throw new IOException("Corrupted chunk "+entry.seq+" of backup session "+session.name+" for op: "+opId);
+			}
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+
+	static long checksum(ByteBuffer chunk){
+		CRC32 crc = new CRC32();
+		ByteBuffer view = chunk.duplicate();
+		byte[] scratch = new byte[Math.min(65536, Math.max(1, view.remaining()))];
+		while(view.hasRemaining()){
+			int n = Math.min(scratch.length, view.remaining());
+			view.get(scratch, 0, n);
+			crc.update(scratch, 0, n);
+		}
+		return crc.getValue();
+	}
+
+	private void syncDirty(){
+		List<Segment> toSync;
+		synchronized(dirty){
+			if(dirty.isEmpty()){
+				return;
+			}
+			toSync = new ArrayList<Segment>(dirty);
+			dirty.clear();
+		}
+		for(Segment segment : toSync){
+			try{
+				segment.channel.force(false);
+			}
+			catch(IOException io){
+				// Closed by the gc, or forced again when its session is committed
+				LOG.debug("-> Could not force backup segment {}: {}", segment.file, io.getMessage());
+			}
+		}
+	}
+
+	private File manifestFile(Session session){
+		return new File(dir, "OP_"+session.opId+"_"+session.name+".manifest");
+	}
+
+	/** One line per chunk: seq segment offset length crc. Written to a temporary file and renamed, so it is never seen half written **/
+	private void writeManifest(Session session) throws IOException{
+		File tmp = new File(dir, manifestFile(session).getName()+".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try{
+			Writer w = new OutputStreamWriter(fos, "UTF-8");
+			for(ChunkEntry e : session.sortedEntries()){
+				w.write(e.seq+" "+e.segment+" "+e.offset+" "+e.length+" "+e.crc+"\n");
+			}
+			w.flush();
+			fos.getFD().sync();
+		}
+		finally{
+			fos.close();
+		}
+		File manifest = manifestFile(session);
+		manifest.delete();
+		if(!tmp.renameTo(manifest)){
+			throw new IOException("Cannot write manifest "+manifest);
+		}
+	}
+
+	private List<ChunkEntry> readManifest(Session session) throws IOException{
+		List<ChunkEntry> entries = new ArrayList<ChunkEntry>();
+		BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile(session)), "UTF-8"));
+		try{
+			String line;
+			while((line = r.readLine()) != null){
+				String[] f = line.split(" ");
+				entries.add(new ChunkEntry(Integer.parseInt(f[0]), Integer.parseInt(f[1]), Long.parseLong(f[2]), Integer.parseInt(f[3]),
+						Long.parseLong(f[4])));
+			}
+		}
+		finally{
+			r.close();
+		}
+		return entries;
+	}
+
+	static class ChunkEntry{
+
+		final int seq;
+		final int segment;
+		final long offset;
+		final int length;
+		final long crc;
+
+		ChunkEntry(int seq, int segment, long offset, int length, long crc){
+			this.seq = seq;
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.crc = crc;
+		}
+	}
+
+	static class Segment{
+
+		final File file;
+		final FileChannel channel;
+
+		Segment(File file) throws IOException{
+			this.file = file;
+			this.channel = new RandomAccessFile(file, "rw").getChannel();
+		}
+	}
+
+	class Session{
+
+		final int opId;
+		final String name;
+		final List<Segment> segments = new ArrayList<Segment>();
+		private final List<ChunkEntry> entries = new ArrayList<ChunkEntry>();
+		// Bytes taken in the last segment
+		private long position = 0;
+		// Chunks with a region taken but not written yet
+		private int pending = 0;
+		// Chunks whose connection has been accepted, and chunks appended or failed
+		private int registered = 0;
+		private int arrived = 0;
+		// First chunk that could not be written, -1 if all were
+		private int failedChunk = -1;
+
+		Session(int opId, String name){
+			this.opId = opId;
+			this.name = name;
+		}
+
+		/** Takes the region of the next chunk, in a new segment if it does not fit in the current one **/
+		synchronized ChunkEntry reserve(int seq, int length, long crc) throws IOException{
+			if(segments.isEmpty() || (position > 0 && position + length > segmentSize)){
+				segments.add(new Segment(new File(dir, "OP_"+opId+"_"+name+"_"+segments.size()+".seg")));
+				position = 0;
+			}
+			ChunkEntry entry = new ChunkEntry(seq, segments.size() - 1, position, length, crc);
+			position += length;
+			entries.add(entry);
+			pending++;
+			return entry;
+		}
+
+		synchronized Segment segment(int index){
+			return segments.get(index);
+		}
+
+		synchronized void registered(){
+			registered++;
+		}
+
+		/** A chunk has been appended or failed, reserved if it took a region of a segment **/
+		synchronized void arrived(boolean reserved){
+			if(reserved){
+				pending--;
+			}
+			arrived++;
+			notifyAll();
+		}
+
+		synchronized int getArrived(){
+			return arrived;
+		}
+
+		synchronized void failed(int seq){
+			LOG.error("-> Could not write chunk {} of backup session {} of op: {}", seq, name, opId);
+			if(failedChunk < 0){
+				failedChunk = seq;
+			}
+		}
+
+		synchronized int getFailedChunk(){
+			return failedChunk;
+		}
+
+		/**
+		 * Waits for the chunks registered or being appended, and for totalChunks if it is not negative. False if timeout expires, 0
+		 * waits without limit
+		 */
+		synchronized boolean awaitArrived(int totalChunks, long timeout) throws InterruptedException{
+			long deadline = System.currentTimeMillis() + timeout;
+			while(pending > 0 || arrived < registered || arrived < totalChunks){
+				if(timeout <= 0){
+					wait();
+					continue;
+				}
+				long left = deadline - System.currentTimeMillis();
+				if(left <= 0){
+					return false;
+				}
+				wait(left);
+			}
+			return true;
+		}
+
+		/** Opens the segments listed in the manifest of a session committed by a previous store **/
+		synchronized void load() throws IOException{
+			int numSegments = 0;
+			for(ChunkEntry e : readManifest(this)){
+				numSegments = Math.max(numSegments, e.segment + 1);
+			}
+			for(int i = 0; i < numSegments; i++){
+				File file = new File(dir, "OP_"+opId+"_"+name+"_"+i+".seg");
+				if(!file.exists()){
+					throw new IOException("Missing backup segment "+file);
+				}
+				segments.add(new Segment(file));
+			}
+		}
+
+		/** Entries in chunk order, as the upstream sent them **/
+		synchronized List<ChunkEntry> sortedEntries(){
+			List<ChunkEntry> sorted = new ArrayList<ChunkEntry>(entries);
+			Collections.sort(sorted, new Comparator<ChunkEntry>(){
+				@Override
+				public int compare(ChunkEntry a, ChunkEntry b){
+					return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+				}
+			});
+			return sorted;
+		}
+
+		synchronized void close(){
+			for(Segment segment : segments){
+				try{
+					segment.channel.close();
+				}
+				catch(IOException io){
+					LOG.warn("-> Could not close backup segment {}", segment.file);
+				}
+			}
+		}
+
+		synchronized void delete(){
+			close();
+			for(Segment segment : segments){
+				segment.file.delete();
+			}
+			manifestFile(this).delete();
+		}
+	}
+}
@@ -12,18 +12,40 @@ package uk.ac.imperial.lsds.seep.reliable;
 
 import java.util.concurrent.ArrayBlockingQueue;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateChunk;
-import uk.ac.imperial.lsds.seep.processingunit.IProcessingUnit;
-import uk.ac.imperial.lsds.seep.processingunit.StatefulProcessingUnit;
+import uk.ac.imperial.lsds.seep.state.MalformedStateChunk;
+import uk.ac.imperial.lsds.seep.state.Mergeable;
+import uk.ac.imperial.lsds.seep.state.NullChunkWhileMerging;
 
-public class MergerWorker implements Runnable{
+/**
+ * MergerWorker. Appends the chunks of its queue to its own partial state, until it takes a chunk with -1 total chunks
+ */
+public class MergerWorker<P> implements Runnable{
 
-	private StatefulProcessingUnit pu;
+	final private Logger LOG = LoggerFactory.getLogger(MergerWorker.class);
+	
+	private Mergeable<P> state;
 	private ArrayBlockingQueue<StateChunk> jobQueue;
+	private P partial;
 	
-	public MergerWorker(IProcessingUnit pu, ArrayBlockingQueue<StateChunk> jobQueue){
-		this.pu = (StatefulProcessingUnit)pu;
+	public MergerWorker(Mergeable<P> state, ArrayBlockingQueue<StateChunk> jobQueue){
+		this.state = state;
 		this.jobQueue = jobQueue;
+		this.partial = state.newPartial();
+	}
+	
+	public P getPartial(){
+		return partial;
+	}
+	
+	/** Returns the partial state and drops the reference this worker keeps to it **/
+	public P takePartial(){
+		P taken = partial;
+		partial = null;
+		return taken;
 	}
 	
 	@Override
@@ -35,14 +57,22 @@ public class MergerWorker implements Runnable{
 				sc = jobQueue.take();
 			} 
 			catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				LOG.error("-> Merger interrupted, partial state incomplete");
+				return;
 			}
 			if(sc.getTotalChunks() == -1){
 				goOn = false;
 			}
 			else{
-				pu.mergeChunkToState(sc);
+				try{
+					state.appendChunk(partial, sc.getMemoryChunk().chunk);
+				}
+				catch(NullChunkWhileMerging ncwm){
+					ncwm.printStackTrace();
+				}
+				catch(MalformedStateChunk msc){
+					msc.printStackTrace();
+				}
 			}
 		}
 	}
@@ -39,7 +39,7 @@ public class StateBackupWorker implements Runnable, Serializable{
 	private StateWrapper state;
 	
 	public enum CheckpointMode{
-		LARGE_STATE, LIGHT_STATE
+		LARGE_STATE, LIGHT_STATE, BARRIER
 	}
 	private final CheckpointMode CHECKPOINTMODE;
 	
@@ -58,6 +58,10 @@ public class StateBackupWorker implements Runnable, Serializable{
 			LOG.info("Checkpoint mode of this operator is LIGHT-STATE");
 			this.CHECKPOINTMODE = CheckpointMode.LIGHT_STATE;
 		}
+		else if(GLOBALS.valueFor("checkpointMode").equals("barrier")){
+			LOG.info("Checkpoint mode of this operator is BARRIER");
+			this.CHECKPOINTMODE = CheckpointMode.BARRIER;
+		}
 		else{
 			// safe default
 			this.CHECKPOINTMODE = CheckpointMode.LARGE_STATE;
@@ -83,6 +87,13 @@ public class StateBackupWorker implements Runnable, Serializable{
 		else if(CHECKPOINTMODE.equals(CheckpointMode.LIGHT_STATE)){
 			executeLightStateMechanism();
 		}
+		else if(CHECKPOINTMODE.equals(CheckpointMode.BARRIER)){
+			// Checkpoints are taken by the consumer at the barriers. Sources inject the barriers instead of aligning them
+			if(processingUnit.getOwner().getBarrierAligner() == null){
+				LOG.info("-> Source operator, checkpointing as LIGHT-STATE");
+				executeLightStateMechanism();
+			}
+		}
 		else{
 			LOG.error("-> Not defined checkpoint mode");
 		}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.reliable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateChunk;
+import uk.ac.imperial.lsds.seep.state.Mergeable;
+
+/**
+ * StateMerger. Merges the chunks of state received while recovering from several MergerWorker threads, so that merging uses all the
+ * cores and the control threads receiving the chunks only hand them over. Chunks are given to the workers in turns, and each worker
+ * builds its own partial state, that are installed together in the state when finish is called. The chunks streamed hold disjoint keys,
+ * so it does not matter which worker merges each.
+ */
+public class StateMerger<P> {
+
+	final private Logger LOG = LoggerFactory.getLogger(StateMerger.class);
+	
+	private final Mergeable<P> state;
+	private final List<ArrayBlockingQueue<StateChunk>> queues = new ArrayList<ArrayBlockingQueue<StateChunk>>();
+	private final List<MergerWorker<P>> workers = new ArrayList<MergerWorker<P>>();
+	private final List<Thread> threads = new ArrayList<Thread>();
+	private int next = 0;
+	
+	public StateMerger(Mergeable<P> state, int numThreads, int queueSize){
+		this.state = state;
+		for(int i = 0; i < numThreads; i++){
+			ArrayBlockingQueue<StateChunk> queue = new ArrayBlockingQueue<StateChunk>(queueSize);
+			MergerWorker<P> worker = new MergerWorker<P>(state, queue);
+			Thread t = new Thread(worker, "mergerT-"+i);
+			t.setDaemon(true);
+			queues.add(queue);
+			workers.add(worker);
+			threads.add(t);
+			t.start();
+		}
+	}
+	
+	/**
+	 * Hands a chunk to the next worker, waiting while its queue is full so that the chunks received do not pile up in memory
+	 */
+	public synchronized void merge(StateChunk chunk) throws InterruptedException{
+		queues.get(next).put(chunk);
+		next = (next + 1) % queues.size();
+	}
+	
+	/**
+	 * Waits for the workers to merge all the chunks handed to them and installs their partial states
+	 */
+	public synchronized void finish() throws InterruptedException{
+		long start = System.currentTimeMillis();
+		List<P> partials = new ArrayList<P>();
+		try{
+			for(ArrayBlockingQueue<StateChunk> queue : queues){
+				StateChunk last = new StateChunk();
+				last.setTotalChunks(-1);
+				queue.put(last);
+			}
+			for(int i = 0; i < threads.size(); i++){
+				threads.get(i).join();
+				// Only the list keeps the partials, so the state can release them while it installs them
+				partials.add(workers.get(i).takePartial());
+			}
+		}
+		catch(InterruptedException ie){
+			abort();
+			throw ie;
+		}
+		long merged = System.currentTimeMillis();
+		state.installPartials(partials);
+		LOG.info("-> Merge finished after {} ms, partials installed in {} ms", merged - start, System.currentTimeMillis() - merged);
+	}
+	
+	/**
+	 * Stops the workers without installing their partial states, when the recovery is abandoned
+	 */
+	public void abort(){
+		for(Thread t : threads){
+			t.interrupt();
+		}
+		for(Thread t : threads){
+			try{
+				t.join();
+			}
+			catch(InterruptedException ie){
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		for(ArrayBlockingQueue<StateChunk> queue : queues){
+			queue.clear();
+		}
+	}
+}
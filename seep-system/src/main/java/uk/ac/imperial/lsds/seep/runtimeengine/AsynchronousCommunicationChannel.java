@@ -19,7 +19,9 @@ import uk.ac.imperial.lsds.seep.buffer.Buffer;
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TupleSchema;
 import uk.ac.imperial.lsds.seep.comm.serialization.serializers.ArrayListSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.TuplePayloadSerializer;
 import uk.ac.imperial.lsds.seep.operator.EndPoint;
 
 import com.esotericsoftware.kryo.Kryo;
@@ -55,8 +57,11 @@ public class AsynchronousCommunicationChannel implements EndPoint{
 		Kryo k = new Kryo();
 		k.register(ArrayList.class, new ArrayListSerializer());
 		k.register(Payload.class);
-		k.register(TuplePayload.class);
+		k.register(TuplePayload.class, new TuplePayloadSerializer());
 //		k.register(BatchTuplePayload.class);
+		k.register(TupleSchema.class);
+		k.register(long[].class);
+		k.register(Object[].class);
 		return k;
 	}
 	
@@ -11,12 +11,10 @@
  ******************************************************************************/
 package uk.ac.imperial.lsds.seep.runtimeengine;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -58,6 +56,7 @@ import uk.ac.imperial.lsds.seep.state.Partitionable;
 import uk.ac.imperial.lsds.seep.state.StateWrapper;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.ByteBufferInputStream;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.serializers.MapSerializer;
@@ -168,14 +167,25 @@ public class CoreProcessingLogic implements Serializable{
 		SynchronousCommunicationChannel downStream = puCtx.getCCIfromOpId(opId, "d");
 		TimestampTracker ts_e = ct.getState().getData_ts();
 		TimestampTracker smaller = TimestampTracker.returnSmaller(ts_e, downStream.getReconf_ts());
+		boolean accepted = true;
 		if(TimestampTracker.isSmallerOrEqual(downStream.getReconf_ts(), smaller)){
 			
 		//if(downStream.getReconf_ts() <= ts_e){
-			puCtx.getBuffer(opId).replaceBackupOperatorState(ct);
+			if(!ct.isDelta()){
+				puCtx.getBuffer(opId).replaceBackupOperatorState(ct);
+			}
+			else if(!puCtx.getBuffer(opId).mergeBackupOperatorState(ct)){
+				LOG.warn("-> Received state delta {} that does not follow the state kept for OP: {}", ct.getCheckpointId(), opId);
+				accepted = false;
+			}
 		}
 		else{
 			LOG.warn("-> Received state generated after the beginning of the reconfigure process");
+			accepted = false;
 		}
+		// The owner acks the ts of the checkpoint only once it is kept here, and sends a full checkpoint next if it was not
+		ControlTuple reply = new ControlTuple().makeBackupStateAck(pu.getOperator().getOperatorId(), ct.getCheckpointId(), accepted);
+		owner.getControlDispatcher().sendDownstream(reply, pu.getOperator().getOpContext().getDownOpIndexFromOpId(opId));
 	}
 
 	public synchronized void processAck(Ack ct){
@@ -431,7 +441,7 @@ public class CoreProcessingLogic implements Serializable{
 			if(GLOBALS.valueFor("checkpointMode").equals("large-state")){
 				System.out.println("skip initial state backup");
 			}
-			else if(GLOBALS.valueFor("checkpointMode").equals("light-state")){
+			else if(GLOBALS.valueFor("checkpointMode").equals("light-state") || GLOBALS.valueFor("checkpointMode").equals("barrier")){
 				((StatefulProcessingUnit)pu).checkpointAndBackupState();
 			}
 			else{
@@ -442,43 +452,24 @@ public class CoreProcessingLogic implements Serializable{
 	
 	//public void directReplayStateFailure(ReplayStateInfo rsi, BackupHandler bh, File folder){
 	public void directReplayStateFailure(int opId, BackupHandler bh){
-		File folder = new File("backup/");
-		String lastSessionName = bh.getLastBackupSessionName(opId);
-		List<File> filesToStream = new ArrayList<File>();
 		SynchronousCommunicationChannel cci = puCtx.getCCIfromOpId(opId, "d");
 		Socket controlSocket = cci.getDownstreamControlSocket();
-		int totalNumberChunks = 0;
 		int keeperOpId = pu.getOperator().getOperatorId(); // myself
-		// Read folder and filter out files to send through the network
 		try {
 			LOG.debug("-> Request to stream to a single node");
 			Output output = new Output(controlSocket.getOutputStream());
-			///\todo{Can't all this block of code just be avoided by accessing directly the channels}
-			// ok, cause there is no simple way to access to the filechannel names. We can use the file objects that are ready to
-			// garbage collect to access to this information, saving some valuable IO interactions with the disk, not only in this block
-			// but most improtnatly below, at deserialization time
-			for(File chunkFile : folder.listFiles()){
-				String chunkName = chunkFile.getName();
-				if(matchSession(opId, chunkName, lastSessionName)){
-					totalNumberChunks++;
-					filesToStream.add(chunkFile);
-					System.out.println("Filename: "+chunkName);
-				}
-			}
-			
-			/** end test2 **/
+			// Chunks of the last session committed, mapped from the checkpoint store
+			List<ByteBuffer> chunksToStream = bh.getCheckpointStore().chunks(opId);
 			
 			long timeread = 0;
 			long timewrite = 0;
 
-			for(File chunk : filesToStream){
-				System.out.println("STREAM CHUNK ("+keeperOpId+"): "+chunk.getName());
-				Input i = new Input(new FileInputStream(chunk));
-//				Input i = new Input(new FileInputStream(filesToStream.get(ig)));
+			for(ByteBuffer chunk : chunksToStream){
+				Input i = new Input(new ByteBufferInputStream(chunk));
 				long a = System.currentTimeMillis();
 				ControlTuple ct = k.readObject(i, ControlTuple.class);
 				long b = System.currentTimeMillis();
-				ct.getStateChunk().setTotalChunks(filesToStream.size());
+				ct.getStateChunk().setTotalChunks(chunksToStream.size());
 				ct.getStateChunk().setKeeperOpId(keeperOpId);
 //				ct.getStateChunk().setTotalChunks(fakechunksnumber);
 				k.writeObject(output, ct);
@@ -497,10 +488,6 @@ public class CoreProcessingLogic implements Serializable{
 			System.out.println("READ: "+timeread);
 			System.out.println("WRITE: "+timewrite);
 		}
-		catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
 		catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -513,9 +500,6 @@ public class CoreProcessingLogic implements Serializable{
 		int _np = 0;
 		int _op = 0;
 		// END DEBUG VAR
-		File folder = new File("backup/");
-		String lastSessionName = bh.getLastBackupSessionName(oldOpId);
-		int totalNumberChunks = 0;
 		int keeperOpId = pu.getOperator().getOperatorId();
 		
 		System.out.println("Scaling out: "+oldOpId+" to new OP: "+newOpId);
@@ -531,24 +515,15 @@ public class CoreProcessingLogic implements Serializable{
 //		InetAddress oldIp = puCtx.getDCCfromOpIdInStarTopology(oldOpId).getIp();
 //		InetAddress newIp = puCtx.getDCCfromOpIdInStarTopology(newOpId).getIp();
 //		
-		List<File> filesToStream = new ArrayList<File>();
-		
 		try{
 //			Socket oldS = new Socket(oldIp, Main.CONTROL_SOCKET+oldOpId);
 //			Socket newS = new Socket(newIp, Main.CONTROL_SOCKET+newOpId);
 			
 			Output oldO = new Output(oldS.getOutputStream());
 			Output newO = new Output(newS.getOutputStream());
-			// Get files to replay
-			for(File chunkFile : folder.listFiles()){
-				String chunkName = chunkFile.getName();
-				if(matchSession(oldOpId, chunkName, lastSessionName)){
-					totalNumberChunks++;
-					filesToStream.add(chunkFile);
-					System.out.println("Filename: "+chunkName);
-				}
-			}
-System.out.println("there are: "+filesToStream.size()+" to stream");
+			// Chunks to replay, mapped from the checkpoint store
+			List<ByteBuffer> chunksToStream = bh.getCheckpointStore().chunks(oldOpId);
+System.out.println("there are: "+chunksToStream.size()+" to stream");
 
 //			// There is a fixed size per chunk, so there is an upper bound size per partition. Let's then
 //			// make dynamically-sized chunks.
@@ -574,10 +549,9 @@ System.out.println("there are: "+filesToStream.size()+" to stream");
 			t1.start();
 			t2.start();
 			
-			for(File chunk : filesToStream){
-				System.out.println("Splitting file: "+chunk.getName());
+			for(ByteBuffer chunk : chunksToStream){
 				currentNumberBatch++;
-				i = new Input(new FileInputStream(chunk));
+				i = new Input(new ByteBufferInputStream(chunk));
 				long a = System.currentTimeMillis();
 				ControlTuple ct = k.readObject(i, ControlTuple.class);
 				long b = System.currentTimeMillis();
@@ -675,11 +649,6 @@ System.out.println("there are: "+filesToStream.size()+" to stream");
 		}
 	}
 	
-	private boolean matchSession(int opId, String fileName, String sessionName){
-		String[] splits = fileName.split("_");
-		return (splits[2].equals(sessionName) && splits[1].equals(new Integer(opId).toString()));
-	}
-	
 	// Structure and method to keep tracking of merging state
 	private Set<Integer> activeOpStreaming = new HashSet<Integer>();
 	long mergeTotal = 0;
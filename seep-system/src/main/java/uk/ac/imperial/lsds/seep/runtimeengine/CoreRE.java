@@ -17,9 +17,12 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.channels.Selector;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +36,7 @@ import uk.ac.imperial.lsds.seep.comm.serialization.ControlTuple;
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.Ack;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.BackupOperatorState;
+import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.BackupStateAck;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.ReconfigureConnection;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.Resume;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateChunk;
@@ -42,6 +46,7 @@ import uk.ac.imperial.lsds.seep.infrastructure.master.Node;
 import uk.ac.imperial.lsds.seep.operator.EndPoint;
 import uk.ac.imperial.lsds.seep.operator.InputDataIngestionMode;
 import uk.ac.imperial.lsds.seep.operator.Operator;
+import uk.ac.imperial.lsds.seep.operator.OperatorContext;
 import uk.ac.imperial.lsds.seep.operator.OperatorStaticInformation;
 import uk.ac.imperial.lsds.seep.operator.OperatorContext.PlacedOperator;
 import uk.ac.imperial.lsds.seep.processingunit.IProcessingUnit;
@@ -49,6 +54,8 @@ import uk.ac.imperial.lsds.seep.processingunit.PUContext;
 import uk.ac.imperial.lsds.seep.processingunit.StatefulProcessingUnit;
 import uk.ac.imperial.lsds.seep.processingunit.StatelessProcessingUnit;
 import uk.ac.imperial.lsds.seep.reliable.BackupHandler;
+import uk.ac.imperial.lsds.seep.reliable.BarrierAligner;
+import uk.ac.imperial.lsds.seep.reliable.BarrierTuple;
 import uk.ac.imperial.lsds.seep.reliable.StateBackupWorker.CheckpointMode;
 
 /**
@@ -88,11 +95,22 @@ public class CoreRE {
 	
 	static ControlTuple genericAck;
 	private int totalNumberOfChunks = -1;
+	private int[] stateChunksPerBackupNode = null;
 	
 	// Timestamp of the last data tuple processed by this operator
 	private TimestampTracker incomingTT = new TimestampTracker();
 	// Track last ack processed by this op
 	private TimestampTracker ts_ack_vector = new TimestampTracker();
+	// Tuples received from each upstream whose credits have not been granted back yet
+	private ConcurrentHashMap<Integer, AtomicInteger> pendingCredits = new ConcurrentHashMap<Integer, AtomicInteger>();
+	// ts to ack to each upstream with the next credits granted, 0 when there is none waiting
+	private ConcurrentHashMap<Integer, AtomicLong> pendingAcks = new ConcurrentHashMap<Integer, AtomicLong>();
+	// Last ts acked to each upstream, standalone or piggybacked
+	private ConcurrentHashMap<Integer, Long> sentAcks = new ConcurrentHashMap<Integer, Long>();
+	// Data tuples received from all upstreams, read by the ACKWorker to adapt its interval
+	private AtomicLong receivedTuples = new AtomicLong();
+	// Aligns the barriers of the upstreams with the barrier checkpoint mode, null otherwise
+	private BarrierAligner barrierAligner = null;
 		
 	public CoreRE(WorkerNodeDescription nodeDescr, RuntimeClassLoader rcl){
 		this.nodeDescr = nodeDescr;
@@ -166,6 +184,9 @@ public class CoreRE {
 		}
 		// We configure the dataStructureAdapter with this mode (per upstream), and put additional info required for some modes
 		dsa.setUp(idimMap, processingUnit.getOperator().getOpContext());
+		if(GLOBALS.valueFor("checkpointMode").equals("barrier")){
+			configureBarrierAligner();
+		}
 
 		// Start communications and worker threads
 		int inC = processingUnit.getOperator().getOpContext().getOperatorStaticInformation().getInC();
@@ -213,6 +234,8 @@ public class CoreRE {
 		if(GLOBALS.valueFor("multicoreSupport").equals("true")){
 			if(processingUnit.isMultiCoreEnabled()){
 				processingUnit.launchMultiCoreMechanism(this, dsa);
+			}
+			if(processingUnit.isMultiCoreEnabled()){
 				LOG.debug("-> Multi core support enabled");
 			}
 			else{
@@ -257,8 +280,13 @@ public class CoreRE {
 		}
 		LOG.info("-> Node "+nodeDescr.getNodeId()+" comm initialized");
 		
-		// If ackworker is active
-		if(GLOBALS.valueFor("ackWorkerActive").equals("true")){
+		if(GLOBALS.valueFor("checkpointMode").equals("barrier") && processingUnit.getOperator().getOpContext().isSource() && outputQueue != null){
+			startBarrierInjection();
+			LOG.info("-> Injecting barriers from {}", nodeDescr.getNodeId());
+		}
+		
+		// If ackworker is active. With barriers sinks ack when they get one
+		if(GLOBALS.valueFor("ackWorkerActive").equals("true") && barrierAligner == null){
 			//If this is the sink operator (extremely ugly)
 			//if(processingUnit.getOperator().getOpContext().downstreams.size() == 0){
 			if(processingUnit.getOperator().getOpContext().isSink()){
@@ -312,14 +340,20 @@ public class CoreRE {
 	public enum ControlTupleType{
 		ACK, BACKUP_OP_STATE, RECONFIGURE, SCALE_OUT, SCALE_IN, RESUME, INIT_STATE, STATE_ACK, INVALIDATE_STATE,
 		BACKUP_RI, INIT_RI, OPEN_BACKUP_SIGNAL, CLOSE_BACKUP_SIGNAL, STREAM_STATE, STATE_CHUNK, DISTRIBUTED_SCALE_OUT,
-		KEY_SPACE_BOUNDS
+		KEY_SPACE_BOUNDS, CREDIT, BACKUP_STATE_ACK
 	}
 	
-	public synchronized void setTsData(int stream, long ts_data){
+	/** Called for every tuple received, each stream by a single thread **/
+	public void setTsData(int stream, long ts_data){
 		this.incomingTT.set(stream, ts_data);
+		receivedTuples.incrementAndGet();
+	}
+	
+	public long getReceivedTuples(){
+		return receivedTuples.get();
 	}
 
-	public synchronized long getTsData(int stream){
+	public long getTsData(int stream){
 		return incomingTT.get(stream);
 	}
 	
@@ -332,6 +366,10 @@ public class CoreRE {
 	}
 	
 	public void forwardData(DataTuple data){
+		if(data instanceof BarrierTuple){
+			processBarrier((BarrierTuple)data);
+			return;
+		}
 		processingUnit.processData(data);
 	}
 	
@@ -339,6 +377,71 @@ public class CoreRE {
 		processingUnit.processData(data);
 	}
 	
+	public BarrierAligner getBarrierAligner(){
+		return barrierAligner;
+	}
+	
+	/**
+	 * Barriers are aligned into the input queue, so they need a single one, consumed in order. The master does not deploy queries
+	 * with other input modes in barrier mode, and stateless operators consume their input from a single thread, so that every
+	 * operator forwards the barriers
+	 */
+	private void configureBarrierAligner(){
+		OperatorContext opCtx = processingUnit.getOperator().getOpContext();
+		if(opCtx.isSource()){
+			return;
+		}
+		if(!processingUnit.isNodeStateful() && processingUnit.isMultiCoreEnabled()){
+			LOG.info("-> Barriers are consumed in order, multi core support disabled for op: {}", processingUnit.getOperator().getOperatorId());
+			processingUnit.disableMultiCoreSupport();
+		}
+		DataStructureI dso = dsa.getUniqueDso();
+		if(!(dso instanceof InputQueue || dso instanceof RingInputQueue)){
+			throw new IllegalStateException("Barriers need a single input queue, op: "+processingUnit.getOperator().getOperatorId()+" cannot forward them");
+		}
+		barrierAligner = new BarrierAligner(incomingTT, opCtx.upstreams.size());
+	}
+	
+	/**
+	 * Sources inject a barrier every barrierInterval ms. Epochs are numbered by wall clock intervals, so that the sources in different
+	 * nodes inject the barriers of the same epoch at about the same time
+	 */
+	private void startBarrierInjection(){
+		final long interval = Long.parseLong(GLOBALS.valueFor("barrierInterval"));
+		Timer barrierTimer = new Timer("barrierTimerT", true);
+		long delay = 2 * interval - System.currentTimeMillis() % interval;
+		barrierTimer.scheduleAtFixedRate(new TimerTask(){
+			@Override
+			public void run(){
+				long epoch = Math.round((double)System.currentTimeMillis() / interval);
+				outputQueue.sendBarrier(epoch, puCtx.getDownstreamTypeConnection());
+			}
+		}, delay, interval);
+	}
+	
+	/**
+	 * Called by the consumer when it reaches the barrier of an epoch, once all the tuples received before the barrier have been
+	 * processed. The barrier is forwarded first, so that downstreams align while this operator checkpoints. Stateful operators checkpoint
+	 * their state with the ts of the barrier and ack them, and sinks just ack them, so upstream buffers are trimmed at the barriers. Other
+	 * operators ack what their downstreams ack
+	 */
+	public void processBarrier(BarrierTuple barrier){
+		OperatorContext opCtx = processingUnit.getOperator().getOpContext();
+		if(!opCtx.isSink() && outputQueue != null){
+			outputQueue.sendBarrier(barrier.getEpoch(), puCtx.getDownstreamTypeConnection());
+		}
+		if(processingUnit.isNodeStateful() && ((StatefulProcessingUnit)processingUnit).isCheckpointEnabled()){
+			StatefulProcessingUnit spu = (StatefulProcessingUnit)processingUnit;
+			if(GLOBALS.valueFor("eftMechanismEnabled").equals("true")
+					&& !spu.getSystemStatus().equals(StatefulProcessingUnit.SystemStatus.INITIALISING_STATE)){
+				spu.checkpointAndBackupState(barrier.getTs());
+			}
+		}
+		else if(opCtx.isSink()){
+			ack(barrier.getTs());
+		}
+	}
+	
 	public int getBackupUpstreamIndex() {
 		return backupUpstreamIndex;
 	}
@@ -395,9 +498,26 @@ public class CoreRE {
 				System.out.println("ACK-vector: "+ts_ack_vector);
 //				System.exit(-1);
 			}
-			if(ack.getTs() > ts_ack_vector.get(ack.getOpId())){ // Only if this ack is newer than the last registered
-				ts_ack_vector.set(ack.getOpId(), ack.getTs()); // then register for next time and process ack
-				coreProcessLogic.processAck(ack);
+			receiveAck(ack);
+		}
+		/** CREDIT message **/
+		else if(ctt.equals(ControlTupleType.CREDIT)){
+			int opId = ct.getCredit().getOpId();
+			SynchronousCommunicationChannel cci = puCtx.getCCIfromOpId(opId, "d");
+			if(cci != null){
+				cci.addCredits(ct.getCredit().getCredits());
+			}
+			// An ACK may come piggybacked with the credits
+			if(ct.getCredit().getAckTs() > 0){
+				receiveAck(new Ack(opId, ct.getCredit().getAckTs()));
+			}
+		}
+		/** BACKUP_STATE_ACK message **/
+		else if(ctt.equals(ControlTupleType.BACKUP_STATE_ACK)){
+			BackupStateAck backupStateAck = ct.getBackupStateAck();
+			LOG.debug("-> Backup Op: {} replied to checkpoint {}, accepted: {}", backupStateAck.getOpId(), backupStateAck.getCheckpointId(), backupStateAck.isAccepted());
+			if(processingUnit instanceof StatefulProcessingUnit){
+				((StatefulProcessingUnit)processingUnit).backupStateAcked(backupStateAck.getCheckpointId(), backupStateAck.isAccepted());
 			}
 		}
 		/** INVALIDATE_STATE message **/
@@ -430,7 +550,7 @@ public class CoreRE {
 		/** CLOSE_SIGNAL message **/
 		else if(ctt.equals(ControlTupleType.CLOSE_BACKUP_SIGNAL)){
 			LOG.info("-> Node {} recv ControlTuple.CLOSE_SIGNAL from OP: ", nodeDescr.getNodeId(), ct.getCloseSignal().getOpId());
-			bh.closeSession(ct.getCloseSignal().getOpId(), remoteAddress);
+			bh.closeSession(ct.getCloseSignal().getOpId(), remoteAddress, ct.getCloseSignal().getTotalNumberOfChunks());
 			
 //			coreProcessLogic.directReplayState(new ReplayStateInfo(1, 1, true), bh);
 		}
@@ -565,7 +685,8 @@ public class CoreRE {
             // of type StatelessProcessingUnit. Otherwise, a ClassCastException is thrown.
 			if (processingUnit instanceof StatefulProcessingUnit) {
                 
-                if (((StatefulProcessingUnit)processingUnit).getCheckpointMode().equals(CheckpointMode.LIGHT_STATE)) {
+                CheckpointMode checkpointMode = ((StatefulProcessingUnit)processingUnit).getCheckpointMode();
+                if (checkpointMode.equals(CheckpointMode.LIGHT_STATE) || checkpointMode.equals(CheckpointMode.BARRIER)) {
                     // If I have previously splitted the state, I am in WAITING FOR STATE-ACK status and I have to replay it.
                     // I may be managing a state but I dont have to replay it if I have not splitted it previously
                     if(processingUnit.getSystemStatus().equals(StatefulProcessingUnit.SystemStatus.WAITING_FOR_STATE_ACK)){
@@ -665,6 +786,9 @@ public class CoreRE {
 				reconfigureUpstreamBackupIndex(upstreamSize);
 //				dsa.reconfigureNumUpstream(originalOpId, upstreamSize);
 				dsa.reconfigureNumUpstream(originalOpId, upstreamSizeForBarrier);
+				if(barrierAligner != null){
+					barrierAligner.setNumChannels(upstreamSize);
+				}
 			}
 			controlDispatcher.ackControlMessage(genericAck, os);
 		}
@@ -705,19 +829,80 @@ public class CoreRE {
 		}
 	}
 	
+	private void receiveAck(Ack ack){
+		if(ack.getTs() > ts_ack_vector.get(ack.getOpId())){ // Only if this ack is newer than the last registered
+			ts_ack_vector.set(ack.getOpId(), ack.getTs()); // then register for next time and process ack
+			coreProcessLogic.processAck(ack);
+		}
+	}
+	
+	/**
+	 * Acks per input channel the ts that have advanced since the last ack. With credit-based flow control the ack is sent with the
+	 * next credits granted to the upstream. If the previous ack is still waiting when a new one comes, no credits have been granted
+	 * for a whole ack interval, and the new one is sent on its own instead
+	 */
 	public void ack(TimestampTracker tsVector) {
-		// ack per input channel
-		Iterator<Entry<Integer, Long>> i = tsVector.getTsStream();
-		while(i.hasNext()){
-			Entry<Integer, Long> channelInfo = i.next();
-			int opId = channelInfo.getKey();
-			long ts = channelInfo.getValue();
+		boolean piggyback = SynchronousCommunicationChannel.isCreditBased() && GLOBALS.valueFor("piggybackAcks").equals("true");
+		for(int i = 0; i < TimestampTracker.width(); i++){
+			long ts = tsVector.getAt(i);
+			if(ts == 0){
+				continue;
+			}
+			int opId = TimestampTracker.streamAt(i);
+			Long sent = sentAcks.get(opId);
+			if(sent != null && ts <= sent){
+				// Nothing new to ack to this upstream
+				continue;
+			}
+			if(piggyback){
+				AtomicLong pending = pendingAcks.get(opId);
+				if(pending == null){
+					pendingAcks.putIfAbsent(opId, new AtomicLong(0));
+					pending = pendingAcks.get(opId);
+				}
+				if(pending.getAndSet(ts) == 0){
+					continue;
+				}
+				// The previous ack was not taken, send this one now unless the credits just took it
+				if(pending.getAndSet(0) == 0){
+					continue;
+				}
+			}
+			sentAcks.put(opId, ts);
 			ControlTuple ack = new ControlTuple(ControlTupleType.ACK, processingUnit.getOperator().getOperatorId(), ts);
 			int index = processingUnit.getOperator().getOpContext().getUpOpIndexFromOpId(opId);
 			controlDispatcher.sendUpstream(ack, index);
 		}
 	}
 	
+	/**
+	 * Called once credits tuples of upstream opId have been taken by the input of this operator. Credits are granted back in
+	 * groups of a quarter of the window, so that the control connection does not carry one message per batch
+	 */
+	public void returnCredits(int opId, int credits){
+		if(!SynchronousCommunicationChannel.isCreditBased()){
+			return;
+		}
+		AtomicInteger pending = pendingCredits.get(opId);
+		if(pending == null){
+			pendingCredits.putIfAbsent(opId, new AtomicInteger(0));
+			pending = pendingCredits.get(opId);
+		}
+		int total = pending.addAndGet(credits);
+		// Until the runtime is set there is no control connection to the upstreams, the credits are granted with the next batch
+		if(total >= Math.max(1, SynchronousCommunicationChannel.getCreditWindow() / 4) && controlDispatcher != null){
+			pending.addAndGet(-total);
+			AtomicLong ack = pendingAcks.get(opId);
+			long ackTs = ack != null ? ack.getAndSet(0) : 0;
+			if(ackTs > 0){
+				sentAcks.put(opId, ackTs);
+			}
+			ControlTuple ct = new ControlTuple().makeCredit(processingUnit.getOperator().getOperatorId(), total, ackTs);
+			int index = processingUnit.getOperator().getOpContext().getUpOpIndexFromOpId(opId);
+			controlDispatcher.sendUpstream(ct, index);
+		}
+	}
+	
 	public void signalOpenBackupSession(int totalSizeST){
 		int opId = processingUnit.getOperator().getOperatorId();
 		LOG.debug("-> Opening backup session from: {}", opId);
@@ -733,8 +918,10 @@ public class CoreRE {
 	public void signalCloseBackupSession(int starTopologySize){
 		int opId = processingUnit.getOperator().getOperatorId();
 		LOG.debug("-> Closing backup session from: {}", opId);
-		ControlTuple closeSignal = new ControlTuple().makeCloseSignalBackup(opId, totalNumberOfChunks);
 		for(int i = 0; i < starTopologySize; i++){
+			// Each node is told the chunks it was sent, so that it waits for them before committing the session
+			int chunks = (stateChunksPerBackupNode != null && i < stateChunksPerBackupNode.length) ? stateChunksPerBackupNode[i] : totalNumberOfChunks;
+			ControlTuple closeSignal = new ControlTuple().makeCloseSignalBackup(opId, chunks);
 			controlDispatcher.sendCloseSession(closeSignal, i);
 		}
 	}
@@ -769,6 +956,11 @@ public class CoreRE {
 		//coreProcessLogic.setTotalNumberOfChunks(number);
 	}
 	
+	/** Chunks of the last backup sent to each node of the star topology, by index **/
+	public void setStateChunksPerBackupNode(int[] chunks){
+		this.stateChunksPerBackupNode = chunks;
+	}
+	
 	//Initial compute of upstreamBackupindex. This is useful for initial instantiations (not for splits, because in splits, upstreamIdx comes in the INIT_STATE)
 	// This method is called only once during initialisation of the node (from setRuntime)
 	public void configureUpstreamIndex(int upstreamSize){
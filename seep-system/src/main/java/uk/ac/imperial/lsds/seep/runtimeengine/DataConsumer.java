@@ -14,6 +14,7 @@ import java.util.ArrayList;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
 
 public class DataConsumer implements Runnable {
@@ -21,6 +22,8 @@ public class DataConsumer implements Runnable {
 	private CoreRE owner;
 	private DataStructureAdapter dataAdapter;
 	private boolean doWork = true;
+	// Maximum number of tuples taken at once from a RingInputQueue
+	private int drainBatchSize = Integer.parseInt(GLOBALS.valueFor("drainBatchSize"));
 	
 	public void setDoWork(boolean doWork){
 		this.doWork = doWork;
@@ -61,6 +64,9 @@ public class DataConsumer implements Runnable {
 					}
 				}
 			}
+			else if(dso instanceof RingInputQueue){
+				consumeBatches((RingInputQueue)dso);
+			}
 			else if(dso instanceof Barrier){
 				while(doWork){
 					ArrayList<DataTuple> ldata = dso.pull_from_barrier();
@@ -72,6 +78,23 @@ public class DataConsumer implements Runnable {
 		}
 	}
 	
+	/**
+	 * Takes all the tuples available in ring at once, up to drainBatchSize, and then forwards them one by one.
+	 * processData(List) of the operator is reserved for the batches of a barrier, so tuples are not handed over as a list
+	 */
+	private void consumeBatches(RingInputQueue ring){
+		ArrayList<DataTuple> batch = new ArrayList<DataTuple>(drainBatchSize);
+		while(doWork){
+			ring.drainTo(batch, drainBatchSize);
+			for(int i = 0; i < batch.size(); i++){
+				if(owner.checkSystemStatus()){
+					owner.forwardData(batch.get(i));
+				}
+			}
+			batch.clear();
+		}
+	}
+	
 	class DataConsumerWorker implements Runnable{
 		
 		private DataStructureI dsi = null;
@@ -89,6 +112,9 @@ public class DataConsumer implements Runnable {
 					}
 				}
 			}
+			else if(dsi instanceof RingInputQueue){
+				consumeBatches((RingInputQueue)dsi);
+			}
 			else if(dsi instanceof Barrier){
 				while(doWork){
 					ArrayList<DataTuple> ldata = dsi.pull_from_barrier();
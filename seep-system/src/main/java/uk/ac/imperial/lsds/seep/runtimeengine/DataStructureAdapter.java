@@ -17,6 +17,7 @@ import java.util.Map.Entry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.operator.InputDataIngestionMode;
 import uk.ac.imperial.lsds.seep.operator.Operator;
 import uk.ac.imperial.lsds.seep.operator.OperatorContext;
@@ -66,9 +67,9 @@ public class DataStructureAdapter {
 			// For processing one event per iteration, the queue is the best abstraction
 			for(Entry<Integer, InputDataIngestionMode> entry : iimMap.entrySet()){
 				if(entry.getValue().equals(InputDataIngestionMode.ONE_AT_A_TIME)){
-					InputQueue iq = new InputQueue();
+					DataStructureI iq = newInputQueue();
 					dsoMap.put(entry.getKey(), iq);
-					LOG.debug("-> Ingest with InputQueue from {}", entry.getKey());
+					LOG.debug("-> Ingest with {} from {}", iq.getClass().getSimpleName(), entry.getKey());
 				}
 				else if(entry.getValue().equals(InputDataIngestionMode.UPSTREAM_SYNC_BARRIER)){
 					///\fixme{careful with the num of upstreams. its the upstreams on the barriera, not all}
@@ -85,9 +86,9 @@ public class DataStructureAdapter {
 			LOG.debug("-> Setting up a unique InputDataIngestionMode");
 			for(Entry<Integer, InputDataIngestionMode> entry : iimMap.entrySet()){
 				if(entry.getValue().equals(InputDataIngestionMode.ONE_AT_A_TIME)){
-					InputQueue iq = new InputQueue();
+					DataStructureI iq = newInputQueue();
 					uniqueDso = iq;
-					LOG.debug("-> Ingest with InputQueue from {}", entry.getKey());
+					LOG.debug("-> Ingest with {} from {}", iq.getClass().getSimpleName(), entry.getKey());
 				}
 				else if(entry.getValue().equals(InputDataIngestionMode.UPSTREAM_SYNC_BARRIER)){
 					///\fixme{careful with the num of upstreams. its the upstreams on the barriera, not all. In this case is the same}
@@ -104,6 +105,17 @@ public class DataStructureAdapter {
 		}
 	}
 	
+	/**
+	 * Queue for the ONE_AT_A_TIME mode. RingInputQueue has a single consumer, so it is not used when the multicore workers pull
+	 * from the queue
+	 */
+	private DataStructureI newInputQueue(){
+		if(GLOBALS.valueFor("ringInputQueue").equals("true") && !GLOBALS.valueFor("multicoreSupport").equals("true")){
+			return new RingInputQueue();
+		}
+		return new InputQueue();
+	}
+	
 	/** SPECIFIC METHODS **/
 	
 	public void reconfigureNumUpstream(int originalOpId, int upstreamSize){
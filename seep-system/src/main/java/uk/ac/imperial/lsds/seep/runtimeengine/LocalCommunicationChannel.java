@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.runtimeengine;
+
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.imperial.lsds.seep.GLOBALS;
+import uk.ac.imperial.lsds.seep.buffer.Buffer;
+import uk.ac.imperial.lsds.seep.comm.LocalDataConnection;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+
+/**
+* LocalCommunicationChannel. Downstream connection to an operator running in the same JVM. Batches are built and kept in the buffer
+* as for any other SynchronousCommunicationChannel, but they are handed to the downstream in memory instead of being written to
+* a data socket. Control messages still go through the control socket.
+*
+* The downstream gets a copy of each batch, as the upstream keeps changing the tuples it sends. Batches are queued and pushed to the
+* downstream by a thread of this channel, so that the upstream does not run the input of the downstream while it holds the lock of
+* its OutputQueue. When the queue is full the upstream blocks, as it would on a full socket. The thread is stopped by close(), which
+* PUContext calls when the channel is replaced.
+*/
+public class LocalCommunicationChannel extends SynchronousCommunicationChannel{
+
+	final private Logger LOG = LoggerFactory.getLogger(LocalCommunicationChannel.class);
+
+	private static final int QUEUE_SIZE = Integer.parseInt(GLOBALS.valueFor("localChannelQueueSize"));
+
+	private LocalDataConnection target;
+	private final BlockingQueue<BatchTuplePayload> pending = new ArrayBlockingQueue<BatchTuplePayload>(QUEUE_SIZE);
+	private Thread deliveryThread = null;
+	private boolean closed = false;
+
+	public LocalCommunicationChannel(int opId, Socket downstreamSocketC, Buffer buffer, LocalDataConnection target){
+		super(opId, null, downstreamSocketC, null, buffer);
+		this.target = target;
+	}
+
+	/**
+	 * Queues a copy of batch for the downstream. Blocks while the downstream has QUEUE_SIZE batches waiting
+	 */
+	public void deliver(BatchTuplePayload batch){
+		if(!startDelivery()){
+			LOG.debug("-> Channel to op: {} closed, batch dropped", getOperatorId());
+			return;
+		}
+		try{
+			pending.put(batch.copy());
+		}
+		catch(InterruptedException ie){
+			LOG.error("-> Interrupted while handing a batch to op: {}", getOperatorId());
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops the delivery thread and waits for it to finish. Batches still queued are dropped, as those in flight on a
+	 * closed socket
+	 */
+	public void close(){
+		Thread thread = null;
+		synchronized(this){
+			closed = true;
+			thread = deliveryThread;
+		}
+		if(thread == null){
+			return;
+		}
+		thread.interrupt();
+		try{
+			thread.join();
+		}
+		catch(InterruptedException ie){
+			LOG.warn("-> Interrupted while closing the channel to op: {}", getOperatorId());
+			Thread.currentThread().interrupt();
+		}
+		// Frees an upstream blocked on the full queue
+		pending.clear();
+	}
+
+	/** Returns false once the channel is closed **/
+	private synchronized boolean startDelivery(){
+		if(closed){
+			return false;
+		}
+		if(deliveryThread != null){
+			return true;
+		}
+		deliveryThread = new Thread(new Runnable(){
+			@Override
+			public void run(){
+				while(!Thread.currentThread().isInterrupted()){
+					try{
+						target.deliver(pending.take());
+					}
+					catch(InterruptedException ie){
+						return;
+					}
+					catch(RuntimeException re){
+						LOG.error("-> While handing a batch to op: {} {}", getOperatorId(), re.toString());
+					}
+				}
+			}
+		}, "localDeliveryT-"+getOperatorId());
+		deliveryThread.setDaemon(true);
+		deliveryThread.start();
+		return true;
+	}
+}
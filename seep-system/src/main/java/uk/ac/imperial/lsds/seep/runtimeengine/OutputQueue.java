@@ -12,6 +12,10 @@ package uk.ac.imperial.lsds.seep.runtimeengine;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -19,17 +23,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import uk.ac.imperial.lsds.seep.GLOBALS;
-import uk.ac.imperial.lsds.seep.buffer.Buffer;
 import uk.ac.imperial.lsds.seep.buffer.OutputLogEntry;
+import uk.ac.imperial.lsds.seep.comm.IncomingDataHandler;
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TupleSchema;
 import uk.ac.imperial.lsds.seep.comm.serialization.serializers.ArrayListSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.BatchTuplePayloadSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.TuplePayloadSerializer;
 import uk.ac.imperial.lsds.seep.infrastructure.NodeManager;
 import uk.ac.imperial.lsds.seep.operator.EndPoint;
+import static uk.ac.imperial.lsds.seep.infrastructure.monitor.slave.reader.DefaultMetricsNotifier.notifyThat;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
 public class OutputQueue {
@@ -40,19 +50,51 @@ public class OutputQueue {
 	private CoreRE owner = null;
 	private AtomicInteger replaySemaphore = new AtomicInteger(0);
 	private Kryo k = null;
+	// Scratch output where a batch is serialised to know its length before sending it
+	private Output frame = new Output(4096, -1);
+	// Channels with adaptive batching, checked periodically by batchTimer for batches that have waited too long
+	private List<SynchronousCommunicationChannel> batchingChannels = new CopyOnWriteArrayList<SynchronousCommunicationChannel>();
+	private Timer batchTimer = null;
+	// Drop tuples instead of waiting when a downstream has not granted credits
+	private boolean shedOnBackpressure = GLOBALS.valueFor("creditExhaustedPolicy").equals("shed");
+	private long shedTuples = 0;
+	// Replay the buffer of a recovering downstream from a Replayer while the new batches keep being saved, instead of stopping the output
+	private boolean pipelinedReplay;
+	private int replayChunkSize = Integer.parseInt(GLOBALS.valueFor("replayChunkSize"));
+	private long replayRateLimit = Long.parseLong(GLOBALS.valueFor("replayRateLimit"));
 	
 	public OutputQueue(CoreRE owner){
 		this.owner = owner;
 		this.k = initializeKryo();
+		// The Replayer sends the batches saved in the buffer, so it needs them to be saved
+		this.pipelinedReplay = GLOBALS.valueFor("pipelinedReplay").equals("true") && GLOBALS.valueFor("eftMechanismEnabled").equals("true")
+				&& !GLOBALS.valueFor("TTT").equals("TRUE");
+		if(SynchronousCommunicationChannel.isAdaptiveBatching()){
+			long maxLatencyAllowed = Long.parseLong(GLOBALS.valueFor("maxLatencyAllowed"));
+			long period = Math.max(1, maxLatencyAllowed / 4);
+			batchTimer = new Timer("batchTimerT", true);
+			batchTimer.scheduleAtFixedRate(new TimerTask(){
+				@Override
+				public void run(){
+					sendStaleBatches();
+				}
+			}, period, period);
+		}
 	}
 	
-	private Kryo initializeKryo(){
+	/**
+	 * Kryo for batches of tuples, shared by the queue that sends them and the buffer that keeps them
+	 */
+	public static Kryo initializeKryo(){
 		//optimize here kryo
 		Kryo k = new Kryo();
 		k.register(ArrayList.class, new ArrayListSerializer());
 		k.register(Payload.class);
-		k.register(TuplePayload.class);
-		k.register(BatchTuplePayload.class);
+		k.register(TuplePayload.class, new TuplePayloadSerializer());
+		k.register(BatchTuplePayload.class, new BatchTuplePayloadSerializer());
+		k.register(TupleSchema.class);
+		k.register(long[].class);
+		k.register(Object[].class);
 		return k;
 	}
 	
@@ -81,52 +123,49 @@ public class OutputQueue {
 	}
 	
 	
-	public synchronized void sendToDownstream(DataTuple tuple, EndPoint dest) {
+	public void sendToDownstream(DataTuple tuple, EndPoint dest) {
 		SynchronousCommunicationChannel channelRecord = (SynchronousCommunicationChannel) dest;
 		
-		Buffer buffer = channelRecord.getBuffer();
 		AtomicBoolean replay = channelRecord.getReplay();
 		AtomicBoolean stop = channelRecord.getStop();
 		//Output for this socket
 		try{
-			//To send tuple
-			if(replay.compareAndSet(true, false)){
-				replay(channelRecord);
-				replay.set(false);
-				stop.set(false);
-				//At this point, this operator has finished replaying the tuples
-				NodeManager.setSystemStable();
+			// Credits are waited for without holding the lock of the queue, so that the other channels, stale batches and barriers
+			// are not held by a slow downstream. While a Replayer runs it takes the credits, when it sends the batch
+			boolean needsCredit = usesCredits(channelRecord) && !channelRecord.isReplaying();
+			if(needsCredit && !acquireCredit(channelRecord)){
+				return;
 			}
-			if(!stop.get()){
-				TuplePayload tp = tuple.getPayload();
-				tp.timestamp = System.currentTimeMillis(); // assign local ack
-				channelRecord.addDataToBatch(tp);
-				long currentTime = System.currentTimeMillis();
-				if(channelRecord.getChannelBatchSize() <= 0){
-					channelRecord.setTick(currentTime);
-					BatchTuplePayload msg = channelRecord.getBatch();
-					k.writeObject(channelRecord.getOutput(), msg);
-					//Flush the buffer to the stream
-					channelRecord.getOutput().flush();
-					// We save the data
-					if(GLOBALS.valueFor("eftMechanismEnabled").equals("true")){
-						// while taking latency measures, to avoid that sources and sink in same node will be affected by buffer trimming
-						if(GLOBALS.valueFor("TTT").equals("TRUE")){
-							
-						}
-						else{
-							buffer.save(msg, msg.outputTs, owner.getIncomingTT());
-						}
+			synchronized(this){
+				//To send tuple
+				if(replay.compareAndSet(true, false)){
+					replay(channelRecord);
+					replay.set(false);
+					stop.set(false);
+					//At this point, this operator has finished replaying the tuples
+					NodeManager.setSystemStable();
+				}
+				if(!stop.get()){
+					if(needsCredit && channelRecord.isReplaying()){
+						channelRecord.addCredits(1);
+					}
+					TuplePayload tp = tuple.getPayload();
+					tp.timestamp = System.currentTimeMillis(); // assign local ack
+					channelRecord.addDataToBatch(tp);
+					if(SynchronousCommunicationChannel.isAdaptiveBatching() && channelRecord.getBatch().size() == 1 && !batchingChannels.contains(channelRecord)){
+						batchingChannels.add(channelRecord);
+					}
+					long currentTime = System.currentTimeMillis();
+					if(channelRecord.isBatchReady(currentTime)){
+						sendBatch(channelRecord);
 					}
-					// Anf finally we reset the batch
-//					channelRecord.cleanBatch(); // RACE CONDITION ??
-					channelRecord.cleanBatch2();
 				}
-			}
-			//Is there any thread replaying?
-			while(replaySemaphore.get() >= 1){
-				//If so, wait.
-				synchronized(this){
+				else if(needsCredit){
+					channelRecord.addCredits(1);
+				}
+				//Is there any thread replaying?
+				while(replaySemaphore.get() >= 1){
+					//If so, wait.
 					this.wait();
 				}
 			}
@@ -137,13 +176,166 @@ public class OutputQueue {
 		}
 	}
 	
+	/**
+	 * Channels to downstreams in this JVM do not use credits, their input queue blocks the sender
+	 */
+	private boolean usesCredits(SynchronousCommunicationChannel channelRecord){
+		return SynchronousCommunicationChannel.isCreditBased() && !(channelRecord instanceof LocalCommunicationChannel);
+	}
+	
+	/**
+	 * Takes the credit for the next tuple to channelRecord. When there is none, the batch being built is sent first, so that the
+	 * downstream has all the tuples it must grant credits for. Then, depending on creditExhaustedPolicy, waits for credits or
+	 * returns false to drop the tuple. Called without the lock of this queue, which is only taken to send the batch. Also returns
+	 * false if the channel is stopped while waiting, as the tuple would not be sent.
+	 */
+	private boolean acquireCredit(SynchronousCommunicationChannel channelRecord) throws InterruptedException{
+		if(channelRecord.tryAcquireCredit()){
+			return true;
+		}
+		synchronized(this){
+			if(channelRecord.getBatch().size() > 0 && !channelRecord.getStop().get() && !channelRecord.isReplaying()){
+				sendBatch(channelRecord);
+			}
+			if(shedOnBackpressure){
+				shedTuples++;
+				if(shedTuples % 10000 == 1){
+					LOG.warn("-> Dispatcher. No credits from op: {}, {} tuples shed", channelRecord.getOperatorId(), shedTuples);
+				}
+				return false;
+			}
+		}
+		long start = System.currentTimeMillis();
+		while(!channelRecord.awaitCredit(channelRecord.getMaxLatencyAllowed())){
+			if(channelRecord.getStop().get()){
+				return false;
+			}
+			LOG.debug("-> Dispatcher. Waiting for credits from op: {}", channelRecord.getOperatorId());
+		}
+		notifyThat(channelRecord.getOperatorId()).backpressure(System.currentTimeMillis() - start);
+		return true;
+	}
+	
+	/**
+	 * The batch is serialised once, into frame, and the same bytes are written to the downstream and saved in the buffer. While the
+	 * channel is replaying, the batch is only saved, the Replayer sends it after the ones saved before
+	 */
+	private void sendBatch(SynchronousCommunicationChannel channelRecord){
+		BatchTuplePayload msg = channelRecord.getBatch();
+		// We save the data, except while taking latency measures, to avoid that sources and sink in same node will be affected by buffer trimming
+		boolean save = GLOBALS.valueFor("eftMechanismEnabled").equals("true") && !GLOBALS.valueFor("TTT").equals("TRUE");
+		boolean local = channelRecord instanceof LocalCommunicationChannel;
+		if(save || !local){
+			frame.clear();
+			k.writeObject(frame, msg);
+		}
+		long bytes = 0;
+		if(channelRecord.isReplaying()){
+			// Sent by the Replayer
+		}
+		else if(local){
+			((LocalCommunicationChannel)channelRecord).deliver(msg);
+		}
+		else{
+			bytes = transmit(channelRecord, frame.getBuffer(), frame.position());
+		}
+		if(save){
+			channelRecord.getBuffer().save(frame.getBuffer(), 0, frame.position(), msg.size(), msg.outputTs, owner.getIncomingTT());
+		}
+		// And finally we start a new batch
+		channelRecord.batchSent(bytes);
+	}
+	
+	/**
+	 * Sends a serialised batch through channelRecord and returns the bytes written, 0 when it is handed to a downstream in this JVM.
+	 * The batch is preceded by its length when downstreams receive with IncomingDataSelector
+	 */
+	private long transmit(SynchronousCommunicationChannel channelRecord, byte[] data, int length){
+		if(channelRecord instanceof LocalCommunicationChannel){
+			BatchTuplePayload batch = k.readObject(new Input(data, 0, length), BatchTuplePayload.class);
+			((LocalCommunicationChannel)channelRecord).deliver(batch);
+			return 0;
+		}
+		Output output = channelRecord.getOutput();
+		long before = output.total();
+		if(IncomingDataHandler.nioDataReceive){
+			output.writeInt(length);
+		}
+		output.writeBytes(data, 0, length);
+		//Flush the buffer to the stream
+		output.flush();
+		return output.total() - before;
+	}
+	
+	/**
+	 * Sends the batches whose oldest tuple has waited for maxLatencyAllowed, so that a channel with a low rate does not hold its data
+	 */
+	public synchronized void sendStaleBatches(){
+		long now = System.currentTimeMillis();
+		for(SynchronousCommunicationChannel channelRecord : batchingChannels){
+			// Channels are added again with the first tuple of their next batch
+			if(channelRecord.getBatch().size() == 0){
+				batchingChannels.remove(channelRecord);
+				continue;
+			}
+			if(!channelRecord.getStop().get() && channelRecord.isBatchStale(now)){
+				try{
+					sendBatch(channelRecord);
+				}
+				catch(KryoException ke){
+					LOG.error("-> Dispatcher. While sending stale batch to op: {} {}", channelRecord.getOperatorId(), ke.getMessage());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Forgets a channel that is being replaced, so that its batch is not sent after the channel that replaces it is used
+	 */
+	public synchronized void removeChannel(EndPoint dest){
+		batchingChannels.remove(dest);
+	}
+	
+	/**
+	 * Sends the barrier of epoch through each channel in dests, after the batch being built, so that downstreams get it after all the
+	 * tuples sent before. Barriers are not saved in the buffer and do not take credits. Channels that are stopped or replaying are
+	 * skipped, their downstream abandons the alignment of this epoch when the next barrier comes
+	 */
+	public synchronized void sendBarrier(long epoch, List<EndPoint> dests){
+		BatchTuplePayload barrier = new BatchTuplePayload();
+		barrier.barrier = epoch;
+		for(EndPoint dest : dests){
+			if(!(dest instanceof SynchronousCommunicationChannel)){
+				continue;
+			}
+			SynchronousCommunicationChannel channelRecord = (SynchronousCommunicationChannel) dest;
+			if(channelRecord.getStop().get() || channelRecord.getReplay().get() || channelRecord.isReplaying()){
+				continue;
+			}
+			try{
+				if(channelRecord.getBatch().size() > 0){
+					sendBatch(channelRecord);
+				}
+				if(channelRecord instanceof LocalCommunicationChannel){
+					((LocalCommunicationChannel)channelRecord).deliver(barrier);
+				}
+				else{
+					frame.clear();
+					k.writeObject(frame, barrier);
+					transmit(channelRecord, frame.getBuffer(), frame.position());
+				}
+			}
+			catch(KryoException ke){
+				LOG.error("-> Dispatcher. While sending barrier to op: {} {}", channelRecord.getOperatorId(), ke.getMessage());
+			}
+		}
+	}
+
 	public void replay(SynchronousCommunicationChannel oi){
 		long a = System.currentTimeMillis();
 				while(oi.getSharedIterator().hasNext()){
-					BatchTuplePayload batch = oi.getSharedIterator().next().batch;
-					Output output = oi.getOutput();
-					k.writeObject(output, batch);
-					output.flush();
+					byte[] data = oi.getSharedIterator().next().data;
+					transmit(oi, data, data.length);
 				}
 		long b = System.currentTimeMillis() - a;
 		System.out.println("Dis.replay: "+b);
@@ -151,6 +343,13 @@ public class OutputQueue {
 	
 	public void replayTuples(SynchronousCommunicationChannel cci) {
 		Iterator<OutputLogEntry> sharedIterator = cci.getBuffer().iterator();
+		// The downstream has restarted, so the credits it had granted and those in flight are lost
+		cci.resetCredits();
+		if(pipelinedReplay){
+			startReplayer(cci, sharedIterator);
+			start();
+			return;
+		}
 		Output output = cci.getOutput();
 		int bufferSize = cci.getBuffer().size();
 		int controlThreshold = (int)(bufferSize)/10;
@@ -177,4 +376,42 @@ public class OutputQueue {
 		start();
 	}
 	
+	/**
+	 * Starts a Replayer for cci. A replay still running for the channel is cancelled, the new one starts from the oldest batch once the
+	 * old one has stopped writing
+	 */
+	private synchronized void startReplayer(SynchronousCommunicationChannel cci, Iterator<OutputLogEntry> sharedIterator){
+		Replayer previous = cci.getReplayer();
+		if(previous != null){
+			previous.cancel();
+		}
+		Replayer replayer = new Replayer(this, cci, sharedIterator, replayChunkSize, replayRateLimit, previous);
+		cci.setReplayer(replayer);
+		cci.getStop().set(false);
+		LOG.debug("-> Replaying buffer to op: {}", cci.getOperatorId());
+		new Thread(replayer, "replayerT-"+cci.getOperatorId()).start();
+	}
+	
+	/**
+	 * Cut-over of a channel at the end of its replay. Batches are saved with this lock held, so if the replayer has reached the end of
+	 * the buffer here, the next batch is sent directly. Returns false if there are batches left to replay
+	 */
+	synchronized boolean finishReplay(SynchronousCommunicationChannel cci, Replayer replayer, Iterator<OutputLogEntry> log){
+		if(log.hasNext()){
+			return false;
+		}
+		if(cci.getReplayer() == replayer){
+			cci.setReplayer(null);
+			//At this point, this operator has finished replaying the tuples
+			NodeManager.setSystemStable();
+		}
+		return true;
+	}
+	
+	synchronized void abortReplay(SynchronousCommunicationChannel cci, Replayer replayer){
+		if(cci.getReplayer() == replayer){
+			cci.setReplayer(null);
+		}
+	}
+	
 }
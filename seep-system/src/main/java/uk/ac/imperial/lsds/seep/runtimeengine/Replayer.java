@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.runtimeengine;
+
+import static uk.ac.imperial.lsds.seep.infrastructure.monitor.slave.reader.DefaultMetricsNotifier.notifyThat;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.imperial.lsds.seep.buffer.OutputLogEntry;
+import uk.ac.imperial.lsds.seep.comm.IncomingDataHandler;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+* Replayer. Streams the buffer of a channel to a downstream that is recovering, from its own thread. While it runs, the OutputQueue
+* keeps saving the batches of the channel in the buffer without sending them, so new tuples are not blocked by the replay, and the
+* replayer sends them after the ones saved before. Once it reaches the end of the buffer, the OutputQueue cuts the channel over to send
+* its batches directly again.
+*
+* Batches are coalesced in writes of about chunkSize bytes, take credits from the downstream as the batches sent directly do, and are
+* paced so that the replay does not go over rateLimit bytes per second.
+*/
+public class Replayer implements Runnable{
+
+	final private Logger LOG = LoggerFactory.getLogger(Replayer.class);
+
+	private final OutputQueue owner;
+	private final SynchronousCommunicationChannel channel;
+	private final Iterator<OutputLogEntry> log;
+	private final int chunkSize;
+	// Bytes per second, 0 for no limit
+	private final long rateLimit;
+	// Replay of the same channel that this one replaces, it must have stopped writing before this one starts
+	private final Replayer previous;
+	private volatile boolean cancelled = false;
+	private volatile boolean finished = false;
+
+	private Output chunk;
+	// Only to deserialise the batches replayed to a downstream in this JVM
+	private Kryo k = null;
+	private long bytes = 0;
+	private long batches = 0;
+	private long start;
+
+	public Replayer(OutputQueue owner, SynchronousCommunicationChannel channel, Iterator<OutputLogEntry> log, int chunkSize, long rateLimit,
+			Replayer previous){
+		this.owner = owner;
+		this.channel = channel;
+		this.log = log;
+		this.chunkSize = chunkSize;
+		this.rateLimit = rateLimit;
+		this.previous = previous;
+	}
+
+	/**
+	 * Milliseconds to wait after sending bytes in elapsed milliseconds, so that the rate stays under rateLimit bytes per second
+	 */
+	public static long pause(long bytes, long elapsed, long rateLimit){
+		if(rateLimit <= 0){
+			return 0;
+		}
+		return Math.max(0, (bytes * 1000) / rateLimit - elapsed);
+	}
+
+	public void cancel(){
+		cancelled = true;
+	}
+
+	private synchronized void awaitFinished() throws InterruptedException{
+		while(!finished){
+			wait();
+		}
+	}
+
+	private synchronized void setFinished(){
+		finished = true;
+		notifyAll();
+	}
+
+	@Override
+	public void run(){
+		try{
+			if(previous != null){
+				previous.awaitFinished();
+			}
+			chunk = new Output(chunkSize + 4096, -1);
+			start = System.currentTimeMillis();
+			while(!cancelled){
+				while(!cancelled && log.hasNext()){
+					OutputLogEntry entry = log.next();
+					acquireCredits(entry.tuples);
+					append(entry);
+					if(chunk.position() >= chunkSize){
+						flush();
+					}
+				}
+				flush();
+				// Batches saved while flushing are replayed before cutting over
+				if(cancelled || owner.finishReplay(channel, this, log)){
+					break;
+				}
+			}
+			long elapsed = Math.max(1, System.currentTimeMillis() - start);
+			LOG.info("-> Replayed {} batches, {} bytes to op: {} in {} ms, {} KB/s", batches, bytes, channel.getOperatorId(), elapsed,
+					bytes / elapsed);
+		}
+		catch(IOException io){
+			LOG.error("-> Replay to op: {} failed: {}", channel.getOperatorId(), io.getMessage());
+			owner.abortReplay(channel, this);
+		}
+		catch(KryoException ke){
+			LOG.error("-> Replay to op: {} failed: {}", channel.getOperatorId(), ke.getMessage());
+			owner.abortReplay(channel, this);
+		}
+		catch(InterruptedException ie){
+			LOG.error("-> Replay to op: {} interrupted", channel.getOperatorId());
+			owner.abortReplay(channel, this);
+		}
+		finally{
+			setFinished();
+		}
+	}
+
+	/**
+	 * Takes credits for the tuples of the next batch. When there are not enough, the batches coalesced are sent first, so that the
+	 * downstream has all the tuples it must grant credits for
+	 */
+	private void acquireCredits(int tuples) throws IOException, InterruptedException{
+		if(!SynchronousCommunicationChannel.isCreditBased() || channel instanceof LocalCommunicationChannel){
+			return;
+		}
+		// A batch never needs more credits than the window, the downstream would not grant them before receiving it
+		int missing = Math.min(tuples, SynchronousCommunicationChannel.getCreditWindow());
+		missing -= channel.tryAcquireCredits(missing);
+		if(missing == 0){
+			return;
+		}
+		flush();
+		long waitStart = System.currentTimeMillis();
+		while(missing > 0 && !cancelled){
+			if(channel.awaitCredit(channel.getMaxLatencyAllowed())){
+				missing--;
+				missing -= channel.tryAcquireCredits(missing);
+			}
+		}
+		notifyThat(channel.getOperatorId()).backpressure(System.currentTimeMillis() - waitStart);
+	}
+
+	private void append(OutputLogEntry entry){
+		batches++;
+		if(channel instanceof LocalCommunicationChannel){
+			if(k == null){
+				k = OutputQueue.initializeKryo();
+			}
+			BatchTuplePayload batch = k.readObject(new Input(entry.data), BatchTuplePayload.class);
+			((LocalCommunicationChannel)channel).deliver(batch);
+			bytes += entry.data.length;
+			notifyThat(channel.getOperatorId()).replayed(entry.data.length);
+			return;
+		}
+		if(IncomingDataHandler.nioDataReceive){
+			chunk.writeInt(entry.data.length);
+		}
+		chunk.writeBytes(entry.data);
+	}
+
+	/**
+	 * Writes the batches coalesced with a single write to the data socket and waits if the replay goes faster than rateLimit
+	 */
+	private void flush() throws IOException, InterruptedException{
+		int length = chunk.position();
+		if(length == 0){
+			return;
+		}
+		// Nothing else writes to the channel while it is replaying
+		Output output = channel.getOutput();
+		output.flush();
+		output.getOutputStream().write(chunk.getBuffer(), 0, length);
+		output.getOutputStream().flush();
+		chunk.clear();
+		bytes += length;
+		notifyThat(channel.getOperatorId()).replayed(length);
+		long wait = pause(bytes, System.currentTimeMillis() - start, rateLimit);
+		if(wait > 0){
+			Thread.sleep(wait);
+		}
+	}
+}
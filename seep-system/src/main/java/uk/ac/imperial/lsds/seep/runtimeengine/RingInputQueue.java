@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.runtimeengine;
+
+import static uk.ac.imperial.lsds.seep.infrastructure.monitor.slave.reader.DefaultMetricsNotifier.notifyThat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import uk.ac.imperial.lsds.seep.GLOBALS;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+
+/**
+* RingInputQueue. Bounded input queue for many producers (the threads receiving data from upstreams) and a single consumer (the
+* DataConsumer), without locks. Each slot has a sequence number that tells whether it is free for the producer that claimed it, or
+* full for the consumer. Producers claim slots by incrementing tail; only the consumer moves head. The consumer can take all the
+* available tuples at once with drainTo.
+*
+* When the queue is full producers wait, when it is empty the consumer waits. With the PARK strategy waiting threads are parked and
+* the consumer is unparked by the next producer, with SPIN they keep yielding the processor, which has lower latency but burns a core.
+*/
+public class RingInputQueue implements DataStructureI{
+
+	public enum WaitStrategy{
+		PARK, SPIN
+	}
+
+	// Time a producer parks before checking again for a free slot
+	private static final long PRODUCER_PARK_NANOS = 50000;
+
+	private final DataTuple[] buffer;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final WaitStrategy waitStrategy;
+
+	private final AtomicLong tail = new AtomicLong(0);
+	// Written only by the consumer
+	private volatile long head = 0;
+	// Consumer thread while it is parked waiting for data
+	private volatile Thread waitingConsumer = null;
+
+	public RingInputQueue(){
+		this(Integer.parseInt(GLOBALS.valueFor("inputQueueLength")), WaitStrategy.valueOf(GLOBALS.valueFor("ringWaitStrategy").toUpperCase()));
+	}
+
+	/**
+	 * The capacity is rounded up to the next power of two
+	 */
+	public RingInputQueue(int size, WaitStrategy waitStrategy){
+		int capacity = 1;
+		while(capacity < size){
+			capacity <<= 1;
+		}
+		this.buffer = new DataTuple[capacity];
+		this.sequences = new AtomicLongArray(capacity);
+		for(int i = 0; i < capacity; i++){
+			sequences.set(i, i);
+		}
+		this.mask = capacity - 1;
+		this.waitStrategy = waitStrategy;
+	}
+
+	public int capacity(){
+		return buffer.length;
+	}
+
+	public int size(){
+		return (int)(tail.get() - head);
+	}
+
+	@Override
+	public void push(DataTuple data){
+		while(!offer(data)){
+			if(waitStrategy == WaitStrategy.PARK){
+				LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+			}
+			else{
+				Thread.yield();
+			}
+		}
+	}
+
+	public boolean pushOrShed(DataTuple data){
+		return offer(data);
+	}
+
+	private boolean offer(DataTuple data){
+		while(true){
+			long pos = tail.get();
+			int idx = (int)pos & mask;
+			long dif = sequences.get(idx) - pos;
+			if(dif == 0){
+				if(tail.compareAndSet(pos, pos + 1)){
+					buffer[idx] = data;
+					// Publish the slot to the consumer. A volatile write, so that it is not reordered with the read of waitingConsumer
+					sequences.set(idx, pos + 1);
+					// Seep monitoring
+					notifyThat(0).inputQueuePut();
+					Thread consumer = waitingConsumer;
+					if(consumer != null){
+						LockSupport.unpark(consumer);
+					}
+					return true;
+				}
+			}
+			// The consumer has not freed this slot yet, the queue is full
+			else if(dif < 0){
+				return false;
+			}
+			// Otherwise another producer claimed pos, try the next one
+		}
+	}
+
+	private DataTuple poll(){
+		long pos = head;
+		int idx = (int)pos & mask;
+		if(sequences.get(idx) != pos + 1){
+			return null;
+		}
+		DataTuple data = buffer[idx];
+		buffer[idx] = null;
+		// Free the slot for the producer that takes it in the next round
+		sequences.lazySet(idx, pos + buffer.length);
+		head = pos + 1;
+		return data;
+	}
+
+	private void awaitData(){
+		if(waitStrategy == WaitStrategy.PARK){
+			waitingConsumer = Thread.currentThread();
+			// Check again once registered, a producer may have published before seeing waitingConsumer
+			if(sequences.get((int)head & mask) != head + 1){
+				LockSupport.park(this);
+			}
+			waitingConsumer = null;
+		}
+		else{
+			Thread.yield();
+		}
+	}
+
+	@Override
+	public DataTuple pull(){
+		DataTuple data = null;
+		while((data = poll()) == null){
+			awaitData();
+		}
+		// Seep monitoring
+		notifyThat(0).inputQueueTake();
+		return data;
+	}
+
+	/**
+	 * Moves up to max available tuples to c, waiting until there is at least one. Returns the number of tuples moved
+	 */
+	public int drainTo(Collection<DataTuple> c, int max){
+		int drained = 0;
+		while(drained == 0){
+			DataTuple data = null;
+			while(drained < max && (data = poll()) != null){
+				c.add(data);
+				drained++;
+			}
+			if(drained == 0){
+				awaitData();
+			}
+		}
+		for(int i = 0; i < drained; i++){
+			// Seep monitoring
+			notifyThat(0).inputQueueTake();
+		}
+		return drained;
+	}
+
+	@Override
+	public ArrayList<DataTuple> pull_from_barrier(){
+		return null;
+	}
+}
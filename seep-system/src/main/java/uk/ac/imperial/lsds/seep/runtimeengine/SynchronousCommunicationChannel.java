@@ -43,6 +43,8 @@ public class SynchronousCommunicationChannel implements EndPoint{
 	//Set atomic variables to their initial value
 	private AtomicBoolean stop = new AtomicBoolean(false);
 	private AtomicBoolean replay = new AtomicBoolean(false);
+	// A Replayer is streaming the buffer to the downstream, batches are only saved until it catches up, see OutputQueue
+	private volatile Replayer replayer = null;
 	
 	private TimestampTracker reconf_ts;
 	private long last_ts;
@@ -51,7 +53,27 @@ public class SynchronousCommunicationChannel implements EndPoint{
 	//Batch information for this channel
 	private BatchTuplePayload batch = new BatchTuplePayload();
 	private int channelBatchSize = Integer.parseInt(GLOBALS.valueFor("batchLimit"));
+	// Time at which the oldest tuple in the batch was added
 	private long tick = 0;
+	
+	// Adaptive batching. The batch limit is recomputed after each flush from the bytes per tuple seen in the last batches and from
+	// the arrival rate, so that a batch fills about packetSize bytes but does not wait longer than maxLatencyAllowed to do so
+	private static final boolean adaptiveBatching = GLOBALS.valueFor("adaptiveBatching").equals("true");
+	private static final double EWMA_WEIGHT = 0.2;
+	private final int batchLimit = Integer.parseInt(GLOBALS.valueFor("batchLimit"));
+	private final int packetSize = Integer.parseInt(GLOBALS.valueFor("packetSize"));
+	private final long maxLatencyAllowed = Long.parseLong(GLOBALS.valueFor("maxLatencyAllowed"));
+	private double avgTupleBytes = Integer.parseInt(GLOBALS.valueFor("tupleSize"));
+	// Tuples per millisecond, measured over windows of maxLatencyAllowed so that bursts within a millisecond are counted
+	private double arrivalRate = 0;
+	private final long rateWindow = Math.max(1, maxLatencyAllowed) * 1000000L;
+	private long windowStart = 0;
+	private int windowCount = 0;
+	
+	// Credit-based flow control. Number of tuples this channel may still send before the downstream grants more, see OutputQueue
+	private static final boolean creditBasedFlowControl = GLOBALS.valueFor("creditBasedFlowControl").equals("true");
+	private static final int creditWindow = Integer.parseInt(GLOBALS.valueFor("creditWindow"));
+	private int credits = creditWindow;
 
 	public SynchronousCommunicationChannel(int opId, Socket downstreamSocketD, Socket downstreamSocketC, Socket blindSocket, Buffer buffer){
 		this.targetOperatorId = opId;
@@ -132,16 +154,145 @@ public class SynchronousCommunicationChannel implements EndPoint{
 		return stop;
 	}
 	
+	public boolean isReplaying(){
+		return replayer != null;
+	}
+	
+	public Replayer getReplayer(){
+		return replayer;
+	}
+	
+	public void setReplayer(Replayer replayer){
+		this.replayer = replayer;
+	}
+	
 	public synchronized BatchTuplePayload getBatch(){
 		return batch;
 	}
 	
 	public synchronized void addDataToBatch(TuplePayload payload){
+		long now = System.currentTimeMillis();
+		if(batch.size() == 0){
+			tick = now;
+		}
+		// Tuples that arrived after windowStart, over the time elapsed since then
+		long nanos = System.nanoTime();
+		if(windowStart == 0){
+			windowStart = nanos;
+		}
+		else{
+			windowCount++;
+			long elapsed = nanos - windowStart;
+			if(elapsed >= rateWindow){
+				double rate = windowCount * 1000000.0 / elapsed;
+				arrivalRate = (arrivalRate == 0) ? rate : EWMA_WEIGHT * rate + (1 - EWMA_WEIGHT) * arrivalRate;
+				windowStart = nanos;
+				windowCount = 0;
+			}
+		}
 		batch.addTuple(payload);
 		channelBatchSize--;
 		last_ts = payload.timestamp;
 	}
 	
+	/**
+	 * A batch is ready when it has reached its limit or when its oldest tuple has waited for maxLatencyAllowed
+	 */
+	public synchronized boolean isBatchReady(long now){
+		return channelBatchSize <= 0 || isBatchStale(now);
+	}
+	
+	public synchronized boolean isBatchStale(long now){
+		return adaptiveBatching && batch.size() > 0 && (now - tick) >= maxLatencyAllowed;
+	}
+	
+	public long getMaxLatencyAllowed(){
+		return maxLatencyAllowed;
+	}
+	
+	public static boolean isAdaptiveBatching(){
+		return adaptiveBatching;
+	}
+	
+	/**
+	 * Called once the batch has been written, with the number of bytes it took. Starts a new batch and computes its limit.
+	 */
+	public synchronized void batchSent(long bytes){
+		int sent = batch.size();
+		if(adaptiveBatching && sent > 0 && bytes > 0){
+			avgTupleBytes = EWMA_WEIGHT * ((double)bytes / sent) + (1 - EWMA_WEIGHT) * avgTupleBytes;
+		}
+		cleanBatch2();
+	}
+	
+	private int nextBatchLimit(){
+		if(!adaptiveBatching){
+			return batchLimit;
+		}
+		int bySize = (int)(packetSize / Math.max(1.0, avgTupleBytes));
+		int byRate = (int)(arrivalRate * maxLatencyAllowed);
+		return Math.max(1, Math.min(bySize, byRate));
+	}
+	
+	public static boolean isCreditBased(){
+		return creditBasedFlowControl;
+	}
+	
+	public static int getCreditWindow(){
+		return creditWindow;
+	}
+	
+	public synchronized int getCredits(){
+		return credits;
+	}
+	
+	public synchronized boolean tryAcquireCredit(){
+		if(credits > 0){
+			credits--;
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Takes up to n credits and returns how many were taken
+	 */
+	public synchronized int tryAcquireCredits(int n){
+		int taken = Math.min(Math.max(credits, 0), n);
+		credits -= taken;
+		return taken;
+	}
+	
+	/**
+	 * Waits up to timeout milliseconds for the downstream to grant credits, and takes one if it does
+	 */
+	public synchronized boolean awaitCredit(long timeout) throws InterruptedException{
+		long deadline = System.currentTimeMillis() + timeout;
+		long remaining = timeout;
+		while(credits <= 0 && remaining > 0){
+			wait(remaining);
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return tryAcquireCredit();
+	}
+	
+	/**
+	 * Credits granted by the downstream. Never more than the window, tuples replayed without a Replayer are sent without credits but
+	 * granted back
+	 */
+	public synchronized void addCredits(int granted){
+		credits = Math.min(creditWindow, credits + granted);
+		notifyAll();
+	}
+	
+	/**
+	 * Gives back the whole window, for a downstream that has reconnected and starts granting credits again
+	 */
+	public synchronized void resetCredits(){
+		credits = creditWindow;
+		notifyAll();
+	}
+	
 	public int getChannelBatchSize(){
 		return channelBatchSize;
 	}
@@ -156,8 +307,9 @@ public class SynchronousCommunicationChannel implements EndPoint{
 		channelBatchSize = limit;
 	}
 	
-	public void cleanBatch2(){
+	public synchronized void cleanBatch2(){
 		batch = new BatchTuplePayload();
+		channelBatchSize = nextBatchLimit();
 	}
 	
 	public long getLast_ts(){
@@ -10,42 +10,176 @@
  ******************************************************************************/
 package uk.ac.imperial.lsds.seep.runtimeengine;
 
-import java.util.HashMap;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLongArray;
 
-public class TimestampTracker {
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
 
-	// Saves the ts of the last tuple received through a given stream (identified with opId at the other side)
-	private HashMap<Integer, Long> tsStream = new HashMap<Integer, Long>();
+/**
+ * Vector clock with the ts of the last tuple received through each stream. Streams get a dense index shared by all the trackers of
+ * the JVM, so that their ts are kept in an array, updated without locks, and trackers are compared slot by slot. A ts of 0 is the
+ * oldest possible, and a stream is tracked once a greater ts is set for it. Reads of several slots are not atomic with respect to
+ * updates, a consistent vector is only read while the streams are not updated.
+ */
+public class TimestampTracker implements KryoSerializable {
+
+	// Stream (identified with opId at the other side) of each index. Streams are only appended
+	private static volatile int[] streams = new int[0];
+	
+	// Saves the ts of the last tuple received through a given stream, at the index of the stream
+	private volatile AtomicLongArray tsStream;
+	
+	public TimestampTracker(){
+		this.tsStream = new AtomicLongArray(streams.length);
+	}
+	
+	/** Tracker with the ts of a snapshot taken with snapshot(long[],int,int) **/
+	public TimestampTracker(long[] snapshot, int offset, int length){
+		this.tsStream = new AtomicLongArray(Math.max(length, streams.length));
+		for(int i = 0; i < length; i++){
+			tsStream.set(i, snapshot[offset + i]);
+		}
+	}
+	
+	/** Number of streams known in this JVM, the length of the snapshots that hold all of them **/
+	public static int width(){
+		return streams.length;
+	}
+	
+	public static int streamAt(int index){
+		return streams[index];
+	}
+	
+	public static int indexOf(int stream){
+		int[] s = streams;
+		for(int i = 0; i < s.length; i++){
+			if(s[i] == stream){
+				return i;
+			}
+		}
+		return register(stream);
+	}
+	
+	private static synchronized int register(int stream){
+		int[] s = streams;
+		for(int i = 0; i < s.length; i++){
+			if(s[i] == stream){
+				return i;
+			}
+		}
+		int[] grown = Arrays.copyOf(s, s.length + 1);
+		grown[s.length] = stream;
+		streams = grown;
+		return s.length;
+	}
+	
+	/** Slots long enough for index. When they are replaced, sets on the old ones are repeated by set **/
+	private synchronized AtomicLongArray grow(int index){
+		AtomicLongArray old = tsStream;
+		if(index < old.length()){
+			return old;
+		}
+		AtomicLongArray grown = new AtomicLongArray(Math.max(index + 1, streams.length));
+		for(int i = 0; i < old.length(); i++){
+			grown.set(i, old.get(i));
+		}
+		tsStream = grown;
+		return grown;
+	}
 	
 	public Iterator<Entry<Integer, Long>> getTsStream(){
-		return tsStream.entrySet().iterator();
+		List<Entry<Integer, Long>> entries = new ArrayList<Entry<Integer, Long>>();
+		AtomicLongArray slots = tsStream;
+		for(int i = 0; i < slots.length(); i++){
+			long ts = slots.get(i);
+			if(ts != 0){
+				entries.add(new SimpleImmutableEntry<Integer, Long>(streams[i], ts));
+			}
+		}
+		return entries.iterator();
 	}
 	
 	public void set(int stream, long ts){
-		tsStream.put(stream, ts);
+		setAt(indexOf(stream), ts);
+	}
+	
+	public void setAt(int index, long ts){
+		AtomicLongArray slots = tsStream;
+		if(index >= slots.length()){
+			slots = grow(index);
+		}
+		slots.set(index, ts);
+		// The slots may have been copied to longer ones before this set
+		while(slots != tsStream){
+			slots = tsStream;
+			slots.set(index, ts);
+		}
 	}
 	
 	public long get(int stream){
-		if(tsStream.containsKey(stream)){
-			return tsStream.get(stream);
+		int[] s = streams;
+		for(int i = 0; i < s.length; i++){
+			if(s[i] == stream){
+				return getAt(i);
+			}
+		}
+		return 0; // oldest ts possible
+	}
+	
+	public long getAt(int index){
+		AtomicLongArray slots = tsStream;
+		return index < slots.length() ? slots.get(index) : 0;
+	}
+	
+	/**
+	 * Copies the ts of the first length streams to dst from offset, without allocating
+	 */
+	public void snapshot(long[] dst, int offset, int length){
+		AtomicLongArray slots = tsStream;
+		int n = Math.min(length, slots.length());
+		for(int i = 0; i < n; i++){
+			dst[offset + i] = slots.get(i);
+		}
+		Arrays.fill(dst, offset + n, offset + length, 0);
+	}
+	
+	public TimestampTracker copy(){
+		TimestampTracker tt = new TimestampTracker();
+		AtomicLongArray slots = tsStream;
+		for(int i = 0; i < slots.length(); i++){
+			tt.tsStream.set(i, slots.get(i));
 		}
-		else{
-			return 0; // oldest ts possible
+		return tt;
+	}
+	
+	/** Whether a and b track the same streams **/
+	private static boolean sameStreams(TimestampTracker a, TimestampTracker b){
+		int n = Math.max(a.tsStream.length(), b.tsStream.length());
+		for(int i = 0; i < n; i++){
+			if((a.getAt(i) == 0) != (b.getAt(i) == 0)){
+				return false;
+			}
 		}
+		return true;
 	}
 	
 	public static TimestampTracker returnSmaller(TimestampTracker a, TimestampTracker b){
 		if(a == null) return b;
 		if(b == null) return a;
-		if(a.tsStream.size() != b.tsStream.size()) return null;
+		if(!sameStreams(a, b)) return null;
 		TimestampTracker tt = new TimestampTracker();
-		for(Integer id : a.tsStream.keySet()){ // for each component
-			long ats = a.get(id); // pick the smaller component (the one that trims less)
-			long bts = b.get(id);
-			if(ats < bts) tt.set(id, ats);
-			else tt.set(id, bts);
+		for(int i = 0; i < tt.tsStream.length(); i++){ // for each component
+			long ats = a.getAt(i); // pick the smaller component (the one that trims less)
+			long bts = b.getAt(i);
+			tt.tsStream.set(i, Math.min(ats, bts));
 		}
 		return tt;
 	}
@@ -53,20 +187,50 @@ public class TimestampTracker {
 	public static boolean isSmallerOrEqual(TimestampTracker a, TimestampTracker b){
 		if(a == null) return false;
 		if(b == null) return false;
-		if(a.tsStream.size() != b.tsStream.size()) return false;
-		for(Integer id : a.tsStream.keySet()){ // for each component
-			long ats = a.get(id); // pick the smaller component (the one that trims less)
-			long bts = b.get(id);
-			if(bts < ats) return false; // if any component is bigger, then false
+		if(!sameStreams(a, b)) return false;
+		int n = Math.max(a.tsStream.length(), b.tsStream.length());
+		for(int i = 0; i < n; i++){ // for each component
+			if(b.getAt(i) < a.getAt(i)) return false; // if any component is bigger, then false
 		}
 		return true;
 	}
 	
+	/** Streams are written by id, their indexes are different in other JVMs **/
+	@Override
+	public void write(Kryo kryo, Output output){
+		AtomicLongArray slots = tsStream;
+		int tracked = 0;
+		for(int i = 0; i < slots.length(); i++){
+			if(slots.get(i) != 0) tracked++;
+		}
+		output.writeInt(tracked, true);
+		for(int i = 0; i < slots.length() && tracked > 0; i++){
+			long ts = slots.get(i);
+			if(ts != 0){
+				output.writeInt(streams[i]);
+				output.writeLong(ts);
+				tracked--;
+			}
+		}
+	}
+	
+	@Override
+	public void read(Kryo kryo, Input input){
+		int tracked = input.readInt(true);
+		for(int i = 0; i < tracked; i++){
+			int stream = input.readInt();
+			set(stream, input.readLong());
+		}
+	}
+	
 	@Override
 	public String toString(){
 		StringBuffer buffer = new StringBuffer();
-		for(Integer id : tsStream.keySet()){
-			buffer.append(id+": "+tsStream.get(id)+" ");
+		AtomicLongArray slots = tsStream;
+		for(int i = 0; i < slots.length(); i++){
+			if(slots.get(i) != 0){
+				buffer.append(streams[i]+": "+slots.get(i)+" ");
+			}
 		}
 		return buffer.toString();
 	}
@@ -0,0 +1,28 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.state;
+
+/**
+ * Incremental defines the methods required to checkpoint a State by sending only the changes since the previous checkpoint. The
+ * backup of the state then applies these changes to its copy.
+ * @author raulcf
+ *
+ */
+public interface Incremental {
+
+	/** Called while the operator is stopped. Changes from now on go to the next delta. Returns true if getDelta can return the changes
+	 * since the previous call, false if they must be checkpointed with the full state (first call, state cleared...) **/
+	public boolean markCheckpoint();
+	/** Changes between the last two calls to markCheckpoint, read from the snapshot **/
+	public State getDelta();
+	public void applyDelta(State delta);
+	
+}
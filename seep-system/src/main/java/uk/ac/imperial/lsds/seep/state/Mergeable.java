@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.state;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mergeable interface lets the system merge the chunks of a Streamable state from several threads while it recovers. Each thread
+ * appends the chunks it receives to its own partial state, and the partials are installed in the state once all chunks arrived
+ * @author raulcf
+ *
+ * @param <P> the partial state built by one merging thread
+ */
+public interface Mergeable<P> {
+
+	public P newPartial();
+	public void appendChunk(P partial, ArrayList<Object> chunk) throws NullChunkWhileMerging, MalformedStateChunk;
+	public void installPartials(List<P> partials);
+	
+}
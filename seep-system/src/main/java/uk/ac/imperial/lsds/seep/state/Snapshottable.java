@@ -0,0 +1,25 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.state;
+
+/**
+ * Snapshottable is an interface for Versionable states that do not modify their snapshot while in snapshot mode, and that only
+ * serialise the snapshot. The system can then checkpoint them by just setting the snapshot mode while processing is stopped, and
+ * serialise and reconcile them while processing goes on. A copy taken in snapshot mode misses the updates of the new version, so
+ * the system does not copy them in that mode otherwise.
+ * @author raulcf
+ *
+ */
+public interface Snapshottable extends Versionable{
+
+	public boolean isSnapshotMode();
+	
+}
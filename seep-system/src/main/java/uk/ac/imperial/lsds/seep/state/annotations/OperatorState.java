@@ -16,4 +16,6 @@ import java.lang.annotation.RetentionPolicy;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface OperatorState {
 	boolean partitionable() default true;
+	// The state can be used by several threads at once, which multicore support requires as workers share it
+	boolean threadSafe() default false;
 }
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.api.largestateimpls;
+
+import java.util.ArrayList;
+
+import junit.framework.*;
+
+/**
+ * The class <code>ConcurrentSeepMapTest</code> contains tests for the class <code>{@link ConcurrentSeepMap}</code>.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class ConcurrentSeepMapTest extends TestCase {
+
+	private ConcurrentSeepMap<Object, Object> fixture;
+
+	/**
+	 * Run the ConcurrentSeepMap(int) constructor test.
+	 *
+	 * @throws Exception
+	 */
+	public void testConcurrentSeepMap_1()
+		throws Exception {
+		assertEquals(8, new ConcurrentSeepMap<Object, Object>(5).getNumberOfStripes());
+		assertEquals(1, new ConcurrentSeepMap<Object, Object>(1).getNumberOfStripes());
+	}
+
+	/**
+	 * Run the Object put(Object,Object) method test, with several threads writing at the same time.
+	 *
+	 * @throws Exception
+	 */
+	public void testPut_1()
+		throws Exception {
+		Thread[] writers = new Thread[4];
+		for(int t = 0; t < writers.length; t++){
+			final int base = t * 10000;
+			writers[t] = new Thread(new Runnable(){
+				public void run(){
+					for(int i = 0; i < 10000; i++){
+						fixture.put(base + i, i);
+					}
+				}
+			});
+			writers[t].start();
+		}
+		for(Thread writer : writers){
+			writer.join();
+		}
+
+		assertEquals(40000, fixture.size());
+		assertEquals(9999, fixture.get(39999));
+	}
+
+	/**
+	 * Run the void reconcile() method test, with updates, removes and a clear done in snapshot mode.
+	 *
+	 * @throws Exception
+	 */
+	public void testReconcile_1()
+		throws Exception {
+		fixture.put("a", 1);
+		fixture.put("b", 2);
+		fixture.setSnapshotMode(true);
+		assertEquals(1, fixture.put("a", 10));
+		assertEquals(2, fixture.remove("b"));
+		fixture.put("c", 3);
+
+		// The new version is read, the snapshot is not modified
+		assertEquals(10, fixture.get("a"));
+		assertFalse(fixture.containsKey("b"));
+		assertEquals(2, fixture.getFromBackup("b"));
+		assertEquals(2, fixture.size());
+
+		fixture.reconcile();
+
+		assertEquals(10, fixture.get("a"));
+		assertFalse(fixture.containsKey("b"));
+		assertEquals(3, fixture.get("c"));
+		assertEquals(2, fixture.size());
+
+		fixture.setSnapshotMode(true);
+		fixture.clear();
+		fixture.put("d", 4);
+		assertFalse(fixture.containsKey("a"));
+		assertFalse(fixture.isEmpty());
+		fixture.reconcile();
+
+		assertEquals(1, fixture.size());
+		assertEquals(4, fixture.get("d"));
+	}
+
+	/**
+	 * Run the ArrayList<Object> streamSplitState(int) method test, streaming the snapshot while other threads write.
+	 *
+	 * @throws Exception
+	 */
+	public void testStreamSplitState_1()
+		throws Exception {
+		for(int i = 0; i < 1000; i++){
+			fixture.put(i, i);
+		}
+		fixture.setSnapshotMode(true);
+		Thread writer = new Thread(new Runnable(){
+			public void run(){
+				for(int i = 0; i < 2000; i++){
+					fixture.put(i, -i);
+				}
+			}
+		});
+		writer.start();
+
+		ConcurrentSeepMap<Object, Object> copy = new ConcurrentSeepMap<Object, Object>(4);
+		assertEquals(10, fixture.getTotalNumberOfChunks(100));
+		fixture.getIterator();
+		ArrayList<Object> chunk = null;
+		while((chunk = fixture.streamSplitState(100)) != null){
+			copy.appendChunk(chunk);
+		}
+		writer.join();
+		fixture.reconcile();
+
+		// The copy has the snapshot only, the map the writes of the new version
+		assertEquals(1000, copy.size());
+		assertEquals(999, copy.get(999));
+		assertEquals(2000, fixture.size());
+		assertEquals(-999, fixture.get(999));
+	}
+
+	/**
+	 * Run the State getDelta() method test, with the changes since the last checkpoint.
+	 *
+	 * @throws Exception
+	 */
+	public void testGetDelta_1()
+		throws Exception {
+		fixture.put("a", 1);
+		fixture.put("b", 2);
+		assertFalse(fixture.markCheckpoint());
+
+		fixture.put("a", 5);
+		fixture.remove("b");
+		assertTrue(fixture.markCheckpoint());
+		SeepMapDelta delta = (SeepMapDelta) fixture.getDelta();
+
+		assertEquals(2, delta.size());
+		assertEquals(5, delta.getUpdates().get("a"));
+		assertTrue(delta.getRemoves().contains("b"));
+	}
+
+	/**
+	 * Perform pre-test initialization.
+	 *
+	 * @throws Exception
+	 *         if the initialization fails for some reason
+	 */
+	protected void setUp()
+		throws Exception {
+		super.setUp();
+		fixture = new ConcurrentSeepMap<Object, Object>(16);
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(ConcurrentSeepMapTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new ConcurrentSeepMapTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.api.largestateimpls;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+
+import uk.ac.imperial.lsds.seep.comm.routing.Router;
+import uk.ac.imperial.lsds.seep.state.StateWrapper;
+
+import junit.framework.*;
+
+/**
+ * The class <code>OffHeapSeepMapTest</code> contains tests for the class <code>{@link OffHeapSeepMap}</code>.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class OffHeapSeepMapTest extends TestCase {
+
+	private OffHeapSeepMap<Object, Object> fixture;
+
+	/**
+	 * Run the void put(Object,Object) method test, updating and removing keys until the segments are compacted.
+	 *
+	 * @throws Exception
+	 */
+	public void testPut_1()
+		throws Exception {
+		for(int round = 0; round < 20; round++){
+			for(int i = 0; i < 2000; i++){
+				fixture.put("key-"+i, round * i);
+			}
+			fixture.remove("key-"+round);
+		}
+
+		// Only the key removed in the last round is missing
+		assertEquals(1999, fixture.size());
+		assertEquals(19 * 1999, fixture.get("key-1999"));
+		assertEquals(19 * 7, fixture.get("key-7"));
+		assertNull(fixture.get("key-19"));
+		assertFalse(fixture.containsKey("key-19"));
+		// Dead records have been compacted away
+		assertTrue(fixture.getLiveBytes() < 2000 * 64);
+	}
+
+	/**
+	 * Run the void put(Object,Object) method test on memory mapped files, checking that the background thread frees the segments full
+	 * of dead records and deletes their files.
+	 *
+	 * @throws Exception
+	 */
+	public void testPut_2()
+		throws Exception {
+		File directory = new File(System.getProperty("java.io.tmpdir"), "offheap-test-"+System.nanoTime());
+		assertTrue(directory.mkdir());
+		OffHeapSeepMap<Object, Object> mapped = new OffHeapSeepMap<Object, Object>(4096, directory.getPath());
+		for(int round = 0; round < 20; round++){
+			for(int i = 0; i < 200; i++){
+				mapped.put("key-"+i, (long)(round * i));
+			}
+		}
+		mapped.awaitCompaction();
+
+		assertEquals(200, mapped.size());
+		assertEquals(19L * 199, mapped.get("key-199"));
+		// About two rounds of records are left, instead of twenty
+		assertTrue(mapped.getNumberOfSegments() < 2 * 200 * 32 / 4096 + 2);
+		assertEquals(mapped.getNumberOfSegments(), directory.listFiles().length);
+		mapped.reset();
+		assertEquals(0, directory.listFiles().length);
+		assertTrue(directory.delete());
+	}
+
+	/**
+	 * Run the void reconcile() method test, with updates, removes and a clear done in snapshot mode.
+	 *
+	 * @throws Exception
+	 */
+	public void testReconcile_1()
+		throws Exception {
+		fixture.put(1, "a");
+		fixture.put(2, "b");
+		fixture.setSnapshotMode(true);
+		fixture.put(1, "c");
+		fixture.remove(2);
+		fixture.put(3, "d");
+
+		// The new version is read, the segments are not modified
+		assertEquals("c", fixture.get(1));
+		assertFalse(fixture.containsKey(2));
+		assertEquals("b", fixture.getFromBackup(2));
+		assertEquals(2, fixture.size());
+
+		fixture.reconcile();
+
+		assertEquals("c", fixture.get(1));
+		assertFalse(fixture.containsKey(2));
+		assertEquals("d", fixture.get(3));
+		assertEquals(2, fixture.size());
+
+		fixture.setSnapshotMode(true);
+		fixture.clear();
+		fixture.put(4, "e");
+		assertFalse(fixture.containsKey(1));
+		assertFalse(fixture.isEmpty());
+		fixture.reconcile();
+
+		assertEquals(1, fixture.size());
+		assertEquals("e", fixture.get(4));
+	}
+
+	/**
+	 * Run the ArrayList<Object> streamSplitState(int) method test, streaming the map into another one in snapshot mode.
+	 *
+	 * @throws Exception
+	 */
+	public void testStreamSplitState_1()
+		throws Exception {
+		for(int i = 0; i < 250; i++){
+			fixture.put(i, "value-"+i);
+		}
+		fixture.put(0, "updated");
+		fixture.setSnapshotMode(true);
+		fixture.put(1, "new version");
+		OffHeapSeepMap<Object, Object> copy = new OffHeapSeepMap<Object, Object>(4096);
+
+		assertEquals(3, fixture.getTotalNumberOfChunks(100));
+		fixture.getIterator();
+		ArrayList<Object> chunk = null;
+		int chunks = 0;
+		while((chunk = fixture.streamSplitState(100)) != null){
+			copy.appendChunk(chunk);
+			chunks++;
+		}
+
+		assertEquals(3, chunks);
+		assertEquals(250, copy.size());
+		assertEquals("updated", copy.get(0));
+		assertEquals("value-1", copy.get(1));
+		assertEquals("value-249", copy.get(249));
+	}
+
+	/**
+	 * Run the StateWrapper[] splitState(StateWrapper,int) method test.
+	 *
+	 * @throws Exception
+	 */
+	public void testSplitState_1()
+		throws Exception {
+		for(int i = 0; i < 100; i++){
+			fixture.put(i, i);
+		}
+		StateWrapper[] result = fixture.splitState(new StateWrapper(1, 1000, fixture), 0);
+
+		OffHeapSeepMap<?, ?> oldPartition = (OffHeapSeepMap<?, ?>) result[0].getStateImpl();
+		OffHeapSeepMap<?, ?> newPartition = (OffHeapSeepMap<?, ?>) result[1].getStateImpl();
+		assertEquals(100, oldPartition.size() + newPartition.size());
+		for(int i = 0; i < 100; i++){
+			OffHeapSeepMap<?, ?> expected = Router.customHash(i) > 0 ? newPartition : oldPartition;
+			assertEquals(i, expected.get(i));
+		}
+	}
+
+	/**
+	 * Run a serialisation round trip of a map on memory mapped files, which copies only the segments.
+	 *
+	 * @throws Exception
+	 */
+	public void testSerialization_1()
+		throws Exception {
+		File directory = new File(System.getProperty("java.io.tmpdir"));
+		OffHeapSeepMap<Object, Object> mapped = new OffHeapSeepMap<Object, Object>(4096, directory.getPath());
+		for(int i = 0; i < 500; i++){
+			mapped.put("key-"+i, (long)i);
+		}
+		mapped.setSnapshotMode(true);
+		mapped.put("key-0", -1L);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bos);
+		out.writeObject(mapped);
+		out.close();
+		@SuppressWarnings("unchecked")
+		OffHeapSeepMap<Object, Object> copy = (OffHeapSeepMap<Object, Object>) new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+
+		assertEquals(500, copy.size());
+		assertEquals(0L, copy.get("key-0"));
+		assertEquals(499L, copy.get("key-499"));
+		copy.put("key-500", 500L);
+		assertEquals(500L, copy.get("key-500"));
+		mapped.reset();
+	}
+
+	/**
+	 * Perform pre-test initialization.
+	 *
+	 * @throws Exception
+	 *         if the initialization fails for some reason
+	 */
+	protected void setUp()
+		throws Exception {
+		super.setUp();
+		fixture = new OffHeapSeepMap<Object, Object>(4096);
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(OffHeapSeepMapTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new OffHeapSeepMapTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
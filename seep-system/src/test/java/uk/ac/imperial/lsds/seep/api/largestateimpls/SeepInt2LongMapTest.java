@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.api.largestateimpls;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+
+import junit.framework.*;
+
+/**
+ * The class <code>SeepInt2LongMapTest</code> contains tests for the class <code>{@link SeepInt2LongMap}</code>.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class SeepInt2LongMapTest extends TestCase {
+
+	private SeepInt2LongMap fixture;
+
+	/**
+	 * Run the long addTo(int,long) method test.
+	 *
+	 * @throws Exception
+	 */
+	public void testAddTo_1()
+		throws Exception {
+		assertEquals(0, fixture.addTo(7, 5));
+		assertEquals(5, fixture.addTo(7, 3));
+		assertEquals(8, fixture.get(7));
+		assertEquals(0, fixture.get(8));
+		assertFalse(fixture.containsKey(8));
+	}
+
+	/**
+	 * Run the void reconcile() method test, with updates and removes done in snapshot mode.
+	 *
+	 * @throws Exception
+	 */
+	public void testReconcile_1()
+		throws Exception {
+		fixture.put(1, 10);
+		fixture.put(2, 20);
+		fixture.setSnapshotMode(true);
+		fixture.addTo(1, 1);
+		fixture.remove(2);
+		fixture.put(3, 30);
+
+		// The new version is read, the snapshot is not modified
+		assertEquals(11, fixture.get(1));
+		assertFalse(fixture.containsKey(2));
+		assertEquals(30, fixture.get(3));
+		assertEquals(20L, fixture.getFromBackup(2));
+		assertEquals(2, fixture.size());
+
+		fixture.reconcile();
+
+		assertEquals(11, fixture.get(1));
+		assertFalse(fixture.containsKey(2));
+		assertEquals(30, fixture.get(3));
+		assertEquals(2, fixture.size());
+	}
+
+	/**
+	 * Run the void reconcile() method test, with the map cleared in snapshot mode.
+	 *
+	 * @throws Exception
+	 */
+	public void testReconcile_2()
+		throws Exception {
+		fixture.put(1, 10);
+		fixture.setSnapshotMode(true);
+		fixture.clear();
+		fixture.put(2, 20);
+
+		assertFalse(fixture.containsKey(1));
+		assertFalse(fixture.isEmpty());
+		fixture.reconcile();
+
+		assertEquals(1, fixture.size());
+		assertEquals(20, fixture.get(2));
+	}
+
+	/**
+	 * Run the ArrayList<Object> streamSplitState(int) method test, streaming the map into another one, with a last chunk not full.
+	 *
+	 * @throws Exception
+	 */
+	public void testStreamSplitState_1()
+		throws Exception {
+		for(int i = 0; i < 25; i++){
+			fixture.put(i, i * 100L);
+		}
+		SeepInt2LongMap copy = new SeepInt2LongMap();
+
+		assertEquals(3, fixture.getTotalNumberOfChunks(10));
+		fixture.getIterator();
+		ArrayList<Object> chunk = null;
+		int chunks = 0;
+		while((chunk = fixture.streamSplitState(10)) != null){
+			copy.appendChunk(chunk);
+			chunks++;
+		}
+
+		assertEquals(3, chunks);
+		assertEquals(25, copy.size());
+		for(int i = 0; i < 25; i++){
+			assertEquals(i * 100L, copy.get(i));
+		}
+	}
+
+	/**
+	 * Run the State getDelta() method test, with the changes since the last checkpoint.
+	 *
+	 * @throws Exception
+	 */
+	public void testGetDelta_1()
+		throws Exception {
+		fixture.put(1, 10);
+		fixture.put(2, 20);
+		assertFalse(fixture.markCheckpoint());
+		SeepInt2LongMap backup = new SeepInt2LongMap();
+		backup.put(1, 10);
+		backup.put(2, 20);
+
+		fixture.addTo(1, 5);
+		fixture.remove(2);
+		assertTrue(fixture.markCheckpoint());
+		SeepMapDelta delta = (SeepMapDelta) fixture.getDelta();
+		backup.applyDelta(delta);
+
+		assertEquals(2, delta.size());
+		assertEquals(15, backup.get(1));
+		assertFalse(backup.containsKey(2));
+	}
+
+	/**
+	 * Run a serialisation round trip in snapshot mode, which copies only the snapshot.
+	 *
+	 * @throws Exception
+	 */
+	public void testSerialization_1()
+		throws Exception {
+		fixture.put(1, 10);
+		fixture.setSnapshotMode(true);
+		fixture.put(2, 20);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bos);
+		out.writeObject(fixture);
+		out.close();
+		SeepInt2LongMap copy = (SeepInt2LongMap) new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+
+		assertEquals(10, copy.get(1));
+		assertFalse(copy.containsKey(2));
+		copy.put(3, 30);
+		assertEquals(30, copy.get(3));
+	}
+
+	/**
+	 * Perform pre-test initialization.
+	 *
+	 * @throws Exception
+	 *         if the initialization fails for some reason
+	 */
+	protected void setUp()
+		throws Exception {
+		super.setUp();
+		fixture = new SeepInt2LongMap();
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(SeepInt2LongMapTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new SeepInt2LongMapTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
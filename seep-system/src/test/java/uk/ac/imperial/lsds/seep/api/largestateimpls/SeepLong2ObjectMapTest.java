@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.api.largestateimpls;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.*;
+
+/**
+ * The class <code>SeepLong2ObjectMapTest</code> contains tests for the class <code>{@link SeepLong2ObjectMap}</code>.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class SeepLong2ObjectMapTest extends TestCase {
+
+	private SeepLong2ObjectMap<String> fixture;
+
+	/**
+	 * Run the V get(long) method test, with a null value put in snapshot mode.
+	 *
+	 * @throws Exception
+	 */
+	public void testGet_1()
+		throws Exception {
+		fixture.put(1L << 40, "a");
+		fixture.setSnapshotMode(true);
+		assertEquals("a", fixture.put(1L << 40, null));
+
+		assertTrue(fixture.containsKey(1L << 40));
+		assertNull(fixture.get(1L << 40));
+		assertEquals("a", fixture.getFromBackup(1L << 40));
+		assertNull(fixture.get(5L));
+	}
+
+	/**
+	 * Run the void installPartials(List<Long2ObjectOpenHashMap<V>>) method test.
+	 *
+	 * @throws Exception
+	 */
+	public void testInstallPartials_1()
+		throws Exception {
+		Long2ObjectOpenHashMap<String> one = fixture.newPartial();
+		Long2ObjectOpenHashMap<String> two = fixture.newPartial();
+		fixture.appendChunk(one, new ArrayList<Object>(Arrays.<Object>asList(1L, "a", 2L, "b")));
+		fixture.appendChunk(two, new ArrayList<Object>(Arrays.<Object>asList(3L, "c")));
+
+		fixture.installPartials(Arrays.asList(one, two));
+
+		assertEquals(3, fixture.size());
+		assertEquals("b", fixture.get(2L));
+		assertEquals("c", fixture.get(3L));
+	}
+
+	/**
+	 * Perform pre-test initialization.
+	 *
+	 * @throws Exception
+	 *         if the initialization fails for some reason
+	 */
+	protected void setUp()
+		throws Exception {
+		super.setUp();
+		fixture = new SeepLong2ObjectMap<String>();
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(SeepLong2ObjectMapTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new SeepLong2ObjectMapTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
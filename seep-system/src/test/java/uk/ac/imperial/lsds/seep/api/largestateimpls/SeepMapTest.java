@@ -10,8 +10,13 @@
  ******************************************************************************/
 package uk.ac.imperial.lsds.seep.api.largestateimpls;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -392,6 +397,112 @@ public class SeepMapTest extends TestCase {
 		assertEquals(0, result.size());
 	}
 
+	/**
+	 * Run the Set<java.util.Map.Entry<Object, Object>> entrySet() method test, in snapshot mode.
+	 *
+	 * @throws Exception
+	 */
+	public void testEntrySet_3()
+		throws Exception {
+		SeepMap<Object, Object> fixture = new SeepMap<Object, Object>();
+		fixture.put("a", 1);
+		fixture.put("b", 2);
+		fixture.put("c", 3);
+		fixture.setSnapshotMode(true);
+		fixture.put("a", 10);
+		fixture.remove("b");
+		fixture.put("d", 4);
+
+		Map<Object, Object> result = new HashMap<Object, Object>();
+		for(Map.Entry<Object, Object> entry : fixture.entrySet()){
+			result.put(entry.getKey(), entry.getValue());
+		}
+
+		// The new version is seen, the snapshot is not modified
+		assertEquals(3, fixture.entrySet().size());
+		assertEquals(3, result.size());
+		assertEquals(10, result.get("a"));
+		assertEquals(3, result.get("c"));
+		assertEquals(4, result.get("d"));
+		assertEquals(3, fixture.size());
+		assertEquals(2, fixture.getFromBackup("b"));
+	}
+
+	/**
+	 * Run the Set<java.util.Map.Entry<Object, Object>> entrySet() method test, in snapshot mode with a reconcile while iterating.
+	 *
+	 * @throws Exception
+	 */
+	public void testEntrySet_4()
+		throws Exception {
+		SeepMap<Object, Object> fixture = new SeepMap<Object, Object>();
+		for(int i = 0; i < 100; i++){
+			fixture.put(i, i);
+		}
+		fixture.setSnapshotMode(true);
+		fixture.put(0, -1);
+		fixture.remove(1);
+		fixture.put(100, 100);
+
+		Map<Object, Object> result = new HashMap<Object, Object>();
+		Iterator<Map.Entry<Object, Object>> entries = fixture.entrySet().iterator();
+		for(int i = 0; i < 10; i++){
+			Map.Entry<Object, Object> entry = entries.next();
+			result.put(entry.getKey(), entry.getValue());
+		}
+		// The checkpointing thread folds the version in the snapshot
+		fixture.reconcile();
+		while(entries.hasNext()){
+			Map.Entry<Object, Object> entry = entries.next();
+			assertFalse(result.containsKey(entry.getKey()));
+			result.put(entry.getKey(), entry.getValue());
+		}
+
+		assertEquals(100, result.size());
+		assertEquals(-1, result.get(0));
+		assertFalse(result.containsKey(1));
+		assertEquals(100, result.get(100));
+	}
+
+	/**
+	 * Run the Set<java.util.Map.Entry<Object, Object>> entrySet() method test, with a reconcile that grows the map while going over the
+	 * snapshot.
+	 *
+	 * @throws Exception
+	 */
+	public void testEntrySet_5()
+		throws Exception {
+		SeepMap<Object, Object> fixture = new SeepMap<Object, Object>();
+		for(int i = 0; i < 100; i++){
+			fixture.put("key-"+i, i);
+		}
+		fixture.setSnapshotMode(true);
+		for(int i = 0; i < 1000; i++){
+			fixture.put("new-"+i, i);
+		}
+		for(int i = 0; i < 100; i += 10){
+			fixture.remove("key-"+i);
+		}
+
+		Map<Object, Object> result = new HashMap<Object, Object>();
+		Iterator<Map.Entry<Object, Object>> entries = fixture.entrySet().iterator();
+		// All the updates and half the snapshot
+		for(int i = 0; i < 1045; i++){
+			Map.Entry<Object, Object> entry = entries.next();
+			result.put(entry.getKey(), entry.getValue());
+		}
+		fixture.reconcile();
+		while(entries.hasNext()){
+			Map.Entry<Object, Object> entry = entries.next();
+			assertFalse(result.containsKey(entry.getKey()));
+			result.put(entry.getKey(), entry.getValue());
+		}
+
+		assertEquals(1090, result.size());
+		assertEquals(99, result.get("key-99"));
+		assertFalse(result.containsKey("key-10"));
+	}
+
 	/**
 	 * Run the Object get(Object) method test.
 	 *
@@ -680,6 +791,35 @@ public class SeepMapTest extends TestCase {
 		assertEquals(0, result.size());
 	}
 
+	/**
+	 * Run the Set<Object> keySet() method test, in snapshot mode after a clear.
+	 *
+	 * @throws Exception
+	 */
+	public void testKeySet_3()
+		throws Exception {
+		SeepMap<Object, Object> fixture = new SeepMap<Object, Object>();
+		fixture.put("a", 1);
+		fixture.setSnapshotMode(true);
+		fixture.clear();
+		fixture.put("b", 2);
+
+		Set<Object> result = fixture.keySet();
+
+		assertEquals(1, result.size());
+		assertTrue(result.contains("b"));
+		assertFalse(result.contains("a"));
+		Iterator<Object> keys = result.iterator();
+		assertEquals("b", keys.next());
+		assertFalse(keys.hasNext());
+		try{
+			keys.remove();
+			fail();
+		}
+		catch(UnsupportedOperationException e){
+		}
+	}
+
 	/**
 	 * Run the void lock() method test.
 	 *
@@ -929,6 +1069,38 @@ public class SeepMapTest extends TestCase {
 		fixture.setSnapshotMode(newValue);
 
 		// add additional test code here
+		assertTrue(fixture.isSnapshotMode());
+		fixture.reconcile();
+		assertFalse(fixture.isSnapshotMode());
+	}
+
+	/**
+	 * Run the void setSnapshotMode(boolean) method test, serialising the map while in snapshot mode.
+	 *
+	 * @throws Exception
+	 */
+	public void testSetSnapshotMode_2()
+		throws Exception {
+		SeepMap fixture = new SeepMap();
+		fixture.put("a", 1);
+		fixture.put("b", 2);
+		fixture.setSnapshotMode(true);
+		fixture.put("c", 3);
+		fixture.remove("a");
+		fixture.clear();
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bos);
+		out.writeObject(fixture);
+		out.close();
+		SeepMap copy = (SeepMap) new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+
+		assertEquals(2, copy.size());
+		assertEquals(1, copy.get("a"));
+		copy.put("d", 4);
+		assertEquals(4, copy.getFromBackup("d"));
+		fixture.reconcile();
+		assertEquals(0, fixture.size());
 	}
 
 	/**
@@ -969,6 +1141,34 @@ public class SeepMapTest extends TestCase {
 		assertNotNull(result);
 	}
 
+	/**
+	 * Run the void installPartials(List<HashMap<Object, Object>>) method test, with the partials released as they are installed.
+	 *
+	 * @throws Exception
+	 */
+	public void testInstallPartials_1()
+		throws Exception {
+		SeepMap<Object, Object> fixture = new SeepMap<Object, Object>();
+		fixture.put(-1, "old");
+		ArrayList<HashMap<Object, Object>> partials = new ArrayList<HashMap<Object, Object>>();
+		for(int p = 0; p < 3; p++){
+			HashMap<Object, Object> partial = new HashMap<Object, Object>();
+			for(int i = p * 100; i < (p + 1) * 100; i++){
+				partial.put(i, "v"+i);
+			}
+			partials.add(partial);
+		}
+
+		fixture.installPartials(partials);
+
+		assertEquals(301, fixture.size());
+		assertEquals("v250", fixture.get(250));
+		assertEquals("old", fixture.get(-1));
+		for(HashMap<Object, Object> partial : partials){
+			assertNull(partial);
+		}
+	}
+
 	/**
 	 * Run the ArrayList<Object> streamSplitState(int) method test.
 	 *
@@ -1047,6 +1247,28 @@ public class SeepMapTest extends TestCase {
 		assertEquals(0, result.size());
 	}
 
+	/**
+	 * Run the Collection<Object> values() method test, in snapshot mode.
+	 *
+	 * @throws Exception
+	 */
+	public void testValues_3()
+		throws Exception {
+		SeepMap<Object, Object> fixture = new SeepMap<Object, Object>();
+		fixture.put("a", 1);
+		fixture.put("b", 2);
+		fixture.setSnapshotMode(true);
+		fixture.remove("a");
+		fixture.put("b", 20);
+
+		Collection<Object> result = fixture.values();
+
+		assertEquals(1, result.size());
+		assertEquals(20, result.iterator().next());
+		fixture.reconcile();
+		assertEquals(1, fixture.values().size());
+	}
+
 	/**
 	 * Perform pre-test initialization.
 	 *
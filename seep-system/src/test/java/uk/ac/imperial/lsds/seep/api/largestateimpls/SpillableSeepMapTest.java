@@ -0,0 +1,280 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.api.largestateimpls;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+
+import junit.framework.*;
+
+/**
+ * The class <code>SpillableSeepMapTest</code> contains tests for the class <code>{@link SpillableSeepMap}</code>.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class SpillableSeepMapTest extends TestCase {
+
+	private SpillableSeepMap<Object, Object> fixture;
+
+	/**
+	 * Run the void put(Object,Object) method test, with more entries than fit in memory, updated and removed after being spilled.
+	 *
+	 * @throws Exception
+	 */
+	public void testPut_1()
+		throws Exception {
+		for(int i = 0; i < 5000; i++){
+			fixture.put("key-"+i, i);
+		}
+		assertTrue(fixture.getHotSize() <= 100);
+		assertTrue(fixture.getNumberOfRuns() > 0);
+
+		for(int i = 0; i < 5000; i += 2){
+			fixture.put("key-"+i, -i);
+		}
+		for(int i = 0; i < 5000; i += 5){
+			fixture.remove("key-"+i);
+		}
+		// Let the background compaction finish
+		for(int i = 0; i < 100 && fixture.getNumberOfRuns() >= 8; i++){
+			Thread.sleep(50);
+			fixture.put("key-1", 1);
+		}
+
+		assertEquals(4000, fixture.size());
+		assertEquals(-2, fixture.get("key-2"));
+		assertEquals(3, fixture.get("key-3"));
+		assertNull(fixture.get("key-5"));
+		assertFalse(fixture.containsKey("key-10"));
+		assertNull(fixture.get("absent"));
+		assertTrue(fixture.getNumberOfRuns() < 8);
+	}
+
+	/**
+	 * Run the void put(Object,Object) method test, modifying in place values loaded from disk before they are evicted again.
+	 *
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public void testPut_2()
+		throws Exception {
+		for(int i = 0; i < 1000; i++){
+			ArrayList<Integer> list = new ArrayList<Integer>();
+			list.add(i);
+			fixture.put(i, list);
+		}
+		// Loaded from disk and modified without a put
+		for(int i = 0; i < 1000; i += 10){
+			((ArrayList<Integer>) fixture.get(i)).add(-i);
+		}
+		for(int i = 1000; i < 2000; i++){
+			fixture.put(i, new ArrayList<Integer>());
+		}
+
+		for(int i = 0; i < 1000; i += 10){
+			assertEquals(2, ((ArrayList<Integer>) fixture.get(i)).size());
+		}
+		assertEquals(1, ((ArrayList<Integer>) fixture.get(1)).size());
+	}
+
+	/**
+	 * Run the void clear() method test, clearing the map while its runs are being compacted in the background.
+	 *
+	 * @throws Exception
+	 */
+	public void testClear_1()
+		throws Exception {
+		for(int round = 0; round < 5; round++){
+			for(int i = 0; i < 1000; i++){
+				fixture.put("key-"+i, round);
+			}
+			fixture.clear();
+			assertEquals(0, fixture.getNumberOfRuns());
+		}
+		// The compactions of cleared runs are dropped, later ones still run
+		for(int i = 0; i < 2000; i++){
+			fixture.put("key-"+i, i);
+		}
+		for(int i = 0; i < 100 && fixture.getNumberOfRuns() >= 8; i++){
+			Thread.sleep(50);
+		}
+
+		assertEquals(2000, fixture.size());
+		assertEquals(0, fixture.get("key-0"));
+		assertEquals(1999, fixture.get("key-1999"));
+		assertTrue(fixture.getNumberOfRuns() < 8);
+	}
+
+	/**
+	 * Run the SpillableSeepMap(int) constructor test with no room for hot entries.
+	 *
+	 * @throws Exception
+	 */
+	public void testSpillableSeepMap_1()
+		throws Exception {
+		try{
+			new SpillableSeepMap<Object, Object>(0);
+			fail();
+		}
+		catch(IllegalArgumentException e){
+			// Expected
+		}
+	}
+
+	/**
+	 * Run the void reconcile() method test, with updates, removes and a clear done in snapshot mode.
+	 *
+	 * @throws Exception
+	 */
+	public void testReconcile_1()
+		throws Exception {
+		for(int i = 0; i < 500; i++){
+			fixture.put(i, "value-"+i);
+		}
+		fixture.setSnapshotMode(true);
+		fixture.put(1, "updated");
+		fixture.remove(2);
+		fixture.put(1000, "new");
+
+		// The new version is read, the snapshot is not modified
+		assertEquals("updated", fixture.get(1));
+		assertFalse(fixture.containsKey(2));
+		assertEquals("value-3", fixture.get(3));
+		assertEquals("value-2", fixture.getFromBackup(2));
+		assertEquals(500, fixture.size());
+
+		fixture.reconcile();
+
+		assertEquals("updated", fixture.get(1));
+		assertFalse(fixture.containsKey(2));
+		assertEquals("new", fixture.get(1000));
+		assertEquals(500, fixture.size());
+
+		fixture.setSnapshotMode(true);
+		fixture.clear();
+		fixture.put(4, "e");
+		assertFalse(fixture.containsKey(1));
+		fixture.reconcile();
+
+		assertEquals(1, fixture.size());
+		assertEquals("e", fixture.get(4));
+		assertEquals(0, fixture.getNumberOfRuns());
+	}
+
+	/**
+	 * Run the ArrayList<Object> streamSplitState(int) method test, streaming hot and spilled entries in snapshot mode.
+	 *
+	 * @throws Exception
+	 */
+	public void testStreamSplitState_1()
+		throws Exception {
+		for(int i = 0; i < 1000; i++){
+			fixture.put(i, i);
+		}
+		fixture.put(0, -1);
+		fixture.remove(999);
+		fixture.setSnapshotMode(true);
+		fixture.put(1, "new version");
+		SpillableSeepMap<Object, Object> copy = new SpillableSeepMap<Object, Object>(2000);
+
+		assertEquals(10, fixture.getTotalNumberOfChunks(100));
+		fixture.getIterator();
+		ArrayList<Object> chunk = null;
+		int chunks = 0;
+		while((chunk = fixture.streamSplitState(100)) != null){
+			copy.appendChunk(chunk);
+			chunks++;
+		}
+		fixture.reconcile();
+
+		assertEquals(10, chunks);
+		assertEquals(999, copy.size());
+		assertEquals(-1, copy.get(0));
+		assertEquals(1, copy.get(1));
+		assertEquals(998, copy.get(998));
+		assertFalse(copy.containsKey(999));
+	}
+
+	/**
+	 * Run a serialisation round trip, which copies only the snapshot.
+	 *
+	 * @throws Exception
+	 */
+	public void testSerialization_1()
+		throws Exception {
+		for(int i = 0; i < 300; i++){
+			fixture.put("key-"+i, (long)i);
+		}
+		fixture.setSnapshotMode(true);
+		fixture.put("key-0", -1L);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bos);
+		out.writeObject(fixture);
+		out.close();
+		@SuppressWarnings("unchecked")
+		SpillableSeepMap<Object, Object> copy = (SpillableSeepMap<Object, Object>) new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+
+		assertEquals(300, copy.size());
+		assertEquals(0L, copy.get("key-0"));
+		assertEquals(299L, copy.get("key-299"));
+		copy.reset();
+	}
+
+	/**
+	 * Perform pre-test initialization.
+	 *
+	 * @throws Exception
+	 *         if the initialization fails for some reason
+	 */
+	protected void setUp()
+		throws Exception {
+		super.setUp();
+		fixture = new SpillableSeepMap<Object, Object>(100);
+	}
+
+	/**
+	 * Perform post-test clean-up.
+	 *
+	 * @throws Exception
+	 *         if the clean-up fails for some reason
+	 */
+	protected void tearDown()
+		throws Exception {
+		super.tearDown();
+		fixture.reset();
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(SpillableSeepMapTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new SpillableSeepMapTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
@@ -11,11 +11,15 @@
 package uk.ac.imperial.lsds.seep.buffer;
 
 import java.util.Iterator;
+
+import uk.ac.imperial.lsds.seep.api.largestateimpls.SeepMap;
+import uk.ac.imperial.lsds.seep.api.largestateimpls.SeepMapDelta;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.BackupOperatorState;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.RawData;
 import junit.framework.*;
 import uk.ac.imperial.lsds.seep.runtimeengine.TimestampTracker;
+import uk.ac.imperial.lsds.seep.state.StateWrapper;
 
 /**
  * The class <code>BufferTest</code> contains tests for the class <code>{@link Buffer}</code>.
@@ -145,6 +149,70 @@ public class BufferTest extends TestCase {
 		assertEquals(false, result.hasNext());
 	}
 
+	/**
+	 * Run the boolean mergeBackupOperatorState(BackupOperatorState) method test.
+	 *
+	 * @throws Exception
+	 */
+	public void testMergeBackupOperatorState_1()
+		throws Exception {
+		Buffer fixture = new Buffer();
+		SeepMap state = new SeepMap();
+		state.put("a", 1);
+		state.put("b", 2);
+		state.markCheckpoint();
+		SeepMap copy = new SeepMap();
+		copy.put("a", 1);
+		copy.put("b", 2);
+		BackupOperatorState base = new BackupOperatorState();
+		base.setState(new StateWrapper(1, 1000, copy));
+		base.setCheckpointId(1);
+		fixture.replaceBackupOperatorState(base);
+
+		state.put("a", 10);
+		state.remove("b");
+		state.put("c", 3);
+		assertTrue(state.markCheckpoint());
+		BackupOperatorState delta = new BackupOperatorState();
+		delta.setState(new StateWrapper(1, 1000, state.getDelta()));
+		delta.setCheckpointId(2);
+		delta.setPreviousCheckpointId(1);
+
+		boolean result = fixture.mergeBackupOperatorState(delta);
+
+		assertTrue(result);
+		SeepMap merged = (SeepMap) fixture.getBackupState().getState().getStateImpl();
+		assertEquals(2, merged.size());
+		assertEquals(10, merged.get("a"));
+		assertEquals(3, merged.get("c"));
+		assertEquals(2, fixture.getBackupState().getCheckpointId());
+	}
+
+	/**
+	 * Run the boolean mergeBackupOperatorState(BackupOperatorState) method test, with a delta that does not follow the state kept.
+	 *
+	 * @throws Exception
+	 */
+	public void testMergeBackupOperatorState_2()
+		throws Exception {
+		Buffer fixture = new Buffer();
+		BackupOperatorState base = new BackupOperatorState();
+		base.setState(new StateWrapper(1, 1000, new SeepMap()));
+		base.setCheckpointId(3);
+		fixture.replaceBackupOperatorState(base);
+		SeepMapDelta changes = new SeepMapDelta();
+		changes.getUpdates().put("a", 1);
+		BackupOperatorState delta = new BackupOperatorState();
+		delta.setState(new StateWrapper(1, 1000, changes));
+		delta.setCheckpointId(5);
+		delta.setPreviousCheckpointId(4);
+
+		boolean result = fixture.mergeBackupOperatorState(delta);
+
+		assertFalse(result);
+		assertEquals(0, ((SeepMap) fixture.getBackupState().getState().getStateImpl()).size());
+	}
+
 	/**
 	 * Run the void replaceBackupOperatorState(BackupOperatorState) method test.
 	 *
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.buffer;
+
+import java.io.File;
+import java.util.Iterator;
+
+import uk.ac.imperial.lsds.seep.runtimeengine.TimestampTracker;
+import junit.framework.*;
+
+/**
+ * The class <code>OutputLogTest</code> contains tests for the class <code>{@link OutputLog}</code>.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class OutputLogTest extends TestCase {
+
+	private static TimestampTracker vts(long ts){
+		TimestampTracker t = new TimestampTracker();
+		t.set(0, ts);
+		return t;
+	}
+
+	/**
+	 * Ten entries of 4 bytes, with output timestamps 10, 20, ... 100, in segments of 16 bytes
+	 */
+	private static OutputLog fill(){
+		OutputLog log = new OutputLog(16);
+		for(int i = 1; i <= 10; i++){
+			byte[] data = new byte[] {(byte)i, (byte)i, (byte)i, (byte)i};
+			log.append(data, 0, data.length, 1, i * 10, vts(i));
+		}
+		return log;
+	}
+
+	/**
+	 * Run the OutputLog trim(long) method test, removing whole segments and part of one.
+	 *
+	 * @throws Exception
+	 */
+	public void testTrim_1()
+		throws Exception {
+		OutputLog fixture = fill();
+
+		TimestampTracker result = fixture.trim(55);
+
+		assertEquals(1, result.get(0));
+		assertEquals(5, fixture.size());
+		assertEquals(6, fixture.iterator().next().data[0]);
+		assertNull(fixture.trim(55));
+		assertEquals(6, fixture.trim(1000).get(0));
+		assertEquals(0, fixture.size());
+		assertFalse(fixture.iterator().hasNext());
+	}
+
+	/**
+	 * Run the OutputLog getInputVTsForOutputTs(long) method test.
+	 *
+	 * @throws Exception
+	 */
+	public void testGetInputVTsForOutputTs_1()
+		throws Exception {
+		OutputLog fixture = fill();
+
+		assertEquals(7, fixture.getInputVTsForOutputTs(70).get(0));
+		assertEquals(10, fixture.getInputVTsForOutputTs(100).get(0));
+		assertNull(fixture.getInputVTsForOutputTs(75));
+		assertNull(fixture.getInputVTsForOutputTs(110));
+		fixture.trim(30);
+		assertNull(fixture.getInputVTsForOutputTs(20));
+		assertEquals(4, fixture.getInputVTsForOutputTs(40).get(0));
+	}
+
+	/**
+	 * Run the OutputLog getInputVTsForOutputTs(long) method test, with the input timestamps updated after appending.
+	 *
+	 * @throws Exception
+	 */
+	public void testGetInputVTsForOutputTs_2()
+		throws Exception {
+		OutputLog fixture = new OutputLog(16);
+		TimestampTracker live = vts(1);
+		fixture.append(new byte[4], 0, 4, 1, 10, live);
+		live.set(0, 2);
+		fixture.append(new byte[4], 0, 4, 1, 20, live);
+
+		assertEquals(1, fixture.getInputVTsForOutputTs(10).get(0));
+		assertEquals(2, fixture.getInputVTsForOutputTs(20).get(0));
+		assertEquals(1, fixture.iterator().next().inputVTs[TimestampTracker.indexOf(0)]);
+	}
+
+	/**
+	 * Run the OutputLog iterator() method test, trimming and appending while iterating.
+	 *
+	 * @throws Exception
+	 */
+	public void testIterator_1()
+		throws Exception {
+		OutputLog fixture = fill();
+		Iterator<OutputLogEntry> result = fixture.iterator();
+
+		assertEquals(1, result.next().data[0]);
+		fixture.trim(80);
+		assertEquals(9, result.next().data[0]);
+		assertEquals(10, result.next().data[0]);
+		byte[] large = new byte[40];
+		large[0] = 11;
+		fixture.append(large, 0, large.length, 3, 110, vts(11));
+		OutputLogEntry last = result.next();
+		assertEquals(40, last.data.length);
+		assertEquals(11, last.data[0]);
+		assertEquals(110, last.outputTs);
+		assertEquals(3, last.tuples);
+		assertFalse(result.hasNext());
+	}
+
+	/**
+	 * Run the OutputLog iterator() method test, with the oldest segments spilled to disk.
+	 *
+	 * @throws Exception
+	 */
+	public void testIterator_2()
+		throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "outputlogtest");
+		OutputLog fixture = new OutputLog(16, 32, dir);
+		for(int i = 1; i <= 10; i++){
+			byte[] data = new byte[] {(byte)i, (byte)i, (byte)i, (byte)i};
+			fixture.append(data, 0, data.length, 1, i * 10, vts(i));
+		}
+		fixture.awaitSpills();
+
+		assertEquals(1, fixture.spilledSegments());
+		assertEquals(1, dir.list().length);
+		assertEquals(4, fixture.getInputVTsForOutputTs(40).get(0));
+		Iterator<OutputLogEntry> result = fixture.iterator();
+		for(int i = 1; i <= 10; i++){
+			OutputLogEntry entry = result.next();
+			assertEquals(i, entry.data[0]);
+			assertEquals(i, entry.data[3]);
+		}
+		assertFalse(result.hasNext());
+
+		fixture.trim(1000);
+		assertEquals(0, fixture.spilledSegments());
+		assertEquals(0, dir.list().length);
+	}
+
+	/**
+	 * Run the void close() method test, deleting the spilled segments.
+	 *
+	 * @throws Exception
+	 */
+	public void testClose_1()
+		throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "outputlogtest");
+		OutputLog fixture = new OutputLog(16, 16, dir);
+		for(int i = 1; i <= 10; i++){
+			byte[] data = new byte[] {(byte)i, (byte)i, (byte)i, (byte)i};
+			fixture.append(data, 0, data.length, 1, i * 10, vts(i));
+		}
+		fixture.awaitSpills();
+		assertEquals(2, fixture.spilledSegments());
+		assertEquals(2, dir.list().length);
+
+		fixture.close();
+		fixture.awaitSpills();
+
+		assertEquals(0, fixture.size());
+		assertEquals(0, fixture.spilledSegments());
+		assertEquals(0, dir.list().length);
+		assertFalse(fixture.iterator().hasNext());
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(OutputLogTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new OutputLogTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
@@ -0,0 +1,336 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TupleSchema;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.ArrayListSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.BatchTuplePayloadSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.TuplePayloadSerializer;
+import uk.ac.imperial.lsds.seep.infrastructure.dynamiccodedeployer.RuntimeClassLoader;
+import uk.ac.imperial.lsds.seep.runtimeengine.CoreRE;
+import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureAdapter;
+import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureI;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import junit.framework.*;
+
+/**
+ * The class <code>IncomingDataSelectorTest</code> contains tests for the class <code>{@link IncomingDataSelector}</code>. Frames are
+ * written on plain sockets as OutputQueue writes them when nioDataReceive is enabled, its length followed by the batch.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class IncomingDataSelectorTest extends TestCase {
+
+	private BlockingQueue<DataTuple> received;
+	private ServerSocketChannel server;
+	private IncomingDataSelector fixture;
+	private Kryo k;
+	private ArrayList<Socket> upstreams;
+
+	/**
+	 * Run the void run() method test, with frames split across several reads, the header included.
+	 *
+	 * @throws Exception
+	 */
+	public void testRun_1()
+		throws Exception {
+		OutputStream out = connect().getOutputStream();
+		byte[] frame = frame(batch(1, 10, "a"));
+
+		out.write(frame, 0, 2);
+		out.flush();
+		Thread.sleep(50);
+		out.write(frame, 2, 10);
+		out.flush();
+		Thread.sleep(50);
+		assertNull(received.poll(50, TimeUnit.MILLISECONDS));
+		out.write(frame, 12, frame.length - 12);
+		out.flush();
+
+		assertTimestamps(1, 10);
+	}
+
+	/**
+	 * Run the void run() method test, with several frames written at once, the last of them incomplete.
+	 *
+	 * @throws Exception
+	 */
+	public void testRun_2()
+		throws Exception {
+		OutputStream out = connect().getOutputStream();
+		byte[] first = frame(batch(1, 5, "a"));
+		byte[] second = frame(batch(6, 5, "b"));
+		byte[] third = frame(batch(11, 5, "c"));
+		byte[] all = new byte[first.length + second.length + third.length];
+		System.arraycopy(first, 0, all, 0, first.length);
+		System.arraycopy(second, 0, all, first.length, second.length);
+		System.arraycopy(third, 0, all, first.length + second.length, third.length);
+
+		out.write(all, 0, all.length - 3);
+		out.flush();
+		assertTimestamps(1, 10);
+		assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+		out.write(all, all.length - 3, 3);
+		out.flush();
+
+		assertTimestamps(11, 5);
+	}
+
+	/**
+	 * Run the void run() method test, with a frame larger than the initial buffer of the connection followed by a small one.
+	 *
+	 * @throws Exception
+	 */
+	public void testRun_3()
+		throws Exception {
+		OutputStream out = connect().getOutputStream();
+		char[] chars = new char[1024];
+		Arrays.fill(chars, 'x');
+		// About 200KB, the buffer starts with 64KB
+		byte[] big = frame(batch(1, 200, new String(chars)));
+		assertTrue(big.length > 3 * 64 * 1024);
+
+		out.write(big);
+		out.write(frame(batch(201, 1, "a")));
+		out.flush();
+
+		DataTuple first = received.poll(5, TimeUnit.SECONDS);
+		assertNotNull(first);
+		assertEquals(1025, ((String) first.getPayload().attrValues.get(1)).length());
+		assertTimestamps(2, 200);
+	}
+
+	/**
+	 * Run the void run() method test, with a frame of negative length from one upstream, which only closes its connection.
+	 *
+	 * @throws Exception
+	 */
+	public void testRun_4()
+		throws Exception {
+		Socket bad = connect();
+		Socket good = connect();
+		waitForConnections(2);
+
+		ByteBuffer header = ByteBuffer.allocate(8);
+		header.putInt(-1).putInt(0);
+		bad.getOutputStream().write(header.array());
+		bad.getOutputStream().flush();
+		InputStream in = bad.getInputStream();
+		bad.setSoTimeout(5000);
+		assertEquals(-1, in.read());
+		waitForConnections(1);
+
+		good.getOutputStream().write(frame(batch(1, 3, "a")));
+		good.getOutputStream().flush();
+		assertTimestamps(1, 3);
+		assertEquals(1, fixture.getNumberOfConnections());
+	}
+
+	/**
+	 * Run the void run() method test, with a frame that cannot be decoded from one upstream, which only closes its connection.
+	 *
+	 * @throws Exception
+	 */
+	public void testRun_5()
+		throws Exception {
+		Socket bad = connect();
+		Socket good = connect();
+		waitForConnections(2);
+
+		ByteBuffer garbage = ByteBuffer.allocate(4 + 16);
+		garbage.putInt(16);
+		for(int i = 0; i < 16; i++){
+			garbage.put((byte) 0xff);
+		}
+		bad.getOutputStream().write(garbage.array());
+		bad.getOutputStream().flush();
+		bad.setSoTimeout(5000);
+		assertEquals(-1, bad.getInputStream().read());
+		waitForConnections(1);
+
+		good.getOutputStream().write(frame(batch(1, 3, "a")));
+		good.getOutputStream().flush();
+		assertTimestamps(1, 3);
+	}
+
+	private Socket connect() throws Exception{
+		Socket s = new Socket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort());
+		upstreams.add(s);
+		fixture.addConnection(server.accept());
+		return s;
+	}
+
+	private void waitForConnections(int expected) throws InterruptedException{
+		for(int i = 0; i < 100 && fixture.getNumberOfConnections() != expected; i++){
+			Thread.sleep(50);
+		}
+		assertEquals(expected, fixture.getNumberOfConnections());
+	}
+
+	/** Checks that tuples with timestamps from first to first + n - 1 are received in order **/
+	private void assertTimestamps(long first, int n) throws InterruptedException{
+		for(int i = 0; i < n; i++){
+			DataTuple dt = received.poll(5, TimeUnit.SECONDS);
+			assertNotNull(dt);
+			assertEquals(first + i, dt.getPayload().timestamp);
+		}
+	}
+
+	private BatchTuplePayload batch(long firstTs, int n, String value){
+		BatchTuplePayload batch = new BatchTuplePayload();
+		for(int i = 0; i < n; i++){
+			TuplePayload tp = new TuplePayload();
+			tp.timestamp = firstTs + i;
+			// Distinct values, so that Kryo does not write references to the first one
+			tp.attrValues = new Payload(i, value + i);
+			batch.addTuple(tp);
+		}
+		return batch;
+	}
+
+	/** Serialises batch with its length in front, as OutputQueue does **/
+	private byte[] frame(BatchTuplePayload batch){
+		Output output = new Output(1024, -1);
+		output.writeInt(0);
+		k.writeObject(output, batch);
+		byte[] frame = output.toBytes();
+		ByteBuffer.wrap(frame).putInt(frame.length - 4);
+		return frame;
+	}
+
+	/**
+	 * Perform pre-test initialization.
+	 *
+	 * @throws Exception
+	 *         if the initialization fails for some reason
+	 */
+	protected void setUp()
+		throws Exception {
+		super.setUp();
+		received = new LinkedBlockingQueue<DataTuple>();
+		upstreams = new ArrayList<Socket>();
+		server = ServerSocketChannel.open();
+		server.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+		CoreRE owner = new CoreRE(null, new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))){
+			@Override
+			public int getOpIdFromInetAddress(InetAddress ip){
+				return 1;
+			}
+			@Override
+			public int getOriginalUpstreamFromOpId(int opId){
+				return opId;
+			}
+			@Override
+			public void setTsData(int stream, long ts_data){
+			}
+			@Override
+			public boolean checkSystemStatus(){
+				return true;
+			}
+			@Override
+			public void returnCredits(int opId, int credits){
+			}
+		};
+		DataStructureAdapter dsa = new DataStructureAdapter(){
+			private DataStructureI dso = new DataStructureI(){
+				@Override
+				public void push(DataTuple dt){
+					received.add(dt);
+				}
+				@Override
+				public DataTuple pull(){
+					return null;
+				}
+				@Override
+				public ArrayList<DataTuple> pull_from_barrier(){
+					return null;
+				}
+			};
+			@Override
+			public DataStructureI getUniqueDso(){
+				return dso;
+			}
+		};
+		fixture = new IncomingDataSelector(owner, new HashMap<String, Integer>(), dsa);
+		Thread t = new Thread(fixture, "incomingDataSelectorT");
+		t.setDaemon(true);
+		t.start();
+
+		k = new Kryo();
+		k.register(ArrayList.class, new ArrayListSerializer());
+		k.register(Payload.class);
+		k.register(TuplePayload.class, new TuplePayloadSerializer());
+		k.register(BatchTuplePayload.class, new BatchTuplePayloadSerializer());
+		k.register(TupleSchema.class);
+		k.register(long[].class);
+		k.register(Object[].class);
+	}
+
+	/**
+	 * Perform post-test clean-up.
+	 *
+	 * @throws Exception
+	 *         if the clean-up fails for some reason
+	 */
+	protected void tearDown()
+		throws Exception {
+		super.tearDown();
+		for(Socket s : upstreams){
+			s.close();
+		}
+		server.close();
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(IncomingDataSelectorTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new IncomingDataSelectorTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
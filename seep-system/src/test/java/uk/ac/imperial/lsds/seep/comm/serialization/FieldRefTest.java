@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import junit.framework.*;
+
+/**
+ * The class <code>FieldRefTest</code> contains tests for the class <code>{@link FieldRef}</code>.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class FieldRefTest extends TestCase {
+	
+	private Map<String, Integer> mapper;
+	
+	/**
+	 * Run the FieldRef resolve(Map<String,Integer>,String) method test.
+	 *
+	 * @throws Exception
+	 */
+	public void testResolve_1()
+		throws Exception {
+
+		FieldRef<Long> result = FieldRef.resolve(mapper, "ts");
+
+		assertNotNull(result);
+		assertEquals("ts", result.getAttribute());
+		assertEquals(1, result.getIndex());
+	}
+
+	/**
+	 * Run the FieldRef resolve(Map<String,Integer>,String) method test with an undeclared attribute.
+	 *
+	 * @throws Exception
+	 */
+	public void testResolve_2()
+		throws Exception {
+		boolean thrown = false;
+
+		try{
+			FieldRef.resolve(mapper, "undeclared");
+		}
+		catch(IllegalArgumentException iae){
+			thrown = true;
+		}
+
+		assertTrue(thrown);
+	}
+
+	/**
+	 * Run the DataTuple getters that take a FieldRef.
+	 *
+	 * @throws Exception
+	 */
+	public void testDataTupleAccess_1()
+		throws Exception {
+		DataTuple fixture = new DataTuple(mapper, new TuplePayload()).newTuple(7, 100L, "name", 0.5f);
+		FieldRef<Integer> id = FieldRef.resolve(mapper, "id");
+		FieldRef<Long> ts = FieldRef.resolve(mapper, "ts");
+		FieldRef<String> name = FieldRef.resolve(mapper, "name");
+		FieldRef<Float> value = FieldRef.resolve(mapper, "value");
+
+		assertEquals(7, fixture.getInt(id));
+		assertEquals(100L, fixture.getLong(ts));
+		assertEquals("name", fixture.getString(name));
+		assertEquals(0.5f, fixture.getFloat(value), 0.0f);
+		assertEquals(fixture.getInt("id"), (Integer)fixture.getInt(id));
+	}
+
+	/**
+	 * Perform pre-test initialization.
+	 *
+	 * @throws Exception
+	 *         if the initialization fails for some reason
+	 *
+	 * @see TestCase#setUp()
+	 */
+	protected void setUp()
+		throws Exception {
+		super.setUp();
+		mapper = new HashMap<String, Integer>();
+		mapper.put("id", 0);
+		mapper.put("ts", 1);
+		mapper.put("name", 2);
+		mapper.put("value", 3);
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(FieldRefTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new FieldRefTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
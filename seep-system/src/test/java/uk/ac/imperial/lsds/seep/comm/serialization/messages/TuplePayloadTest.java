@@ -36,6 +36,26 @@ public class TuplePayloadTest extends TestCase {
 		assertNotNull(result);
 	}
 
+	/**
+	 * Run the TuplePayload copy() method test. Changing the copy must not change the original.
+	 *
+	 * @throws Exception
+	 */
+	public void testCopy_1()
+		throws Exception {
+		Object[] values = new Object[]{1, "a"};
+		TuplePayload fixture = new TuplePayload();
+		TupleSchema.forValues(values).compile(fixture, values);
+		fixture.timestamp = 10L;
+
+		TuplePayload result = fixture.copy();
+		result.timestamp = 20L;
+
+		assertEquals(10L, fixture.timestamp);
+		assertSame(fixture.schema, result.schema);
+		assertEquals(fixture.toString(), result.toString());
+	}
+
 	/**
 	 * Run the String toString() method test.
 	 *
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization.messages;
+
+import junit.framework.*;
+
+/**
+ * The class <code>TupleSchemaTest</code> contains tests for the class <code>{@link TupleSchema}</code>.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class TupleSchemaTest extends TestCase {
+	/**
+	 * Run the TupleSchema forValues(Object[]) method test.
+	 *
+	 * @throws Exception
+	 */
+	public void testForValues_1()
+		throws Exception {
+		Object[] values = new Object[]{1, 2L, "three", 4.0f};
+
+		TupleSchema result = TupleSchema.forValues(values);
+
+		assertNotNull(result);
+		assertEquals(4, result.size());
+		assertEquals(3, result.getNumFixed());
+		assertEquals(1, result.getNumVariable());
+		assertEquals(TupleSchema.Type.VARIABLE, result.typeOf(2));
+		assertTrue(result.getSchemaId() != 0);
+		assertSame(result, TupleSchema.forValues(new Object[]{5, 6L, "seven", 8.0f}));
+		assertSame(result, TupleSchema.forId(result.getSchemaId()));
+	}
+
+	/**
+	 * Run the TupleSchema forValues(Object[]) method test with no values.
+	 *
+	 * @throws Exception
+	 */
+	public void testForValues_2()
+		throws Exception {
+
+		TupleSchema result = TupleSchema.forValues(new Object[0]);
+
+		assertEquals(null, result);
+	}
+
+	/**
+	 * Run the TupleSchema forTypes(Type[]) method test with schemas of different shapes.
+	 *
+	 * @throws Exception
+	 */
+	public void testForTypes_1()
+		throws Exception {
+		TupleSchema.Type[] intLong = new TupleSchema.Type[]{TupleSchema.Type.INT, TupleSchema.Type.LONG};
+		TupleSchema.Type[] longInt = new TupleSchema.Type[]{TupleSchema.Type.LONG, TupleSchema.Type.INT};
+
+		TupleSchema first = TupleSchema.forTypes(intLong);
+		TupleSchema second = TupleSchema.forTypes(longInt);
+
+		assertTrue(first.getSchemaId() != second.getSchemaId());
+		assertSame(first, TupleSchema.forTypes(intLong));
+		assertSame(first, TupleSchema.forId(first.getSchemaId()));
+		assertSame(second, TupleSchema.forId(second.getSchemaId()));
+		assertEquals(null, TupleSchema.forId(0));
+	}
+
+	/**
+	 * Run the void compile(TuplePayload,Object[]) method test.
+	 *
+	 * @throws Exception
+	 */
+	public void testCompile_1()
+		throws Exception {
+		Object[] values = new Object[]{-7, Long.MAX_VALUE, 'c', true, 2.5d, null, (short)3, (byte)-1};
+		TupleSchema fixture = TupleSchema.forValues(values);
+		TuplePayload tp = new TuplePayload();
+
+		fixture.compile(tp, values);
+
+		assertTrue(tp.isCompiled());
+		assertEquals(null, tp.attrValues);
+		assertEquals(fixture.getSchemaId(), tp.schemaId);
+		assertEquals(values.length, tp.size());
+		for(int i = 0; i < values.length; i++){
+			assertEquals(values[i], fixture.value(tp, i));
+		}
+		assertEquals(-7, (int)fixture.rawValue(tp, 0));
+	}
+
+	/**
+	 * Run the String toString() method test on a compiled payload.
+	 *
+	 * @throws Exception
+	 */
+	public void testToString_1()
+		throws Exception {
+		Object[] values = new Object[]{1, "a"};
+		TuplePayload tp = new TuplePayload();
+		TupleSchema.forValues(values).compile(tp, values);
+
+		String result = tp.toString();
+
+		assertEquals("VAL 1 a ", result);
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(TupleSchemaTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new TupleSchemaTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization.serializers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TupleSchema;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import junit.framework.*;
+
+/**
+ * The class <code>BatchTuplePayloadSerializerTest</code> contains tests for the class <code>{@link BatchTuplePayloadSerializer}</code>.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class BatchTuplePayloadSerializerTest extends TestCase {
+
+	private Kryo kryo;
+
+	/**
+	 * Run a write/read round trip of a batch mixing compiled and boxed tuples.
+	 *
+	 * @throws Exception
+	 */
+	public void testRoundTrip_1()
+		throws Exception {
+		BatchTuplePayload batch = new BatchTuplePayload();
+		batch.addTuple(compiled(1000L, 1, -2L, "a", 0.5f));
+		batch.addTuple(compiled(1003L, 7, 9L, null, -1.5f));
+		batch.addTuple(compiled(1004L, 'c', true, 2.5d));
+		TuplePayload boxed = new TuplePayload();
+		boxed.timestamp = 1001L;
+		boxed.attrValues = new Payload(3, "b");
+		batch.addTuple(boxed);
+
+		BatchTuplePayload result = roundTrip(batch);
+
+		assertEquals(batch.size(), result.size());
+		assertEquals(batch.batchSize, result.batchSize);
+		assertEquals(batch.outputTs, result.outputTs);
+		for(int i = 0; i < batch.size(); i++){
+			TuplePayload expected = batch.getTuple(i);
+			TuplePayload actual = result.getTuple(i);
+			assertEquals(expected.timestamp, actual.timestamp);
+			assertEquals(expected.instrumentation_ts, actual.instrumentation_ts);
+			assertEquals(expected.isCompiled(), actual.isCompiled());
+			assertEquals(expected.toString(), actual.toString());
+		}
+		assertSame(batch.getTuple(0).schema, result.getTuple(1).schema);
+	}
+
+	/**
+	 * Run a write/read round trip of a barrier.
+	 *
+	 * @throws Exception
+	 */
+	public void testRoundTrip_2()
+		throws Exception {
+		BatchTuplePayload barrier = new BatchTuplePayload();
+		barrier.barrier = 281474976710656L;
+
+		BatchTuplePayload result = roundTrip(barrier);
+
+		assertTrue(result.isBarrier());
+		assertEquals(281474976710656L, result.barrier);
+		assertEquals(0, result.size());
+		assertFalse(roundTrip(new BatchTuplePayload()).isBarrier());
+	}
+
+	/**
+	 * Run the write method test, checking that tuples of the same schema do not repeat it.
+	 *
+	 * @throws Exception
+	 */
+	public void testWrite_1()
+		throws Exception {
+		BatchTuplePayload one = new BatchTuplePayload();
+		one.addTuple(compiled(1000L, 1, 2L));
+		BatchTuplePayload two = new BatchTuplePayload();
+		two.addTuple(compiled(1000L, 1, 2L));
+		two.addTuple(compiled(1000L, 1, 2L));
+
+		Output output = new Output(1024);
+		kryo.writeObject(output, one);
+		int oneSize = output.position();
+		output.clear();
+		kryo.writeObject(output, two);
+		int twoSize = output.position();
+
+		// timestamps delta, instrumentation delta, schema tag, block length, int and long
+		assertEquals(oneSize + 6, twoSize);
+	}
+
+	/**
+	 * Run a round trip with lazy decoding, checking that received tuples are decoded on access and forwarded unchanged.
+	 *
+	 * @throws Exception
+	 */
+	public void testLazyDecoding_1()
+		throws Exception {
+		kryo = newKryo(true);
+		BatchTuplePayload batch = new BatchTuplePayload();
+		batch.addTuple(compiled(1000L, 1, "a", 2L));
+		batch.addTuple(compiled(1001L, 3, "b", 4L));
+		Output output = new Output(1024);
+		kryo.writeObject(output, batch);
+		byte[] sent = output.toBytes();
+
+		BatchTuplePayload result = kryo.readObject(new Input(sent), BatchTuplePayload.class);
+		TuplePayload tp = result.getTuple(1);
+
+		assertTrue(tp.isRaw());
+		assertEquals(null, tp.fixedValues);
+		assertEquals(4L, tp.schema.rawValue(tp, 2));
+		assertEquals(null, tp.varValues);
+		assertEquals("b", tp.schema.value(tp, 1));
+
+		output.clear();
+		kryo.writeObject(output, result);
+		assertTrue(Arrays.equals(sent, output.toBytes()));
+	}
+
+	/**
+	 * Run a round trip without lazy decoding, checking that received tuples are decoded eagerly.
+	 *
+	 * @throws Exception
+	 */
+	public void testLazyDecoding_2()
+		throws Exception {
+		kryo = newKryo(false);
+		BatchTuplePayload batch = new BatchTuplePayload();
+		batch.addTuple(compiled(1000L, 1, "a", 2L));
+
+		BatchTuplePayload result = roundTrip(batch);
+		TuplePayload tp = result.getTuple(0);
+
+		assertFalse(tp.isRaw());
+		assertEquals(3, tp.fixedValues.length + tp.varValues.length);
+		assertEquals(2L, tp.schema.rawValue(tp, 2));
+		assertEquals("a", tp.schema.value(tp, 1));
+	}
+
+	private Kryo newKryo(boolean lazyDecoding){
+		Kryo k = new Kryo();
+		k.register(ArrayList.class, new ArrayListSerializer());
+		k.register(Payload.class);
+		k.register(TuplePayload.class, new TuplePayloadSerializer(lazyDecoding));
+		k.register(BatchTuplePayload.class, new BatchTuplePayloadSerializer(lazyDecoding));
+		return k;
+	}
+
+	private TuplePayload compiled(long ts, Object... values){
+		TuplePayload tp = new TuplePayload();
+		TupleSchema.forValues(values).compile(tp, values);
+		tp.timestamp = ts;
+		tp.instrumentation_ts = ts;
+		return tp;
+	}
+
+	private BatchTuplePayload roundTrip(BatchTuplePayload batch){
+		Output output = new Output(1024);
+		kryo.writeObject(output, batch);
+		Input input = new Input(output.toBytes());
+		return kryo.readObject(input, BatchTuplePayload.class);
+	}
+
+	/**
+	 * Perform pre-test initialization.
+	 *
+	 * @throws Exception
+	 *         if the initialization fails for some reason
+	 *
+	 * @see TestCase#setUp()
+	 */
+	protected void setUp()
+		throws Exception {
+		super.setUp();
+		kryo = newKryo(false);
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(BatchTuplePayloadSerializerTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new BatchTuplePayloadSerializerTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
@@ -59,7 +59,9 @@ public class DefaultMetricsReaderTest {
                 MetricName.HEAP_SIZE,
                 MetricName.HEAP_UTILIZATION,
                 MetricName.OPERATOR_LATENCY,
-                MetricName.QUEUE_LENGTH));
+                MetricName.QUEUE_LENGTH,
+                MetricName.BACKPRESSURE_TIME,
+                MetricName.REPLAY_BYTES));
     }
     
     @Test
@@ -124,4 +126,41 @@ public class DefaultMetricsReaderTest {
         assertThat(value.getUnit(), equalTo(MetricUnit.TUPLES));
         assertThat(value.getValue(), greaterThanOrEqualTo(0.0));
     }
+    
+    @Test
+    public void testReadBackpressureTime() {
+        System.out.println("testReadBackpressureTime");
+        
+        DefaultMetricsReader reader = new DefaultMetricsReader();
+        reader.readValue(MetricName.BACKPRESSURE_TIME);
+        DefaultMetricsNotifier.notifyThat(1).backpressure(30);
+        DefaultMetricsNotifier.notifyThat(2).backpressure(12);
+        MetricValue value = reader.readValue(MetricName.BACKPRESSURE_TIME);
+        
+        assertThat(value, notNullValue());
+        assertThat(value.getUnit(), equalTo(MetricUnit.MILLISECONDS));
+        assertThat(value.getValue(), equalTo(42.0));
+        
+        // Time is reported once, each read covers the time since the last one
+        value = reader.readValue(MetricName.BACKPRESSURE_TIME);
+        assertThat(value.getValue(), equalTo(0.0));
+    }
+    
+    @Test
+    public void testReadReplayBytes() {
+        System.out.println("testReadReplayBytes");
+        
+        DefaultMetricsReader reader = new DefaultMetricsReader();
+        reader.readValue(MetricName.REPLAY_BYTES);
+        DefaultMetricsNotifier.notifyThat(1).replayed(1000);
+        DefaultMetricsNotifier.notifyThat(1).replayed(24);
+        MetricValue value = reader.readValue(MetricName.REPLAY_BYTES);
+        
+        assertThat(value, notNullValue());
+        assertThat(value.getUnit(), equalTo(MetricUnit.BYTES));
+        assertThat(value.getValue(), equalTo(1024.0));
+        
+        value = reader.readValue(MetricName.REPLAY_BYTES);
+        assertThat(value.getValue(), equalTo(0.0));
+    }
 }
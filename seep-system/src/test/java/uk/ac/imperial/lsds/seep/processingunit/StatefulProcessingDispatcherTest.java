@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.processingunit;
+
+import junit.framework.*;
+
+/**
+ * The class <code>StatefulProcessingDispatcherTest</code> contains tests for the class <code>{@link StatefulProcessingDispatcher}</code>.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class StatefulProcessingDispatcherTest extends TestCase {
+	/**
+	 * Run the int shardOf(int,int,int,int) method test, with keys within the bounds.
+	 *
+	 * @throws Exception
+	 */
+	public void testShardOf_1()
+		throws Exception {
+
+		assertEquals(0, StatefulProcessingDispatcher.shardOf(0, 0, 99, 4));
+		assertEquals(0, StatefulProcessingDispatcher.shardOf(24, 0, 99, 4));
+		assertEquals(1, StatefulProcessingDispatcher.shardOf(25, 0, 99, 4));
+		assertEquals(3, StatefulProcessingDispatcher.shardOf(99, 0, 99, 4));
+		assertEquals(0, StatefulProcessingDispatcher.shardOf(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, 4));
+		assertEquals(3, StatefulProcessingDispatcher.shardOf(Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, 4));
+	}
+
+	/**
+	 * Run the int shardOf(int,int,int,int) method test, with keys out of the bounds.
+	 *
+	 * @throws Exception
+	 */
+	public void testShardOf_2()
+		throws Exception {
+
+		assertEquals(1, StatefulProcessingDispatcher.shardOf(101, 0, 99, 4));
+		assertEquals(3, StatefulProcessingDispatcher.shardOf(-1, 0, 99, 4));
+	}
+
+	/**
+	 * Run the int keyOf(Object) method test.
+	 *
+	 * @throws Exception
+	 */
+	public void testKeyOf_1()
+		throws Exception {
+
+		assertEquals(42, StatefulProcessingDispatcher.keyOf(42));
+		assertEquals(7, StatefulProcessingDispatcher.keyOf(7L));
+		assertEquals("key".hashCode(), StatefulProcessingDispatcher.keyOf("key"));
+		assertEquals(0, StatefulProcessingDispatcher.keyOf(null));
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(StatefulProcessingDispatcherTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new StatefulProcessingDispatcherTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
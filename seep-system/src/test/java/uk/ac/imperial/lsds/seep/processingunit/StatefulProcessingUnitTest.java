@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.processingunit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import uk.ac.imperial.lsds.seep.api.largestateimpls.ConcurrentSeepMap;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.FieldRef;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
+import uk.ac.imperial.lsds.seep.infrastructure.NodeManager;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.slave.MonitorSlave;
+import uk.ac.imperial.lsds.seep.operator.InputDataIngestionMode;
+import uk.ac.imperial.lsds.seep.operator.Operator;
+import uk.ac.imperial.lsds.seep.operator.OperatorCode;
+import uk.ac.imperial.lsds.seep.runtimeengine.CoreRE;
+import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureAdapter;
+import uk.ac.imperial.lsds.seep.state.StateWrapper;
+
+import junit.framework.*;
+
+/**
+ * The class <code>StatefulProcessingUnitTest</code> contains tests for the class <code>{@link StatefulProcessingUnit}</code>.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class StatefulProcessingUnitTest extends TestCase {
+
+	private static class SharedCode{
+		private final int threshold = 10;
+		private final String name = "op";
+		Object state;
+	}
+
+	private static class MutableCode extends SharedCode{
+		private int count = 0;
+	}
+
+	private static class CollectionCode{
+		private final HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+	}
+
+	@SuppressWarnings("serial")
+	private static class CountCode implements OperatorCode{
+		static final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+		private final ConcurrentSeepMap<Integer, Integer> counts;
+		private FieldRef<Integer> key;
+
+		CountCode(ConcurrentSeepMap<Integer, Integer> counts){
+			this.counts = counts;
+		}
+
+		void setUp(Map<String, Integer> idxMapper){
+			key = FieldRef.resolve(idxMapper, "key");
+		}
+
+		@Override
+		public void setUp(){
+		}
+
+		@Override
+		public void processData(DataTuple data){
+			threads.add(Thread.currentThread().getName());
+			int k = (Integer) data.getValue(key);
+			Integer count = (Integer) counts.get(k);
+			counts.put(k, count == null ? 1 : count + 1);
+		}
+
+		@Override
+		public void processData(List<DataTuple> dataList){
+			for(DataTuple data : dataList){
+				processData(data);
+			}
+		}
+	}
+
+	/**
+	 * Run the String findMutableField(Object,Object) method test with an operator that only keeps constants and its state.
+	 *
+	 * @throws Exception
+	 */
+	public void testFindMutableField_1()
+		throws Exception {
+		SharedCode code = new SharedCode();
+		Object stateImpl = new Object();
+		code.state = stateImpl;
+
+		assertEquals(null, StatefulProcessingUnit.findMutableField(code, stateImpl));
+		assertNotNull(StatefulProcessingUnit.findMutableField(code, new Object()));
+	}
+
+	/**
+	 * Run the String findMutableField(Object,Object) method test with operators that keep their own mutable fields.
+	 *
+	 * @throws Exception
+	 */
+	public void testFindMutableField_2()
+		throws Exception {
+		MutableCode code = new MutableCode();
+		Object stateImpl = new Object();
+		code.state = stateImpl;
+
+		assertTrue(StatefulProcessingUnit.findMutableField(code, stateImpl).endsWith("MutableCode.count"));
+		assertTrue(StatefulProcessingUnit.findMutableField(new CollectionCode(), stateImpl).endsWith("CollectionCode.counts"));
+	}
+
+	/**
+	 * Run the String findMutableField(Object,Object) method test with an operator that resolves its FieldRefs in setUp.
+	 *
+	 * @throws Exception
+	 */
+	public void testFindMutableField_3()
+		throws Exception {
+		ConcurrentSeepMap<Integer, Integer> counts = new ConcurrentSeepMap<Integer, Integer>();
+		CountCode code = new CountCode(counts);
+		Map<String, Integer> idxMapper = new HashMap<String, Integer>();
+		idxMapper.put("key", 0);
+		code.setUp(idxMapper);
+
+		assertEquals(null, StatefulProcessingUnit.findMutableField(code, counts));
+	}
+
+	/**
+	 * Run the void launchMultiCoreMechanism(CoreRE,DataStructureAdapter) method test with a thread safe state that is not Partitionable,
+	 * checking that the workers process the input.
+	 *
+	 * @throws Exception
+	 */
+	public void testLaunchMultiCoreMechanism_1()
+		throws Exception {
+		if(NodeManager.monitorSlave == null){
+			NodeManager.monitorSlave = new MonitorSlave(0, "localhost", 0, 1);
+		}
+		CoreRE owner = new CoreRE(null, null){
+			@Override
+			public boolean checkSystemStatus(){
+				return true;
+			}
+		};
+		StatefulProcessingUnit pu = new StatefulProcessingUnit(owner, true);
+		ConcurrentSeepMap<Integer, Integer> counts = new ConcurrentSeepMap<Integer, Integer>();
+		CountCode code = new CountCode(counts);
+		Map<String, Integer> idxMapper = new HashMap<String, Integer>();
+		idxMapper.put("key", 0);
+		code.setUp(idxMapper);
+		List<String> attributes = new ArrayList<String>();
+		attributes.add("key");
+		Operator op = Operator.getStatefulOperator(1, code, new StateWrapper(1, 1000, counts), attributes);
+		op.getOpContext().setKeyAttribute("key");
+		pu.newOperatorInstantiation(op);
+		DataStructureAdapter dsa = new DataStructureAdapter();
+		Map<Integer, InputDataIngestionMode> iimMap = new HashMap<Integer, InputDataIngestionMode>();
+		iimMap.put(0, InputDataIngestionMode.ONE_AT_A_TIME);
+		dsa.setUp(iimMap, op.getOpContext());
+
+		pu.launchMultiCoreMechanism(owner, dsa);
+		assertTrue(pu.isMultiCoreEnabled());
+		// Negative and positive keys, so that they are split when there is more than one worker
+		for(int round = 0; round < 3; round++){
+			for(int i = -50; i < 50; i++){
+				TuplePayload payload = new TuplePayload();
+				payload.attrValues = new Payload();
+				payload.attrValues.add(i);
+				dsa.getUniqueDso().push(new DataTuple(idxMapper, payload));
+			}
+		}
+		// -1 and 49 are the last keys of each half
+		for(int i = 0; i < 100 && !(Integer.valueOf(3).equals(counts.get(-1)) && Integer.valueOf(3).equals(counts.get(49))); i++){
+			Thread.sleep(20);
+		}
+
+		for(int i = -50; i < 50; i++){
+			assertEquals(Integer.valueOf(3), counts.get(i));
+		}
+		assertFalse(CountCode.threads.isEmpty());
+		for(String thread : CountCode.threads){
+			assertTrue(thread.startsWith("statefulWorkerT-"));
+		}
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(StatefulProcessingUnitTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new StatefulProcessingUnitTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
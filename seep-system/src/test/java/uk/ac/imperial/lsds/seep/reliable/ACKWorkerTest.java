@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.reliable;
+
+import junit.framework.*;
+
+/**
+ * The class <code>ACKWorkerTest</code> contains tests for the class <code>{@link ACKWorker}</code>.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class ACKWorkerTest extends TestCase {
+	/**
+	 * Run the long nextInterval(long,long,long,long,long) method test, with the interval following the input rate.
+	 *
+	 * @throws Exception
+	 */
+	public void testNextInterval_1()
+		throws Exception {
+
+		// 10000 tuples in 1000 ms, 5000 tuples come in 500 ms
+		assertEquals(500, ACKWorker.nextInterval(1000, 10000, 5000, 100, 3000));
+		// 100 tuples in 1000 ms, it would take 50 s
+		assertEquals(3000, ACKWorker.nextInterval(1000, 100, 5000, 100, 3000));
+		// 1000000 tuples in 1000 ms, it would take 5 ms
+		assertEquals(100, ACKWorker.nextInterval(1000, 1000000, 5000, 100, 3000));
+	}
+
+	/**
+	 * Run the long nextInterval(long,long,long,long,long) method test, with no tuples received.
+	 *
+	 * @throws Exception
+	 */
+	public void testNextInterval_2()
+		throws Exception {
+
+		assertEquals(200, ACKWorker.nextInterval(100, 0, 5000, 100, 3000));
+		assertEquals(3000, ACKWorker.nextInterval(2000, 0, 5000, 100, 3000));
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(ACKWorkerTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new ACKWorkerTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
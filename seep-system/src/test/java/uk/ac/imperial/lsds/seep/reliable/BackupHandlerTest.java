@@ -10,17 +10,12 @@
  ******************************************************************************/
 package uk.ac.imperial.lsds.seep.reliable;
 
-import java.io.File;
 import java.net.InetAddress;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.nio.channels.FileChannel;
-import java.nio.file.OpenOption;
-import java.nio.file.Path;
 import uk.ac.imperial.lsds.seep.infrastructure.WorkerNodeDescription;
 import uk.ac.imperial.lsds.seep.infrastructure.dynamiccodedeployer.RuntimeClassLoader;
 import uk.ac.imperial.lsds.seep.runtimeengine.CoreRE;
-import java.util.ArrayList;
 import junit.framework.*;
 
 /**
@@ -55,32 +50,6 @@ public class BackupHandlerTest extends TestCase {
 		assertNotNull(result);
 	}
 
-	/**
-	 * Run the void addBackupHandler(int,FileChannel,File) method test.
-	 *
-	 * @throws Exception
-	 *
-	 * @generatedBy CodePro at 18/10/13 19:10
-	 */
-	public void testAddBackupHandler_1()
-		throws Exception {
-		BackupHandler fixture = new BackupHandler(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), 1);
-		fixture.setGoOn(true);
-		int opId = 1;
-		FileChannel fc = FileChannel.open((Path) null, new OpenOption[] {null});
-		File f = new File("");
-
-		fixture.addBackupHandler(opId, fc, f);
-
-		// add additional test code here
-		// An unexpected exception was thrown in user code while executing this test:
-		//    java.lang.SecurityException: Cannot write to files while generating test cases
-		//       at com.instantiations.assist.eclipse.junit.CodeProJUnitSecurityManager.checkWrite(CodeProJUnitSecurityManager.java:76)
-		//       at java.io.File.mkdir(File.java:1237)
-		//       at java.io.File.mkdirs(File.java:1266)
-		//       at uk.ac.imperial.lsds.seep.reliable.BackupHandler.<init>(BackupHandler.java:83)
-	}
-
 	/**
 	 * Run the void closeSession(int,InetAddress) method test.
 	 *
@@ -353,31 +322,6 @@ public class BackupHandlerTest extends TestCase {
 		assertNotNull(result);
 	}
 
-	/**
-	 * Run the ArrayList<File> getSessionFileHandlers(int) method test.
-	 *
-	 * @throws Exception
-	 *
-	 * @generatedBy CodePro at 18/10/13 19:10
-	 */
-	public void testGetSessionFileHandlers_1()
-		throws Exception {
-		BackupHandler fixture = new BackupHandler(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), 1);
-		fixture.setGoOn(true);
-		int opId = 1;
-
-		ArrayList<File> result = fixture.getSessionFileHandlers(opId);
-
-		// add additional test code here
-		// An unexpected exception was thrown in user code while executing this test:
-		//    java.lang.SecurityException: Cannot write to files while generating test cases
-		//       at com.instantiations.assist.eclipse.junit.CodeProJUnitSecurityManager.checkWrite(CodeProJUnitSecurityManager.java:76)
-		//       at java.io.File.mkdir(File.java:1237)
-		//       at java.io.File.mkdirs(File.java:1266)
-		//       at uk.ac.imperial.lsds.seep.reliable.BackupHandler.<init>(BackupHandler.java:83)
-		assertNotNull(result);
-	}
-
 	/**
 	 * Run the void openSession(int,InetAddress) method test.
 	 *
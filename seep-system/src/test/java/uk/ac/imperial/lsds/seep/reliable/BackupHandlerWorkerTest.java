@@ -56,17 +56,17 @@ public class BackupHandlerWorkerTest extends TestCase {
 	}
 
 	/**
-	 * Run the void memoryMappedFile() method test.
+	 * Run the void storeChunk() method test.
 	 *
 	 * @throws Exception
 	 *
 	 * @generatedBy CodePro at 18/10/13 19:00
 	 */
-	public void testMemoryMappedFile_1()
+	public void testStoreChunk_1()
 		throws Exception {
 		BackupHandlerWorker fixture = new BackupHandlerWorker(1, new Socket(), new BackupHandler(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), 1), "", 1);
 
-		fixture.memoryMappedFile();
+		fixture.storeChunk();
 
 		// add additional test code here
 		// An unexpected exception was thrown in user code while executing this test:
@@ -78,17 +78,17 @@ public class BackupHandlerWorkerTest extends TestCase {
 	}
 
 	/**
-	 * Run the void memoryMappedFile() method test.
+	 * Run the void storeChunk() method test.
 	 *
 	 * @throws Exception
 	 *
 	 * @generatedBy CodePro at 18/10/13 19:00
 	 */
-	public void testMemoryMappedFile_2()
+	public void testStoreChunk_2()
 		throws Exception {
 		BackupHandlerWorker fixture = new BackupHandlerWorker(1, new Socket(), new BackupHandler(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), 1), "", 1);
 
-		fixture.memoryMappedFile();
+		fixture.storeChunk();
 
 		// add additional test code here
 		// An unexpected exception was thrown in user code while executing this test:
@@ -100,17 +100,17 @@ public class BackupHandlerWorkerTest extends TestCase {
 	}
 
 	/**
-	 * Run the void memoryMappedFile() method test.
+	 * Run the void storeChunk() method test.
 	 *
 	 * @throws Exception
 	 *
 	 * @generatedBy CodePro at 18/10/13 19:00
 	 */
-	public void testMemoryMappedFile_3()
+	public void testStoreChunk_3()
 		throws Exception {
 		BackupHandlerWorker fixture = new BackupHandlerWorker(1, new Socket(), new BackupHandler(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), 1), "", 1);
 
-		fixture.memoryMappedFile();
+		fixture.storeChunk();
 
 		// add additional test code here
 		// An unexpected exception was thrown in user code while executing this test:
@@ -122,17 +122,17 @@ public class BackupHandlerWorkerTest extends TestCase {
 	}
 
 	/**
-	 * Run the void memoryMappedFile() method test.
+	 * Run the void storeChunk() method test.
 	 *
 	 * @throws Exception
 	 *
 	 * @generatedBy CodePro at 18/10/13 19:00
 	 */
-	public void testMemoryMappedFile_4()
+	public void testStoreChunk_4()
 		throws Exception {
 		BackupHandlerWorker fixture = new BackupHandlerWorker(1, new Socket(), new BackupHandler(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), 1), "", 1);
 
-		fixture.memoryMappedFile();
+		fixture.storeChunk();
 
 		// add additional test code here
 		// An unexpected exception was thrown in user code while executing this test:
@@ -144,17 +144,17 @@ public class BackupHandlerWorkerTest extends TestCase {
 	}
 
 	/**
-	 * Run the void memoryMappedFile() method test.
+	 * Run the void storeChunk() method test.
 	 *
 	 * @throws Exception
 	 *
 	 * @generatedBy CodePro at 18/10/13 19:00
 	 */
-	public void testMemoryMappedFile_5()
+	public void testStoreChunk_5()
 		throws Exception {
 		BackupHandlerWorker fixture = new BackupHandlerWorker(1, new Socket(), new BackupHandler(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), 1), "", 1);
 
-		fixture.memoryMappedFile();
+		fixture.storeChunk();
 
 		// add additional test code here
 		// An unexpected exception was thrown in user code while executing this test:
@@ -166,17 +166,17 @@ public class BackupHandlerWorkerTest extends TestCase {
 	}
 
 	/**
-	 * Run the void memoryMappedFile() method test.
+	 * Run the void storeChunk() method test.
 	 *
 	 * @throws Exception
 	 *
 	 * @generatedBy CodePro at 18/10/13 19:00
 	 */
-	public void testMemoryMappedFile_6()
+	public void testStoreChunk_6()
 		throws Exception {
 		BackupHandlerWorker fixture = new BackupHandlerWorker(1, new Socket(), new BackupHandler(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), 1), "", 1);
 
-		fixture.memoryMappedFile();
+		fixture.storeChunk();
 
 		// add additional test code here
 		// An unexpected exception was thrown in user code while executing this test:
@@ -188,17 +188,17 @@ public class BackupHandlerWorkerTest extends TestCase {
 	}
 
 	/**
-	 * Run the void memoryMappedFile() method test.
+	 * Run the void storeChunk() method test.
 	 *
 	 * @throws Exception
 	 *
 	 * @generatedBy CodePro at 18/10/13 19:00
 	 */
-	public void testMemoryMappedFile_7()
+	public void testStoreChunk_7()
 		throws Exception {
 		BackupHandlerWorker fixture = new BackupHandlerWorker(1, new Socket(), new BackupHandler(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), 1), "", 1);
 
-		fixture.memoryMappedFile();
+		fixture.storeChunk();
 
 		// add additional test code here
 		// An unexpected exception was thrown in user code while executing this test:
@@ -210,17 +210,17 @@ public class BackupHandlerWorkerTest extends TestCase {
 	}
 
 	/**
-	 * Run the void memoryMappedFile() method test.
+	 * Run the void storeChunk() method test.
 	 *
 	 * @throws Exception
 	 *
 	 * @generatedBy CodePro at 18/10/13 19:00
 	 */
-	public void testMemoryMappedFile_8()
+	public void testStoreChunk_8()
 		throws Exception {
 		BackupHandlerWorker fixture = new BackupHandlerWorker(1, new Socket(), new BackupHandler(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), 1), "", 1);
 
-		fixture.memoryMappedFile();
+		fixture.storeChunk();
 
 		// add additional test code here
 		// An unexpected exception was thrown in user code while executing this test:
@@ -232,17 +232,17 @@ public class BackupHandlerWorkerTest extends TestCase {
 	}
 
 	/**
-	 * Run the void memoryMappedFile() method test.
+	 * Run the void storeChunk() method test.
 	 *
 	 * @throws Exception
 	 *
 	 * @generatedBy CodePro at 18/10/13 19:00
 	 */
-	public void testMemoryMappedFile_9()
+	public void testStoreChunk_9()
 		throws Exception {
 		BackupHandlerWorker fixture = new BackupHandlerWorker(1, new Socket(), new BackupHandler(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), 1), "", 1);
 
-		fixture.memoryMappedFile();
+		fixture.storeChunk();
 
 		// add additional test code here
 		// An unexpected exception was thrown in user code while executing this test:
@@ -254,17 +254,17 @@ public class BackupHandlerWorkerTest extends TestCase {
 	}
 
 	/**
-	 * Run the void memoryMappedFile() method test.
+	 * Run the void storeChunk() method test.
 	 *
 	 * @throws Exception
 	 *
 	 * @generatedBy CodePro at 18/10/13 19:00
 	 */
-	public void testMemoryMappedFile_10()
+	public void testStoreChunk_10()
 		throws Exception {
 		BackupHandlerWorker fixture = new BackupHandlerWorker(1, new Socket(), new BackupHandler(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), 1), "", 1);
 
-		fixture.memoryMappedFile();
+		fixture.storeChunk();
 
 		// add additional test code here
 		// An unexpected exception was thrown in user code while executing this test:
@@ -276,17 +276,17 @@ public class BackupHandlerWorkerTest extends TestCase {
 	}
 
 	/**
-	 * Run the void memoryMappedFile() method test.
+	 * Run the void storeChunk() method test.
 	 *
 	 * @throws Exception
 	 *
 	 * @generatedBy CodePro at 18/10/13 19:00
 	 */
-	public void testMemoryMappedFile_11()
+	public void testStoreChunk_11()
 		throws Exception {
 		BackupHandlerWorker fixture = new BackupHandlerWorker(1, new Socket(), new BackupHandler(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), 1), "", 1);
 
-		fixture.memoryMappedFile();
+		fixture.storeChunk();
 
 		// add additional test code here
 		// An unexpected exception was thrown in user code while executing this test:
@@ -298,17 +298,17 @@ public class BackupHandlerWorkerTest extends TestCase {
 	}
 
 	/**
-	 * Run the void memoryMappedFile() method test.
+	 * Run the void storeChunk() method test.
 	 *
 	 * @throws Exception
 	 *
 	 * @generatedBy CodePro at 18/10/13 19:00
 	 */
-	public void testMemoryMappedFile_12()
+	public void testStoreChunk_12()
 		throws Exception {
 		BackupHandlerWorker fixture = new BackupHandlerWorker(1, new Socket(), new BackupHandler(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), 1), "", 1);
 
-		fixture.memoryMappedFile();
+		fixture.storeChunk();
 
 		// add additional test code here
 		// An unexpected exception was thrown in user code while executing this test:
@@ -320,17 +320,17 @@ public class BackupHandlerWorkerTest extends TestCase {
 	}
 
 	/**
-	 * Run the void memoryMappedFile() method test.
+	 * Run the void storeChunk() method test.
 	 *
 	 * @throws Exception
 	 *
 	 * @generatedBy CodePro at 18/10/13 19:00
 	 */
-	public void testMemoryMappedFile_13()
+	public void testStoreChunk_13()
 		throws Exception {
 		BackupHandlerWorker fixture = new BackupHandlerWorker(1, new Socket(), new BackupHandler(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), 1), "", 1);
 
-		fixture.memoryMappedFile();
+		fixture.storeChunk();
 
 		// add additional test code here
 		// An unexpected exception was thrown in user code while executing this test:
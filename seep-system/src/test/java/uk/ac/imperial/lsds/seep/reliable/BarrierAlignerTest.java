@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.reliable;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.runtimeengine.InputQueue;
+import uk.ac.imperial.lsds.seep.runtimeengine.TimestampTracker;
+
+import junit.framework.*;
+
+/**
+ * The class <code>BarrierAlignerTest</code> contains tests for the class <code>{@link BarrierAligner}</code>.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class BarrierAlignerTest extends TestCase {
+
+	private static final int A = 2001;
+	private static final int B = 2002;
+
+	private TimestampTracker incomingTT;
+	private InputQueue queue;
+	private BarrierAligner fixture;
+	private BarrierAligner.Channel channelA;
+	private BarrierAligner.Channel channelB;
+
+	private BarrierAligner.Channel channel(final int opId){
+		return new BarrierAligner.Channel(){
+			@Override
+			public void push(BatchTuplePayload batch){
+				for(TuplePayload tp : batch.batch){
+					incomingTT.set(opId, tp.timestamp);
+					queue.push(new DataTuple(null, tp));
+				}
+			}
+		};
+	}
+
+	private static BatchTuplePayload data(long ts){
+		TuplePayload tp = new TuplePayload();
+		tp.timestamp = ts;
+		BatchTuplePayload batch = new BatchTuplePayload();
+		batch.addTuple(tp);
+		return batch;
+	}
+
+	private static BatchTuplePayload barrier(long epoch){
+		BatchTuplePayload batch = new BatchTuplePayload();
+		batch.barrier = epoch;
+		return batch;
+	}
+
+	private void offer(int opId, BatchTuplePayload batch, BarrierAligner.Channel channel){
+		if(!fixture.offer(opId, batch, channel, queue)){
+			channel.push(batch);
+		}
+	}
+
+	/**
+	 * Run the boolean offer(int,BatchTuplePayload,Channel,DataStructureI) method test, with the tuples after the barrier of a channel
+	 * held until the barrier comes through the other one.
+	 *
+	 * @throws Exception
+	 */
+	public void testOffer_1()
+		throws Exception {
+		offer(A, data(10), channelA);
+		offer(A, barrier(5), channelA);
+		assertTrue(fixture.offer(A, data(20), channelA, queue));
+		offer(B, data(15), channelB);
+		offer(B, barrier(5), channelB);
+
+		assertEquals(10, queue.pull().getPayload().timestamp);
+		assertEquals(15, queue.pull().getPayload().timestamp);
+		DataTuple dt = queue.pull();
+		assertTrue(dt instanceof BarrierTuple);
+		BarrierTuple barrier = (BarrierTuple)dt;
+		assertEquals(5, barrier.getEpoch());
+		assertEquals(10, barrier.getTs().get(A));
+		assertEquals(15, barrier.getTs().get(B));
+		assertEquals(20, queue.pull().getPayload().timestamp);
+		assertEquals(5, fixture.getLastCompleted());
+		assertFalse(fixture.offer(A, data(30), channelA, queue));
+	}
+
+	/**
+	 * Run the boolean offer(int,BatchTuplePayload,Channel,DataStructureI) method test, with an alignment abandoned by a newer barrier.
+	 *
+	 * @throws Exception
+	 */
+	public void testOffer_2()
+		throws Exception {
+		offer(A, barrier(5), channelA);
+		offer(A, data(10), channelA);
+		offer(A, barrier(6), channelA);
+
+		// The held tuple is delivered and the late barrier of B dropped
+		assertEquals(10, queue.pull().getPayload().timestamp);
+		assertTrue(fixture.offer(B, barrier(5), channelB, queue));
+		assertFalse(fixture.offer(B, data(12), channelB, queue));
+		assertTrue(fixture.offer(A, data(20), channelA, queue));
+		offer(B, barrier(6), channelB);
+
+		DataTuple dt = queue.pull();
+		assertTrue(dt instanceof BarrierTuple);
+		assertEquals(6, ((BarrierTuple)dt).getEpoch());
+		assertEquals(20, queue.pull().getPayload().timestamp);
+		assertEquals(6, fixture.getLastCompleted());
+	}
+
+	/**
+	 * Perform pre-test initialization.
+	 *
+	 * @throws Exception
+	 *         if the initialization fails for some reason
+	 */
+	protected void setUp()
+		throws Exception {
+		super.setUp();
+		incomingTT = new TimestampTracker();
+		queue = new InputQueue(100);
+		fixture = new BarrierAligner(incomingTT, 2);
+		channelA = channel(A);
+		channelB = channel(B);
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(BarrierAlignerTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new BarrierAlignerTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
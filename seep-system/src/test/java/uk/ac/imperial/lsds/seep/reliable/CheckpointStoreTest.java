@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.reliable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import junit.framework.*;
+
+/**
+ * The class <code>CheckpointStoreTest</code> contains tests for the class <code>{@link CheckpointStore}</code>.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class CheckpointStoreTest extends TestCase {
+
+	private File dir;
+	private CheckpointStore fixture;
+
+	private static byte[] chunk(int value){
+		byte[] data = new byte[10];
+		for(int i = 0; i < data.length; i++){
+			data[i] = (byte)value;
+		}
+		return data;
+	}
+
+	/**
+	 * Run the List<ByteBuffer> chunks(int) method test, with chunks appended out of order in several segments.
+	 *
+	 * @throws Exception
+	 */
+	public void testChunks_1()
+		throws Exception {
+		fixture.openSession(1, "a");
+		fixture.append(1, "a", 1, chunk(1), 10);
+		fixture.append(1, "a", 0, chunk(0), 10);
+		fixture.append(1, "a", 2, chunk(2), 10);
+
+		assertEquals(0, fixture.chunks(1).size());
+		fixture.commitSession(1, "a");
+		List<ByteBuffer> result = fixture.chunks(1);
+
+		assertEquals("a", fixture.getCommittedSession(1));
+		assertEquals(3, result.size());
+		for(int i = 0; i < 3; i++){
+			assertEquals(10, result.get(i).remaining());
+			assertEquals(i, result.get(i).get(9));
+		}
+		assertTrue(new File(dir, "OP_1_a_2.seg").exists());
+		assertTrue(new File(dir, "OP_1_a.manifest").exists());
+	}
+
+	/**
+	 * Run the void commitSession(int,String) method test, with the previous session deleted.
+	 *
+	 * @throws Exception
+	 */
+	public void testCommitSession_1()
+		throws Exception {
+		fixture.openSession(1, "a");
+		fixture.append(1, "a", 0, chunk(0), 10);
+		fixture.commitSession(1, "a");
+		fixture.openSession(1, "b");
+		fixture.append(1, "b", 0, chunk(5), 10);
+
+		// Until b is committed, a is the session restored
+		assertEquals(0, fixture.chunks(1).get(0).get(0));
+		fixture.commitSession(1, "b");
+		assertEquals(5, fixture.chunks(1).get(0).get(0));
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while(new File(dir, "OP_1_a_0.seg").exists() && System.currentTimeMillis() < deadline){
+			Thread.sleep(10);
+		}
+		assertFalse(new File(dir, "OP_1_a_0.seg").exists());
+		assertFalse(new File(dir, "OP_1_a.manifest").exists());
+	}
+
+	/**
+	 * Run the List<ByteBuffer> chunks(int) method test, with a corrupted chunk.
+	 *
+	 * @throws Exception
+	 */
+	public void testChunks_2()
+		throws Exception {
+		fixture.openSession(2, "a");
+		fixture.append(2, "a", 0, chunk(3), 10);
+		fixture.commitSession(2, "a");
+		RandomAccessFile raf = new RandomAccessFile(new File(dir, "OP_2_a_0.seg"), "rw");
+		raf.seek(4);
+		raf.write(7);
+		raf.close();
+
+		try{
+			fixture.chunks(2);
+			fail("Expected IOException");
+		}
+		catch(IOException expected){
+		}
+	}
+
+	/**
+	 * Run the void commitSession(int,String) method test, with a chunk that could not be appended.
+	 *
+	 * @throws Exception
+	 */
+	public void testCommitSession_2()
+		throws Exception {
+		fixture.openSession(1, "a");
+		fixture.append(1, "a", 0, chunk(0), 10);
+		fixture.commitSession(1, "a");
+		fixture.openSession(1, "b");
+		fixture.append(1, "b", 0, chunk(5), 10);
+		try{
+			fixture.append(1, "b", 1, chunk(6), 20);
+			fail("Expected IndexOutOfBoundsException");
+		}
+		catch(IndexOutOfBoundsException expected){
+		}
+
+		try{
+			fixture.commitSession(1, "b");
+			fail("Expected IOException");
+		}
+		catch(IOException expected){
+		}
+		assertEquals("a", fixture.getCommittedSession(1));
+		assertEquals(0, fixture.chunks(1).get(0).get(0));
+		assertFalse(new File(dir, "OP_1_b.manifest").exists());
+	}
+
+	/**
+	 * Run the void commitSession(int,String,int,long) method test, with chunks registered and still arriving when the session is closed.
+	 *
+	 * @throws Exception
+	 */
+	public void testCommitSession_3()
+		throws Exception {
+		fixture.openSession(1, "a");
+		fixture.register(1, "a");
+		fixture.append(1, "a", 0, chunk(0), 10);
+		fixture.register(1, "a");
+		Thread late = new Thread(new Runnable(){
+			@Override
+			public void run(){
+				try{
+					Thread.sleep(200);
+					fixture.append(1, "a", 1, chunk(1), 10);
+					Thread.sleep(200);
+					fixture.register(1, "a");
+					fixture.append(1, "a", 2, chunk(2), 10);
+				}
+				catch(Exception e){
+					e.printStackTrace();
+				}
+			}
+		});
+		late.start();
+
+		// The third chunk is not registered yet when the session is closed
+		fixture.commitSession(1, "a", 3, 5000);
+		late.join();
+		List<ByteBuffer> result = fixture.chunks(1);
+
+		assertEquals("a", fixture.getCommittedSession(1));
+		assertEquals(3, result.size());
+		assertEquals(2, result.get(2).get(9));
+	}
+
+	/**
+	 * Run the void commitSession(int,String,int,long) method test, with a chunk that never arrives.
+	 *
+	 * @throws Exception
+	 */
+	public void testCommitSession_4()
+		throws Exception {
+		fixture.openSession(1, "a");
+		fixture.append(1, "a", 0, chunk(0), 10);
+		fixture.commitSession(1, "a");
+		fixture.openSession(1, "b");
+		fixture.append(1, "b", 0, chunk(5), 10);
+
+		try{
+			fixture.commitSession(1, "b", 2, 100);
+			fail("Expected IOException");
+		}
+		catch(IOException expected){
+		}
+		assertEquals("a", fixture.getCommittedSession(1));
+		assertFalse(new File(dir, "OP_1_b.manifest").exists());
+	}
+
+	/**
+	 * Run the CheckpointStore(File,int,long) constructor test, recovering the committed sessions and deleting the other files.
+	 *
+	 * @throws Exception
+	 */
+	public void testCheckpointStore_1()
+		throws Exception {
+		fixture.openSession(1, "a");
+		fixture.append(1, "a", 0, chunk(1), 10);
+		fixture.append(1, "a", 1, chunk(2), 10);
+		fixture.commitSession(1, "a");
+		fixture.openSession(1, "b");
+		fixture.append(1, "b", 0, chunk(3), 10);
+		fixture.close();
+
+		fixture = new CheckpointStore(dir, 16, 10);
+		List<ByteBuffer> result = fixture.chunks(1);
+
+		assertEquals("a", fixture.getCommittedSession(1));
+		assertEquals(2, result.size());
+		assertEquals(2, result.get(1).get(0));
+		long deadline = System.currentTimeMillis() + 5000;
+		while(new File(dir, "OP_1_b_0.seg").exists() && System.currentTimeMillis() < deadline){
+			Thread.sleep(10);
+		}
+		assertFalse(new File(dir, "OP_1_b_0.seg").exists());
+		assertTrue(new File(dir, "OP_1_a_1.seg").exists());
+	}
+
+	/**
+	 * Perform pre-test initialization.
+	 *
+	 * @throws Exception
+	 *         if the initialization fails for some reason
+	 */
+	protected void setUp()
+		throws Exception {
+		super.setUp();
+		dir = new File(System.getProperty("java.io.tmpdir"), "checkpointstoretest"+System.nanoTime());
+		// Segments of 16 bytes, so that each chunk of 10 bytes goes to its own segment
+		fixture = new CheckpointStore(dir, 16, 10);
+	}
+
+	/**
+	 * Perform post-test clean-up.
+	 *
+	 * @throws Exception
+	 *         if the clean-up fails for some reason
+	 */
+	protected void tearDown()
+		throws Exception {
+		super.tearDown();
+		fixture.close();
+		for(File f : dir.listFiles()){
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(CheckpointStoreTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new CheckpointStoreTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
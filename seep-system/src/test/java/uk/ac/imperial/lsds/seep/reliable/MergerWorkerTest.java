@@ -10,16 +10,12 @@
  ******************************************************************************/
 package uk.ac.imperial.lsds.seep.reliable;
 
-import java.net.InetAddress;
-import java.net.URL;
-import uk.ac.imperial.lsds.seep.processingunit.StatefulProcessingUnit;
-import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateChunk;
-import java.net.URLClassLoader;
-import uk.ac.imperial.lsds.seep.infrastructure.WorkerNodeDescription;
-import uk.ac.imperial.lsds.seep.infrastructure.dynamiccodedeployer.RuntimeClassLoader;
-import uk.ac.imperial.lsds.seep.processingunit.IProcessingUnit;
-import uk.ac.imperial.lsds.seep.runtimeengine.CoreRE;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.concurrent.ArrayBlockingQueue;
+
+import uk.ac.imperial.lsds.seep.api.largestateimpls.SeepMap;
+import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateChunk;
 import junit.framework.*;
 
 /**
@@ -30,142 +26,82 @@ import junit.framework.*;
  * @version $Revision: 1.0 $
  */
 public class MergerWorkerTest extends TestCase {
-	/**
-	 * Run the MergerWorker(IProcessingUnit,ArrayBlockingQueue<StateChunk>) constructor test.
-	 *
-	 * @throws Exception
-	 *
-	 * @generatedBy CodePro at 18/10/13 18:59
-	 */
-	public void testMergerWorker_1()
-		throws Exception {
-		IProcessingUnit pu = new StatefulProcessingUnit(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), true);
-		ArrayBlockingQueue<StateChunk> jobQueue = new ArrayBlockingQueue(1);
-
-		MergerWorker result = new MergerWorker(pu, jobQueue);
-
-		// add additional test code here
-		assertNotNull(result);
-	}
 
-	/**
-	 * Run the void run() method test.
-	 *
-	 * @throws Exception
-	 *
-	 * @generatedBy CodePro at 18/10/13 18:59
-	 */
-	public void testRun_1()
-		throws Exception {
-		MergerWorker fixture = new MergerWorker(new StatefulProcessingUnit(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), true), new ArrayBlockingQueue(1));
-
-		fixture.run();
-
-		// add additional test code here
+	static StateChunk chunk(int from, int to){
+		ArrayList<Object> pairs = new ArrayList<Object>();
+		for(int i = from; i < to; i++){
+			pairs.add(i);
+			pairs.add("v"+i);
+		}
+		return new StateChunk(1, 2, 0, 1, new MemoryChunk(pairs), 0);
 	}
 
-	/**
-	 * Run the void run() method test.
-	 *
-	 * @throws Exception
-	 *
-	 * @generatedBy CodePro at 18/10/13 18:59
-	 */
-	public void testRun_2()
-		throws Exception {
-		MergerWorker fixture = new MergerWorker(new StatefulProcessingUnit(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), true), new ArrayBlockingQueue(1));
-
-		fixture.run();
-
-		// add additional test code here
+	static StateChunk last(){
+		StateChunk last = new StateChunk();
+		last.setTotalChunks(-1);
+		return last;
 	}
 
 	/**
-	 * Run the void run() method test.
+	 * Run the MergerWorker(Mergeable<P>,ArrayBlockingQueue<StateChunk>) constructor test.
 	 *
 	 * @throws Exception
-	 *
-	 * @generatedBy CodePro at 18/10/13 18:59
 	 */
-	public void testRun_3()
+	public void testMergerWorker_1()
 		throws Exception {
-		MergerWorker fixture = new MergerWorker(new StatefulProcessingUnit(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), true), new ArrayBlockingQueue(1));
+		ArrayBlockingQueue<StateChunk> jobQueue = new ArrayBlockingQueue<StateChunk>(1);
 
-		fixture.run();
+		MergerWorker<HashMap<Object, Object>> result = new MergerWorker<HashMap<Object, Object>>(new SeepMap<Object, Object>(), jobQueue);
 
-		// add additional test code here
+		assertNotNull(result);
+		assertEquals(0, result.getPartial().size());
 	}
 
 	/**
-	 * Run the void run() method test.
+	 * Run the void run() method test, with the chunks merged in the partial and not in the state.
 	 *
 	 * @throws Exception
-	 *
-	 * @generatedBy CodePro at 18/10/13 18:59
 	 */
-	public void testRun_4()
+	public void testRun_1()
 		throws Exception {
-		MergerWorker fixture = new MergerWorker(new StatefulProcessingUnit(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), true), new ArrayBlockingQueue(1));
+		SeepMap<Object, Object> state = new SeepMap<Object, Object>();
+		ArrayBlockingQueue<StateChunk> jobQueue = new ArrayBlockingQueue<StateChunk>(3);
+		jobQueue.put(chunk(0, 5));
+		jobQueue.put(chunk(5, 10));
+		jobQueue.put(last());
+		MergerWorker<HashMap<Object, Object>> fixture = new MergerWorker<HashMap<Object, Object>>(state, jobQueue);
 
 		fixture.run();
 
-		// add additional test code here
+		assertEquals(10, fixture.getPartial().size());
+		assertEquals("v7", fixture.getPartial().get(7));
+		assertEquals(0, state.size());
 	}
 
 	/**
-	 * Run the void run() method test.
+	 * Run the void run() method test, with a malformed chunk that is skipped.
 	 *
 	 * @throws Exception
-	 *
-	 * @generatedBy CodePro at 18/10/13 18:59
 	 */
-	public void testRun_5()
+	public void testRun_2()
 		throws Exception {
-		MergerWorker fixture = new MergerWorker(new StatefulProcessingUnit(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), true), new ArrayBlockingQueue(1));
+		ArrayBlockingQueue<StateChunk> jobQueue = new ArrayBlockingQueue<StateChunk>(3);
+		ArrayList<Object> odd = new ArrayList<Object>();
+		odd.add(1);
+		jobQueue.put(new StateChunk(1, 2, 0, 1, new MemoryChunk(odd), 0));
+		jobQueue.put(chunk(0, 2));
+		jobQueue.put(last());
+		MergerWorker<HashMap<Object, Object>> fixture = new MergerWorker<HashMap<Object, Object>>(new SeepMap<Object, Object>(), jobQueue);
 
 		fixture.run();
 
-		// add additional test code here
-	}
-
-	/**
-	 * Perform pre-test initialization.
-	 *
-	 * @throws Exception
-	 *         if the initialization fails for some reason
-	 *
-	 * @see TestCase#setUp()
-	 *
-	 * @generatedBy CodePro at 18/10/13 18:59
-	 */
-	protected void setUp()
-		throws Exception {
-		super.setUp();
-		// add additional set up code here
-	}
-
-	/**
-	 * Perform post-test clean-up.
-	 *
-	 * @throws Exception
-	 *         if the clean-up fails for some reason
-	 *
-	 * @see TestCase#tearDown()
-	 *
-	 * @generatedBy CodePro at 18/10/13 18:59
-	 */
-	protected void tearDown()
-		throws Exception {
-		super.tearDown();
-		// Add additional tear down code here
+		assertEquals(2, fixture.getPartial().size());
 	}
 
 	/**
 	 * Launch the test.
 	 *
 	 * @param args the command line arguments
-	 *
-	 * @generatedBy CodePro at 18/10/13 18:59
 	 */
 	public static void main(String[] args) {
 		if (args.length == 0) {
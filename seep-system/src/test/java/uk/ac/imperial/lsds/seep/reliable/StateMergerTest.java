@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.reliable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import uk.ac.imperial.lsds.seep.api.largestateimpls.Component;
+import uk.ac.imperial.lsds.seep.api.largestateimpls.Matrix;
+import uk.ac.imperial.lsds.seep.api.largestateimpls.SeepMap;
+import uk.ac.imperial.lsds.seep.api.largestateimpls.SeepMatrix;
+import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateChunk;
+import junit.framework.*;
+
+/**
+ * The class <code>StateMergerTest</code> contains tests for the class <code>{@link StateMerger}</code>.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class StateMergerTest extends TestCase {
+	/**
+	 * Run the void finish() method test, with the chunks of a SeepMap merged by several threads.
+	 *
+	 * @throws Exception
+	 */
+	public void testFinish_1()
+		throws Exception {
+		SeepMap<Object, Object> state = new SeepMap<Object, Object>();
+		StateMerger<HashMap<Object, Object>> fixture = new StateMerger<HashMap<Object, Object>>(state, 3, 2);
+		for(int i = 0; i < 10; i++){
+			fixture.merge(MergerWorkerTest.chunk(i * 100, (i + 1) * 100));
+		}
+
+		fixture.finish();
+
+		assertEquals(1000, state.size());
+		for(int i = 0; i < 1000; i++){
+			assertEquals("v"+i, state.get(i));
+		}
+	}
+
+	/**
+	 * Run the void finish() method test, with the rows of a SeepMatrix merged by several threads.
+	 *
+	 * @throws Exception
+	 */
+	public void testFinish_2()
+		throws Exception {
+		SeepMatrix state = new SeepMatrix();
+		StateMerger<Matrix> fixture = new StateMerger<Matrix>(state, 2, 2);
+		for(int c = 0; c < 5; c++){
+			ArrayList<Object> pairs = new ArrayList<Object>();
+			for(int tag = c * 10; tag < (c + 1) * 10; tag++){
+				ArrayList<Component> row = new ArrayList<Component>();
+				row.add(new Component(0, tag));
+				pairs.add(tag);
+				pairs.add(row);
+			}
+			fixture.merge(new StateChunk(1, 2, c, 5, new MemoryChunk(pairs), 0));
+		}
+
+		fixture.finish();
+
+		assertEquals(50, state.getSize());
+		for(int tag = 0; tag < 50; tag++){
+			assertEquals(tag, ((ArrayList<Component>)state.getFromBackup(tag)).get(0).value);
+		}
+	}
+
+	/**
+	 * Run the void abort() method test, with the workers stopped before the chunks are installed.
+	 *
+	 * @throws Exception
+	 */
+	public void testAbort_1()
+		throws Exception {
+		SeepMap<Object, Object> state = new SeepMap<Object, Object>();
+		StateMerger<HashMap<Object, Object>> fixture = new StateMerger<HashMap<Object, Object>>(state, 2, 2);
+		fixture.merge(MergerWorkerTest.chunk(0, 100));
+
+		fixture.abort();
+
+		assertEquals(0, state.size());
+		for(Thread t : Thread.getAllStackTraces().keySet()){
+			assertFalse(t.getName().startsWith("mergerT-") && t.isAlive());
+		}
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(StateMergerTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new StateMergerTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.runtimeengine;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.imperial.lsds.seep.buffer.Buffer;
+import uk.ac.imperial.lsds.seep.comm.LocalDataConnection;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import junit.framework.*;
+
+/**
+ * The class <code>LocalCommunicationChannelTest</code> contains tests for the class <code>{@link LocalCommunicationChannel}</code>.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class LocalCommunicationChannelTest extends TestCase {
+
+	private BlockingQueue<BatchTuplePayload> delivered;
+	private LocalCommunicationChannel fixture;
+
+	/**
+	 * Run the void close() method test, which stops the delivery thread started by the first batch.
+	 *
+	 * @throws Exception
+	 */
+	public void testClose_1()
+		throws Exception {
+		fixture.deliver(newBatch());
+		assertNotNull(delivered.poll(5, TimeUnit.SECONDS));
+		Thread deliveryThread = findThread("localDeliveryT-7");
+		assertNotNull(deliveryThread);
+
+		fixture.close();
+
+		assertFalse(deliveryThread.isAlive());
+		// Batches of a closed channel are dropped, no thread is started again
+		fixture.deliver(newBatch());
+		assertNull(delivered.poll(100, TimeUnit.MILLISECONDS));
+		assertNull(findThread("localDeliveryT-7"));
+	}
+
+	/**
+	 * Run the void close() method test on a channel that never delivered a batch.
+	 *
+	 * @throws Exception
+	 */
+	public void testClose_2()
+		throws Exception {
+		fixture.close();
+
+		fixture.deliver(newBatch());
+		assertNull(findThread("localDeliveryT-7"));
+		assertTrue(delivered.isEmpty());
+	}
+
+	private BatchTuplePayload newBatch(){
+		BatchTuplePayload batch = new BatchTuplePayload();
+		batch.batch = new ArrayList<TuplePayload>();
+		return batch;
+	}
+
+	private Thread findThread(String name){
+		for(Thread t : Thread.getAllStackTraces().keySet()){
+			if(t.getName().equals(name) && t.isAlive()){
+				return t;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Perform pre-test initialization.
+	 *
+	 * @throws Exception
+	 *         if the initialization fails for some reason
+	 */
+	protected void setUp()
+		throws Exception {
+		super.setUp();
+		delivered = new ArrayBlockingQueue<BatchTuplePayload>(10);
+		LocalDataConnection target = new LocalDataConnection(null, 1, null, null){
+			@Override
+			public void deliver(BatchTuplePayload batchTuplePayload){
+				delivered.add(batchTuplePayload);
+			}
+		};
+		fixture = new LocalCommunicationChannel(7, null, new Buffer(), target);
+	}
+
+	/**
+	 * Perform post-test clean-up.
+	 *
+	 * @throws Exception
+	 *         if the clean-up fails for some reason
+	 */
+	protected void tearDown()
+		throws Exception {
+		super.tearDown();
+		fixture.close();
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(LocalCommunicationChannelTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new LocalCommunicationChannelTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.runtimeengine;
+
+import junit.framework.*;
+
+/**
+ * The class <code>ReplayerTest</code> contains tests for the class <code>{@link Replayer}</code>.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class ReplayerTest extends TestCase {
+	/**
+	 * Run the long pause(long,long,long) method test, with the replay going faster than the limit.
+	 *
+	 * @throws Exception
+	 */
+	public void testPause_1()
+		throws Exception {
+
+		// 1MB at 1MB/s should take 1000 ms
+		assertEquals(750, Replayer.pause(1048576, 250, 1048576));
+		assertEquals(0, Replayer.pause(1048576, 1000, 1048576));
+		assertEquals(0, Replayer.pause(1048576, 1500, 1048576));
+	}
+
+	/**
+	 * Run the long pause(long,long,long) method test, without limit.
+	 *
+	 * @throws Exception
+	 */
+	public void testPause_2()
+		throws Exception {
+
+		assertEquals(0, Replayer.pause(Long.MAX_VALUE / 1000, 0, 0));
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(ReplayerTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new ReplayerTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
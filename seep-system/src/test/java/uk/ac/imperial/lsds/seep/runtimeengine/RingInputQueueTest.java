@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.runtimeengine;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.runtimeengine.RingInputQueue.WaitStrategy;
+import junit.framework.*;
+
+/**
+ * The class <code>RingInputQueueTest</code> contains tests for the class <code>{@link RingInputQueue}</code>.
+ *
+ * @author rc3011
+ * @version $Revision: 1.0 $
+ */
+public class RingInputQueueTest extends TestCase {
+	/**
+	 * Run the RingInputQueue(int,WaitStrategy) constructor test.
+	 *
+	 * @throws Exception
+	 */
+	public void testRingInputQueue_1()
+		throws Exception {
+
+		RingInputQueue result = new RingInputQueue(100, WaitStrategy.PARK);
+
+		assertEquals(128, result.capacity());
+		assertEquals(0, result.size());
+	}
+
+	/**
+	 * Run the boolean pushOrShed(DataTuple) method test, with the queue full.
+	 *
+	 * @throws Exception
+	 */
+	public void testPushOrShed_1()
+		throws Exception {
+		RingInputQueue fixture = new RingInputQueue(4, WaitStrategy.PARK);
+		DataTuple first = new DataTuple();
+		fixture.push(first);
+		for(int i = 1; i < 4; i++){
+			assertTrue(fixture.pushOrShed(new DataTuple()));
+		}
+
+		assertFalse(fixture.pushOrShed(new DataTuple()));
+		assertSame(first, fixture.pull());
+		assertTrue(fixture.pushOrShed(new DataTuple()));
+		assertEquals(4, fixture.size());
+	}
+
+	/**
+	 * Run the int drainTo(Collection<DataTuple>,int) method test.
+	 *
+	 * @throws Exception
+	 */
+	public void testDrainTo_1()
+		throws Exception {
+		RingInputQueue fixture = new RingInputQueue(8, WaitStrategy.SPIN);
+		DataTuple[] pushed = new DataTuple[5];
+		for(int i = 0; i < pushed.length; i++){
+			pushed[i] = new DataTuple();
+			fixture.push(pushed[i]);
+		}
+		ArrayList<DataTuple> batch = new ArrayList<DataTuple>();
+
+		assertEquals(3, fixture.drainTo(batch, 3));
+		assertEquals(2, fixture.drainTo(batch, 10));
+
+		for(int i = 0; i < pushed.length; i++){
+			assertSame(pushed[i], batch.get(i));
+		}
+		assertEquals(0, fixture.size());
+	}
+
+	/**
+	 * Run the void push(DataTuple) method test with several producers on a small queue, so that they wait for the consumer.
+	 *
+	 * @throws Exception
+	 */
+	public void testPush_1()
+		throws Exception {
+		final RingInputQueue fixture = new RingInputQueue(16, WaitStrategy.PARK);
+		final int producers = 4;
+		final int perProducer = 5000;
+		Thread[] threads = new Thread[producers];
+		for(int p = 0; p < producers; p++){
+			threads[p] = new Thread(new Runnable(){
+				public void run(){
+					for(int i = 0; i < perProducer; i++){
+						fixture.push(new DataTuple());
+					}
+				}
+			});
+			threads[p].start();
+		}
+
+		Set<DataTuple> received = new HashSet<DataTuple>();
+		ArrayList<DataTuple> batch = new ArrayList<DataTuple>();
+		while(received.size() < producers * perProducer){
+			fixture.drainTo(batch, 64);
+			received.addAll(batch);
+			batch.clear();
+		}
+		for(Thread t : threads){
+			t.join();
+		}
+
+		assertEquals(producers * perProducer, received.size());
+		assertEquals(0, fixture.size());
+	}
+
+	/**
+	 * Launch the test.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			// Run all of the tests
+			junit.textui.TestRunner.run(RingInputQueueTest.class);
+		} else {
+			// Run only the named tests
+			TestSuite suite = new TestSuite("Selected tests");
+			for (int i = 0; i < args.length; i++) {
+				TestCase test = new RingInputQueueTest();
+				test.setName(args[i]);
+				suite.addTest(test);
+			}
+			junit.textui.TestRunner.run(suite);
+		}
+	}
+}
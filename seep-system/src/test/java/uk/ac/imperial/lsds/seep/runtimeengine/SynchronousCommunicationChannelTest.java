@@ -206,6 +206,124 @@ public class SynchronousCommunicationChannelTest extends TestCase {
 		//       at uk.ac.imperial.lsds.seep.runtimeengine.SynchronousCommunicationChannel.<init>(SynchronousCommunicationChannel.java:53)
 	}
 
+	/**
+	 * Run the void batchSent(long) method test. The new batch must get a positive limit again.
+	 *
+	 * @throws Exception
+	 */
+	public void testBatchSent_1()
+		throws Exception {
+		SynchronousCommunicationChannel fixture = new SynchronousCommunicationChannel(1, null, new Socket(), new Socket(), new Buffer());
+		while(fixture.getChannelBatchSize() > 0){
+			fixture.addDataToBatch(new TuplePayload());
+		}
+		assertTrue(fixture.isBatchReady(System.currentTimeMillis()));
+
+		fixture.batchSent(100L);
+
+		assertEquals(0, fixture.getBatch().size());
+		assertTrue(fixture.getChannelBatchSize() >= 1);
+		assertFalse(fixture.isBatchReady(System.currentTimeMillis()));
+	}
+
+	/**
+	 * Run the void batchSent(long) method test after a burst. More than one tuple per millisecond must be counted in the next limit.
+	 *
+	 * @throws Exception
+	 */
+	public void testBatchSent_2()
+		throws Exception {
+		SynchronousCommunicationChannel fixture = new SynchronousCommunicationChannel(1, null, new Socket(), new Socket(), new Buffer());
+		for(int i = 0; i < 2000; i++){
+			fixture.addDataToBatch(new TuplePayload());
+		}
+		Thread.sleep(fixture.getMaxLatencyAllowed() + 10);
+		fixture.addDataToBatch(new TuplePayload());
+
+		fixture.batchSent(0L);
+
+		assertEquals(SynchronousCommunicationChannel.isAdaptiveBatching(), fixture.getChannelBatchSize() > fixture.getMaxLatencyAllowed());
+	}
+
+	/**
+	 * Run the boolean isBatchStale(long) method test.
+	 *
+	 * @throws Exception
+	 */
+	public void testIsBatchStale_1()
+		throws Exception {
+		SynchronousCommunicationChannel fixture = new SynchronousCommunicationChannel(1, null, new Socket(), new Socket(), new Buffer());
+		long now = System.currentTimeMillis();
+
+		assertFalse(fixture.isBatchStale(now + fixture.getMaxLatencyAllowed()));
+		fixture.addDataToBatch(new TuplePayload());
+
+		assertFalse(fixture.isBatchStale(now - 1));
+		assertEquals(SynchronousCommunicationChannel.isAdaptiveBatching(), fixture.isBatchStale(now + fixture.getMaxLatencyAllowed()));
+	}
+
+	/**
+	 * Run the boolean awaitCredit(long) method test, with credits granted while waiting.
+	 *
+	 * @throws Exception
+	 */
+	public void testAwaitCredit_1()
+		throws Exception {
+		final SynchronousCommunicationChannel fixture = new SynchronousCommunicationChannel(1, null, new Socket(), new Socket(), new Buffer());
+		while(fixture.tryAcquireCredit()){
+		}
+		assertEquals(0, fixture.getCredits());
+		assertFalse(fixture.awaitCredit(10L));
+
+		new Thread(new Runnable(){
+			public void run(){
+				fixture.addCredits(2);
+			}
+		}).start();
+
+		assertTrue(fixture.awaitCredit(2000L));
+		assertEquals(1, fixture.getCredits());
+		fixture.addCredits(SynchronousCommunicationChannel.getCreditWindow() + 5);
+		assertEquals(SynchronousCommunicationChannel.getCreditWindow(), fixture.getCredits());
+	}
+
+	/**
+	 * Run the void resetCredits() method test, which must also wake a sender waiting for credits.
+	 *
+	 * @throws Exception
+	 */
+	public void testResetCredits_1()
+		throws Exception {
+		final SynchronousCommunicationChannel fixture = new SynchronousCommunicationChannel(1, null, new Socket(), new Socket(), new Buffer());
+		while(fixture.tryAcquireCredit()){
+		}
+
+		new Thread(new Runnable(){
+			public void run(){
+				fixture.resetCredits();
+			}
+		}).start();
+
+		assertTrue(fixture.awaitCredit(2000L));
+		assertEquals(SynchronousCommunicationChannel.getCreditWindow() - 1, fixture.getCredits());
+	}
+
+	/**
+	 * Run the int tryAcquireCredits(int) method test.
+	 *
+	 * @throws Exception
+	 */
+	public void testTryAcquireCredits_1()
+		throws Exception {
+		SynchronousCommunicationChannel fixture = new SynchronousCommunicationChannel(1, null, new Socket(), new Socket(), new Buffer());
+		int window = SynchronousCommunicationChannel.getCreditWindow();
+
+		assertEquals(window - 1, fixture.tryAcquireCredits(window - 1));
+		assertEquals(1, fixture.tryAcquireCredits(5));
+		assertEquals(0, fixture.tryAcquireCredits(5));
+		assertEquals(0, fixture.getCredits());
+	}
+
 	/**
 	 * Run the BatchTuplePayload getBatch() method test.
 	 *
@@ -12,6 +12,11 @@ package uk.ac.imperial.lsds.seep.runtimeengine;
 
 import java.util.Iterator;
 import java.util.Map;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
 import junit.framework.*;
 
 /**
@@ -362,6 +367,89 @@ public class TimestampTrackerTest extends TestCase {
 		assertEquals("", result);
 	}
 
+	/**
+	 * Run the TimestampTracker returnSmaller(TimestampTracker,TimestampTracker) method test, with the streams set.
+	 *
+	 * @throws Exception
+	 */
+	public void testReturnSmaller_7()
+		throws Exception {
+		TimestampTracker a = new TimestampTracker();
+		TimestampTracker b = new TimestampTracker();
+		a.set(1001, 10L);
+		a.set(1002, 25L);
+		b.set(1001, 15L);
+		b.set(1002, 20L);
+
+		TimestampTracker result = TimestampTracker.returnSmaller(a, b);
+
+		assertEquals(10L, result.get(1001));
+		assertEquals(20L, result.get(1002));
+		// Different streams cannot be compared
+		b.set(1003, 5L);
+		assertNull(TimestampTracker.returnSmaller(a, b));
+	}
+
+	/**
+	 * Run the boolean isSmallerOrEqual(TimestampTracker,TimestampTracker) method test, with the streams set.
+	 *
+	 * @throws Exception
+	 */
+	public void testIsSmallerOrEqual_7()
+		throws Exception {
+		TimestampTracker a = new TimestampTracker();
+		TimestampTracker b = new TimestampTracker();
+		a.set(1001, 10L);
+		a.set(1002, 20L);
+		b.set(1001, 10L);
+		b.set(1002, 25L);
+
+		assertTrue(TimestampTracker.isSmallerOrEqual(a, b));
+		assertFalse(TimestampTracker.isSmallerOrEqual(b, a));
+	}
+
+	/**
+	 * Run the void snapshot(long[],int,int) method test, with the snapshot not following later updates.
+	 *
+	 * @throws Exception
+	 */
+	public void testSnapshot_1()
+		throws Exception {
+		TimestampTracker fixture = new TimestampTracker();
+		fixture.set(1001, 10L);
+		int width = TimestampTracker.width();
+		long[] snapshot = new long[width + 2];
+
+		fixture.snapshot(snapshot, 2, width);
+		fixture.set(1001, 11L);
+		TimestampTracker result = new TimestampTracker(snapshot, 2, width);
+
+		assertEquals(10L, result.get(1001));
+		assertEquals(11L, fixture.get(1001));
+		assertEquals(1001, TimestampTracker.streamAt(TimestampTracker.indexOf(1001)));
+	}
+
+	/**
+	 * Run the void write(Kryo,Output) method test, with the tracker read back.
+	 *
+	 * @throws Exception
+	 */
+	public void testWrite_1()
+		throws Exception {
+		TimestampTracker fixture = new TimestampTracker();
+		fixture.set(1001, 10L);
+		fixture.set(1004, 40L);
+		Kryo k = new Kryo();
+		Output output = new Output(64);
+
+		k.writeObject(output, fixture);
+		TimestampTracker result = k.readObject(new Input(output.toBytes()), TimestampTracker.class);
+
+		assertEquals(10L, result.get(1001));
+		assertEquals(40L, result.get(1004));
+		assertEquals(fixture.toString(), result.toString());
+	}
+
 	/**
 	 * Perform pre-test initialization.
 	 *